@@ -38,4 +38,25 @@ public interface Algo
 	 * @param listener an algorithm listener stored within this algorithm.
 	 */
 	public void removeAlgoListener(AlgoListener listener);
+
+	/**
+	 * Requests the cancellation of this algorithm. The algorithm stops at the
+	 * next cancellation check, and usually returns a null result. The default
+	 * implementation does nothing.
+	 */
+	public default void cancel()
+	{
+	}
+
+	/**
+	 * Checks whether the cancellation of this algorithm was requested. The
+	 * default implementation only checks the interruption status of the
+	 * current thread.
+	 * 
+	 * @return true if the algorithm should stop as soon as possible
+	 */
+	public default boolean isCancelled()
+	{
+		return Thread.currentThread().isInterrupted();
+	}
 }
@@ -0,0 +1,280 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.algo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Records the wall time and the number of processed elements (pixels or
+ * voxels) of the successive stages of one or several algorithms. The
+ * recorded metrics can be exported as a ResultsTable or as a JSON string,
+ * making it possible to identify the slowest stages of batch processing.
+ * 
+ * <pre><code>
+ * AlgoMetrics.Stage stage = metrics.startStage("Flooding");
+ * // ... process the image
+ * stage.stop(sizeX * sizeY * sizeZ);
+ * ResultsTable table = metrics.createTable();
+ * </code></pre>
+ * 
+ * @see AlgoStub#getMetrics()
+ * 
+ * @author dlegland
+ */
+public class AlgoMetrics
+{
+	// ===================================================================
+	// Inner class
+
+	/**
+	 * A processing stage, identified by its name.
+	 */
+	public class Stage
+	{
+		String name;
+		long startTime;
+		long elapsedTime = -1;
+		long elementCount = 0;
+
+		Stage(String name)
+		{
+			this.name = name;
+			this.startTime = System.nanoTime();
+		}
+
+		/**
+		 * Stops the timer of this stage, and records the number of processed
+		 * elements.
+		 * 
+		 * @param elementCount
+		 *            the number of elements (pixels, voxels...) processed
+		 *            during this stage
+		 */
+		public void stop(long elementCount)
+		{
+			this.elapsedTime = System.nanoTime() - this.startTime;
+			this.elementCount = elementCount;
+		}
+
+		/**
+		 * @return the name of this stage
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return true if this stage was started but not stopped yet
+		 */
+		public boolean isRunning()
+		{
+			return elapsedTime < 0;
+		}
+
+		/**
+		 * @return the wall time of this stage, in seconds. If the stage is
+		 *         still running, returns the time elapsed since its start.
+		 */
+		public double getElapsedTime()
+		{
+			long time = isRunning() ? System.nanoTime() - startTime : elapsedTime;
+			return time * 1e-9;
+		}
+
+		/**
+		 * @return the number of elements processed during this stage
+		 */
+		public long getElementCount()
+		{
+			return elementCount;
+		}
+
+		/**
+		 * @return the number of elements processed per second, or 0 if the
+		 *         elapsed time is zero
+		 */
+		public double getThroughput()
+		{
+			double time = getElapsedTime();
+			return time > 0 ? elementCount / time : 0;
+		}
+	}
+
+
+	// ===================================================================
+	// Class variables
+
+	private ArrayList<Stage> stages = new ArrayList<Stage>();
+
+
+	// ===================================================================
+	// Constructor
+
+	/**
+	 * Creates a new empty set of metrics.
+	 */
+	public AlgoMetrics()
+	{
+	}
+
+
+	// ===================================================================
+	// Management of stages
+
+	/**
+	 * Starts a new stage. The stage has to be stopped by calling its
+	 * <code>stop</code> method.
+	 * 
+	 * @param name
+	 *            the name of the stage
+	 * @return the new stage
+	 */
+	public synchronized Stage startStage(String name)
+	{
+		Stage stage = new Stage(name);
+		this.stages.add(stage);
+		return stage;
+	}
+
+	/**
+	 * Appends the stages of another metrics instance to this one, for
+	 * example to collect the metrics of the algorithms of a pipeline.
+	 * 
+	 * @param metrics
+	 *            the metrics to append
+	 */
+	public void addAll(AlgoMetrics metrics)
+	{
+		List<Stage> newStages = metrics.getStages();
+		synchronized (this)
+		{
+			this.stages.addAll(newStages);
+		}
+	}
+
+	/**
+	 * @return a copy of the list of recorded stages
+	 */
+	public synchronized List<Stage> getStages()
+	{
+		return new ArrayList<Stage>(this.stages);
+	}
+
+	/**
+	 * Removes all the recorded stages.
+	 */
+	public synchronized void clear()
+	{
+		this.stages.clear();
+	}
+
+	/**
+	 * @return the sum of the elapsed times of the stages, in seconds
+	 */
+	public double getTotalTime()
+	{
+		double total = 0;
+		for (Stage stage : getStages())
+		{
+			total += stage.getElapsedTime();
+		}
+		return total;
+	}
+
+
+	// ===================================================================
+	// Export
+
+	/**
+	 * Creates a new ResultsTable with one row per stage. The columns contain
+	 * the elapsed time (in seconds), the number of processed elements, and
+	 * the throughput (in elements per second).
+	 * 
+	 * @return a new ResultsTable summarizing the stages
+	 */
+	public ResultsTable createTable()
+	{
+		ResultsTable table = new ResultsTable();
+		for (Stage stage : getStages())
+		{
+			table.incrementCounter();
+			table.addLabel(stage.getName());
+			table.addValue("Time", stage.getElapsedTime());
+			table.addValue("Elements", stage.getElementCount());
+			table.addValue("Throughput", stage.getThroughput());
+		}
+		return table;
+	}
+
+	/**
+	 * Converts the stages into a JSON array of objects, each object
+	 * containing the name, the elapsed time (in seconds), the number of
+	 * processed elements, and the throughput of a stage.
+	 * 
+	 * @return a JSON representation of the stages
+	 */
+	public String toJson()
+	{
+		StringBuilder sb = new StringBuilder("[");
+		List<Stage> stages = getStages();
+		for (int i = 0; i < stages.size(); i++)
+		{
+			Stage stage = stages.get(i);
+			if (i > 0)
+			{
+				sb.append(",");
+			}
+			sb.append(String.format(Locale.ENGLISH,
+					"\n  {\"name\": \"%s\", \"time\": %g, \"elements\": %d, \"throughput\": %g}",
+					escape(stage.getName()), stage.getElapsedTime(),
+					stage.getElementCount(), stage.getThroughput()));
+		}
+		sb.append(stages.isEmpty() ? "]" : "\n]");
+		return sb.toString();
+	}
+
+	private static String escape(String string)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (char c : string.toCharArray())
+		{
+			if (c == '"' || c == '\\')
+			{
+				sb.append('\\').append(c);
+			}
+			else if (c < 0x20)
+			{
+				sb.append(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -21,19 +21,45 @@
  */
 package inra.ijpb.algo;
 
-import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * A minimal implementation of algorithm for managing progression listeners.
+ * A minimal implementation of algorithm for managing progression listeners,
+ * cancellation requests, and timing metrics.
+ * 
+ * <p>
+ * Progress events are delivered to listeners at most once per progress
+ * interval (20 milliseconds by default), avoiding the creation of an event
+ * for each row or slice of large images. The final progress event, with step
+ * equal to total, is always delivered.
  * 
  * @author David Legland
  */
 public class AlgoStub implements Algo
 {
+	// ===================================================================
+	// Constants
+	
+	/**
+	 * The default minimum time between two progress events, in milliseconds.
+	 */
+	public static final long DEFAULT_PROGRESS_INTERVAL = 20;
+	
+	
 	// ===================================================================
 	// Class variables
 	
-	private ArrayList<AlgoListener> algoListeners = new ArrayList<AlgoListener>();
+	private CopyOnWriteArrayList<AlgoListener> algoListeners = new CopyOnWriteArrayList<AlgoListener>();
+
+	private CancellationToken cancellationToken = new CancellationToken();
+	
+	private long progressInterval = DEFAULT_PROGRESS_INTERVAL * 1000000L;
+	
+	private volatile long lastProgressTime;
+	
+	private volatile boolean progressFired = false;
+	
+	private AlgoMetrics metrics = new AlgoMetrics();
 
 
 	// ===================================================================
@@ -52,6 +78,104 @@ public class AlgoStub implements Algo
 	}
 
 	
+	/**
+	 * Changes the minimum time between two progress events. Progress events
+	 * occurring within this interval are not delivered, except the final one.
+	 * 
+	 * @param millis
+	 *            the minimum time between two progress events, in
+	 *            milliseconds. Use 0 to deliver all progress events.
+	 */
+	public void setProgressInterval(long millis)
+	{
+		this.progressInterval = millis * 1000000L;
+	}
+
+	/**
+	 * @return the minimum time between two progress events, in milliseconds
+	 */
+	public long getProgressInterval()
+	{
+		return this.progressInterval / 1000000L;
+	}
+	
+	
+	// ===================================================================
+	// Cancellation
+	
+	/**
+	 * Changes the token used for checking cancellation requests. Sharing the
+	 * same token between several algorithms makes it possible to cancel
+	 * them all at once.
+	 * 
+	 * @param token
+	 *            the new cancellation token
+	 */
+	public void setCancellationToken(CancellationToken token)
+	{
+		if (token == null)
+		{
+			throw new IllegalArgumentException("Cancellation token must not be null");
+		}
+		this.cancellationToken = token;
+	}
+	
+	/**
+	 * @return the token used for checking cancellation requests
+	 */
+	public CancellationToken getCancellationToken()
+	{
+		return this.cancellationToken;
+	}
+	
+	@Override
+	public void cancel()
+	{
+		this.cancellationToken.cancel();
+	}
+	
+	/**
+	 * Returns true if the cancellation token was cancelled, or if the current
+	 * thread was interrupted. Algorithms should check this method at regular
+	 * steps of their processing, and return as soon as possible when it
+	 * returns true.
+	 */
+	@Override
+	public boolean isCancelled()
+	{
+		return this.cancellationToken.isCancelled() || Thread.currentThread().isInterrupted();
+	}
+	
+	
+	// ===================================================================
+	// Metrics
+	
+	/**
+	 * Returns the metrics of the stages processed by this algorithm. The
+	 * metrics are accumulated over successive runs, and can be reset by
+	 * calling their <code>clear</code> method.
+	 * 
+	 * @return the metrics of this algorithm
+	 */
+	public AlgoMetrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
+	/**
+	 * Starts a new stage within the metrics of this algorithm.
+	 * 
+	 * @param name
+	 *            the name of the stage
+	 * @return the new stage, that has to be stopped at the end of the
+	 *         processing
+	 */
+	protected AlgoMetrics.Stage startStage(String name)
+	{
+		return this.metrics.startStage(name);
+	}
+	
+	
 	// ===================================================================
 	// fire events
 	
@@ -59,6 +183,18 @@ public class AlgoStub implements Algo
 	{
 		if (!this.algoListeners.isEmpty()) 
 		{
+			// skip intermediate events occurring too soon after the previous one
+			if (step < total && this.progressInterval > 0)
+			{
+				long time = System.nanoTime();
+				if (this.progressFired && time - this.lastProgressTime < this.progressInterval)
+				{
+					return;
+				}
+				this.lastProgressTime = time;
+				this.progressFired = true;
+			}
+			
 			AlgoEvent evt = new AlgoEvent(source, step, total);
 			for (AlgoListener listener : this.algoListeners)
 			{
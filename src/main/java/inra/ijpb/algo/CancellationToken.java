@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.algo;
+
+/**
+ * A flag used to request the cooperative cancellation of one or several
+ * algorithms. Algorithms check the token at regular steps of their
+ * processing, and return as soon as possible once the token has been
+ * cancelled.
+ * 
+ * <p>
+ * The same token can be shared by several algorithms, making it possible to
+ * cancel all the stages of a processing pipeline at once.
+ * 
+ * <pre><code>
+ * CancellationToken token = new CancellationToken();
+ * algo.setCancellationToken(token);
+ * // from another thread, for example a "Cancel" button:
+ * token.cancel();
+ * </code></pre>
+ * 
+ * @see AlgoStub#isCancelled()
+ * 
+ * @author dlegland
+ */
+public class CancellationToken
+{
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Creates a new token, in the non-cancelled state.
+	 */
+	public CancellationToken()
+	{
+	}
+
+	/**
+	 * Requests the cancellation of the algorithms using this token.
+	 */
+	public void cancel()
+	{
+		this.cancelled = true;
+	}
+
+	/**
+	 * @return true if the cancellation has been requested
+	 */
+	public boolean isCancelled()
+	{
+		return this.cancelled;
+	}
+}
@@ -0,0 +1,521 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.measure.ResultsTable;
+import inra.ijpb.algo.AlgoMetrics;
+import inra.ijpb.algo.AlgoStub;
+
+/**
+ * <p>
+ * Headless processing pipeline, that applies a sequence of steps to each
+ * image of a collection.
+ * </p>
+ * 
+ * <p>
+ * The steps form a directed acyclic graph: each step has a name, an
+ * operation, and the names of the steps whose results are used as inputs of
+ * the operation. The input image is referred to by the name
+ * {@link #INPUT}. As a step can only depend on steps added before it, the
+ * order of addition is a valid processing order. When processing collections
+ * of images, the intermediate results are released as soon as they are not
+ * used anymore.
+ * </p>
+ * 
+ * <p>
+ * Images are processed concurrently by a fixed number of threads. Before
+ * opening an image, the pipeline waits until the estimated memory of the
+ * images being processed leaves enough room for the new image. The memory
+ * required by an image is estimated as its size multiplied by a memory
+ * factor, that accounts for the intermediate results. The tables computed by
+ * the steps declared as table outputs are sent to a listener as soon as each
+ * image is processed.
+ * </p>
+ * 
+ * Example of use:
+ * <pre><code>
+ * BatchPipeline pipeline = new BatchPipeline();
+ * pipeline.addStep("binary", BatchSteps.binarize());
+ * pipeline.addStep("labels", BatchSteps.componentsLabeling(6, 16), "binary");
+ * pipeline.addStep("filtered", BatchSteps.sizeOpening(100), "labels");
+ * pipeline.addStep("morpho", BatchSteps.analyzeRegions(new IntrinsicVolumesAnalyzer3D()), "filtered");
+ * pipeline.addTableOutput("morpho");
+ * 
+ * List&lt;ImageSource&gt; sources = new ArrayList&lt;ImageSource&gt;();
+ * for (File file : directory.listFiles())
+ *     sources.add(ImageSource.fromFile(file));
+ * 
+ * TableCollector collector = new TableCollector();
+ * BatchPipeline.Result res = pipeline.processAll(sources, collector);
+ * ResultsTable table = collector.getTable("morpho");
+ * </code></pre>
+ * 
+ * @see BatchSteps
+ * @see ImageSource
+ * @see TableCollector
+ * 
+ * @author dlegland
+ */
+public class BatchPipeline extends AlgoStub
+{
+	// ==================================================
+	// Constants
+
+	/** The name used to refer to the input image of the pipeline. */
+	public static final String INPUT = "input";
+
+
+	// ==================================================
+	// Inner classes
+
+	/**
+	 * A step of the pipeline.
+	 */
+	class Step
+	{
+		String name;
+		PipelineOperation operation;
+		String[] inputs;
+
+		Step(String name, PipelineOperation operation, String[] inputs)
+		{
+			this.name = name;
+			this.operation = operation;
+			this.inputs = inputs;
+		}
+	}
+
+	/**
+	 * Summarizes the processing of a collection of images.
+	 */
+	public class Result
+	{
+		/** The names of the images processed successfully. */
+		public List<String> processedImages = Collections.synchronizedList(new ArrayList<String>());
+
+		/** The errors that occurred, indexed by image name. */
+		public Map<String, Throwable> failures = Collections.synchronizedMap(new LinkedHashMap<String, Throwable>());
+
+		/** True if the processing was cancelled before all images were processed. */
+		public boolean cancelled = false;
+	}
+
+
+	// ==================================================
+	// Class variables
+
+	/** The steps of the pipeline, in processing order. */
+	Map<String, Step> steps = new LinkedHashMap<String, Step>();
+
+	/** The names of the steps whose results are sent to table listeners. */
+	LinkedHashSet<String> tableOutputs = new LinkedHashSet<String>();
+
+	/** The number of images processed concurrently. */
+	int nThreads = Prefs.getThreads();
+
+	/** The maximum number of bytes used by the images being processed. */
+	long memoryLimit = Runtime.getRuntime().maxMemory() / 2;
+
+	/** The ratio between the memory required by the processing of an image and its size. */
+	double memoryFactor = 4.0;
+
+	/** The estimated number of bytes used by the images being processed. */
+	long usedMemory = 0;
+
+	/** The lock used for sending tables to the listener from one thread at a time. */
+	private final Object listenerLock = new Object();
+
+
+	// ==================================================
+	// Constructor
+
+	/**
+	 * Creates a new empty pipeline.
+	 */
+	public BatchPipeline()
+	{
+	}
+
+
+	// ==================================================
+	// Definition of the pipeline
+
+	/**
+	 * Adds a new step to the pipeline.
+	 * 
+	 * @param name
+	 *            the name of the step, that must be unique
+	 * @param operation
+	 *            the operation computed by the step
+	 * @param inputs
+	 *            the names of the steps whose results are used as inputs of
+	 *            the operation. If no input is specified, the operation is
+	 *            applied to the input image.
+	 * @return this pipeline, to chain the definition of steps
+	 * @throws IllegalArgumentException
+	 *             if the name is already used, or if an input does not
+	 *             correspond to a previous step
+	 */
+	public BatchPipeline addStep(String name, PipelineOperation operation, String... inputs)
+	{
+		if (name.equals(INPUT) || this.steps.containsKey(name))
+		{
+			throw new IllegalArgumentException("The pipeline already contains a step named: " + name);
+		}
+		if (inputs.length == 0)
+		{
+			inputs = new String[] {INPUT};
+		}
+		for (String input : inputs)
+		{
+			if (!input.equals(INPUT) && !this.steps.containsKey(input))
+			{
+				throw new IllegalArgumentException("Unknown input step: " + input);
+			}
+		}
+		this.steps.put(name, new Step(name, operation, inputs));
+		return this;
+	}
+
+	/**
+	 * Declares that the result of the specified step is a ResultsTable that
+	 * must be sent to the table listener.
+	 * 
+	 * @param stepName
+	 *            the name of a step computing a ResultsTable
+	 * @return this pipeline
+	 */
+	public BatchPipeline addTableOutput(String stepName)
+	{
+		if (!this.steps.containsKey(stepName))
+		{
+			throw new IllegalArgumentException("Unknown step: " + stepName);
+		}
+		this.tableOutputs.add(stepName);
+		return this;
+	}
+
+	/**
+	 * Changes the number of images processed concurrently.
+	 * 
+	 * @param nThreads
+	 *            the number of threads used for processing images
+	 */
+	public void setThreadNumber(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	/**
+	 * Changes the maximum amount of memory used by the images being
+	 * processed. An image is always processed when no other image is being
+	 * processed, even if its estimated memory exceeds the limit.
+	 * 
+	 * @param bytes
+	 *            the maximum number of bytes
+	 */
+	public void setMemoryLimit(long bytes)
+	{
+		this.memoryLimit = bytes;
+	}
+
+	/**
+	 * Changes the ratio between the memory required for processing an image
+	 * and the size of the image.
+	 * 
+	 * @param factor
+	 *            the memory factor
+	 */
+	public void setMemoryFactor(double factor)
+	{
+		this.memoryFactor = factor;
+	}
+
+
+	// ==================================================
+	// Processing
+
+	/**
+	 * Applies the pipeline to a single image, and returns the results of all
+	 * the steps.
+	 * 
+	 * @param image
+	 *            the image to process
+	 * @return the results of the steps, indexed by step name, or null if the
+	 *         processing was cancelled
+	 */
+	public Map<String, Object> process(ImagePlus image)
+	{
+		return process(image, image.getTitle(), true);
+	}
+
+	/**
+	 * Applies the pipeline to each image of a collection, using several
+	 * threads. The tables computed by the table outputs are sent to the
+	 * listener as soon as each image is processed. Errors occurring during
+	 * the processing of an image do not stop the processing of other images,
+	 * and are reported in the result.
+	 * 
+	 * @param sources
+	 *            the sources of the images to process
+	 * @param listener
+	 *            the listener receiving the computed tables, or null if
+	 *            tables are not collected
+	 * @return a summary of the processing
+	 */
+	public Result processAll(List<ImageSource> sources, final TableListener listener)
+	{
+		final Result result = new Result();
+		final int nImages = sources.size();
+		final AtomicInteger doneImages = new AtomicInteger(0);
+
+		fireStatusChanged(this, "Process " + nImages + " images");
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, nImages)));
+		List<Future<?>> futures = new ArrayList<Future<?>>(nImages);
+		for (final ImageSource source : sources)
+		{
+			futures.add(executor.submit(new Runnable()
+			{
+				public void run()
+				{
+					processSource(source, listener, result);
+					fireProgressChanged(BatchPipeline.this, doneImages.incrementAndGet(), nImages);
+				}
+			}));
+		}
+		executor.shutdown();
+
+		try
+		{
+			for (Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			cancel();
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex)
+		{
+			// an error escaped the processing of an image: stop the others
+			cancel();
+			executor.shutdownNow();
+			Throwable cause = ex.getCause();
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+
+		result.cancelled = isCancelled();
+		fireStatusChanged(this, "");
+		fireProgressChanged(this, 1, 1);
+		return result;
+	}
+
+	/**
+	 * Processes the image of a source, after waiting for enough memory.
+	 */
+	private void processSource(ImageSource source, TableListener listener, Result result)
+	{
+		if (isCancelled())
+		{
+			return;
+		}
+
+		String name = source.getName();
+		long bytes = (long) (source.getMemorySize() * this.memoryFactor);
+		try
+		{
+			if (!acquireMemory(bytes))
+			{
+				return;
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			cancel();
+			return;
+		}
+
+		try
+		{
+			ImagePlus image = source.open();
+			Map<String, Object> outputs = process(image, name, false);
+			if (outputs == null)
+			{
+				return;
+			}
+
+			if (listener != null)
+			{
+				synchronized (this.listenerLock)
+				{
+					for (String stepName : this.tableOutputs)
+					{
+						listener.tableComputed(name, stepName, (ResultsTable) outputs.get(stepName));
+					}
+				}
+			}
+			result.processedImages.add(name);
+		}
+		catch (Exception ex)
+		{
+			result.failures.put(name, ex);
+		}
+		finally
+		{
+			releaseMemory(bytes);
+		}
+	}
+
+	/**
+	 * Applies the steps to an image. If keepAll is false, only the results of
+	 * table outputs and of the final steps are kept.
+	 */
+	private Map<String, Object> process(ImagePlus image, String imageName, boolean keepAll)
+	{
+		// count the number of steps using the result of each step
+		Map<String, Integer> useCounts = new HashMap<String, Integer>();
+		for (Step step : this.steps.values())
+		{
+			for (String input : step.inputs)
+			{
+				Integer count = useCounts.get(input);
+				useCounts.put(input, count == null ? 1 : count + 1);
+			}
+		}
+
+		long elementCount = (long) image.getWidth() * image.getHeight() * image.getStackSize();
+		Map<String, Object> results = new LinkedHashMap<String, Object>();
+		results.put(INPUT, image);
+		for (Step step : this.steps.values())
+		{
+			if (isCancelled())
+			{
+				return null;
+			}
+
+			Object[] args = new Object[step.inputs.length];
+			for (int i = 0; i < args.length; i++)
+			{
+				args[i] = results.get(step.inputs[i]);
+			}
+
+			AlgoMetrics.Stage stage = startStage(imageName + ": " + step.name);
+			Object res = step.operation.apply(args);
+			stage.stop(elementCount);
+			if (res == null)
+			{
+				throw new RuntimeException("Step " + step.name + " returned no result for image " + imageName);
+			}
+			results.put(step.name, res);
+
+			// release the results that are not used anymore
+			if (!keepAll)
+			{
+				for (String input : step.inputs)
+				{
+					int count = useCounts.get(input) - 1;
+					useCounts.put(input, count);
+					if (count == 0 && !this.tableOutputs.contains(input))
+					{
+						results.remove(input);
+					}
+				}
+			}
+		}
+
+		if (!keepAll)
+		{
+			results.remove(INPUT);
+		}
+		return results;
+	}
+
+	/**
+	 * Cancels the processing, and wakes up the threads waiting for memory.
+	 */
+	@Override
+	public void cancel()
+	{
+		super.cancel();
+		synchronized (this)
+		{
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until enough memory is available for processing a new image.
+	 * Returns false, without reserving memory, if the processing was
+	 * cancelled in the meantime.
+	 */
+	private synchronized boolean acquireMemory(long bytes) throws InterruptedException
+	{
+		while (this.usedMemory > 0 && this.usedMemory + bytes > this.memoryLimit)
+		{
+			if (isCancelled())
+			{
+				return false;
+			}
+			// the token may also be cancelled directly when it is shared, so
+			// cancellation is checked periodically
+			wait(100);
+		}
+		if (isCancelled())
+		{
+			return false;
+		}
+		this.usedMemory += bytes;
+		return true;
+	}
+
+	private synchronized void releaseMemory(long bytes)
+	{
+		this.usedMemory -= bytes;
+		notifyAll();
+	}
+}
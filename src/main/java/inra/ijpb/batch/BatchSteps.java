@@ -0,0 +1,263 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.batch;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import inra.ijpb.binary.BinaryImages;
+import inra.ijpb.label.LabelImages;
+import inra.ijpb.measure.RegionAnalyzer;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel3D;
+import inra.ijpb.watershed.ExtendedMinimaWatershed;
+import inra.ijpb.watershed.Watershed;
+
+/**
+ * A collection of static methods for creating the operations of batch
+ * pipelines from the static facades of the library. The operations expect
+ * ImagePlus inputs, do not modify them, do not display anything, and keep
+ * the spatial calibration of the first input.
+ * 
+ * @see BatchPipeline
+ * 
+ * @author dlegland
+ */
+public class BatchSteps
+{
+	/**
+	 * Private constructor to prevent class instantiation.
+	 */
+	private BatchSteps()
+	{
+	}
+
+	/**
+	 * Creates an operation that applies a morphological filter to an image.
+	 * 
+	 * @param op
+	 *            the morphological operation
+	 * @param strel
+	 *            the structuring element
+	 * @return an operation computing the filtered image
+	 * 
+	 * @see Morphology.Operation#apply(ImageStack, Strel3D)
+	 */
+	public static final PipelineOperation morphology(final Morphology.Operation op, final Strel3D strel)
+	{
+		return new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				ImagePlus imagePlus = (ImagePlus) inputs[0];
+				ImageStack result = op.apply(imagePlus.getStack(), strel);
+				return createResult(imagePlus.getShortTitle() + "-" + op, result, imagePlus);
+			}
+		};
+	}
+
+	/**
+	 * Creates an operation that converts an image into a binary image, by
+	 * setting non-zero elements to 255.
+	 * 
+	 * @return an operation computing the binary image
+	 * 
+	 * @see BinaryImages#binarize(ImagePlus)
+	 */
+	public static final PipelineOperation binarize()
+	{
+		return new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				ImagePlus imagePlus = (ImagePlus) inputs[0];
+				return copyScale(BinaryImages.binarize(imagePlus), imagePlus);
+			}
+		};
+	}
+
+	/**
+	 * Creates an operation that computes the connected components labeling
+	 * of a binary image.
+	 * 
+	 * @param conn
+	 *            the connectivity (4 or 8 for planar images, 6 or 26 for 3D
+	 *            images)
+	 * @param bitDepth
+	 *            the bit depth of the label image (8, 16 or 32)
+	 * @return an operation computing the label image
+	 * 
+	 * @see BinaryImages#componentsLabeling(ImagePlus, int, int)
+	 */
+	public static final PipelineOperation componentsLabeling(final int conn, final int bitDepth)
+	{
+		return new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				ImagePlus imagePlus = (ImagePlus) inputs[0];
+				return copyScale(BinaryImages.componentsLabeling(imagePlus, conn, bitDepth), imagePlus);
+			}
+		};
+	}
+
+	/**
+	 * Creates an operation that removes the regions of a label image with
+	 * less than the specified number of elements.
+	 * 
+	 * @param minElementCount
+	 *            the minimal number of pixels or voxels of regions
+	 * @return an operation computing the filtered label image
+	 * 
+	 * @see LabelImages#sizeOpening(ImagePlus, int)
+	 */
+	public static final PipelineOperation sizeOpening(final int minElementCount)
+	{
+		return new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				ImagePlus imagePlus = (ImagePlus) inputs[0];
+				return copyScale(LabelImages.sizeOpening(imagePlus, minElementCount), imagePlus);
+			}
+		};
+	}
+
+	/**
+	 * Creates an operation that relabels a label image such that labels are
+	 * consecutive. The input image is duplicated before relabeling.
+	 * 
+	 * @return an operation computing the relabeled image
+	 * 
+	 * @see LabelImages#remapLabels(ImagePlus)
+	 */
+	public static final PipelineOperation remapLabels()
+	{
+		return new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				ImagePlus result = ((ImagePlus) inputs[0]).duplicate();
+				LabelImages.remapLabels(result);
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Creates an operation that computes the watershed of an image after
+	 * imposition of extended minima.
+	 * 
+	 * @param dynamic
+	 *            the maximum difference between the minima and the boundary
+	 *            of a basin
+	 * @param conn
+	 *            the connectivity
+	 * @return an operation computing the label image of the basins
+	 * 
+	 * @see ExtendedMinimaWatershed#extendedMinimaWatershed(ImagePlus, int,
+	 *      int)
+	 */
+	public static final PipelineOperation extendedMinimaWatershed(final int dynamic, final int conn)
+	{
+		return new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				ImagePlus imagePlus = (ImagePlus) inputs[0];
+				return copyScale(ExtendedMinimaWatershed.extendedMinimaWatershed(imagePlus, dynamic, conn), imagePlus);
+			}
+		};
+	}
+
+	/**
+	 * Creates an operation that computes the marker-controlled watershed of
+	 * an image. The inputs of the operation are the image to flood (usually
+	 * a gradient image), the label image of the markers, and an optional
+	 * binary mask.
+	 * 
+	 * @param conn
+	 *            the connectivity (4 or 8 for planar images, 6 or 26 for 3D
+	 *            images)
+	 * @param calculateDams
+	 *            select/deselect the calculation of dams
+	 * @return an operation computing the label image of the basins
+	 * 
+	 * @see Watershed#computeWatershed(ImagePlus, ImagePlus, ImagePlus, int,
+	 *      boolean, boolean)
+	 */
+	public static final PipelineOperation markerControlledWatershed(final int conn, final boolean calculateDams)
+	{
+		return new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				ImagePlus imagePlus = (ImagePlus) inputs[0];
+				ImagePlus marker = (ImagePlus) inputs[1];
+				ImagePlus mask = inputs.length > 2 ? (ImagePlus) inputs[2] : null;
+				ImagePlus result = Watershed.computeWatershed(imagePlus, marker, mask, conn, calculateDams, false);
+				return result != null ? copyScale(result, imagePlus) : null;
+			}
+		};
+	}
+
+	/**
+	 * Creates an operation that computes a table of features for each region
+	 * of a label image. The analyzer is shared by all the images processed
+	 * by the pipeline.
+	 * 
+	 * @param analyzer
+	 *            the region analyzer
+	 * @return an operation computing a ResultsTable
+	 * 
+	 * @see RegionAnalyzer#computeTable(ImagePlus)
+	 */
+	public static final PipelineOperation analyzeRegions(final RegionAnalyzer<?> analyzer)
+	{
+		return new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				return analyzer.computeTable((ImagePlus) inputs[0]);
+			}
+		};
+	}
+
+	private static final ImagePlus createResult(String title, ImageStack stack, ImagePlus refImage)
+	{
+		ImagePlus resultPlus = new ImagePlus(title, stack);
+		return copyScale(resultPlus, refImage);
+	}
+
+	private static final ImagePlus copyScale(ImagePlus imagePlus, ImagePlus refImage)
+	{
+		imagePlus.copyScale(refImage);
+		return imagePlus;
+	}
+}
@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.batch;
+
+import java.io.File;
+import java.io.IOException;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.io.Opener;
+import ij.io.TiffDecoder;
+
+/**
+ * A source of image for batch processing. Images are opened only when they
+ * are about to be processed, after the pipeline has checked that enough
+ * memory is available.
+ * 
+ * @see BatchPipeline#processAll(java.util.List, TableListener)
+ * 
+ * @author dlegland
+ */
+public interface ImageSource
+{
+	/**
+	 * Creates a new source reading the image from a file. For TIFF files, the
+	 * memory size is estimated from the dimensions and the bit depth read in
+	 * the header, so that compressed files are correctly estimated. For other
+	 * formats, it is estimated from the size of the file.
+	 * 
+	 * @param file
+	 *            the file containing the image
+	 * @return a new image source
+	 */
+	public static ImageSource fromFile(final File file)
+	{
+		return new ImageSource()
+		{
+			long memorySize = -1;
+
+			@Override
+			public String getName()
+			{
+				return file.getName();
+			}
+
+			@Override
+			public ImagePlus open()
+			{
+				ImagePlus image = IJ.openImage(file.getPath());
+				if (image == null)
+				{
+					throw new RuntimeException("Unable to open image file: " + file.getPath());
+				}
+				return image;
+			}
+
+			@Override
+			public synchronized long getMemorySize()
+			{
+				if (memorySize < 0)
+				{
+					memorySize = estimateMemorySize(file);
+				}
+				return memorySize;
+			}
+		};
+	}
+
+	/**
+	 * Estimates the number of bytes required to store the image contained in
+	 * a file. TIFF headers are read to compute the size of the images, while
+	 * the size of the file is used for other formats, or if the header can
+	 * not be read.
+	 * 
+	 * @param file
+	 *            the file containing the image
+	 * @return the (estimated) number of bytes required to store the image
+	 */
+	public static long estimateMemorySize(File file)
+	{
+		String path = file.getPath();
+		int fileType = new Opener().getFileType(path);
+		if (fileType != Opener.TIFF && fileType != Opener.TIFF_AND_DICOM)
+		{
+			return file.length();
+		}
+
+		try
+		{
+			TiffDecoder decoder = new TiffDecoder(file.getParent() == null ? "" : file.getParent() + File.separator, file.getName());
+			FileInfo[] infos = decoder.getTiffInfo();
+			if (infos == null || infos.length == 0)
+			{
+				return file.length();
+			}
+
+			// ImageJ stacks are described by a single FileInfo
+			long size = 0;
+			for (FileInfo info : infos)
+			{
+				size += (long) info.width * info.height * info.getBytesPerPixel() * Math.max(1, info.nImages);
+			}
+			return size;
+		}
+		catch (IOException ex)
+		{
+			return file.length();
+		}
+	}
+
+	/**
+	 * Creates a new source from an image already in memory.
+	 * 
+	 * @param image
+	 *            the image to process
+	 * @return a new image source
+	 */
+	public static ImageSource fromImage(final ImagePlus image)
+	{
+		return new ImageSource()
+		{
+			@Override
+			public String getName()
+			{
+				return image.getTitle();
+			}
+
+			@Override
+			public ImagePlus open()
+			{
+				return image;
+			}
+
+			@Override
+			public long getMemorySize()
+			{
+				return (long) image.getSizeInBytes();
+			}
+		};
+	}
+
+	/**
+	 * @return the name of the image, used to identify the results
+	 */
+	public String getName();
+
+	/**
+	 * Opens the image.
+	 * 
+	 * @return the image to process
+	 */
+	public ImagePlus open();
+
+	/**
+	 * @return the (estimated) number of bytes required to store the image
+	 */
+	public long getMemorySize();
+}
@@ -0,0 +1,54 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.batch;
+
+/**
+ * An operation computed by a step of a batch pipeline. The inputs are the
+ * results of the steps the operation depends on, in the order they were
+ * specified when the step was added to the pipeline. The results are usually
+ * ImagePlus or ResultsTable instances.
+ * 
+ * In general, operations are specified using lambda syntax. Example:
+ * 
+ * <pre>{@code
+ * pipeline.addStep("labels", 
+ *     inputs -> BinaryImages.componentsLabeling((ImagePlus) inputs[0], 6, 16),
+ *     "binary");
+ * }</pre>
+ * 
+ * @see BatchPipeline#addStep(String, PipelineOperation, String...)
+ * @see BatchSteps
+ * 
+ * @author dlegland
+ */
+@FunctionalInterface
+public interface PipelineOperation
+{
+	/**
+	 * Applies the operation to the results of the previous steps.
+	 * 
+	 * @param inputs
+	 *            the results of the steps this operation depends on
+	 * @return the result of the operation
+	 */
+	public Object apply(Object... inputs);
+}
@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.batch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Collects the rows of the tables computed by a batch pipeline within a
+ * single table for each step. The name of the image is added as a first
+ * column, and the row labels are kept.
+ * 
+ * <pre><code>
+ * TableCollector collector = new TableCollector();
+ * pipeline.processAll(sources, collector);
+ * collector.getTable("morpho").show("Morphometry");
+ * </code></pre>
+ * 
+ * @author dlegland
+ */
+public class TableCollector implements TableListener
+{
+	/** The name of the column containing the image names. */
+	public static final String IMAGE_COLUMN = "Image";
+
+	Map<String, ResultsTable> tables = new LinkedHashMap<String, ResultsTable>();
+
+	/**
+	 * Creates a new empty collector.
+	 */
+	public TableCollector()
+	{
+	}
+
+	@Override
+	public synchronized void tableComputed(String imageName, String stepName, ResultsTable table)
+	{
+		ResultsTable target = this.tables.get(stepName);
+		if (target == null)
+		{
+			target = new ResultsTable();
+			this.tables.put(stepName, target);
+		}
+		appendRows(target, imageName, table);
+	}
+
+	/**
+	 * Returns the table collecting the rows computed by the specified step,
+	 * or null if no table was computed by this step.
+	 * 
+	 * @param stepName
+	 *            the name of the step
+	 * @return the table collecting the rows computed by the step
+	 */
+	public synchronized ResultsTable getTable(String stepName)
+	{
+		return this.tables.get(stepName);
+	}
+
+	/**
+	 * Appends the rows of a table to a target table, adding the image name
+	 * as first column.
+	 * 
+	 * @param target
+	 *            the table to update
+	 * @param imageName
+	 *            the name of the image the rows were computed from
+	 * @param table
+	 *            the table containing the rows to append
+	 */
+	public static final void appendRows(ResultsTable target, String imageName, ResultsTable table)
+	{
+		int nCols = table.getLastColumn() + 1;
+		for (int row = 0; row < table.size(); row++)
+		{
+			target.incrementCounter();
+			String label = table.getLabel(row);
+			if (label != null)
+			{
+				target.addLabel(label);
+			}
+			target.addValue(IMAGE_COLUMN, imageName);
+			for (int c = 0; c < nCols; c++)
+			{
+				if (!table.columnExists(c))
+				{
+					continue;
+				}
+				String heading = table.getColumnHeading(c);
+				double value = table.getValueAsDouble(c, row);
+				if (Double.isNaN(value))
+				{
+					target.addValue(heading, table.getStringValue(c, row));
+				}
+				else
+				{
+					target.addValue(heading, value);
+				}
+			}
+		}
+	}
+}
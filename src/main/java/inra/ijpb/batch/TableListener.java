@@ -0,0 +1,49 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.batch;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Listener to the tables computed by a batch pipeline. Calls to a listener
+ * are serialized by the pipeline, so implementations do not need to be
+ * thread-safe.
+ * 
+ * @see BatchPipeline#processAll(java.util.List, TableListener)
+ * @see TableCollector
+ * 
+ * @author dlegland
+ */
+public interface TableListener
+{
+	/**
+	 * Called when a table was computed for an image.
+	 * 
+	 * @param imageName
+	 *            the name of the processed image
+	 * @param stepName
+	 *            the name of the step that computed the table
+	 * @param table
+	 *            the computed table
+	 */
+	public void tableComputed(String imageName, String stepName, ResultsTable table);
+}
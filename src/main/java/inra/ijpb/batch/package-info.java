@@ -0,0 +1,36 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+/**
+ * <p>
+ * Headless processing of collections of images.
+ * </p>
+ * 
+ * <p>
+ * A {@link inra.ijpb.batch.BatchPipeline} describes the processing of a
+ * single image as a directed acyclic graph of named steps, each step being
+ * usually a call to one of the static facades of the library (see
+ * {@link inra.ijpb.batch.BatchSteps}). The pipeline can then be applied to
+ * many images concurrently, and the tables computed for each image are
+ * streamed to a {@link inra.ijpb.batch.TableListener}.
+ * </p>
+ */
+package inra.ijpb.batch;
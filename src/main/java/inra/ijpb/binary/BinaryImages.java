@@ -155,6 +155,19 @@ public class BinaryImages
 		return count;
 	}
 	
+	/**
+	 * Counts the number of foreground voxels of a bit-packed binary image,
+	 * using population count of each word.
+	 * 
+	 * @param image
+	 *            a bit-packed binary 2D or 3D image
+	 * @return the number of foreground voxels
+	 */
+	public static final long countForegroundVoxels(PackedBinaryImage image)
+	{
+		return image.countForeground();
+	}
+	
 	/**
 	 * Computes the labels in the binary 2D or 3D image contained in the given
 	 * ImagePlus, and computes the maximum label to set up the display range of
@@ -0,0 +1,834 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.binary;
+
+import java.util.Arrays;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.math.ImageCalculator;
+import inra.ijpb.morphology.Strel3D;
+import inra.ijpb.morphology.strel.InPlaceStrel;
+import inra.ijpb.morphology.strel.InPlaceStrel3D;
+import inra.ijpb.morphology.strel.SeparableStrel;
+import inra.ijpb.morphology.strel.SeparableStrel3D;
+
+/**
+ * <p>
+ * A binary 2D or 3D image that stores 64 pixels within each long value.
+ * </p>
+ * 
+ * <p>
+ * Each row of the image is stored as a sequence of words, the pixel at
+ * position <code>x</code> corresponding to the bit <code>x % 64</code> of the
+ * word <code>x / 64</code>. The bits located after the end of each row are
+ * always zero. Compared to 8-bit images, memory footprint is reduced by a
+ * factor eight, and logical operations, population count and morphological
+ * filtering process 64 pixels at once.
+ * </p>
+ * 
+ * <p>
+ * Morphological dilations and erosions follow the conventions of the
+ * structuring elements of the library: neighbors located outside of the image
+ * are ignored, and separable structuring elements are applied by using their
+ * decomposition. For the common structuring elements, results are identical
+ * to the ones obtained on the 8-bit image.
+ * </p>
+ * 
+ * Example of use:
+ * <pre><code>
+ * ImageStack stack = ...;
+ * PackedBinaryImage image = PackedBinaryImage.fromStack(stack);
+ * PackedBinaryImage dil = image.dilation(CubeStrel.fromRadius(2));
+ * long count = dil.countForeground();
+ * ImageStack result = dil.toStack();
+ * </code></pre>
+ * 
+ * @see BinaryImages
+ * 
+ * @author dlegland
+ *
+ */
+public class PackedBinaryImage
+{
+	// ==================================================
+	// Static methods
+	
+	/**
+	 * Creates a new packed binary image from a planar image. Foreground pixels
+	 * correspond to pixels with a value greater than zero.
+	 * 
+	 * @param image
+	 *            the image to convert
+	 * @return the packed binary image
+	 */
+	public static final PackedBinaryImage fromProcessor(ImageProcessor image)
+	{
+		PackedBinaryImage result = new PackedBinaryImage(image.getWidth(), image.getHeight(), 1);
+		result.packSlice(image, 0);
+		return result;
+	}
+	
+	/**
+	 * Creates a new packed binary image from a 3D image. Foreground voxels
+	 * correspond to voxels with a value greater than zero.
+	 * 
+	 * @param image
+	 *            the image to convert
+	 * @return the packed binary image
+	 */
+	public static final PackedBinaryImage fromStack(ImageStack image)
+	{
+		int sizeZ = image.getSize();
+		PackedBinaryImage result = new PackedBinaryImage(image.getWidth(), image.getHeight(), sizeZ);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			result.packSlice(image.getProcessor(z + 1), z);
+		}
+		return result;
+	}
+	
+	
+	// ==================================================
+	// Class variables
+	
+	int sizeX;
+	int sizeY;
+	int sizeZ;
+	
+	/** The number of words used to store a row */
+	int wordsPerRow;
+	
+	/** The mask of the valid bits within the last word of each row */
+	long lastWordMask;
+	
+	/** The data of each slice, rows being stored consecutively */
+	long[][] slices;
+	
+
+	// ==================================================
+	// Constructors
+	
+	/**
+	 * Creates a new empty packed binary image.
+	 * 
+	 * @param sizeX
+	 *            the size of the image in the X direction
+	 * @param sizeY
+	 *            the size of the image in the Y direction
+	 * @param sizeZ
+	 *            the size of the image in the Z direction (1 for planar
+	 *            images)
+	 */
+	public PackedBinaryImage(int sizeX, int sizeY, int sizeZ)
+	{
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+		this.wordsPerRow = (sizeX + 63) >>> 6;
+		int rem = sizeX & 63;
+		this.lastWordMask = rem == 0 ? -1L : (1L << rem) - 1;
+		this.slices = new long[sizeZ][sizeY * wordsPerRow];
+	}
+	
+	private void packSlice(ImageProcessor image, int z)
+	{
+		long[] data = slices[z];
+		if (image instanceof ByteProcessor)
+		{
+			byte[] pixels = (byte[]) image.getPixels();
+			for (int y = 0; y < sizeY; y++)
+			{
+				int offset = y * sizeX;
+				int w0 = y * wordsPerRow;
+				for (int x = 0; x < sizeX; x++)
+				{
+					if (pixels[offset + x] != 0)
+						data[w0 + (x >>> 6)] |= 1L << x;
+				}
+			}
+		}
+		else
+		{
+			for (int y = 0; y < sizeY; y++)
+			{
+				int offset = y * sizeX;
+				int w0 = y * wordsPerRow;
+				for (int x = 0; x < sizeX; x++)
+				{
+					if (image.getf(offset + x) > 0)
+						data[w0 + (x >>> 6)] |= 1L << x;
+				}
+			}
+		}
+	}
+	
+	
+	// ==================================================
+	// Conversion methods
+	
+	/**
+	 * Converts the first slice of this image into a binary ByteProcessor, with
+	 * values 0 and 255.
+	 * 
+	 * @return the binary image corresponding to the first slice
+	 */
+	public ByteProcessor toByteProcessor()
+	{
+		return toByteProcessor(0);
+	}
+	
+	/**
+	 * Converts a slice of this image into a binary ByteProcessor, with values 0
+	 * and 255.
+	 * 
+	 * @param z
+	 *            the index of the slice, starting from 0
+	 * @return the binary image corresponding to the slice
+	 */
+	public ByteProcessor toByteProcessor(int z)
+	{
+		long[] data = slices[z];
+		byte[] pixels = new byte[sizeX * sizeY];
+		for (int y = 0; y < sizeY; y++)
+		{
+			int offset = y * sizeX;
+			int w0 = y * wordsPerRow;
+			for (int x = 0; x < sizeX; x++)
+			{
+				if ((data[w0 + (x >>> 6)] & (1L << x)) != 0)
+					pixels[offset + x] = (byte) 255;
+			}
+		}
+		return new ByteProcessor(sizeX, sizeY, pixels);
+	}
+	
+	/**
+	 * Converts this image into a binary 8-bit stack, with values 0 and 255.
+	 * 
+	 * @return the binary 8-bit stack
+	 */
+	public ImageStack toStack()
+	{
+		ImageStack result = new ImageStack(sizeX, sizeY);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			result.addSlice(toByteProcessor(z));
+		}
+		return result;
+	}
+	
+	
+	// ==================================================
+	// Accessors
+	
+	/**
+	 * Returns the size of the image in the given dimension.
+	 * 
+	 * @param dim
+	 *            the dimension (0 for X, 1 for Y, 2 for Z)
+	 * @return the size of the image in the given dimension
+	 */
+	public int getSize(int dim)
+	{
+		switch (dim)
+		{
+		case 0: return sizeX;
+		case 1: return sizeY;
+		case 2: return sizeZ;
+		default:
+			throw new IllegalArgumentException("Dimension must be between 0 and 2, not " + dim);
+		}
+	}
+	
+	/**
+	 * @param x
+	 *            the x-coordinate of the pixel
+	 * @param y
+	 *            the y-coordinate of the pixel
+	 * @param z
+	 *            the z-coordinate of the pixel
+	 * @return true if the pixel belongs to the foreground
+	 */
+	public boolean get(int x, int y, int z)
+	{
+		return (slices[z][y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+	
+	/**
+	 * @param x
+	 *            the x-coordinate of the pixel
+	 * @param y
+	 *            the y-coordinate of the pixel
+	 * @param z
+	 *            the z-coordinate of the pixel
+	 * @param value
+	 *            true for setting the pixel to foreground, false for
+	 *            background
+	 */
+	public void set(int x, int y, int z, boolean value)
+	{
+		int index = y * wordsPerRow + (x >>> 6);
+		if (value)
+			slices[z][index] |= 1L << x;
+		else
+			slices[z][index] &= ~(1L << x);
+	}
+	
+	/**
+	 * Counts the number of foreground pixels, using population count of each
+	 * word.
+	 * 
+	 * @return the number of foreground pixels
+	 */
+	public long countForeground()
+	{
+		long count = 0;
+		for (long[] data : slices)
+		{
+			for (long word : data)
+			{
+				count += Long.bitCount(word);
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return a deep copy of this image
+	 */
+	public PackedBinaryImage duplicate()
+	{
+		PackedBinaryImage result = new PackedBinaryImage(sizeX, sizeY, sizeZ);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			System.arraycopy(slices[z], 0, result.slices[z], 0, slices[z].length);
+		}
+		return result;
+	}
+	
+	
+	// ==================================================
+	// Logical operations
+	
+	/**
+	 * Combines this image with another binary image of the same size, using
+	 * one of the logical operations AND, OR or XOR of the ImageCalculator
+	 * class.
+	 * 
+	 * @param other
+	 *            the other image
+	 * @param op
+	 *            the logical operation
+	 * @return the result of the combination
+	 */
+	public PackedBinaryImage combine(PackedBinaryImage other, ImageCalculator.Operation op)
+	{
+		if (op == ImageCalculator.Operation.AND) return and(other);
+		if (op == ImageCalculator.Operation.OR) return or(other);
+		if (op == ImageCalculator.Operation.XOR) return xor(other);
+		throw new IllegalArgumentException("Requires a logical operation (AND, OR or XOR)");
+	}
+	
+	/**
+	 * @param other
+	 *            another binary image with the same size
+	 * @return the intersection of the two images
+	 */
+	public PackedBinaryImage and(PackedBinaryImage other)
+	{
+		checkSameSize(other);
+		PackedBinaryImage result = new PackedBinaryImage(sizeX, sizeY, sizeZ);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			long[] d1 = slices[z], d2 = other.slices[z], res = result.slices[z];
+			for (int i = 0; i < res.length; i++)
+				res[i] = d1[i] & d2[i];
+		}
+		return result;
+	}
+	
+	/**
+	 * @param other
+	 *            another binary image with the same size
+	 * @return the union of the two images
+	 */
+	public PackedBinaryImage or(PackedBinaryImage other)
+	{
+		checkSameSize(other);
+		PackedBinaryImage result = new PackedBinaryImage(sizeX, sizeY, sizeZ);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			long[] d1 = slices[z], d2 = other.slices[z], res = result.slices[z];
+			for (int i = 0; i < res.length; i++)
+				res[i] = d1[i] | d2[i];
+		}
+		return result;
+	}
+	
+	/**
+	 * @param other
+	 *            another binary image with the same size
+	 * @return the symmetric difference of the two images
+	 */
+	public PackedBinaryImage xor(PackedBinaryImage other)
+	{
+		checkSameSize(other);
+		PackedBinaryImage result = new PackedBinaryImage(sizeX, sizeY, sizeZ);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			long[] d1 = slices[z], d2 = other.slices[z], res = result.slices[z];
+			for (int i = 0; i < res.length; i++)
+				res[i] = d1[i] ^ d2[i];
+		}
+		return result;
+	}
+	
+	/**
+	 * @param other
+	 *            another binary image with the same size
+	 * @return the pixels of this image that do not belong to the other image
+	 */
+	public PackedBinaryImage andNot(PackedBinaryImage other)
+	{
+		checkSameSize(other);
+		PackedBinaryImage result = new PackedBinaryImage(sizeX, sizeY, sizeZ);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			long[] d1 = slices[z], d2 = other.slices[z], res = result.slices[z];
+			for (int i = 0; i < res.length; i++)
+				res[i] = d1[i] & ~d2[i];
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the complement of this image
+	 */
+	public PackedBinaryImage not()
+	{
+		PackedBinaryImage result = new PackedBinaryImage(sizeX, sizeY, sizeZ);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			long[] data = slices[z], res = result.slices[z];
+			for (int i = 0; i < res.length; i++)
+				res[i] = ~data[i];
+			result.clearPadding(res);
+		}
+		return result;
+	}
+	
+	private void checkSameSize(PackedBinaryImage other)
+	{
+		if (other.sizeX != sizeX || other.sizeY != sizeY || other.sizeZ != sizeZ)
+		{
+			throw new IllegalArgumentException("Both images must have the same size");
+		}
+	}
+	
+	private void clearPadding(long[] data)
+	{
+		for (int i = wordsPerRow - 1; i < data.length; i += wordsPerRow)
+		{
+			data[i] &= lastWordMask;
+		}
+	}
+	
+	
+	// ==================================================
+	// Morphological operations
+	
+	/**
+	 * Computes the morphological dilation of this image. Separable structuring
+	 * elements are applied by using their decomposition, other structuring
+	 * elements are applied by using their mask.
+	 * 
+	 * @param strel
+	 *            the structuring element, either planar or 3D
+	 * @return the result of the dilation
+	 */
+	public PackedBinaryImage dilation(Strel3D strel)
+	{
+		return applyStrel(strel, true);
+	}
+	
+	/**
+	 * Computes the morphological erosion of this image. Separable structuring
+	 * elements are applied by using their decomposition, other structuring
+	 * elements are applied by using their mask.
+	 * 
+	 * @param strel
+	 *            the structuring element, either planar or 3D
+	 * @return the result of the erosion
+	 */
+	public PackedBinaryImage erosion(Strel3D strel)
+	{
+		return applyStrel(strel, false);
+	}
+	
+	/**
+	 * Computes the dilation by a rectangular (or cuboid) structuring element
+	 * centered on the origin.
+	 * 
+	 * @param radiusX
+	 *            the radius of the structuring element in the X direction
+	 * @param radiusY
+	 *            the radius of the structuring element in the Y direction
+	 * @param radiusZ
+	 *            the radius of the structuring element in the Z direction
+	 * @return the result of the dilation
+	 */
+	public PackedBinaryImage dilation(int radiusX, int radiusY, int radiusZ)
+	{
+		return applyBox(radiusX, radiusY, radiusZ, true);
+	}
+	
+	/**
+	 * Computes the erosion by a rectangular (or cuboid) structuring element
+	 * centered on the origin.
+	 * 
+	 * @param radiusX
+	 *            the radius of the structuring element in the X direction
+	 * @param radiusY
+	 *            the radius of the structuring element in the Y direction
+	 * @param radiusZ
+	 *            the radius of the structuring element in the Z direction
+	 * @return the result of the erosion
+	 */
+	public PackedBinaryImage erosion(int radiusX, int radiusY, int radiusZ)
+	{
+		return applyBox(radiusX, radiusY, radiusZ, false);
+	}
+	
+	/**
+	 * Computes the inner boundary of this image, made of the foreground pixels
+	 * adjacent to at least one background pixel. Pixels outside the image are
+	 * not considered as background.
+	 * 
+	 * @param conn
+	 *            the connectivity used to define the neighbors: 4 or 8 for
+	 *            planar images, 6 or 26 for 3D images
+	 * @return the binary image of boundary pixels
+	 */
+	public PackedBinaryImage boundary(int conn)
+	{
+		int[][][] mask;
+		switch (conn)
+		{
+		case 4:
+			mask = new int[][][] { { { 0, 1, 0 }, { 1, 1, 1 }, { 0, 1, 0 } } };
+			break;
+		case 8:
+			mask = new int[][][] { { { 1, 1, 1 }, { 1, 1, 1 }, { 1, 1, 1 } } };
+			break;
+		case 6:
+			mask = new int[][][] { 
+				{ { 0, 0, 0 }, { 0, 1, 0 }, { 0, 0, 0 } }, 
+				{ { 0, 1, 0 }, { 1, 1, 1 }, { 0, 1, 0 } }, 
+				{ { 0, 0, 0 }, { 0, 1, 0 }, { 0, 0, 0 } } };
+			break;
+		case 26:
+			mask = new int[3][3][3];
+			for (int[][] plane : mask)
+				for (int[] row : plane)
+					Arrays.fill(row, 1);
+			break;
+		default:
+			throw new IllegalArgumentException("Connectivity must be 4, 8, 6 or 26, not " + conn);
+		}
+		int[] offset = new int[] { 1, 1, mask.length == 1 ? 0 : 1 };
+		return andNot(applyMask(mask, offset, false));
+	}
+	
+	private PackedBinaryImage applyStrel(Strel3D strel, boolean dilate)
+	{
+		if (strel instanceof SeparableStrel)
+		{
+			PackedBinaryImage result = this;
+			for (InPlaceStrel s : ((SeparableStrel) strel).decompose())
+			{
+				result = result.applyMask(s.getMask3D(), s.getOffset(), dilate);
+			}
+			return result;
+		}
+		if (strel instanceof SeparableStrel3D)
+		{
+			PackedBinaryImage result = this;
+			for (InPlaceStrel3D s : ((SeparableStrel3D) strel).decompose())
+			{
+				result = result.applyMask(s.getMask3D(), s.getOffset(), dilate);
+			}
+			return result;
+		}
+		return applyMask(strel.getMask3D(), strel.getOffset(), dilate);
+	}
+	
+	private PackedBinaryImage applyBox(int radiusX, int radiusY, int radiusZ, boolean dilate)
+	{
+		// decompose into linear structuring elements
+		PackedBinaryImage result = this;
+		if (radiusX > 0)
+		{
+			int[][][] mask = new int[1][1][2 * radiusX + 1];
+			Arrays.fill(mask[0][0], 1);
+			result = result.applyMask(mask, new int[] { radiusX, 0, 0 }, dilate);
+		}
+		if (radiusY > 0)
+		{
+			int[][][] mask = new int[1][2 * radiusY + 1][1];
+			for (int[] row : mask[0])
+				row[0] = 1;
+			result = result.applyMask(mask, new int[] { 0, radiusY, 0 }, dilate);
+		}
+		if (radiusZ > 0)
+		{
+			int[][][] mask = new int[2 * radiusZ + 1][1][1];
+			for (int[][] plane : mask)
+				plane[0][0] = 1;
+			result = result.applyMask(mask, new int[] { 0, 0, radiusZ }, dilate);
+		}
+		return result == this ? duplicate() : result;
+	}
+	
+	/**
+	 * Applies a dilation or an erosion with the structuring element given by
+	 * a mask. The mask is decomposed into horizontal chords. For each row,
+	 * the union (or intersection) over windows of each chord length is
+	 * computed on whole words using a doubling scheme, and combined into the
+	 * result with a word shift.
+	 */
+	private PackedBinaryImage applyMask(int[][][] mask, int[] offset, boolean dilate)
+	{
+		int offsetX = offset[0];
+		int offsetY = offset[1];
+		int offsetZ = offset.length > 2 ? offset[2] : 0;
+		
+		// extract chords as (x0, y, z, length) relative to the offset
+		int nChords = 0;
+		int[][] chords = new int[16][];
+		int minX = 0, maxX = 0, minY = 0, maxY = 0, minZ = 0, maxZ = 0;
+		for (int z = 0; z < mask.length; z++)
+		{
+			for (int y = 0; y < mask[z].length; y++)
+			{
+				int[] row = mask[z][y];
+				int x = 0;
+				while (x < row.length)
+				{
+					if (row[x] <= 0)
+					{
+						x++;
+						continue;
+					}
+					int x0 = x;
+					while (x < row.length && row[x] > 0)
+						x++;
+					
+					if (nChords == chords.length)
+						chords = Arrays.copyOf(chords, 2 * nChords);
+					int[] chord = new int[] { x0 - offsetX, y - offsetY, z - offsetZ, x - x0 };
+					chords[nChords++] = chord;
+					minX = Math.min(minX, chord[0]);
+					maxX = Math.max(maxX, chord[0] + chord[3] - 1);
+					minY = Math.min(minY, chord[1]);
+					maxY = Math.max(maxY, chord[1]);
+					minZ = Math.min(minZ, chord[2]);
+					maxZ = Math.max(maxZ, chord[2]);
+				}
+			}
+		}
+		
+		// distinct chord lengths, in increasing order
+		int[] lengths = new int[nChords];
+		for (int c = 0; c < nChords; c++)
+			lengths[c] = chords[c][3];
+		Arrays.sort(lengths);
+		int nLengths = 0;
+		for (int i = 0; i < nChords; i++)
+		{
+			if (i == 0 || lengths[i] != lengths[i - 1])
+				lengths[nLengths++] = lengths[i];
+		}
+		lengths = Arrays.copyOf(lengths, nLengths);
+		int[] lengthIndex = new int[nChords];
+		for (int c = 0; c < nChords; c++)
+			lengthIndex[c] = Arrays.binarySearch(lengths, chords[c][3]);
+		
+		// rows are padded on the left, such that windows starting before the
+		// image can be represented
+		int padX0 = -minX;
+		int paddedBits = padX0 + sizeX + maxX;
+		int paddedWords = (paddedBits + 63) >>> 6;
+		
+		// cache of window tables for the rows used by consecutive output rows
+		int cacheSizeY = maxY - minY + 1;
+		int cacheSizeZ = maxZ - minZ + 1;
+		long[][][][] tables = new long[cacheSizeZ][cacheSizeY][nLengths][paddedWords];
+		int[][] cachedRows = new int[cacheSizeZ][cacheSizeY];
+		int[][] cachedSlices = new int[cacheSizeZ][cacheSizeY];
+		for (int[] array : cachedSlices)
+			Arrays.fill(array, -1);
+		long[] padded = new long[paddedWords];
+		long[][] buffers = new long[][] { new long[paddedWords], new long[paddedWords] };
+		
+		PackedBinaryImage result = new PackedBinaryImage(sizeX, sizeY, sizeZ);
+		long[] acc = new long[wordsPerRow];
+		for (int z = 0; z < sizeZ; z++)
+		{
+			long[] resData = result.slices[z];
+			for (int y = 0; y < sizeY; y++)
+			{
+				// initialize with current row
+				System.arraycopy(slices[z], y * wordsPerRow, acc, 0, wordsPerRow);
+				
+				for (int c = 0; c < nChords; c++)
+				{
+					int[] chord = chords[c];
+					int y2 = y + chord[1];
+					int z2 = z + chord[2];
+					if (y2 < 0 || y2 >= sizeY || z2 < 0 || z2 >= sizeZ)
+						continue;
+					
+					// retrieve window tables of the row, computing them if necessary
+					int iz = Math.floorMod(z2, cacheSizeZ);
+					int iy = Math.floorMod(y2, cacheSizeY);
+					long[][] rowTables = tables[iz][iy];
+					if (cachedSlices[iz][iy] != z2 || cachedRows[iz][iy] != y2)
+					{
+						long[] data = slices[z2];
+						int w0 = y2 * wordsPerRow;
+						for (int w = 0; w < paddedWords; w++)
+						{
+							padded[w] = extractWord(data, w0, sizeX, ((long) w << 6) - padX0, !dilate);
+						}
+						computeWindows(padded, paddedBits, lengths, rowTables, buffers, dilate);
+						cachedSlices[iz][iy] = z2;
+						cachedRows[iz][iy] = y2;
+					}
+					
+					// combine windows with current result
+					long[] table = rowTables[lengthIndex[c]];
+					int shift = chord[0] + padX0;
+					if (dilate)
+					{
+						for (int w = 0; w < wordsPerRow; w++)
+							acc[w] |= extractWord(table, 0, paddedBits, ((long) w << 6) + shift, false);
+					}
+					else
+					{
+						for (int w = 0; w < wordsPerRow; w++)
+							acc[w] &= extractWord(table, 0, paddedBits, ((long) w << 6) + shift, true);
+					}
+				}
+				
+				acc[wordsPerRow - 1] &= lastWordMask;
+				System.arraycopy(acc, 0, resData, y * wordsPerRow, wordsPerRow);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Computes the window tables of a padded row for each chord length: the
+	 * bit at position i of the table for length L is the union (or the
+	 * intersection) of the bits from i to i+L-1. Tables for larger lengths
+	 * are obtained by combining shifted tables of smaller lengths.
+	 */
+	private static final void computeWindows(long[] row, int nBits, int[] lengths, long[][] tables, long[][] buffers, boolean dilate)
+	{
+		int nWords = row.length;
+		long[] current = row;
+		int currentLength = 1;
+		
+		for (int i = 0; i < lengths.length; i++)
+		{
+			int length = lengths[i];
+			if (length == 1)
+			{
+				System.arraycopy(row, 0, tables[i], 0, nWords);
+				continue;
+			}
+			
+			while (currentLength < length)
+			{
+				int nextLength = Math.min(length, 2 * currentLength);
+				long[] next = nextLength == length ? tables[i] : (current == buffers[0] ? buffers[1] : buffers[0]);
+				int d = nextLength - currentLength;
+				
+				if (dilate)
+				{
+					for (int w = 0; w < nWords; w++)
+						next[w] = current[w] | extractWord(current, 0, nBits, ((long) w << 6) + d, false);
+				}
+				else
+				{
+					for (int w = 0; w < nWords; w++)
+						next[w] = current[w] & extractWord(current, 0, nBits, ((long) w << 6) + d, true);
+				}
+				
+				current = next;
+				currentLength = nextLength;
+			}
+		}
+	}
+	
+	/**
+	 * Extracts the 64 bits starting at the specified bit position within a
+	 * sequence of nBits bits stored from the given word offset. Bits outside
+	 * the sequence are set to the fill value.
+	 */
+	private static final long extractWord(long[] data, int offset, int nBits, long start, boolean fill)
+	{
+		int nWords = (nBits + 63) >>> 6;
+		long fillWord = fill ? -1L : 0L;
+		
+		// index of first word, and bit shift within this word
+		long w = start >> 6;
+		int b = (int) (start & 63);
+		
+		long lo = (w >= 0 && w < nWords) ? data[offset + (int) w] : fillWord;
+		long res;
+		if (b == 0)
+		{
+			res = lo;
+		}
+		else
+		{
+			long hi = (w + 1 >= 0 && w + 1 < nWords) ? data[offset + (int) w + 1] : fillWord;
+			res = (lo >>> b) | (hi << (64 - b));
+		}
+		
+		// fast path: all bits within the sequence
+		if (start >= 0 && start + 64 <= nBits)
+			return res;
+		
+		// otherwise, replace bits outside the sequence by the fill value
+		long k0 = Math.max(0, -start);
+		long k1 = Math.min(64, nBits - start);
+		if (k1 <= k0)
+			return fillWord;
+		long valid = (k1 == 64 ? -1L : (1L << k1) - 1) & (-1L << k0);
+		return (res & valid) | (fillWord & ~valid);
+	}
+}
@@ -23,6 +23,8 @@ package inra.ijpb.binary.conncomp;
 
 import ij.ImageStack;
 import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.data.image.Image3D;
+import inra.ijpb.data.image.Images3D;
 import inra.ijpb.morphology.FloodFill3D;
 
 /**
@@ -136,6 +138,10 @@ public class FloodFillComponentsLabeling3D extends AlgoStub implements
         // identify the maximum label index
         int maxLabel = FloodFillComponentsLabeling.largestPossibleLabel(this.bitDepth);
 
+        // use wrappers to access data, that also work for mapped images
+        Image3D image2 = Images3D.createWrapper(image);
+        Image3D labels2 = Images3D.createWrapper(res.labelMap);
+
         fireStatusChanged(this, "Compute Labels...");
         
         // Iterate over image voxels. 
@@ -150,11 +156,11 @@ public class FloodFillComponentsLabeling3D extends AlgoStub implements
                 for (int x = 0; x < sizeX; x++) 
                 {
                     // Do not process background voxels
-                    if (image.getVoxel(x, y, z) == 0)
+                    if (image2.getValue(x, y, z) == 0)
                         continue;
 
                     // Do not process voxels already labeled
-                    if (res.labelMap.getVoxel(x, y, z) > 0)
+                    if (labels2.getValue(x, y, z) > 0)
                         continue;
 
                     // a new label is found: check current label number  
@@ -166,7 +172,7 @@ public class FloodFillComponentsLabeling3D extends AlgoStub implements
                     // increment label index, and propagate
                     res.nLabels++;
                     fireStatusChanged(this, "Process label " + res.nLabels);
-                    FloodFill3D.floodFillFloat(image, x, y, z, res.labelMap, res.nLabels, this.connectivity);
+                    FloodFill3D.floodFillFloat(image2, x, y, z, labels2, res.nLabels, this.connectivity);
                 }
             }
         }
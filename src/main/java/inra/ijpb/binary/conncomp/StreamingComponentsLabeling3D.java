@@ -0,0 +1,685 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.binary.conncomp;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.data.IntBounds3D;
+import inra.ijpb.data.image.ImageUtils;
+import inra.ijpb.geometry.Point3D;
+
+/**
+ * <p>
+ * Computes the connected components of a 3D binary image whose slices are
+ * provided one after the other, without keeping the whole image in memory.
+ * </p>
+ * 
+ * <p>
+ * Each slice is labeled by a raster scan that considers the neighbors within
+ * the current slice and the previous slice, and creates provisional labels.
+ * Provisional labels of touching components are merged using an union-find
+ * structure stored in primitive arrays. Only the provisional labels of the
+ * previous slice are kept. The number of voxels, the bounds, and the sum of
+ * coordinates of each component are accumulated during the scan, making it
+ * possible to count and measure the components after the last slice, in a
+ * single pass.
+ * </p>
+ * 
+ * <p>
+ * The label image can be obtained with a second pass over the same slices,
+ * using the {@link #relabelSlice(ImageProcessor)} method. The labels are
+ * numbered in the order of the first voxel of each component in the
+ * z-y-x raster order, as in the {@link FloodFillComponentsLabeling3D} class.
+ * </p>
+ * 
+ * Example of use:
+ * <pre>{@code
+    StreamingComponentsLabeling3D algo = new StreamingComponentsLabeling3D(sizeX, sizeY, 26);
+    for (ImageProcessor slice : slices)
+        algo.addSlice(slice);
+    algo.finish();
+    for (StreamingComponentsLabeling3D.Component comp : algo.getComponents())
+        IJ.log(comp.label + ": " + comp.voxelCount);
+    
+    // optional second pass
+    for (ImageProcessor slice : slices)
+        ImageProcessor labels = algo.relabelSlice(slice);
+ * }</pre> 
+ * 
+ * @see FloodFillComponentsLabeling3D
+ * 
+ * @author dlegland
+ */
+public class StreamingComponentsLabeling3D extends AlgoStub implements
+		ConnectedComponentsLabeling3D
+{
+	// ==================================================
+	// Class variables
+	
+	/** The size of the slices in the X direction */
+	int sizeX;
+	
+	/** The size of the slices in the Y direction */
+	int sizeY;
+	
+	/** 
+	 * The connectivity of the components, either 6 (default) or 26.
+	 */
+	int connectivity = 6;
+	
+	/**
+	 * The number of bits for representing the relabeled slices. Can be 8, 16
+	 * (default), or 32.
+	 */
+	int bitDepth = 16;
+	
+	/** The labels of the previous slice, or null before the first slice */
+	int[] previousLabels = null;
+	
+	/** The labels of the current slice */
+	int[] currentLabels;
+	
+	/** The number of slices added so far */
+	int sliceCount = 0;
+	
+	/** Becomes true when all slices were added */
+	boolean finished = false;
+	
+	/** The number of provisional labels */
+	int nProvisional = 0;
+	
+	/** The union-find parent of each provisional label (index 0 is unused) */
+	int[] parents = new int[64];
+	
+	// statistics of components, accumulated within root labels
+	long[] counts = new long[64];
+	double[] sumX = new double[64];
+	double[] sumY = new double[64];
+	double[] sumZ = new double[64];
+	int[] xmin = new int[64];
+	int[] xmax = new int[64];
+	int[] ymin = new int[64];
+	int[] ymax = new int[64];
+	int[] zmin = new int[64];
+	int[] zmax = new int[64];
+	
+	/** The final label of each provisional label, computed by finish() */
+	int[] finalLabels = null;
+	
+	/** The number of connected components */
+	int nComponents = 0;
+	
+	// state of the relabeling pass
+	int relabelSliceCount = 0;
+	int relabelProvisional = 0;
+	int[] previousFinalLabels = null;
+	int[] currentFinalLabels = null;
+	
+	
+	// ==================================================
+	// Constructors
+	
+	/**
+	 * Creates a new streaming labeling for slices with the specified size,
+	 * using default connectivity 6 and default output bitdepth equal to 16.
+	 * 
+	 * @param sizeX
+	 *            the width of the slices
+	 * @param sizeY
+	 *            the height of the slices
+	 */
+	public StreamingComponentsLabeling3D(int sizeX, int sizeY)
+	{
+		this(sizeX, sizeY, 6, 16);
+	}
+	
+	/**
+	 * Creates a new streaming labeling for slices with the specified size and
+	 * connectivity, using default output bitdepth equal to 16.
+	 * 
+	 * @param sizeX
+	 *            the width of the slices
+	 * @param sizeY
+	 *            the height of the slices
+	 * @param connectivity
+	 *            the connectivity of connected components (6 or 26)
+	 */
+	public StreamingComponentsLabeling3D(int sizeX, int sizeY, int connectivity)
+	{
+		this(sizeX, sizeY, connectivity, 16);
+	}
+	
+	/**
+	 * Creates a new streaming labeling for slices with the specified size,
+	 * connectivity, and bitdepth of relabeled slices.
+	 * 
+	 * @param sizeX
+	 *            the width of the slices
+	 * @param sizeY
+	 *            the height of the slices
+	 * @param connectivity
+	 *            the connectivity of connected components (6 or 26)
+	 * @param bitDepth
+	 *            the bit depth of the relabeled slices (8, 16, or 32)
+	 */
+	public StreamingComponentsLabeling3D(int sizeX, int sizeY, int connectivity, int bitDepth)
+	{
+		if (connectivity != 6 && connectivity != 26)
+		{
+			throw new IllegalArgumentException("Connectivity must be either 6 or 26, not " + connectivity);
+		}
+		// check validity of bit depth
+		FloodFillComponentsLabeling.largestPossibleLabel(bitDepth);
+		
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.connectivity = connectivity;
+		this.bitDepth = bitDepth;
+		this.currentLabels = new int[sizeX * sizeY];
+	}
+
+	
+	// ==================================================
+	// Implementation of ConnectedComponentsLabeling3D interface
+	
+	/**
+	 * Computes the label image of the connected components, by processing
+	 * the slices of the input image twice. The input image may be a virtual
+	 * stack, but the result is stored in memory.
+	 * 
+	 * @param image
+	 *            the binary image containing components
+	 * @return the label image of the components
+	 */
+	@Override
+	public ImageStack computeLabels(ImageStack image)
+	{
+		if (image.getWidth() != sizeX || image.getHeight() != sizeY)
+		{
+			throw new IllegalArgumentException("Image size must be " + sizeX + "x" + sizeY);
+		}
+		int sizeZ = image.getSize();
+		
+		fireStatusChanged(this, "Compute components...");
+		for (int z = 0; z < sizeZ; z++)
+		{
+			fireProgressChanged(this, z, 2 * sizeZ);
+			addSlice(image.getProcessor(z + 1));
+		}
+		finish();
+		
+		fireStatusChanged(this, "Relabel slices...");
+		ImageStack result = new ImageStack(sizeX, sizeY);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			fireProgressChanged(this, sizeZ + z, 2 * sizeZ);
+			result.addSlice(relabelSlice(image.getProcessor(z + 1)));
+		}
+		
+		fireStatusChanged(this, "");
+		fireProgressChanged(this, 1, 1);
+		return result;
+	}
+
+	
+	// ==================================================
+	// Processing methods
+	
+	/**
+	 * Processes all the slices returned by an iterator, and finishes the
+	 * computation of the components.
+	 * 
+	 * @param slices
+	 *            an iterator over the binary slices of the image
+	 * @return the connected components
+	 */
+	public Component[] process(Iterator<ImageProcessor> slices)
+	{
+		while (slices.hasNext())
+		{
+			addSlice(slices.next());
+		}
+		finish();
+		return getComponents();
+	}
+	
+	/**
+	 * Labels the foreground voxels of a new slice, and updates the
+	 * components.
+	 * 
+	 * @param slice
+	 *            the new binary slice (non-zero voxels are foreground)
+	 * @throws IllegalStateException
+	 *             if the processing was already finished
+	 */
+	public void addSlice(ImageProcessor slice)
+	{
+		if (finished)
+		{
+			throw new IllegalStateException("Can not add slices after the labeling was finished");
+		}
+		checkSize(slice);
+		
+		int z = sliceCount;
+		int[] labels = currentLabels;
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				int index = y * sizeX + x;
+				if (slice.getf(index) == 0)
+				{
+					labels[index] = 0;
+					continue;
+				}
+				
+				// merge the components of the neighbors already labeled
+				int label = 0;
+				int nNeighbors = neighborLabels(labels, previousLabels, x, y, neighborBuffer);
+				for (int i = 0; i < nNeighbors; i++)
+				{
+					int root = findRoot(neighborBuffer[i]);
+					if (label == 0)
+						label = root;
+					else if (root != label)
+						label = union(label, root);
+				}
+				
+				// create a new provisional label if necessary
+				if (label == 0)
+				{
+					label = newLabel();
+				}
+				
+				labels[index] = label;
+				addVoxel(label, x, y, z);
+			}
+		}
+		
+		// the current slice becomes the previous one
+		if (previousLabels == null)
+		{
+			previousLabels = new int[sizeX * sizeY];
+		}
+		currentLabels = previousLabels;
+		previousLabels = labels;
+		sliceCount++;
+	}
+	
+	/**
+	 * Finishes the processing of the slices, and computes the final label of
+	 * each component. No slice can be added afterwards.
+	 */
+	public void finish()
+	{
+		if (finished)
+			return;
+		
+		// assign final labels to roots in increasing order. As the root of a
+		// component is its smallest provisional label, the final labels follow
+		// the order of the first voxel of each component.
+		finalLabels = new int[nProvisional + 1];
+		nComponents = 0;
+		for (int i = 1; i <= nProvisional; i++)
+		{
+			int root = findRoot(i);
+			finalLabels[i] = root == i ? ++nComponents : finalLabels[root];
+		}
+		
+		// release memory of the labeling pass
+		previousLabels = null;
+		currentLabels = null;
+		finished = true;
+	}
+	
+	/**
+	 * Computes the final labels of a slice, during a second pass over the
+	 * slices of the image. The slices must be the same as the ones given to
+	 * the {@link #addSlice(ImageProcessor)} method, in the same order.
+	 * 
+	 * @param slice
+	 *            the binary slice
+	 * @return the label image of the slice
+	 * @throws IllegalStateException
+	 *             if the processing of the slices was not finished, or if all
+	 *             slices were already relabeled
+	 */
+	public ImageProcessor relabelSlice(ImageProcessor slice)
+	{
+		if (!finished)
+		{
+			throw new IllegalStateException("Labeling must be finished before relabeling slices");
+		}
+		if (relabelSliceCount == sliceCount)
+		{
+			throw new IllegalStateException("All slices were already relabeled");
+		}
+		checkSize(slice);
+		
+		int maxLabel = FloodFillComponentsLabeling.largestPossibleLabel(this.bitDepth);
+		if (nComponents > maxLabel)
+		{
+			throw new RuntimeException("Max number of label reached (" + maxLabel + ")");
+		}
+		
+		if (currentFinalLabels == null)
+		{
+			currentFinalLabels = new int[sizeX * sizeY];
+		}
+		
+		// replay the labeling: a new provisional label is created exactly for
+		// the voxels without labeled neighbors, and the other voxels have the
+		// same final label as their neighbors
+		int[] labels = currentFinalLabels;
+		ImageProcessor result = ImageUtils.createImageProcessor(sizeX, sizeY, bitDepth);
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				int index = y * sizeX + x;
+				if (slice.getf(index) == 0)
+				{
+					labels[index] = 0;
+					continue;
+				}
+				
+				int nNeighbors = neighborLabels(labels, previousFinalLabels, x, y, neighborBuffer);
+				int label = nNeighbors > 0 ? neighborBuffer[0] : finalLabels[++relabelProvisional];
+				labels[index] = label;
+				result.setf(index, label);
+			}
+		}
+		
+		// the current slice becomes the previous one
+		if (previousFinalLabels == null)
+		{
+			previousFinalLabels = new int[sizeX * sizeY];
+		}
+		currentFinalLabels = previousFinalLabels;
+		previousFinalLabels = labels;
+		relabelSliceCount++;
+		return result;
+	}
+	
+	/**
+	 * Resets the state of the relabeling pass, making it possible to iterate
+	 * again over the slices with the {@link #relabelSlice(ImageProcessor)}
+	 * method.
+	 */
+	public void startRelabeling()
+	{
+		relabelSliceCount = 0;
+		relabelProvisional = 0;
+		previousFinalLabels = null;
+		currentFinalLabels = null;
+	}
+	
+	
+	// ==================================================
+	// Accessors
+	
+	/**
+	 * @return the number of slices added so far
+	 */
+	public int getSliceCount()
+	{
+		return sliceCount;
+	}
+	
+	/**
+	 * @return the number of connected components, or 0 if the processing was
+	 *         not finished
+	 */
+	public int getComponentNumber()
+	{
+		return nComponents;
+	}
+	
+	/**
+	 * Returns the connected components found within the slices, ordered by
+	 * label.
+	 * 
+	 * @return the connected components
+	 * @throws IllegalStateException
+	 *             if the processing of the slices was not finished
+	 */
+	public Component[] getComponents()
+	{
+		if (!finished)
+		{
+			throw new IllegalStateException("Labeling must be finished before computing components");
+		}
+		
+		Component[] components = new Component[nComponents];
+		for (int i = 1; i <= nProvisional; i++)
+		{
+			if (parents[i] != i)
+				continue;
+			
+			int label = finalLabels[i];
+			long n = counts[i];
+			components[label - 1] = new Component(label, n,
+					new IntBounds3D(xmin[i], xmax[i], ymin[i], ymax[i], zmin[i], zmax[i]),
+					new Point3D(sumX[i] / n, sumY[i] / n, sumZ[i] / n));
+		}
+		return components;
+	}
+	
+	
+	// ==================================================
+	// Utility methods
+	
+	/** Buffer for the labels of the neighbors of a voxel */
+	private int[] neighborBuffer = new int[13];
+	
+	/**
+	 * Collects the non-zero labels of the neighbors of the voxel (x,y) that
+	 * precede it in raster order, within the current slice and the previous
+	 * one.
+	 * 
+	 * @return the number of labels stored in the buffer
+	 */
+	private int neighborLabels(int[] labels, int[] previous, int x, int y, int[] buffer)
+	{
+		int index = y * sizeX + x;
+		int n = 0;
+		if (connectivity == 6)
+		{
+			if (x > 0 && labels[index - 1] != 0)
+				buffer[n++] = labels[index - 1];
+			if (y > 0 && labels[index - sizeX] != 0)
+				buffer[n++] = labels[index - sizeX];
+			if (previous != null && previous[index] != 0)
+				buffer[n++] = previous[index];
+			return n;
+		}
+		
+		// 26 connectivity: four neighbors in current slice
+		int x1 = Math.max(x - 1, 0);
+		int x2 = Math.min(x + 1, sizeX - 1);
+		if (x > 0 && labels[index - 1] != 0)
+			buffer[n++] = labels[index - 1];
+		if (y > 0)
+		{
+			int offset = (y - 1) * sizeX;
+			for (int x0 = x1; x0 <= x2; x0++)
+			{
+				if (labels[offset + x0] != 0)
+					buffer[n++] = labels[offset + x0];
+			}
+		}
+		
+		// nine neighbors in previous slice
+		if (previous != null)
+		{
+			for (int y0 = Math.max(y - 1, 0); y0 <= Math.min(y + 1, sizeY - 1); y0++)
+			{
+				int offset = y0 * sizeX;
+				for (int x0 = x1; x0 <= x2; x0++)
+				{
+					if (previous[offset + x0] != 0)
+						buffer[n++] = previous[offset + x0];
+				}
+			}
+		}
+		return n;
+	}
+	
+	private void checkSize(ImageProcessor slice)
+	{
+		if (slice.getWidth() != sizeX || slice.getHeight() != sizeY)
+		{
+			throw new IllegalArgumentException("Slice size must be " + sizeX + "x" + sizeY);
+		}
+	}
+	
+	private int newLabel()
+	{
+		int label = ++nProvisional;
+		if (label == parents.length)
+		{
+			growArrays();
+		}
+		parents[label] = label;
+		counts[label] = 0;
+		xmin[label] = ymin[label] = zmin[label] = Integer.MAX_VALUE;
+		xmax[label] = ymax[label] = zmax[label] = Integer.MIN_VALUE;
+		return label;
+	}
+	
+	private void addVoxel(int label, int x, int y, int z)
+	{
+		counts[label]++;
+		sumX[label] += x;
+		sumY[label] += y;
+		sumZ[label] += z;
+		xmin[label] = Math.min(xmin[label], x);
+		xmax[label] = Math.max(xmax[label], x);
+		ymin[label] = Math.min(ymin[label], y);
+		ymax[label] = Math.max(ymax[label], y);
+		zmin[label] = Math.min(zmin[label], z);
+		zmax[label] = Math.max(zmax[label], z);
+	}
+	
+	/**
+	 * Merges two components given by their roots, and returns the root of
+	 * the merged component, that is the smallest of the two labels. The
+	 * statistics are accumulated within the new root.
+	 */
+	private int union(int root1, int root2)
+	{
+		int root = Math.min(root1, root2);
+		int other = Math.max(root1, root2);
+		parents[other] = root;
+		
+		counts[root] += counts[other];
+		sumX[root] += sumX[other];
+		sumY[root] += sumY[other];
+		sumZ[root] += sumZ[other];
+		xmin[root] = Math.min(xmin[root], xmin[other]);
+		xmax[root] = Math.max(xmax[root], xmax[other]);
+		ymin[root] = Math.min(ymin[root], ymin[other]);
+		ymax[root] = Math.max(ymax[root], ymax[other]);
+		zmin[root] = Math.min(zmin[root], zmin[other]);
+		zmax[root] = Math.max(zmax[root], zmax[other]);
+		return root;
+	}
+	
+	private int findRoot(int label)
+	{
+		int root = label;
+		while (parents[root] != root)
+			root = parents[root];
+
+		// path compression
+		while (parents[label] != root)
+		{
+			int next = parents[label];
+			parents[label] = root;
+			label = next;
+		}
+		return root;
+	}
+	
+	private void growArrays()
+	{
+		int n = parents.length * 2;
+		parents = Arrays.copyOf(parents, n);
+		counts = Arrays.copyOf(counts, n);
+		sumX = Arrays.copyOf(sumX, n);
+		sumY = Arrays.copyOf(sumY, n);
+		sumZ = Arrays.copyOf(sumZ, n);
+		xmin = Arrays.copyOf(xmin, n);
+		xmax = Arrays.copyOf(xmax, n);
+		ymin = Arrays.copyOf(ymin, n);
+		ymax = Arrays.copyOf(ymax, n);
+		zmin = Arrays.copyOf(zmin, n);
+		zmax = Arrays.copyOf(zmax, n);
+	}
+	
+	
+	// ==================================================
+	// Inner class for storing results
+	
+	/**
+	 * Data class that stores the measurements of a connected component.
+	 */
+	public class Component
+	{
+		/** The label of the component, starting from 1 */
+		public final int label;
+		
+		/** The number of voxels of the component */
+		public final long voxelCount;
+		
+		/** The bounds of the component, in voxel coordinates (inclusive) */
+		public final IntBounds3D bounds;
+		
+		/** The centroid of the component, in voxel coordinates */
+		public final Point3D centroid;
+		
+		/**
+		 * Creates a new data class for storing the measurements of a
+		 * component.
+		 * 
+		 * @param label
+		 *            the label of the component
+		 * @param voxelCount
+		 *            the number of voxels of the component
+		 * @param bounds
+		 *            the bounds of the component
+		 * @param centroid
+		 *            the centroid of the component
+		 */
+		public Component(int label, long voxelCount, IntBounds3D bounds, Point3D centroid)
+		{
+			this.label = label;
+			this.voxelCount = voxelCount;
+			this.bounds = bounds;
+			this.centroid = centroid;
+		}
+	}
+}
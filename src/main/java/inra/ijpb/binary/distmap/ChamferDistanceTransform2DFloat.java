@@ -27,8 +27,10 @@ package inra.ijpb.binary.distmap;
 import ij.process.ImageProcessor;
 
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.process.FloatProcessor;
+import ij.Prefs;
 import inra.ijpb.algo.AlgoEvent;
 import inra.ijpb.algo.AlgoStub;
 import inra.ijpb.binary.distmap.ChamferMask2D.FloatOffset;
@@ -60,6 +62,16 @@ import inra.ijpb.label.LabelValues;
  */
 public class ChamferDistanceTransform2DFloat extends AlgoStub implements ChamferDistanceTransform2D
 {
+	// ==================================================
+	// Constants
+	
+	/**
+	 * The number of pixels processed by a thread between two checks of the
+	 * progress of the previous rows.
+	 */
+	private static final int BLOCK_SIZE = 128;
+	
+	
 	// ==================================================
 	// Class variables
 
@@ -75,6 +87,11 @@ public class ChamferDistanceTransform2DFloat extends AlgoStub implements Chamfer
 	 */
 	boolean normalize = true;
 	
+	/**
+	 * The number of threads used for the forward and backward scans.
+	 */
+	int nThreads = Prefs.getThreads();
+	
 	
 	// ==================================================
 	// Constructors 
@@ -109,6 +126,24 @@ public class ChamferDistanceTransform2DFloat extends AlgoStub implements Chamfer
 	}
 	
 
+	// ==================================================
+	// Setters
+	
+	/**
+	 * Changes the number of threads used for computing the distance map.
+	 * Rows are processed in parallel, each block of pixels being processed
+	 * once the pixels it depends on within previous rows have been
+	 * processed, making the result identical to the sequential computation.
+	 * 
+	 * @param nThreads
+	 *            the number of threads, or 1 for sequential processing
+	 */
+	public void setThreadNumber(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+	
+	
 	// ==================================================
 	// Implementation of the ChamferDistanceTransform2D interface
 	
@@ -197,122 +232,218 @@ public class ChamferDistanceTransform2DFloat extends AlgoStub implements Chamfer
 		return distMap;
 	}
 	
-	private void forwardScan(FloatProcessor distMap, ImageProcessor binaryImage) 
+	private void forwardScan(final FloatProcessor distMap, final ImageProcessor binaryImage) 
 	{
 		this.fireStatusChanged(new AlgoEvent(this, "Forward Scan"));
 
 		// size of image
-		int sizeX = binaryImage.getWidth();
-		int sizeY = binaryImage.getHeight();
-		Collection<FloatOffset> offsets =  mask.getForwardFloatOffsets();
+		final int sizeX = binaryImage.getWidth();
+		final int sizeY = binaryImage.getHeight();
+		final Collection<FloatOffset> offsets =  mask.getForwardFloatOffsets();
 
 		// Iterate over pixels
-		for (int y = 0; y < sizeY; y++)
+		if (this.nThreads > 1 && sizeY > 1)
 		{
-			this.fireProgressChanged(this, y, sizeY);
-			for (int x = 0; x < sizeX; x++)
+			// process rows in parallel, each block of pixels being processed
+			// after the pixels of previous rows it depends on
+			final AtomicInteger doneRows = new AtomicInteger(0);
+			PipelinedScan.run(sizeY, sizeX, maxShiftY(), maxShiftX(), BLOCK_SIZE, this.nThreads, new PipelinedScan.BlockProcessor()
 			{
-                // do not process background pixels
-                if (binaryImage.get(x, y) == 0)
-                    continue;
-				
-				// current distance value
-				float currentDist = distMap.getf(x, y);
-				float newDist = currentDist;
-				
-				// iterate over neighbors
-				for (FloatOffset offset : offsets)
+				@Override
+				public void processBlock(int y, int start, int end)
 				{
-					// compute neighbor coordinates
-					int x2 = x + offset.dx;
-					int y2 = y + offset.dy;
-					
-					// check bounds
-					if (x2 < 0 || x2 >= sizeX)
-						continue;
-					if (y2 < 0 || y2 >= sizeY)
-						continue;
-					
-					// check if neighbor pixel is background or foreground
-                    if (binaryImage.get(x2, y2) == 0)
+					forwardScanRow(distMap, binaryImage, offsets, y, start, end);
+					if (end == sizeX)
 					{
-                        // background: use distance to background pixel
-					    newDist = Math.min(newDist, offset.weight);
+						fireProgressChanged(ChamferDistanceTransform2DFloat.this, doneRows.incrementAndGet(), sizeY);
 					}
-					else
-					{
-					    // foreground: increment distance
-						newDist = Math.min(newDist, distMap.getf(x2, y2) + offset.weight);
-					}
-				}
-				
-				if (newDist < currentDist) 
-				{
-					distMap.setf(x, y, newDist);
 				}
+			});
+		}
+		else
+		{
+			for (int y = 0; y < sizeY; y++)
+			{
+				this.fireProgressChanged(this, y, sizeY);
+				forwardScanRow(distMap, binaryImage, offsets, y, 0, sizeX);
 			}
 		}
 		
 		this.fireProgressChanged(this, sizeY, sizeY);
 	}
 	
-	private void backwardScan(FloatProcessor distMap, ImageProcessor binaryImage) 
+	/**
+	 * Processes the pixels of a row with x coordinates between start
+	 * (inclusive) and end (exclusive), in increasing order.
+	 */
+	private static void forwardScanRow(FloatProcessor distMap, ImageProcessor binaryImage, Collection<FloatOffset> offsets, int y, int start, int end) 
 	{
-		this.fireStatusChanged(new AlgoEvent(this, "Backward Scan"));
-
 		// size of image
 		int sizeX = binaryImage.getWidth();
 		int sizeY = binaryImage.getHeight();
-		Collection<FloatOffset> offsets =  mask.getBackwardFloatOffsets();
 
-		// Iterate over pixels
-		for (int y = sizeY-1; y >= 0; y--)
+		for (int x = start; x < end; x++)
 		{
-			this.fireProgressChanged(this, sizeY-1-y, sizeY);
-			for (int x = sizeX-1; x >= 0; x--)
+            // do not process background pixels
+            if (binaryImage.get(x, y) == 0)
+                continue;
+			
+			// current distance value
+			float currentDist = distMap.getf(x, y);
+			float newDist = currentDist;
+			
+			// iterate over neighbors
+			for (FloatOffset offset : offsets)
 			{
-                // do not process background pixels
-			    if (binaryImage.get(x, y) == 0)
-                    continue;
+				// compute neighbor coordinates
+				int x2 = x + offset.dx;
+				int y2 = y + offset.dy;
 				
-				// current distance value
-				float currentDist = distMap.getf(x, y);
-				float newDist = currentDist;
+				// check bounds
+				if (x2 < 0 || x2 >= sizeX)
+					continue;
+				if (y2 < 0 || y2 >= sizeY)
+					continue;
 				
-				// iterate over neighbors
-				for (FloatOffset offset : offsets)
+				// check if neighbor pixel is background or foreground
+                if (binaryImage.get(x2, y2) == 0)
 				{
-					// compute neighbor coordinates
-					int x2 = x + offset.dx;
-					int y2 = y + offset.dy;
-					
-					// check bounds
-					if (x2 < 0 || x2 >= sizeX)
-						continue;
-					if (y2 < 0 || y2 >= sizeY)
-						continue;
-					
-					// check if neighbor pixel is background or foreground
-                    if (binaryImage.get(x2, y2) == 0)
-					{
-                        // background: use distance to background pixel
-					    newDist = Math.min(newDist, offset.weight);
-					}
-					else
+                    // background: use distance to background pixel
+				    newDist = Math.min(newDist, offset.weight);
+				}
+				else
+				{
+				    // foreground: increment distance
+					newDist = Math.min(newDist, distMap.getf(x2, y2) + offset.weight);
+				}
+			}
+			
+			if (newDist < currentDist) 
+			{
+				distMap.setf(x, y, newDist);
+			}
+		}
+	}
+	
+	private void backwardScan(final FloatProcessor distMap, final ImageProcessor binaryImage) 
+	{
+		this.fireStatusChanged(new AlgoEvent(this, "Backward Scan"));
+
+		// size of image
+		final int sizeX = binaryImage.getWidth();
+		final int sizeY = binaryImage.getHeight();
+		final Collection<FloatOffset> offsets =  mask.getBackwardFloatOffsets();
+
+		// Iterate over pixels
+		if (this.nThreads > 1 && sizeY > 1)
+		{
+			// process rows in parallel, in backward order for both rows and
+			// pixels
+			final AtomicInteger doneRows = new AtomicInteger(0);
+			PipelinedScan.run(sizeY, sizeX, maxShiftY(), maxShiftX(), BLOCK_SIZE, this.nThreads, new PipelinedScan.BlockProcessor()
+			{
+				@Override
+				public void processBlock(int line, int start, int end)
+				{
+					backwardScanRow(distMap, binaryImage, offsets, sizeY - 1 - line, sizeX - end, sizeX - start);
+					if (end == sizeX)
 					{
-					    // foreground: increment distance
-						newDist = Math.min(newDist, distMap.getf(x2, y2) + offset.weight);
+						fireProgressChanged(ChamferDistanceTransform2DFloat.this, doneRows.incrementAndGet(), sizeY);
 					}
 				}
+			});
+		}
+		else
+		{
+			for (int y = sizeY-1; y >= 0; y--)
+			{
+				this.fireProgressChanged(this, sizeY-1-y, sizeY);
+				backwardScanRow(distMap, binaryImage, offsets, y, 0, sizeX);
+			}
+		}
+		
+		this.fireProgressChanged(this, sizeY, sizeY);
+	}
+	
+	/**
+	 * Processes the pixels of a row with x coordinates between start
+	 * (inclusive) and end (exclusive), in decreasing order.
+	 */
+	private static void backwardScanRow(FloatProcessor distMap, ImageProcessor binaryImage, Collection<FloatOffset> offsets, int y, int start, int end) 
+	{
+		// size of image
+		int sizeX = binaryImage.getWidth();
+		int sizeY = binaryImage.getHeight();
+
+		for (int x = end-1; x >= start; x--)
+		{
+            // do not process background pixels
+		    if (binaryImage.get(x, y) == 0)
+                continue;
+			
+			// current distance value
+			float currentDist = distMap.getf(x, y);
+			float newDist = currentDist;
+			
+			// iterate over neighbors
+			for (FloatOffset offset : offsets)
+			{
+				// compute neighbor coordinates
+				int x2 = x + offset.dx;
+				int y2 = y + offset.dy;
 				
-				if (newDist < currentDist) 
+				// check bounds
+				if (x2 < 0 || x2 >= sizeX)
+					continue;
+				if (y2 < 0 || y2 >= sizeY)
+					continue;
+				
+				// check if neighbor pixel is background or foreground
+                if (binaryImage.get(x2, y2) == 0)
+				{
+                    // background: use distance to background pixel
+				    newDist = Math.min(newDist, offset.weight);
+				}
+				else
 				{
-					distMap.setf(x, y, newDist);
+				    // foreground: increment distance
+					newDist = Math.min(newDist, distMap.getf(x2, y2) + offset.weight);
 				}
 			}
+			
+			if (newDist < currentDist) 
+			{
+				distMap.setf(x, y, newDist);
+			}
 		}
-		
-		this.fireProgressChanged(this, sizeY, sizeY);
+	}
+	
+	/**
+	 * Returns the largest absolute shift along the x direction among the
+	 * offsets of the mask.
+	 */
+	private int maxShiftX()
+	{
+		int maxShift = 0;
+		for (FloatOffset offset : this.mask.getFloatOffsets())
+		{
+			maxShift = Math.max(maxShift, Math.abs(offset.dx));
+		}
+		return maxShift;
+	}
+	
+	/**
+	 * Returns the largest absolute shift along the y direction among the
+	 * offsets of the mask.
+	 */
+	private int maxShiftY()
+	{
+		int maxShift = 0;
+		for (FloatOffset offset : this.mask.getFloatOffsets())
+		{
+			maxShift = Math.max(maxShift, Math.abs(offset.dy));
+		}
+		return maxShift;
 	}
 	
 	private void normalizeResult(FloatProcessor distMap, ImageProcessor binaryImage)
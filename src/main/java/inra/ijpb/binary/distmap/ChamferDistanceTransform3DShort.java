@@ -27,8 +27,10 @@ package inra.ijpb.binary.distmap;
 import static java.lang.Math.min;
 
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.ImageStack;
+import ij.Prefs;
 import inra.ijpb.algo.AlgoStub;
 import inra.ijpb.binary.distmap.ChamferMask3D.ShortOffset;
 import inra.ijpb.data.image.Images3D;
@@ -57,6 +59,11 @@ public class ChamferDistanceTransform3DShort extends AlgoStub implements Chamfer
 	 */
 	boolean normalize = true;
 	
+	/**
+	 * The number of threads used for the forward and backward scans.
+	 */
+	int nThreads = Prefs.getThreads();
+	
 	
 	// ==================================================
 	// Constructors 
@@ -90,6 +97,24 @@ public class ChamferDistanceTransform3DShort extends AlgoStub implements Chamfer
 	}
 	
 
+	// ==================================================
+	// Setters
+	
+	/**
+	 * Changes the number of threads used for computing the distance map.
+	 * Slices are processed in parallel, each row being processed once the
+	 * rows it depends on within previous slices have been processed, making
+	 * the result identical to the sequential computation.
+	 * 
+	 * @param nThreads
+	 *            the number of threads, or 1 for sequential processing
+	 */
+	public void setThreadNumber(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+	
+	
 	// ==================================================
 	// Implementation of the ChamferDistanceTransform3D interface 
 	
@@ -175,121 +200,214 @@ public class ChamferDistanceTransform3DShort extends AlgoStub implements Chamfer
 		fireProgressChanged(this, 1, 1); 
 	}
 	
-	private void forwardScan(int[] dims, byte[][] maskSlices, short[][] resultSlices) 
+	private void forwardScan(final int[] dims, final byte[][] maskSlices, final short[][] resultSlices) 
 	{
 		fireStatusChanged(this, "Forward scan..."); 
 		
 		// retrieve image dimensions
-		int sizeX = dims[0];
-		int sizeY = dims[1];
-		int sizeZ = dims[2];
+		final int sizeY = dims[1];
+		final int sizeZ = dims[2];
 		
 		// create array of forward shifts
-		Collection<ShortOffset> offsets = this.mask.getForwardOffsets();
+		final Collection<ShortOffset> offsets = this.mask.getForwardOffsets();
 
 		// iterate on image voxels
-		for (int z = 0; z < sizeZ; z++)
+		if (this.nThreads > 1 && sizeZ > 1)
 		{
-			fireProgressChanged(this, z, sizeZ); 
-			
-			byte[] maskSlice = maskSlices[z];
-			short[] currentSlice = resultSlices[z];
-			
-			for (int y = 0; y < sizeY; y++)
+			// process slices in parallel, each row being processed after the
+			// rows of previous slices it depends on
+			final AtomicInteger doneSlices = new AtomicInteger(0);
+			PipelinedScan.run(sizeZ, sizeY, maxShiftZ(), maxShiftY(), 1, this.nThreads, new PipelinedScan.BlockProcessor()
 			{
-				for (int x = 0; x < sizeX; x++)
+				@Override
+				public void processBlock(int z, int start, int end)
 				{
-					int index = sizeX * y + x;
-
-					// check if we need to update current voxel
-					if ((maskSlice[index] & 0x00FF) == 0)
-						continue;
-					
-					int value = currentSlice[index];
-					
-					// iterate over forward offsets defined by ChamferWeights
-					int newVal = Short.MAX_VALUE;
-					for (ShortOffset offset : offsets)
+					for (int y = start; y < end; y++)
+					{
+						forwardScanRow(dims, maskSlices, resultSlices, offsets, y, z);
+					}
+					if (end == sizeY)
 					{
-						int x2 = x + offset.dx;
-						int y2 = y + offset.dy;
-						int z2 = z + offset.dz;
-						
-						// check that current neighbor is within image
-						if (x2 >= 0 && x2 < sizeX && y2 >= 0 && y2 < sizeY && z2 >= 0 && z2 < sizeZ)
-						{
-							newVal = min(newVal, resultSlices[z2][sizeX * y2 + x2] + offset.weight);
-						}
-						
-						if (newVal < value) 
-						{
-							currentSlice[index] = (short) newVal;
-						}
+						fireProgressChanged(ChamferDistanceTransform3DShort.this, doneSlices.incrementAndGet(), sizeZ);
 					}
 				}
+			});
+		}
+		else
+		{
+			for (int z = 0; z < sizeZ; z++)
+			{
+				fireProgressChanged(this, z, sizeZ); 
+				for (int y = 0; y < sizeY; y++)
+				{
+					forwardScanRow(dims, maskSlices, resultSlices, offsets, y, z);
+				}
 			}
 		}
 		fireProgressChanged(this, 1, 1); 
 	}
 	
-	private void backwardScan(int[] dims, byte[][] maskSlices, short[][] resultSlices) 
+	private static void forwardScanRow(int[] dims, byte[][] maskSlices, short[][] resultSlices, Collection<ShortOffset> offsets, int y, int z)
 	{
-		fireStatusChanged(this, "Backward scan..."); 
-		
 		// retrieve image dimensions
 		int sizeX = dims[0];
 		int sizeY = dims[1];
 		int sizeZ = dims[2];
 		
-		// create array of backward shifts
-		Collection<ShortOffset> offsets = this.mask.getBackwardOffsets();
+		byte[] maskSlice = maskSlices[z];
+		short[] currentSlice = resultSlices[z];
 		
-		// iterate on image voxels in backward order
-		for (int z = sizeZ - 1; z >= 0; z--)
+		for (int x = 0; x < sizeX; x++)
 		{
-			fireProgressChanged(this, sizeZ-1-z, sizeZ);
+			int index = sizeX * y + x;
+
+			// check if we need to update current voxel
+			if ((maskSlice[index] & 0x00FF) == 0)
+				continue;
 			
-			byte[] maskSlice = maskSlices[z];
-			short[] currentSlice = resultSlices[z];
+			int value = currentSlice[index];
 			
-			for (int y = sizeY - 1; y >= 0; y--)
+			// iterate over forward offsets defined by ChamferWeights
+			int newVal = Short.MAX_VALUE;
+			for (ShortOffset offset : offsets)
 			{
-				for (int x = sizeX - 1; x >= 0; x--)
+				int x2 = x + offset.dx;
+				int y2 = y + offset.dy;
+				int z2 = z + offset.dz;
+				
+				// check that current neighbor is within image
+				if (x2 >= 0 && x2 < sizeX && y2 >= 0 && y2 < sizeY && z2 >= 0 && z2 < sizeZ)
 				{
-					int index = sizeX * y + x;
-
-					// check if we need to update current voxel
-					if ((maskSlice[index] & 0x00FF) == 0)
-						continue;
-					
-					int value = currentSlice[index];
-					
-					// iterate over backward offsets defined by ChamferWeights
-					int newVal = Short.MAX_VALUE;
-					for (ShortOffset offset : offsets)
+					newVal = min(newVal, resultSlices[z2][sizeX * y2 + x2] + offset.weight);
+				}
+				
+				if (newVal < value) 
+				{
+					currentSlice[index] = (short) newVal;
+				}
+			}
+		}
+	}
+	
+	private void backwardScan(final int[] dims, final byte[][] maskSlices, final short[][] resultSlices) 
+	{
+		fireStatusChanged(this, "Backward scan..."); 
+		
+		// retrieve image dimensions
+		final int sizeY = dims[1];
+		final int sizeZ = dims[2];
+		
+		// create array of backward shifts
+		final Collection<ShortOffset> offsets = this.mask.getBackwardOffsets();
+		
+		// iterate on image voxels in backward order
+		if (this.nThreads > 1 && sizeZ > 1)
+		{
+			// process slices in parallel, in backward order for both slices
+			// and rows
+			final AtomicInteger doneSlices = new AtomicInteger(0);
+			PipelinedScan.run(sizeZ, sizeY, maxShiftZ(), maxShiftY(), 1, this.nThreads, new PipelinedScan.BlockProcessor()
+			{
+				@Override
+				public void processBlock(int line, int start, int end)
+				{
+					int z = sizeZ - 1 - line;
+					for (int i = start; i < end; i++)
 					{
-						int x2 = x + offset.dx;
-						int y2 = y + offset.dy;
-						int z2 = z + offset.dz;
-						
-						// check that current neighbor is within image
-						if (x2 >= 0 && x2 < sizeX && y2 >= 0 && y2 < sizeY && z2 >= 0 && z2 < sizeZ)
-						{
-							newVal = min(newVal, resultSlices[z2][sizeX * y2 + x2] + offset.weight);
-						}
+						backwardScanRow(dims, maskSlices, resultSlices, offsets, sizeY - 1 - i, z);
 					}
-
-					// Update current value if necessary
-					if (newVal < value) 
+					if (end == sizeY)
 					{
-						currentSlice[index] = (short) newVal;
+						fireProgressChanged(ChamferDistanceTransform3DShort.this, doneSlices.incrementAndGet(), sizeZ);
 					}
 				}
+			});
+		}
+		else
+		{
+			for (int z = sizeZ - 1; z >= 0; z--)
+			{
+				fireProgressChanged(this, sizeZ-1-z, sizeZ);
+				for (int y = sizeY - 1; y >= 0; y--)
+				{
+					backwardScanRow(dims, maskSlices, resultSlices, offsets, y, z);
+				}
 			}
 		}
 		fireProgressChanged(this, 1, 1); 
 	}
 	
+	private static void backwardScanRow(int[] dims, byte[][] maskSlices, short[][] resultSlices, Collection<ShortOffset> offsets, int y, int z)
+	{
+		// retrieve image dimensions
+		int sizeX = dims[0];
+		int sizeY = dims[1];
+		int sizeZ = dims[2];
+		
+		byte[] maskSlice = maskSlices[z];
+		short[] currentSlice = resultSlices[z];
+		
+		for (int x = sizeX - 1; x >= 0; x--)
+		{
+			int index = sizeX * y + x;
+
+			// check if we need to update current voxel
+			if ((maskSlice[index] & 0x00FF) == 0)
+				continue;
+			
+			int value = currentSlice[index];
+			
+			// iterate over backward offsets defined by ChamferWeights
+			int newVal = Short.MAX_VALUE;
+			for (ShortOffset offset : offsets)
+			{
+				int x2 = x + offset.dx;
+				int y2 = y + offset.dy;
+				int z2 = z + offset.dz;
+				
+				// check that current neighbor is within image
+				if (x2 >= 0 && x2 < sizeX && y2 >= 0 && y2 < sizeY && z2 >= 0 && z2 < sizeZ)
+				{
+					newVal = min(newVal, resultSlices[z2][sizeX * y2 + x2] + offset.weight);
+				}
+			}
+
+			// Update current value if necessary
+			if (newVal < value) 
+			{
+				currentSlice[index] = (short) newVal;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the largest absolute shift along the z direction among the
+	 * offsets of the mask.
+	 */
+	private int maxShiftZ()
+	{
+		int maxShift = 0;
+		for (ShortOffset offset : this.mask.getOffsets())
+		{
+			maxShift = Math.max(maxShift, Math.abs(offset.dz));
+		}
+		return maxShift;
+	}
+	
+	/**
+	 * Returns the largest absolute shift along the y direction among the
+	 * offsets of the mask.
+	 */
+	private int maxShiftY()
+	{
+		int maxShift = 0;
+		for (ShortOffset offset : this.mask.getOffsets())
+		{
+			maxShift = Math.max(maxShift, Math.abs(offset.dy));
+		}
+		return maxShift;
+	}
+	
 	private void normalizeResultSlices(byte[][] maskSlices, short[][] resultSlices)
 	{
 		fireStatusChanged(this, "Normalize map..."); 
@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.binary.distmap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import ij.util.ThreadUtil;
+
+/**
+ * Pipelined scheduling of the raster scans used by chamfer distance
+ * transforms.
+ * 
+ * The image is considered as a sequence of lines (rows in 2D, slices in 3D),
+ * each line being a sequence of elements (pixels in 2D, rows in 3D), both
+ * indexed in scan order. The value computed for an element only depends on
+ * elements that precede it in scan order, located at most
+ * <code>lineLag</code> lines before, and at most <code>elementLag</code>
+ * elements after within these lines. Lines are processed by several threads,
+ * each line being processed by blocks of elements once the blocks it depends
+ * on have been processed. Each element is therefore computed from the same
+ * neighbor values as in a sequential scan, and the result is identical.
+ * 
+ * @author dlegland
+ */
+class PipelinedScan
+{
+	/**
+	 * Processes a block of elements within a line.
+	 */
+	interface BlockProcessor
+	{
+		/**
+		 * Processes the elements of a line within the specified range.
+		 * 
+		 * @param line
+		 *            the index of the line, in scan order
+		 * @param start
+		 *            the index of the first element to process, in scan order
+		 * @param end
+		 *            the index after the last element to process
+		 */
+		public void processBlock(int line, int start, int end);
+	}
+
+	/**
+	 * Processes all the lines using the specified number of threads.
+	 * 
+	 * @param nLines
+	 *            the number of lines
+	 * @param nElements
+	 *            the number of elements within each line
+	 * @param lineLag
+	 *            the maximum number of lines between an element and the
+	 *            elements it depends on
+	 * @param elementLag
+	 *            the maximum number of elements between an element and the
+	 *            following elements it depends on within previous lines
+	 * @param blockSize
+	 *            the number of elements processed between two checks of
+	 *            dependencies
+	 * @param nThreads
+	 *            the number of threads
+	 * @param processor
+	 *            the processor of blocks
+	 */
+	static void run(final int nLines, final int nElements, final int lineLag, final int elementLag,
+			final int blockSize, int nThreads, final BlockProcessor processor)
+	{
+		// the number of processed elements within each line
+		final AtomicIntegerArray doneElements = new AtomicIntegerArray(nLines);
+		final AtomicInteger nextLine = new AtomicInteger(0);
+		final Throwable[] failure = new Throwable[1];
+		final AtomicInteger failed = new AtomicInteger(0);
+
+		// lines are dispatched in scan order, so the earliest line being
+		// processed never waits, and threads can not be blocked forever
+		Thread[] threads = ThreadUtil.createThreadArray(Math.max(1, Math.min(nThreads, nLines)));
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						for (int line = nextLine.getAndIncrement(); line < nLines; line = nextLine.getAndIncrement())
+						{
+							for (int start = 0; start < nElements; start += blockSize)
+							{
+								int end = Math.min(start + blockSize, nElements);
+
+								// wait for the required elements of previous lines
+								int required = Math.min(end + elementLag, nElements);
+								for (int k = 1; k <= lineLag && line - k >= 0; k++)
+								{
+									while (doneElements.get(line - k) < required)
+									{
+										if (failed.get() != 0)
+											return;
+										Thread.yield();
+									}
+								}
+
+								processor.processBlock(line, start, end);
+								doneElements.set(line, end);
+							}
+						}
+					}
+					catch (RuntimeException | Error ex)
+					{
+						if (failed.compareAndSet(0, 1))
+						{
+							failure[0] = ex;
+						}
+					}
+				}
+			};
+		}
+		ThreadUtil.startAndJoin(threads);
+
+		// propagate the failure of a thread
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException) failure[0];
+		if (failure[0] instanceof Error)
+			throw (Error) failure[0];
+	}
+
+	/**
+	 * Private constructor to prevent class instantiation.
+	 */
+	private PipelinedScan()
+	{
+	}
+}
@@ -0,0 +1,303 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.data;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Neighborhood of a pixel or voxel, represented by precomputed offsets, that
+ * makes it possible to iterate over neighbors without creating objects.
+ * </p>
+ * 
+ * <p>
+ * The neighbors are stored in the same order as in the
+ * {@link Neighborhood2DC4}, {@link Neighborhood2DC8}, {@link Neighborhood3DC6}
+ * and {@link Neighborhood3DC26} classes, so that algorithms that depend on
+ * the processing order of neighbors give the same results. Each neighbor is
+ * identified by its index, that can be used to retrieve the shift along each
+ * dimension, the offset of the linear index (computed as
+ * <code>x + sizeX * (y + sizeY * z)</code>), or the offset of the index
+ * within the slice.
+ * </p>
+ * 
+ * <p>
+ * Each position of the image is associated to a boundary class, depending on
+ * whether it touches the lower or upper bound of each dimension. For each
+ * class, the indices of the neighbors that fall within the image are
+ * precomputed, removing the need for bound checks during iteration:
+ * </p>
+ * <pre><code>
+ * NeighborhoodOffsets neigh = new NeighborhoodOffsets(6, sizeX, sizeY, sizeZ);
+ * int[] dx = neigh.getShiftsX(), dy = neigh.getShiftsY(), dz = neigh.getShiftsZ();
+ * for (int n : neigh.getNeighbors(x, y, z))
+ * {
+ *     int x2 = x + dx[n], y2 = y + dy[n], z2 = z + dz[n];
+ *     ...
+ * }
+ * </code></pre>
+ * 
+ * @see Neighborhood2D
+ * @see Neighborhood3D
+ * 
+ * @author dlegland
+ */
+public class NeighborhoodOffsets
+{
+	// ==================================================
+	// Class variables
+	
+	int connectivity;
+	
+	int sizeX;
+	int sizeY;
+	int sizeZ;
+	
+	/** The shifts of each neighbor */
+	int[] dx;
+	int[] dy;
+	int[] dz;
+	
+	/** The offsets of the linear index of each neighbor */
+	int[] offsets;
+	
+	/** The offsets of the index within the slice of each neighbor */
+	int[] planeOffsets;
+	
+	/** The Euclidean distance to each neighbor */
+	double[] distances;
+	
+	/** For each boundary class, the indices of the valid neighbors */
+	int[][] validNeighbors;
+	
+	
+	// ==================================================
+	// Constructor
+	
+	/**
+	 * Creates a new neighborhood for an image with the specified size.
+	 * 
+	 * @param connectivity
+	 *            the connectivity, either 4 or 8 for planar images, or 6 or 26
+	 *            for 3D images
+	 * @param sizeX
+	 *            the size of the image in the X direction
+	 * @param sizeY
+	 *            the size of the image in the Y direction
+	 * @param sizeZ
+	 *            the size of the image in the Z direction
+	 */
+	public NeighborhoodOffsets(int connectivity, int sizeX, int sizeY, int sizeZ)
+	{
+		this.connectivity = connectivity;
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+		
+		switch (connectivity)
+		{
+		case 4:
+			dx = new int[] { -1, 0, 1, 0 };
+			dy = new int[] { 0, -1, 0, 1 };
+			dz = new int[4];
+			break;
+		case 8:
+			dx = new int[] { -1, -1, -1, 0, 0, 1, 1, 1 };
+			dy = new int[] { -1, 0, 1, -1, 1, -1, 0, 1 };
+			dz = new int[8];
+			break;
+		case 6:
+			dx = new int[] { 0, -1, 0, 0, 1, 0 };
+			dy = new int[] { 0, 0, -1, 1, 0, 0 };
+			dz = new int[] { -1, 0, 0, 0, 0, 1 };
+			break;
+		case 26:
+			dx = new int[26];
+			dy = new int[26];
+			dz = new int[26];
+			int n = 0;
+			for (int z = -1; z <= 1; z++)
+			{
+				for (int x = -1; x <= 1; x++)
+				{
+					for (int y = -1; y <= 1; y++)
+					{
+						if (x == 0 && y == 0 && z == 0)
+							continue;
+						dx[n] = x;
+						dy[n] = y;
+						dz[n] = z;
+						n++;
+					}
+				}
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Connectivity must be 4, 8, 6 or 26, not " + connectivity);
+		}
+		
+		int nNeighbors = dx.length;
+		this.offsets = new int[nNeighbors];
+		this.planeOffsets = new int[nNeighbors];
+		this.distances = new double[nNeighbors];
+		for (int n = 0; n < nNeighbors; n++)
+		{
+			planeOffsets[n] = dx[n] + dy[n] * sizeX;
+			offsets[n] = planeOffsets[n] + dz[n] * sizeX * sizeY;
+			distances[n] = Math.sqrt(dx[n] * dx[n] + dy[n] * dy[n] + dz[n] * dz[n]);
+		}
+		
+		// compute the valid neighbors of each boundary class
+		this.validNeighbors = new int[64][];
+		int[] buffer = new int[nNeighbors];
+		for (int c = 0; c < 64; c++)
+		{
+			int count = 0;
+			for (int n = 0; n < nNeighbors; n++)
+			{
+				if (isValid(dx[n], c) && isValid(dy[n], c >> 2) && isValid(dz[n], c >> 4))
+					buffer[count++] = n;
+			}
+			validNeighbors[c] = Arrays.copyOf(buffer, count);
+		}
+	}
+	
+	/**
+	 * Checks if a shift is compatible with a boundary class along one
+	 * dimension: bit 0 is set for positions on the lower bound, bit 1 for
+	 * positions on the upper bound.
+	 */
+	private static final boolean isValid(int shift, int code)
+	{
+		if (shift < 0 && (code & 1) != 0) return false;
+		if (shift > 0 && (code & 2) != 0) return false;
+		return true;
+	}
+	
+	
+	// ==================================================
+	// Iteration over neighbors
+	
+	/**
+	 * Returns the indices of the neighbors of the specified position that are
+	 * located within the image. The returned array is shared and must not be
+	 * modified.
+	 * 
+	 * @param x
+	 *            the x-coordinate of the position
+	 * @param y
+	 *            the y-coordinate of the position
+	 * @param z
+	 *            the z-coordinate of the position
+	 * @return the indices of the valid neighbors
+	 */
+	public int[] getNeighbors(int x, int y, int z)
+	{
+		int c = 0;
+		if (x == 0) c |= 1;
+		if (x == sizeX - 1) c |= 2;
+		if (y == 0) c |= 4;
+		if (y == sizeY - 1) c |= 8;
+		if (z == 0) c |= 16;
+		if (z == sizeZ - 1) c |= 32;
+		return validNeighbors[c];
+	}
+	
+	/**
+	 * Checks whether all the neighbors of the specified position are located
+	 * within the image.
+	 * 
+	 * @param x
+	 *            the x-coordinate of the position
+	 * @param y
+	 *            the y-coordinate of the position
+	 * @param z
+	 *            the z-coordinate of the position
+	 * @return true if the position is not on the image boundary
+	 */
+	public boolean isInterior(int x, int y, int z)
+	{
+		boolean planar = connectivity == 4 || connectivity == 8;
+		return x > 0 && x < sizeX - 1 && y > 0 && y < sizeY - 1
+				&& (planar || (z > 0 && z < sizeZ - 1));
+	}
+	
+	
+	// ==================================================
+	// Accessors
+	
+	/**
+	 * @return the number of neighbors
+	 */
+	public int size()
+	{
+		return dx.length;
+	}
+	
+	/**
+	 * @return the shift along the X direction of each neighbor
+	 */
+	public int[] getShiftsX()
+	{
+		return dx;
+	}
+	
+	/**
+	 * @return the shift along the Y direction of each neighbor
+	 */
+	public int[] getShiftsY()
+	{
+		return dy;
+	}
+	
+	/**
+	 * @return the shift along the Z direction of each neighbor
+	 */
+	public int[] getShiftsZ()
+	{
+		return dz;
+	}
+	
+	/**
+	 * @return the offset of the linear index of each neighbor
+	 */
+	public int[] getOffsets()
+	{
+		return offsets;
+	}
+	
+	/**
+	 * @return the offset of the index within the slice of each neighbor
+	 */
+	public int[] getPlaneOffsets()
+	{
+		return planeOffsets;
+	}
+	
+	/**
+	 * @return the Euclidean distance to each neighbor
+	 */
+	public double[] getDistances()
+	{
+		return distances;
+	}
+}
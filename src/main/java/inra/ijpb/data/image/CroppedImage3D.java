@@ -0,0 +1,142 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.data.image;
+
+import inra.ijpb.data.Cursor3D;
+
+/**
+ * A view on a rectangular region of a 3D image. No data is copied: the values
+ * are read from, and written into, the parent image.
+ * 
+ * <p>
+ * Example of use:
+ *<pre>{@code
+ *	Image3D image = Images3D.createWrapper(stack);
+ *	Image3D crop = new CroppedImage3D(image, 10, 10, 5, 100, 100, 50);
+ *	double value = crop.getValue(0, 0, 0); // value at (10, 10, 5) in image
+ *}</pre>
+ * 
+ * @see PaddedImage3D
+ * @see SubsampledImage3D
+ * @see inra.ijpb.shape.ImageShape#cropRect(ij.ImageStack, int, int, int, int, int, int)
+ * 
+ * @author dlegland
+ *
+ */
+public class CroppedImage3D implements Image3D
+{
+	/** The parent image */
+	Image3D image;
+
+	/** The position of the first voxel of the view within the parent image */
+	int x0;
+	int y0;
+	int z0;
+
+	/** The size of the view */
+	int sizeX;
+	int sizeY;
+	int sizeZ;
+
+	/**
+	 * Creates a new view on a rectangular region of a 3D image.
+	 * 
+	 * @param image
+	 *            the parent image
+	 * @param x0
+	 *            the x-position of the first voxel of the region
+	 * @param y0
+	 *            the y-position of the first voxel of the region
+	 * @param z0
+	 *            the z-position of the first voxel of the region
+	 * @param sizeX
+	 *            the width of the region
+	 * @param sizeY
+	 *            the height of the region
+	 * @param sizeZ
+	 *            the depth of the region
+	 */
+	public CroppedImage3D(Image3D image, int x0, int y0, int z0, int sizeX, int sizeY, int sizeZ)
+	{
+		if (x0 < 0 || y0 < 0 || z0 < 0 || x0 + sizeX > image.getSize(0) || y0 + sizeY > image.getSize(1)
+				|| z0 + sizeZ > image.getSize(2))
+		{
+			throw new IllegalArgumentException("Crop bounds exceed image bounds");
+		}
+		this.image = image;
+		this.x0 = x0;
+		this.y0 = y0;
+		this.z0 = z0;
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+	}
+
+	@Override
+	public int getSize(int dim)
+	{
+		switch (dim)
+		{
+		case 0: return this.sizeX;
+		case 1: return this.sizeY;
+		case 2: return this.sizeZ;
+		default:
+			throw new IllegalArgumentException("Dimension must be comprised between 0 and 2, not " + dim);
+		}
+	}
+
+	@Override
+	public int get(int x, int y, int z)
+	{
+		return image.get(x + x0, y + y0, z + z0);
+	}
+
+	@Override
+	public void set(int x, int y, int z, int value)
+	{
+		image.set(x + x0, y + y0, z + z0, value);
+	}
+
+	@Override
+	public double getValue(int x, int y, int z)
+	{
+		return image.getValue(x + x0, y + y0, z + z0);
+	}
+
+	@Override
+	public double getValue(Cursor3D pos)
+	{
+		return getValue(pos.getX(), pos.getY(), pos.getZ());
+	}
+
+	@Override
+	public void setValue(int x, int y, int z, double value)
+	{
+		image.setValue(x + x0, y + y0, z + z0, value);
+	}
+
+	@Override
+	public void setValue(Cursor3D pos, double value)
+	{
+		setValue(pos.getX(), pos.getY(), pos.getZ(), value);
+	}
+}
@@ -24,6 +24,7 @@ package inra.ijpb.data.image;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.ImageProcessor;
+import inra.ijpb.data.border.BorderManager3D;
 
 /**
  * A collection of static methods for working on 3D images. 
@@ -42,7 +43,8 @@ public class Images3D
 
 	/**
 	 * Converts the input ImageStack into an instance of Image3D, depending on
-	 * the data type stored in the stack.
+	 * the data type stored in the stack. If the stack is a
+	 * {@link MappedImageStack}, the mapped image is returned.
 	 * 
 	 * @param stack
 	 *            the input ImageStack to convert
@@ -50,6 +52,10 @@ public class Images3D
 	 *         values in original stack
 	 */
 	public final static Image3D createWrapper(ImageStack stack) {
+		if (stack instanceof MappedImageStack)
+		{
+			return ((MappedImageStack) stack).getImage();
+		}
 		switch(stack.getBitDepth()) {
 		case 8:
 			return new ByteStackWrapper(stack);
@@ -63,7 +69,116 @@ public class Images3D
 							+ stack.getBitDepth());
 		}
 	}
-	
+
+	/**
+	 * Creates a view on a rectangular region of the input stack, without
+	 * copying data.
+	 *
+	 * @see CroppedImage3D
+	 *
+	 * @param stack
+	 *            the input stack
+	 * @param x0
+	 *            the x-position of the first voxel of the region
+	 * @param y0
+	 *            the y-position of the first voxel of the region
+	 * @param z0
+	 *            the z-position of the first voxel of the region
+	 * @param sizeX
+	 *            the width of the region
+	 * @param sizeY
+	 *            the height of the region
+	 * @param sizeZ
+	 *            the depth of the region
+	 * @return a view on the region of the stack
+	 */
+	public static final Image3D cropView(ImageStack stack, int x0, int y0, int z0, int sizeX, int sizeY, int sizeZ)
+	{
+		return new CroppedImage3D(createWrapper(stack), x0, y0, z0, sizeX, sizeY, sizeZ);
+	}
+
+	/**
+	 * Creates a view on the input stack extended by borders, without copying
+	 * data.
+	 *
+	 * @see PaddedImage3D
+	 *
+	 * @param stack
+	 *            the input stack
+	 * @param left
+	 *            the number of voxels to add to the left
+	 * @param right
+	 *            the number of voxels to add to the right
+	 * @param top
+	 *            the number of voxels to add on top of the stack
+	 * @param bottom
+	 *            the number of voxels to add at the bottom of the stack
+	 * @param front
+	 *            the number of slices to add in front of the stack
+	 * @param back
+	 *            the number of slices to add behind the stack
+	 * @param type
+	 *            the policy used to compute border values
+	 * @return a view on the stack extended by borders
+	 */
+	public static final Image3D paddedView(ImageStack stack, int left, int right, int top, int bottom, int front,
+			int back, BorderManager3D.Type type)
+	{
+		return new PaddedImage3D(createWrapper(stack), left, right, top, bottom, front, back, type,
+				stack.getBitDepth());
+	}
+
+	/**
+	 * Creates a sub-sampled view on the input stack, without copying data.
+	 *
+	 * @see SubsampledImage3D
+	 *
+	 * @param stack
+	 *            the input stack
+	 * @param kx
+	 *            the sampling ratio of voxels in the x-direction
+	 * @param ky
+	 *            the sampling ratio of voxels in the y-direction
+	 * @param kz
+	 *            the sampling ratio of voxels in the z-direction
+	 * @return a sub-sampled view on the stack
+	 */
+	public static final Image3D subsampledView(ImageStack stack, int kx, int ky, int kz)
+	{
+		return new SubsampledImage3D(createWrapper(stack), kx, ky, kz);
+	}
+
+	/**
+	 * Copies the values of a 3D image into a new ImageStack. This can be used
+	 * to materialize a view once, after combining several views.
+	 *
+	 * @param image
+	 *            the 3D image to copy
+	 * @param bitDepth
+	 *            the bit depth of the result, one of 8, 16 or 32
+	 * @return a new ImageStack containing the values of the image
+	 */
+	public static final ImageStack toStack(Image3D image, int bitDepth)
+	{
+		int sizeX = image.getSize(0);
+		int sizeY = image.getSize(1);
+		int sizeZ = image.getSize(2);
+		ImageStack result = ImageStack.create(sizeX, sizeY, sizeZ, bitDepth);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			ImageProcessor slice = result.getProcessor(z + 1);
+			for (int y = 0; y < sizeY; y++)
+			{
+				int offset = y * sizeX;
+				for (int x = 0; x < sizeX; x++)
+				{
+					slice.setf(offset + x, (float) image.getValue(x, y, z));
+				}
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Checks if the two input 3D images have the same size in each direction.
 	 * 
@@ -0,0 +1,733 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.data.image;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import inra.ijpb.data.Cursor3D;
+
+/**
+ * Access the data of a 3D image stored within an uncompressed file, by
+ * mapping the file content into memory. Each slice is mapped as a separate
+ * buffer, so that data is read on demand, and cached by the operating system.
+ * Only gray8, gray16 and float32 data are supported.
+ * 
+ * <p>
+ * The access mode is given by the <code>MapMode</code> used to open the file:
+ * <ul>
+ * <li><code>MapMode.READ_ONLY</code>: modifying the image throws a
+ * <code>ReadOnlyBufferException</code></li>
+ * <li><code>MapMode.PRIVATE</code>: modifications are kept in memory, and
+ * the file is never modified. The file is opened in read-only mode, and the
+ * first modification of a slice copies its content into memory.</li>
+ * <li><code>MapMode.READ_WRITE</code>: modifications are written into the
+ * file</li>
+ * </ul>
+ * 
+ * <p>
+ * Example of use:
+ *<pre>{@code
+ *	MappedImage3D image = MappedImage3D.openTiff(new File("stack.tif"), MapMode.PRIVATE);
+ *	ImageStack stack = new MappedImageStack(image);
+ *	ImageStack labels = BinaryImages.componentsLabeling(stack, 6, 16);
+ *}</pre>
+ * 
+ * @see MappedImageStack
+ * @see Images3D#createWrapper(ij.ImageStack)
+ * 
+ * @author dlegland
+ *
+ */
+public class MappedImage3D implements Image3D
+{
+	// ==================================================
+	// Static factories
+
+	/**
+	 * Maps the content of a raw file, containing the voxel values of the
+	 * slices one after the other.
+	 * 
+	 * @param file
+	 *            the file containing the data
+	 * @param sizeX
+	 *            the number of voxels in the X direction
+	 * @param sizeY
+	 *            the number of voxels in the Y direction
+	 * @param sizeZ
+	 *            the number of slices
+	 * @param bitDepth
+	 *            the bit depth of the data, one of 8, 16 or 32 (float)
+	 * @param headerSize
+	 *            the number of bytes before the first voxel value
+	 * @param littleEndian
+	 *            the byte order of 16-bits and 32-bits data
+	 * @param mode
+	 *            the mapping mode (read only, private or read/write)
+	 * @return a new image mapping the file content
+	 * @throws IOException
+	 *             if the file can not be read, or is too small
+	 */
+	public static final MappedImage3D openRaw(File file, int sizeX, int sizeY,
+			int sizeZ, int bitDepth, long headerSize, boolean littleEndian,
+			MapMode mode) throws IOException
+	{
+		long sliceBytes = sliceByteCount(sizeX, sizeY, bitDepth);
+		long[] offsets = new long[sizeZ];
+		for (int z = 0; z < sizeZ; z++)
+		{
+			offsets[z] = headerSize + z * sliceBytes;
+		}
+		ByteOrder order = littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		return new MappedImage3D(file, sizeX, sizeY, bitDepth, offsets, order, mode);
+	}
+
+	/**
+	 * Creates a new raw file with the specified dimensions, filled with zeros,
+	 * and maps it in read/write mode. The result can be used to store the
+	 * output of an algorithm on disk.
+	 * 
+	 * @param file
+	 *            the file to create. If it already exists, it is overwritten.
+	 * @param sizeX
+	 *            the number of voxels in the X direction
+	 * @param sizeY
+	 *            the number of voxels in the Y direction
+	 * @param sizeZ
+	 *            the number of slices
+	 * @param bitDepth
+	 *            the bit depth of the data, one of 8, 16 or 32 (float)
+	 * @return a new image mapping the content of the new file
+	 * @throws IOException
+	 *             if the file can not be created
+	 */
+	public static final MappedImage3D createRaw(File file, int sizeX,
+			int sizeY, int sizeZ, int bitDepth) throws IOException
+	{
+		long sliceBytes = sliceByteCount(sizeX, sizeY, bitDepth);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(0);
+			raf.setLength(sliceBytes * sizeZ);
+		}
+		finally
+		{
+			raf.close();
+		}
+		return openRaw(file, sizeX, sizeY, sizeZ, bitDepth, 0, false,
+				MapMode.READ_WRITE);
+	}
+
+	/**
+	 * Maps the content of an uncompressed TIFF file. Each image file
+	 * directory (IFD) of the file corresponds to a slice. All the slices must
+	 * have the same size and type, and the strips of each slice must be
+	 * contiguous, which is the case for the files saved by ImageJ.
+	 * 
+	 * When the ImageJ description of the file declares more images than the
+	 * number of IFDs (as for the large stacks saved by ImageJ), the slices
+	 * are assumed to follow the first one within the file.
+	 * 
+	 * @param file
+	 *            the TIFF file
+	 * @param mode
+	 *            the mapping mode (read only, private or read/write)
+	 * @return a new image mapping the file content
+	 * @throws IOException
+	 *             if the file can not be read, or uses a format that can not
+	 *             be mapped (compression, color, tiles...)
+	 */
+	public static final MappedImage3D openTiff(File file, MapMode mode)
+			throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			TiffInfo info = readTiffInfo(raf.getChannel());
+			return new MappedImage3D(file, info.sizeX, info.sizeY,
+					info.bitDepth, info.sliceOffsets, info.order, mode);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private static final long sliceByteCount(int sizeX, int sizeY, int bitDepth)
+	{
+		if (bitDepth != 8 && bitDepth != 16 && bitDepth != 32)
+		{
+			throw new IllegalArgumentException("Bit depth must be 8, 16 or 32, not " + bitDepth);
+		}
+		long sliceBytes = (long) sizeX * sizeY * (bitDepth / 8);
+		if (sliceBytes > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("Slices larger than 2GB can not be mapped");
+		}
+		return sliceBytes;
+	}
+
+
+	// ==================================================
+	// Class members
+
+	/**
+	 * The buffers mapping the content of each slice. In private mode, the
+	 * slices that were modified are replaced by a copy in memory.
+	 */
+	ByteBuffer[] slices;
+
+	int sizeX;
+	int sizeY;
+	int sizeZ;
+
+	int bitDepth;
+
+	MapMode mode;
+
+	/**
+	 * Maps the slices of a file into memory. The file is closed after
+	 * mapping, as mappings remain valid until garbage collected.
+	 * 
+	 * @param file
+	 *            the file containing the data
+	 * @param sizeX
+	 *            the number of voxels in the X direction
+	 * @param sizeY
+	 *            the number of voxels in the Y direction
+	 * @param bitDepth
+	 *            the bit depth of the data, one of 8, 16 or 32 (float)
+	 * @param sliceOffsets
+	 *            the position of the first byte of each slice within the file
+	 * @param order
+	 *            the byte order of 16-bits and 32-bits data
+	 * @param mode
+	 *            the mapping mode (read only, private or read/write)
+	 * @throws IOException
+	 *             if the file can not be read, or is too small
+	 */
+	public MappedImage3D(File file, int sizeX, int sizeY, int bitDepth,
+			long[] sliceOffsets, ByteOrder order, MapMode mode) throws IOException
+	{
+		long sliceBytes = sliceByteCount(sizeX, sizeY, bitDepth);
+
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sliceOffsets.length;
+		this.bitDepth = bitDepth;
+		this.mode = mode;
+
+		// private mode maps the file in read-only mode, and copies the slices
+		// when they are modified, so that the file does not need to be writable
+		boolean readWrite = mode == MapMode.READ_WRITE;
+		MapMode channelMode = readWrite ? MapMode.READ_WRITE : MapMode.READ_ONLY;
+		RandomAccessFile raf = new RandomAccessFile(file, readWrite ? "rw" : "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			long fileSize = channel.size();
+			this.slices = new ByteBuffer[sizeZ];
+			for (int z = 0; z < sizeZ; z++)
+			{
+				if (sliceOffsets[z] + sliceBytes > fileSize)
+				{
+					throw new IOException("File " + file.getName() + " is too small to contain slice " + (z + 1));
+				}
+				slices[z] = channel.map(channelMode, sliceOffsets[z], sliceBytes);
+				slices[z].order(order);
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+
+	// ==================================================
+	// Specific methods
+
+	/**
+	 * @return the bit depth of the data, either 8, 16 or 32
+	 */
+	public int getBitDepth()
+	{
+		return bitDepth;
+	}
+
+	/**
+	 * @return the mode used to map the file
+	 */
+	public MapMode getMapMode()
+	{
+		return mode;
+	}
+
+	/**
+	 * Forces the modifications to be written into the file. Has an effect
+	 * only for images mapped in read/write mode.
+	 */
+	public void force()
+	{
+		if (mode != MapMode.READ_WRITE)
+			return;
+		for (ByteBuffer slice : slices)
+		{
+			((MappedByteBuffer) slice).force();
+		}
+	}
+
+	/**
+	 * Returns the buffer of the specified slice for modification. In private
+	 * mode, the content of the slice is copied into memory the first time it
+	 * is modified.
+	 */
+	private ByteBuffer writableSlice(int z)
+	{
+		ByteBuffer slice = slices[z];
+		if (mode == MapMode.PRIVATE && slice.isReadOnly())
+		{
+			ByteBuffer source = slice.duplicate();
+			source.rewind();
+			ByteBuffer copy = ByteBuffer.allocate(source.capacity()).order(slice.order());
+			copy.put(source);
+			copy.rewind();
+			slices[z] = copy;
+			slice = copy;
+		}
+		return slice;
+	}
+
+	/**
+	 * Creates a new ImageProcessor containing a copy of the values of a
+	 * slice.
+	 * 
+	 * @param z
+	 *            the slice index (0-indexed)
+	 * @return a new ImageProcessor with the values of the slice
+	 */
+	public ImageProcessor getSliceProcessor(int z)
+	{
+		ByteBuffer buffer = slices[z].duplicate().order(slices[z].order());
+		buffer.rewind();
+		switch (bitDepth)
+		{
+		case 8:
+			byte[] bytes = new byte[sizeX * sizeY];
+			buffer.get(bytes);
+			return new ByteProcessor(sizeX, sizeY, bytes, null);
+		case 16:
+			short[] shorts = new short[sizeX * sizeY];
+			buffer.asShortBuffer().get(shorts);
+			return new ShortProcessor(sizeX, sizeY, shorts, null);
+		case 32:
+			float[] floats = new float[sizeX * sizeY];
+			buffer.asFloatBuffer().get(floats);
+			return new FloatProcessor(sizeX, sizeY, floats, null);
+		default:
+			throw new RuntimeException("Unexpected bit depth: " + bitDepth);
+		}
+	}
+
+	/**
+	 * Replaces the values of a slice by the values of the specified pixel
+	 * array. The array must have the same type as the image data.
+	 * 
+	 * @param z
+	 *            the slice index (0-indexed)
+	 * @param pixels
+	 *            the array of new values (byte[], short[] or float[])
+	 */
+	public void setSlicePixels(int z, Object pixels)
+	{
+		ByteBuffer slice = writableSlice(z);
+		ByteBuffer buffer = slice.duplicate().order(slice.order());
+		buffer.rewind();
+		switch (bitDepth)
+		{
+		case 8:
+			buffer.put((byte[]) pixels);
+			break;
+		case 16:
+			buffer.asShortBuffer().put((short[]) pixels);
+			break;
+		case 32:
+			buffer.asFloatBuffer().put((float[]) pixels);
+			break;
+		default:
+			throw new RuntimeException("Unexpected bit depth: " + bitDepth);
+		}
+	}
+
+
+	// ==================================================
+	// Implementation of Image3D interface
+
+	@Override
+	public int getSize(int dim)
+	{
+		switch(dim)
+		{
+		case 0: return this.sizeX;
+		case 1: return this.sizeY;
+		case 2: return this.sizeZ;
+		default:
+			throw new IllegalArgumentException("Dimension must be comprised between 0 and 2, not " + dim);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see inra.ijpb.data.image.Image3D#get(int, int, int)
+	 */
+	@Override
+	public int get(int x, int y, int z)
+	{
+		int index = y * sizeX + x;
+		switch (bitDepth)
+		{
+		case 8: return slices[z].get(index) & 0x00FF;
+		case 16: return slices[z].getShort(index * 2) & 0x00FFFF;
+		default: return (int) slices[z].getFloat(index * 4);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see inra.ijpb.data.image.Image3D#set(int, int, int, int)
+	 */
+	@Override
+	public void set(int x, int y, int z, int value)
+	{
+		int index = y * sizeX + x;
+		ByteBuffer slice = writableSlice(z);
+		switch (bitDepth)
+		{
+		case 8: slice.put(index, (byte) max(min(value, 255), 0)); break;
+		case 16: slice.putShort(index * 2, (short) max(min(value, 65535), 0)); break;
+		default: slice.putFloat(index * 4, (float) value);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see inra.ijpb.data.image.Image3D#getValue(int, int, int)
+	 */
+	@Override
+	public double getValue(int x, int y, int z)
+	{
+		int index = y * sizeX + x;
+		switch (bitDepth)
+		{
+		case 8: return slices[z].get(index) & 0x00FF;
+		case 16: return slices[z].getShort(index * 2) & 0x00FFFF;
+		default: return slices[z].getFloat(index * 4);
+		}
+	}
+
+	@Override
+	public double getValue(Cursor3D pos)
+	{
+		return getValue(pos.getX(), pos.getY(), pos.getZ());
+	}
+
+	/* (non-Javadoc)
+	 * @see inra.ijpb.data.image.Image3D#setValue(int, int, int, double)
+	 */
+	@Override
+	public void setValue(int x, int y, int z, double value)
+	{
+		int index = y * sizeX + x;
+		ByteBuffer slice = writableSlice(z);
+		switch (bitDepth)
+		{
+		case 8: slice.put(index, (byte) max(min(value, 255), 0)); break;
+		case 16: slice.putShort(index * 2, (short) max(min(value, 65535), 0)); break;
+		default: slice.putFloat(index * 4, (float) value);
+		}
+	}
+
+	@Override
+	public void setValue(Cursor3D pos, double value)
+	{
+		setValue(pos.getX(), pos.getY(), pos.getZ(), value);
+	}
+
+
+	// ==================================================
+	// Parsing of TIFF headers
+
+	/**
+	 * The information required to map the slices of a TIFF file.
+	 */
+	private static final class TiffInfo
+	{
+		int sizeX;
+		int sizeY;
+		int bitDepth;
+		long[] sliceOffsets;
+		ByteOrder order;
+	}
+
+	private static final TiffInfo readTiffInfo(FileChannel channel) throws IOException
+	{
+		ByteBuffer header = readBytes(channel, 0, 8, ByteOrder.BIG_ENDIAN);
+		short byteOrder = header.getShort(0);
+		TiffInfo info = new TiffInfo();
+		if (byteOrder == 0x4949)
+			info.order = ByteOrder.LITTLE_ENDIAN;
+		else if (byteOrder == 0x4D4D)
+			info.order = ByteOrder.BIG_ENDIAN;
+		else
+			throw new IOException("Not a TIFF file");
+		header.order(info.order);
+		if (header.getShort(2) != 42)
+		{
+			throw new IOException("Not a TIFF file, or BigTIFF file (not supported)");
+		}
+
+		ArrayList<Long> offsets = new ArrayList<Long>();
+		int imageCount = 0;
+		long ifdOffset = header.getInt(4) & 0xFFFFFFFFL;
+		while (ifdOffset != 0)
+		{
+			ByteBuffer countBuffer = readBytes(channel, ifdOffset, 2, info.order);
+			int nEntries = countBuffer.getShort(0) & 0xFFFF;
+			ByteBuffer ifd = readBytes(channel, ifdOffset + 2, nEntries * 12 + 4, info.order);
+
+			int sizeX = 0, sizeY = 0, bitDepth = 1, sampleFormat = 1;
+			long[] stripOffsets = null, stripCounts = null;
+			for (int i = 0; i < nEntries; i++)
+			{
+				int pos = i * 12;
+				int tag = ifd.getShort(pos) & 0xFFFF;
+				switch (tag)
+				{
+				case 256: sizeX = (int) readTagValues(channel, ifd, pos, info.order)[0]; break;
+				case 257: sizeY = (int) readTagValues(channel, ifd, pos, info.order)[0]; break;
+				case 258: bitDepth = (int) readTagValues(channel, ifd, pos, info.order)[0]; break;
+				case 259:
+					if (readTagValues(channel, ifd, pos, info.order)[0] != 1)
+						throw new IOException("Compressed TIFF files can not be mapped");
+					break;
+				case 273: stripOffsets = readTagValues(channel, ifd, pos, info.order); break;
+				case 277:
+					if (readTagValues(channel, ifd, pos, info.order)[0] != 1)
+						throw new IOException("Only single channel TIFF files can be mapped");
+					break;
+				case 270:
+					if (offsets.isEmpty())
+						imageCount = parseImageCount(readTagString(channel, ifd, pos));
+					break;
+				case 279: stripCounts = readTagValues(channel, ifd, pos, info.order); break;
+				case 322: throw new IOException("Tiled TIFF files can not be mapped");
+				case 339: sampleFormat = (int) readTagValues(channel, ifd, pos, info.order)[0]; break;
+				default:
+				}
+			}
+
+			if (stripOffsets == null)
+			{
+				throw new IOException("Missing strip offsets in TIFF file");
+			}
+			if ((bitDepth == 32 && sampleFormat != 3) || (bitDepth != 32 && sampleFormat == 3))
+			{
+				throw new IOException("Only unsigned 8-bits, unsigned 16-bits, and float 32-bits TIFF files can be mapped");
+			}
+			if (offsets.isEmpty())
+			{
+				info.sizeX = sizeX;
+				info.sizeY = sizeY;
+				info.bitDepth = bitDepth;
+			}
+			else if (sizeX != info.sizeX || sizeY != info.sizeY || bitDepth != info.bitDepth)
+			{
+				throw new IOException("All the images of the TIFF file must have same size and type");
+			}
+
+			// strips of the slice must follow each other within the file
+			if (stripCounts != null)
+			{
+				for (int i = 1; i < stripOffsets.length; i++)
+				{
+					if (stripOffsets[i] != stripOffsets[i - 1] + stripCounts[i - 1])
+						throw new IOException("TIFF files with non contiguous strips can not be mapped");
+				}
+			}
+			offsets.add(stripOffsets[0]);
+
+			ifdOffset = ifd.getInt(nEntries * 12) & 0xFFFFFFFFL;
+		}
+
+		if (offsets.isEmpty())
+		{
+			throw new IOException("TIFF file does not contain any image");
+		}
+
+		// ImageJ does not write all the IFDs of large stacks: the slices are
+		// stored contiguously after the first one
+		if (imageCount > offsets.size())
+		{
+			long sliceBytes = sliceByteCount(info.sizeX, info.sizeY, info.bitDepth);
+			long firstOffset = offsets.get(0);
+			if (firstOffset + imageCount * sliceBytes > channel.size())
+			{
+				throw new IOException("TIFF file is too small to contain the " + imageCount + " images declared in its description");
+			}
+			info.sliceOffsets = new long[imageCount];
+			for (int i = 0; i < imageCount; i++)
+			{
+				info.sliceOffsets[i] = firstOffset + i * sliceBytes;
+			}
+			return info;
+		}
+
+		info.sliceOffsets = new long[offsets.size()];
+		for (int i = 0; i < offsets.size(); i++)
+		{
+			info.sliceOffsets[i] = offsets.get(i);
+		}
+		return info;
+	}
+
+	/**
+	 * Parses the number of images declared by the "images=" entry of an
+	 * ImageJ description, or returns 0 if the description was not written by
+	 * ImageJ.
+	 */
+	private static final int parseImageCount(String description) throws IOException
+	{
+		if (!description.startsWith("ImageJ"))
+			return 0;
+		for (String line : description.split("\n"))
+		{
+			if (line.startsWith("images="))
+			{
+				try
+				{
+					return Integer.parseInt(line.substring(7).trim());
+				}
+				catch (NumberFormatException ex)
+				{
+					throw new IOException("Could not parse the number of images in TIFF description: " + line);
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads the content of an IFD entry with ASCII type, without the
+	 * terminating null character.
+	 */
+	private static final String readTagString(FileChannel channel,
+			ByteBuffer ifd, int pos) throws IOException
+	{
+		int type = ifd.getShort(pos + 2) & 0xFFFF;
+		if (type != 2)
+			return "";
+		int count = ifd.getInt(pos + 4);
+		byte[] chars = new byte[count];
+		if (count <= 4)
+		{
+			for (int i = 0; i < count; i++)
+				chars[i] = ifd.get(pos + 8 + i);
+		}
+		else
+		{
+			readBytes(channel, ifd.getInt(pos + 8) & 0xFFFFFFFFL, count, ifd.order()).get(chars);
+		}
+		while (count > 0 && chars[count - 1] == 0)
+			count--;
+		return new String(chars, 0, count, Charset.forName("US-ASCII"));
+	}
+
+	/**
+	 * Reads the values of the IFD entry at the specified position, that can
+	 * be stored either within the entry or at another position of the file.
+	 */
+	private static final long[] readTagValues(FileChannel channel,
+			ByteBuffer ifd, int pos, ByteOrder order) throws IOException
+	{
+		int type = ifd.getShort(pos + 2) & 0xFFFF;
+		int count = ifd.getInt(pos + 4);
+		int typeSize;
+		switch (type)
+		{
+		case 1: typeSize = 1; break; // BYTE
+		case 3: typeSize = 2; break; // SHORT
+		case 4: typeSize = 4; break; // LONG
+		default:
+			throw new IOException("Unexpected type for TIFF tag " + (ifd.getShort(pos) & 0xFFFF));
+		}
+
+		ByteBuffer values;
+		int offset = 0;
+		if (count * typeSize <= 4)
+		{
+			values = ifd;
+			offset = pos + 8;
+		}
+		else
+		{
+			values = readBytes(channel, ifd.getInt(pos + 8) & 0xFFFFFFFFL, count * typeSize, order);
+		}
+
+		long[] res = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			switch (typeSize)
+			{
+			case 1: res[i] = values.get(offset + i) & 0xFF; break;
+			case 2: res[i] = values.getShort(offset + 2 * i) & 0xFFFF; break;
+			default: res[i] = values.getInt(offset + 4 * i) & 0xFFFFFFFFL;
+			}
+		}
+		return res;
+	}
+
+	private static final ByteBuffer readBytes(FileChannel channel, long position,
+			int length, ByteOrder order) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of file");
+		}
+		buffer.rewind();
+		return buffer;
+	}
+}
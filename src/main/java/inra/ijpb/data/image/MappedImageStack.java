@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.data.image;
+
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Virtual ImageStack backed by a memory-mapped file. The slices are read from
+ * the mapped file only when requested, and the modifications of the pixel
+ * arrays can be written back with the <code>setPixels</code> method.
+ * 
+ * <p>
+ * The <code>Images3D.createWrapper</code> method returns the underlying
+ * <code>MappedImage3D</code>, so that the algorithms working with
+ * <code>Image3D</code> instances directly access the mapped data.
+ * 
+ * <p>
+ * Example of use:
+ *<pre>{@code
+ *	MappedImage3D image = MappedImage3D.openTiff(new File("stack.tif"), MapMode.READ_ONLY);
+ *	ImageStack stack = new MappedImageStack(image);
+ *	new ImagePlus("stack", stack).show();
+ *}</pre>
+ * 
+ * @see MappedImage3D
+ * 
+ * @author dlegland
+ *
+ */
+public class MappedImageStack extends VirtualStack
+{
+	/** The mapped image that stores the data */
+	MappedImage3D image;
+
+	/**
+	 * Creates a new virtual stack from a mapped image.
+	 * 
+	 * @param image
+	 *            the mapped image containing the data
+	 */
+	public MappedImageStack(MappedImage3D image)
+	{
+		super(image.getSize(0), image.getSize(1), image.getSize(2));
+		this.image = image;
+	}
+
+	/**
+	 * @return the mapped image containing the data of this stack
+	 */
+	public MappedImage3D getImage()
+	{
+		return image;
+	}
+
+	/**
+	 * Returns a new ImageProcessor containing a copy of the values of the
+	 * specified slice.
+	 * 
+	 * @param n
+	 *            the slice index, between 1 and the number of slices
+	 * @return a new ImageProcessor containing the slice values
+	 */
+	@Override
+	public ImageProcessor getProcessor(int n)
+	{
+		checkSliceIndex(n);
+		return image.getSliceProcessor(n - 1);
+	}
+
+	@Override
+	public Object getPixels(int n)
+	{
+		return getProcessor(n).getPixels();
+	}
+
+	/**
+	 * Writes the values of the pixel array into the specified slice. Throws a
+	 * <code>ReadOnlyBufferException</code> if the image was mapped in read
+	 * only mode.
+	 * 
+	 * @param pixels
+	 *            the array of values, with the type of the stack
+	 * @param n
+	 *            the slice index, between 1 and the number of slices
+	 */
+	@Override
+	public void setPixels(Object pixels, int n)
+	{
+		checkSliceIndex(n);
+		image.setSlicePixels(n - 1, pixels);
+	}
+
+	@Override
+	public int getSize()
+	{
+		return image.getSize(2);
+	}
+
+	@Override
+	public int size()
+	{
+		return getSize();
+	}
+
+	@Override
+	public int getBitDepth()
+	{
+		return image.getBitDepth();
+	}
+
+	@Override
+	public String getSliceLabel(int n)
+	{
+		return null;
+	}
+
+	private void checkSliceIndex(int n)
+	{
+		if (n < 1 || n > getSize())
+		{
+			throw new IllegalArgumentException("Slice index out of range: " + n);
+		}
+	}
+}
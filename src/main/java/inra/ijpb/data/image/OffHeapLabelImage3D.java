@@ -0,0 +1,275 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.data.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import ij.ImageStack;
+import inra.ijpb.data.Cursor3D;
+
+/**
+ * A 3D label image storing labels as 32-bits or 64-bits integers, within
+ * direct (off-heap) buffers. Each slice is stored within its own buffer.
+ * 
+ * <p>
+ * Contrary to ImageJ stacks, the labels are stored without loss of precision
+ * (float stacks only represent exactly the integers up to 2^24), and the data
+ * do not contribute to the Java heap.
+ * 
+ * <p>
+ * The methods of the <code>Image3D</code> interface that use integers
+ * truncate 64-bits labels to 32 bits. The <code>getLabel</code> and
+ * <code>setLabel</code> methods should be used instead.
+ * 
+ * <p>
+ * Example of use:
+ *<pre>{@code
+ *	OffHeapLabelImage3D labelMap = new OffHeapLabelImage3D(500, 500, 500, 64);
+ *	labelMap.setLabel(10, 20, 30, 5_000_000_000L);
+ *	long[] labels = LabelImages.findAllLabels(labelMap);
+ *}</pre>
+ * 
+ * @see inra.ijpb.label.LabelImages#findAllLabels(OffHeapLabelImage3D)
+ * @see inra.ijpb.label.LabelImages#remapLabels(OffHeapLabelImage3D)
+ * 
+ * @author dlegland
+ *
+ */
+public class OffHeapLabelImage3D implements Image3D
+{
+	// ==================================================
+	// Static factories
+
+	/**
+	 * Creates a new off-heap label image from the labels stored in an
+	 * ImageStack.
+	 * 
+	 * @param stack
+	 *            the stack containing the labels (8, 16 or 32 bits)
+	 * @param bitDepth
+	 *            the bit depth of the new label image, either 32 or 64
+	 * @return a new label image containing the same labels
+	 */
+	public static final OffHeapLabelImage3D fromStack(ImageStack stack, int bitDepth)
+	{
+		int sizeX = stack.getWidth();
+		int sizeY = stack.getHeight();
+		int sizeZ = stack.getSize();
+		OffHeapLabelImage3D result = new OffHeapLabelImage3D(sizeX, sizeY, sizeZ, bitDepth);
+		Image3D image = Images3D.createWrapper(stack);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			for (int y = 0; y < sizeY; y++)
+			{
+				for (int x = 0; x < sizeX; x++)
+				{
+					result.setLabel(x, y, z, (long) image.getValue(x, y, z));
+				}
+			}
+		}
+		return result;
+	}
+
+
+	// ==================================================
+	// Class members
+
+	/** The buffers containing the labels of each slice */
+	ByteBuffer[] slices;
+
+	int sizeX;
+	int sizeY;
+	int sizeZ;
+
+	/** The number of bits used to store each label, either 32 or 64 */
+	int bitDepth;
+
+	/**
+	 * Creates a new empty label image.
+	 * 
+	 * @param sizeX
+	 *            the number of voxels in the X direction
+	 * @param sizeY
+	 *            the number of voxels in the Y direction
+	 * @param sizeZ
+	 *            the number of slices
+	 * @param bitDepth
+	 *            the number of bits used to store each label, either 32 or 64
+	 */
+	public OffHeapLabelImage3D(int sizeX, int sizeY, int sizeZ, int bitDepth)
+	{
+		if (bitDepth != 32 && bitDepth != 64)
+		{
+			throw new IllegalArgumentException("Bit depth must be 32 or 64, not " + bitDepth);
+		}
+		long sliceBytes = (long) sizeX * sizeY * (bitDepth / 8);
+		if (sliceBytes > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("Slices larger than 2GB are not supported");
+		}
+
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+		this.bitDepth = bitDepth;
+
+		this.slices = new ByteBuffer[sizeZ];
+		for (int z = 0; z < sizeZ; z++)
+		{
+			slices[z] = ByteBuffer.allocateDirect((int) sliceBytes).order(ByteOrder.nativeOrder());
+		}
+	}
+
+
+	// ==================================================
+	// Specific methods
+
+	/**
+	 * @return the number of bits used to store each label, either 32 or 64
+	 */
+	public int getBitDepth()
+	{
+		return bitDepth;
+	}
+
+	/**
+	 * @return the largest label that can be stored within this image
+	 */
+	public long getLargestPossibleLabel()
+	{
+		return bitDepth == 32 ? Integer.MAX_VALUE : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the label at the specified position.
+	 * 
+	 * @param x
+	 *            the x-coordinate of the voxel (0-indexed)
+	 * @param y
+	 *            the y-coordinate of the voxel (0-indexed)
+	 * @param z
+	 *            the z-coordinate of the voxel (0-indexed)
+	 * @return the label at the specified position
+	 */
+	public long getLabel(int x, int y, int z)
+	{
+		int index = y * sizeX + x;
+		if (bitDepth == 32)
+			return slices[z].getInt(index * 4);
+		return slices[z].getLong(index * 8);
+	}
+
+	/**
+	 * Changes the label at the specified position.
+	 * 
+	 * @param x
+	 *            the x-coordinate of the voxel (0-indexed)
+	 * @param y
+	 *            the y-coordinate of the voxel (0-indexed)
+	 * @param z
+	 *            the z-coordinate of the voxel (0-indexed)
+	 * @param label
+	 *            the new label at the specified position
+	 */
+	public void setLabel(int x, int y, int z, long label)
+	{
+		int index = y * sizeX + x;
+		if (bitDepth == 32)
+		{
+			if (label > Integer.MAX_VALUE || label < 0)
+			{
+				throw new IllegalArgumentException("Label " + label + " can not be stored in a 32-bits label image");
+			}
+			slices[z].putInt(index * 4, (int) label);
+		}
+		else
+		{
+			slices[z].putLong(index * 8, label);
+		}
+	}
+
+
+	// ==================================================
+	// Implementation of Image3D interface
+
+	@Override
+	public int getSize(int dim)
+	{
+		switch(dim)
+		{
+		case 0: return this.sizeX;
+		case 1: return this.sizeY;
+		case 2: return this.sizeZ;
+		default:
+			throw new IllegalArgumentException("Dimension must be comprised between 0 and 2, not " + dim);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see inra.ijpb.data.image.Image3D#get(int, int, int)
+	 */
+	@Override
+	public int get(int x, int y, int z)
+	{
+		return (int) getLabel(x, y, z);
+	}
+
+	/* (non-Javadoc)
+	 * @see inra.ijpb.data.image.Image3D#set(int, int, int, int)
+	 */
+	@Override
+	public void set(int x, int y, int z, int value)
+	{
+		setLabel(x, y, z, value);
+	}
+
+	/* (non-Javadoc)
+	 * @see inra.ijpb.data.image.Image3D#getValue(int, int, int)
+	 */
+	@Override
+	public double getValue(int x, int y, int z)
+	{
+		return getLabel(x, y, z);
+	}
+
+	@Override
+	public double getValue(Cursor3D pos)
+	{
+		return getValue(pos.getX(), pos.getY(), pos.getZ());
+	}
+
+	/* (non-Javadoc)
+	 * @see inra.ijpb.data.image.Image3D#setValue(int, int, int, double)
+	 */
+	@Override
+	public void setValue(int x, int y, int z, double value)
+	{
+		setLabel(x, y, z, (long) value);
+	}
+
+	@Override
+	public void setValue(Cursor3D pos, double value)
+	{
+		setValue(pos.getX(), pos.getY(), pos.getZ(), value);
+	}
+}
@@ -0,0 +1,223 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.data.image;
+
+import inra.ijpb.data.Cursor3D;
+import inra.ijpb.data.border.BorderManager3D;
+
+/**
+ * A view on a 3D image extended by borders, whose values are computed on
+ * demand according to one of the border policies of {@link BorderManager3D}.
+ * No data is copied: the voxels within the image bounds are read from, and
+ * written into, the parent image. Border voxels can not be modified.
+ * 
+ * <p>
+ * Example of use:
+ *<pre>{@code
+ *	Image3D image = Images3D.createWrapper(stack);
+ *	Image3D padded = new PaddedImage3D(image, 2, 2, 2, 2, 1, 1,
+ *			BorderManager3D.Type.MIRRORED, stack.getBitDepth());
+ *	double value = padded.getValue(0, 0, 0); // value at (1, 1, 0) in image
+ *}</pre>
+ * 
+ * @see CroppedImage3D
+ * @see SubsampledImage3D
+ * @see inra.ijpb.shape.ImageShape#addBorders(ij.ImageStack, int, int, int, int, int, int)
+ * 
+ * @author dlegland
+ *
+ */
+public class PaddedImage3D implements Image3D
+{
+	/** The parent image */
+	Image3D image;
+
+	/** The size of the parent image */
+	int sizeX0;
+	int sizeY0;
+	int sizeZ0;
+
+	/** The number of voxels added before the first voxel in each direction */
+	int left;
+	int top;
+	int front;
+
+	/** The size of the view */
+	int sizeX;
+	int sizeY;
+	int sizeZ;
+
+	/** The policy used to compute border values */
+	BorderManager3D.Type type;
+
+	/** The value of border voxels for constant policies */
+	double borderValue;
+
+	/**
+	 * Creates a new view on a 3D image extended by borders.
+	 * 
+	 * @param image
+	 *            the parent image
+	 * @param left
+	 *            the number of voxels to add to the left
+	 * @param right
+	 *            the number of voxels to add to the right
+	 * @param top
+	 *            the number of voxels to add on top of the stack
+	 * @param bottom
+	 *            the number of voxels to add at the bottom of the stack
+	 * @param front
+	 *            the number of slices to add in front of the stack
+	 * @param back
+	 *            the number of slices to add behind the stack
+	 * @param type
+	 *            the policy used to compute border values
+	 * @param bitDepth
+	 *            the bit depth of the parent image, used to determine the
+	 *            value of the WHITE and GRAY policies
+	 */
+	public PaddedImage3D(Image3D image, int left, int right, int top, int bottom, int front, int back,
+			BorderManager3D.Type type, int bitDepth)
+	{
+		this.image = image;
+		this.sizeX0 = image.getSize(0);
+		this.sizeY0 = image.getSize(1);
+		this.sizeZ0 = image.getSize(2);
+		this.left = left;
+		this.top = top;
+		this.front = front;
+		this.sizeX = sizeX0 + left + right;
+		this.sizeY = sizeY0 + top + bottom;
+		this.sizeZ = sizeZ0 + front + back;
+		this.type = type;
+		this.borderValue = borderValue(type, bitDepth);
+	}
+
+	/**
+	 * Returns the value of border voxels for constant policies, consistent
+	 * with the values obtained when padding an ImageStack with the same bit
+	 * depth.
+	 */
+	private static final double borderValue(BorderManager3D.Type type, int bitDepth)
+	{
+		switch (type)
+		{
+		case WHITE:
+			return bitDepth == 8 ? 255 : (bitDepth == 16 ? 65535 : 0xFFFFFF);
+		case GRAY:
+			return bitDepth == 16 ? 0x7FFF : 127;
+		default:
+			return 0;
+		}
+	}
+
+	@Override
+	public int getSize(int dim)
+	{
+		switch (dim)
+		{
+		case 0: return this.sizeX;
+		case 1: return this.sizeY;
+		case 2: return this.sizeZ;
+		default:
+			throw new IllegalArgumentException("Dimension must be comprised between 0 and 2, not " + dim);
+		}
+	}
+
+	@Override
+	public int get(int x, int y, int z)
+	{
+		return (int) getValue(x, y, z);
+	}
+
+	@Override
+	public void set(int x, int y, int z, int value)
+	{
+		checkInside(x, y, z);
+		image.set(x - left, y - top, z - front, value);
+	}
+
+	@Override
+	public double getValue(int x, int y, int z)
+	{
+		x -= left;
+		y -= top;
+		z -= front;
+		if (x >= 0 && x < sizeX0 && y >= 0 && y < sizeY0 && z >= 0 && z < sizeZ0)
+		{
+			return image.getValue(x, y, z);
+		}
+
+		switch (type)
+		{
+		case REPLICATED:
+			return image.getValue(replicate(x, sizeX0), replicate(y, sizeY0), replicate(z, sizeZ0));
+		case PERIODIC:
+			return image.getValue(Math.floorMod(x, sizeX0), Math.floorMod(y, sizeY0), Math.floorMod(z, sizeZ0));
+		case MIRRORED:
+			return image.getValue(mirror(x, sizeX0), mirror(y, sizeY0), mirror(z, sizeZ0));
+		default:
+			return borderValue;
+		}
+	}
+
+	@Override
+	public double getValue(Cursor3D pos)
+	{
+		return getValue(pos.getX(), pos.getY(), pos.getZ());
+	}
+
+	@Override
+	public void setValue(int x, int y, int z, double value)
+	{
+		checkInside(x, y, z);
+		image.setValue(x - left, y - top, z - front, value);
+	}
+
+	@Override
+	public void setValue(Cursor3D pos, double value)
+	{
+		setValue(pos.getX(), pos.getY(), pos.getZ(), value);
+	}
+
+	private void checkInside(int x, int y, int z)
+	{
+		x -= left;
+		y -= top;
+		z -= front;
+		if (x < 0 || x >= sizeX0 || y < 0 || y >= sizeY0 || z < 0 || z >= sizeZ0)
+		{
+			throw new UnsupportedOperationException("Can not modify the border voxels of a padded view");
+		}
+	}
+
+	private static final int replicate(int x, int size)
+	{
+		return Math.min(Math.max(x, 0), size - 1);
+	}
+
+	private static final int mirror(int x, int size)
+	{
+		x = Math.floorMod(x, 2 * size);
+		return x < size ? x : 2 * size - 1 - x;
+	}
+}
@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.data.image;
+
+import inra.ijpb.data.Cursor3D;
+
+/**
+ * A view on a 3D image that retains one voxel over k_i along each direction.
+ * No data is copied: the values are read from, and written into, the parent
+ * image.
+ * 
+ * <p>
+ * Example of use:
+ *<pre>{@code
+ *	Image3D image = Images3D.createWrapper(stack);
+ *	Image3D sub = new SubsampledImage3D(image, 2, 2, 1);
+ *	double value = sub.getValue(3, 4, 5); // value at (6, 8, 5) in image
+ *}</pre>
+ * 
+ * @see CroppedImage3D
+ * @see PaddedImage3D
+ * @see inra.ijpb.shape.ImageShape#subsample(ij.ImageStack, int, int, int)
+ * 
+ * @author dlegland
+ *
+ */
+public class SubsampledImage3D implements Image3D
+{
+	/** The parent image */
+	Image3D image;
+
+	/** The sampling ratio in each direction */
+	int kx;
+	int ky;
+	int kz;
+
+	/** The size of the view */
+	int sizeX;
+	int sizeY;
+	int sizeZ;
+
+	/**
+	 * Creates a new sub-sampled view of a 3D image.
+	 * 
+	 * @param image
+	 *            the parent image
+	 * @param kx
+	 *            the sampling ratio of voxels in the x-direction
+	 * @param ky
+	 *            the sampling ratio of voxels in the y-direction
+	 * @param kz
+	 *            the sampling ratio of voxels in the z-direction
+	 */
+	public SubsampledImage3D(Image3D image, int kx, int ky, int kz)
+	{
+		if (kx < 1 || ky < 1 || kz < 1)
+		{
+			throw new IllegalArgumentException("Sampling ratios must be positive");
+		}
+		this.image = image;
+		this.kx = kx;
+		this.ky = ky;
+		this.kz = kz;
+		this.sizeX = Math.floorDiv(image.getSize(0), kx);
+		this.sizeY = Math.floorDiv(image.getSize(1), ky);
+		this.sizeZ = Math.floorDiv(image.getSize(2), kz);
+	}
+
+	@Override
+	public int getSize(int dim)
+	{
+		switch (dim)
+		{
+		case 0: return this.sizeX;
+		case 1: return this.sizeY;
+		case 2: return this.sizeZ;
+		default:
+			throw new IllegalArgumentException("Dimension must be comprised between 0 and 2, not " + dim);
+		}
+	}
+
+	@Override
+	public int get(int x, int y, int z)
+	{
+		return image.get(x * kx, y * ky, z * kz);
+	}
+
+	@Override
+	public void set(int x, int y, int z, int value)
+	{
+		image.set(x * kx, y * ky, z * kz, value);
+	}
+
+	@Override
+	public double getValue(int x, int y, int z)
+	{
+		return image.getValue(x * kx, y * ky, z * kz);
+	}
+
+	@Override
+	public double getValue(Cursor3D pos)
+	{
+		return getValue(pos.getX(), pos.getY(), pos.getZ());
+	}
+
+	@Override
+	public void setValue(int x, int y, int z, double value)
+	{
+		image.setValue(x * kx, y * ky, z * kz, value);
+	}
+
+	@Override
+	public void setValue(Cursor3D pos, double value)
+	{
+		setValue(pos.getX(), pos.getY(), pos.getZ(), value);
+	}
+}
@@ -0,0 +1,386 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.geometry;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Scanline rasterization of a polygon onto a pixel grid.
+ * 
+ * For each row, the crossings of the polygon edges with the horizontal line
+ * through the pixel centers are computed, and converted into spans of pixels
+ * within the polygon. A pixel is considered within the polygon if its center
+ * is, using the same winding number rule as the
+ * {@link Polygon2D#contains(java.awt.geom.Point2D)} method. The result is
+ * therefore identical to testing each pixel center, but without iterating
+ * over the polygon vertices for each pixel.
+ * 
+ * The coordinate and span buffers are reused between calls, making it
+ * possible to rasterize many polygons with a single instance without
+ * allocating memory for each pixel. Instances are not thread-safe: each
+ * thread should use its own rasterizer.
+ * 
+ * <pre><code>
+ * PolygonRasterizer rasterizer = new PolygonRasterizer();
+ * rasterizer.setPolygon(convexHull);
+ * int convexArea = rasterizer.countPixels(sizeX, sizeY);
+ * rasterizer.fill(image, 255);
+ * </code></pre>
+ * 
+ * @see Polygon2D
+ * 
+ * @author dlegland
+ *
+ */
+public class PolygonRasterizer
+{
+	// ==================================================
+	// Class variables
+	
+	/** The number of vertices of the current polygon */
+	int vertexCount = 0;
+	
+	/** The coordinates of the vertices of the current polygon */
+	double[] xCoords = new double[16];
+	double[] yCoords = new double[16];
+	
+	/** Orientation of the current polygon */
+	boolean positive = true;
+	
+	/** Vertical extent of the current polygon */
+	double yMin;
+	double yMax;
+	
+	/**
+	 * The position of the edge crossings computed for the current row, as the
+	 * index of the first pixel located after the crossing.
+	 */
+	int[] crossings = new int[16];
+	
+	/** The direction of each crossing: +1 for upward, -1 for downward */
+	int[] directions = new int[16];
+	
+	/**
+	 * The spans computed for the current row, stored as pairs of (start,
+	 * end) indices, with start included and end excluded.
+	 */
+	int[] spans = new int[34];
+	
+	/** The number of spans computed for the current row */
+	int spanCount = 0;
+
+	
+	// ==================================================
+	// Constructors
+	
+	/**
+	 * Creates a new rasterizer. The polygon must be specified with the
+	 * setPolygon() method before computing spans.
+	 */
+	public PolygonRasterizer()
+	{
+	}
+	
+	/**
+	 * Creates a new rasterizer for the specified polygon.
+	 * 
+	 * @param polygon
+	 *            the polygon to rasterize
+	 */
+	public PolygonRasterizer(Polygon2D polygon)
+	{
+		setPolygon(polygon);
+	}
+
+	
+	// ==================================================
+	// Setup
+	
+	/**
+	 * Changes the polygon to rasterize. The vertex coordinates are copied
+	 * within the inner buffers of this rasterizer.
+	 * 
+	 * @param polygon
+	 *            the polygon to rasterize
+	 */
+	public void setPolygon(Polygon2D polygon)
+	{
+		int n = polygon.vertexNumber();
+		if (xCoords.length < n)
+		{
+			xCoords = new double[n];
+			yCoords = new double[n];
+		}
+		if (crossings.length < n)
+		{
+			crossings = new int[n];
+			directions = new int[n];
+			spans = new int[2 * n + 2];
+		}
+		
+		this.vertexCount = n;
+		this.yMin = Double.POSITIVE_INFINITY;
+		this.yMax = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++)
+		{
+			double x = polygon.vertices.get(i).getX();
+			double y = polygon.vertices.get(i).getY();
+			xCoords[i] = x;
+			yCoords[i] = y;
+			yMin = Math.min(yMin, y);
+			yMax = Math.max(yMax, y);
+		}
+		
+		this.positive = polygon.signedArea() > 0;
+		this.spanCount = 0;
+	}
+	
+
+	// ==================================================
+	// Rasterization methods
+	
+	/**
+	 * Computes the spans of pixels within the polygon for the specified row.
+	 * The spans can then be retrieved with the getSpanStart() and getSpanEnd()
+	 * methods.
+	 * 
+	 * @param y
+	 *            the index of the row
+	 * @param sizeX
+	 *            the width of the image, used to clip the spans
+	 * @return the number of spans within the row
+	 */
+	public int computeSpans(int y, int sizeX)
+	{
+		// y-coordinate of the pixel centers
+		double yc = y + 0.5;
+		
+		// compute the crossings of the edges with the current row, using the
+		// same conventions as within the Polygon2D.contains() method
+		int nCrossings = 0;
+		double x1 = xCoords[vertexCount - 1];
+		double y1 = yCoords[vertexCount - 1];
+		for (int i = 0; i < vertexCount; i++)
+		{
+			double x2 = xCoords[i];
+			double y2 = yCoords[i];
+			
+			int dir = 0;
+			if (y1 <= yc)
+			{
+				if (y2 > yc) dir = 1;
+			}
+			else
+			{
+				if (y2 <= yc) dir = -1;
+			}
+			
+			if (dir != 0)
+			{
+				// insert the crossing, keeping crossings sorted
+				int pos = crossingIndex(x1, y1, x2, y2, yc, dir, sizeX);
+				int k = nCrossings;
+				while (k > 0 && crossings[k - 1] > pos)
+				{
+					crossings[k] = crossings[k - 1];
+					directions[k] = directions[k - 1];
+					k--;
+				}
+				crossings[k] = pos;
+				directions[k] = dir;
+				nCrossings++;
+			}
+			
+			x1 = x2;
+			y1 = y2;
+		}
+		
+		// winding number of the pixels located before the first crossing
+		int wn = 0;
+		for (int k = 0; k < nCrossings; k++)
+		{
+			wn += directions[k];
+		}
+		
+		// convert the intervals between crossings into spans
+		spanCount = 0;
+		int start = 0;
+		for (int k = 0; k <= nCrossings; k++)
+		{
+			int end = k < nCrossings ? crossings[k] : sizeX;
+			boolean inside = positive ? wn == 1 : wn == 0;
+			if (inside && start < end)
+			{
+				if (spanCount > 0 && spans[2 * spanCount - 1] == start)
+				{
+					// merge with previous span
+					spans[2 * spanCount - 1] = end;
+				}
+				else
+				{
+					spans[2 * spanCount] = start;
+					spans[2 * spanCount + 1] = end;
+					spanCount++;
+				}
+			}
+			
+			if (k < nCrossings)
+			{
+				wn -= directions[k];
+				start = end;
+			}
+		}
+		
+		return spanCount;
+	}
+	
+	/**
+	 * Computes the index of the first pixel whose center is not located
+	 * before the crossing of the edge (x1,y1)-(x2,y2) with the horizontal line
+	 * y = yc, clipped to the range [0, sizeX].
+	 */
+	private static final int crossingIndex(double x1, double y1, double x2, double y2, double yc, int dir, int sizeX)
+	{
+		// initial guess from the intersection abscissa
+		double xi = x1 + (yc - y1) * (x2 - x1) / (y2 - y1);
+		double t = Math.ceil(xi - 0.5);
+		int pos = (int) Math.max(0, Math.min(sizeX, t));
+		
+		// adjust using the exact predicate, to avoid rounding discrepancies
+		while (pos < sizeX && isBefore(x1, y1, x2, y2, pos + 0.5, yc, dir))
+		{
+			pos++;
+		}
+		while (pos > 0 && !isBefore(x1, y1, x2, y2, pos - 0.5, yc, dir))
+		{
+			pos--;
+		}
+		return pos;
+	}
+	
+	/**
+	 * Checks if the point (x,y) is located before the crossing of the edge,
+	 * i.e. if the edge would be counted by the winding number of the point.
+	 */
+	private static final boolean isBefore(double x1, double y1, double x2, double y2, double x, double y, int dir)
+	{
+		double cross = (x2 - x1) * (y - y1) - (x - x1) * (y2 - y1);
+		return dir > 0 ? cross > 0 : cross < 0;
+	}
+	
+	/**
+	 * Returns the index of the first pixel of the specified span, computed
+	 * during the last call to computeSpans().
+	 * 
+	 * @param i
+	 *            the index of the span
+	 * @return the index of the first pixel within the span
+	 */
+	public int getSpanStart(int i)
+	{
+		return spans[2 * i];
+	}
+
+	/**
+	 * Returns the index of the pixel following the last pixel of the
+	 * specified span, computed during the last call to computeSpans().
+	 * 
+	 * @param i
+	 *            the index of the span
+	 * @return the index of the pixel after the span
+	 */
+	public int getSpanEnd(int i)
+	{
+		return spans[2 * i + 1];
+	}
+	
+	/**
+	 * Counts the number of pixels of an image with the specified size whose
+	 * centers are within the polygon.
+	 * 
+	 * @param sizeX
+	 *            the width of the image
+	 * @param sizeY
+	 *            the height of the image
+	 * @return the number of pixels within the polygon
+	 */
+	public int countPixels(int sizeX, int sizeY)
+	{
+		int count = 0;
+		int y1 = rowStart(sizeY), y2 = rowEnd(sizeY);
+		for (int y = y1; y < y2; y++)
+		{
+			int n = computeSpans(y, sizeX);
+			for (int i = 0; i < n; i++)
+			{
+				count += spans[2 * i + 1] - spans[2 * i];
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Fills the pixels of the image whose centers are within the polygon
+	 * with the specified value.
+	 * 
+	 * @param image
+	 *            the image to fill
+	 * @param value
+	 *            the value to assign to the pixels within the polygon
+	 */
+	public void fill(ImageProcessor image, double value)
+	{
+		int sizeX = image.getWidth();
+		int sizeY = image.getHeight();
+		float fValue = (float) value;
+		
+		int y1 = rowStart(sizeY), y2 = rowEnd(sizeY);
+		for (int y = y1; y < y2; y++)
+		{
+			int n = computeSpans(y, sizeX);
+			for (int i = 0; i < n; i++)
+			{
+				int x2 = spans[2 * i + 1];
+				for (int x = spans[2 * i]; x < x2; x++)
+				{
+					image.setf(x, y, fValue);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The index of the first row that may intersect the polygon. Polygons
+	 * with negative orientation are unbounded, and may contain any row.
+	 */
+	private int rowStart(int sizeY)
+	{
+		if (!positive) return 0;
+		return (int) Math.max(0, Math.min(sizeY, Math.floor(yMin)));
+	}
+	
+	private int rowEnd(int sizeY)
+	{
+		if (!positive) return sizeY;
+		return (int) Math.max(0, Math.min(sizeY, Math.ceil(yMax)));
+	}
+}
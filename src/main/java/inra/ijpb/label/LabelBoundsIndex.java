@@ -0,0 +1,529 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.label;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.data.IntBounds3D;
+
+/**
+ * Index of the regions within a 3D label image, computed with a single pass
+ * over the image.
+ * 
+ * For each label, the index stores the bounding box and the number of voxels
+ * of the region. Optionally, the index also stores the list of voxel runs of
+ * each region, a run being a sequence of consecutive voxels within a row. The
+ * index makes it possible to crop or binarize regions with a cost proportional
+ * to the size of the region (or of its bounding box when runs are not
+ * computed), instead of scanning the whole image for each region.
+ * 
+ * Example of use:
+ * <pre><code>
+ * ImageStack labelImage = ...;
+ * LabelBoundsIndex index = LabelBoundsIndex.create(labelImage, true);
+ * Iterator&lt;LabelBoundsIndex.LabelMask&gt; iter = index.maskIterator(1);
+ * while (iter.hasNext())
+ * {
+ *     LabelBoundsIndex.LabelMask mask = iter.next();
+ *     ImageStack binary = mask.getMask();
+ *     ...
+ * }
+ * </code></pre>
+ * 
+ * @see LabelImages#cropLabel(ImageStack, int, int)
+ * @see LabelImages#labelBounds(ImageStack, int)
+ * 
+ * @author dlegland
+ *
+ */
+public class LabelBoundsIndex
+{
+	// ==================================================
+	// Static factories
+
+	/**
+	 * Computes the index of the regions within a 3D label image, without
+	 * voxel runs.
+	 * 
+	 * @param image
+	 *            the 3D label image
+	 * @return the index of the regions within the image
+	 */
+	public static final LabelBoundsIndex create(ImageStack image)
+	{
+		return create(image, false);
+	}
+
+	/**
+	 * Computes the index of the regions within a 3D label image.
+	 * 
+	 * @param image
+	 *            the 3D label image
+	 * @param computeRuns
+	 *            if true, the voxel runs of each region are also stored
+	 * @return the index of the regions within the image
+	 */
+	public static final LabelBoundsIndex create(ImageStack image, boolean computeRuns)
+	{
+		LabelBoundsIndex index = new LabelBoundsIndex(image);
+		index.computeIndex(computeRuns);
+		return index;
+	}
+
+
+	// ==================================================
+	// Class variables
+
+	/** The label image */
+	ImageStack image;
+
+	/** The sorted list of labels */
+	int[] labels;
+
+	/** The map from label to its index within the labels array */
+	HashMap<Integer, Integer> labelIndices;
+
+	/** The bounds of each region, as xmin, xmax, ymin, ymax, zmin, zmax */
+	int[][] bounds;
+
+	/** The number of voxels of each region */
+	int[] voxelCounts;
+
+	/**
+	 * The index of the first run of each region, and the total number of
+	 * runs as last element. Null if the runs were not computed.
+	 */
+	int[] runOffsets = null;
+
+	/**
+	 * The runs of all the regions, grouped by region. Each run is represented
+	 * by four consecutive values: z, y, first x, and last x (exclusive).
+	 */
+	int[] runs = null;
+
+
+	// ==================================================
+	// Constructor
+
+	private LabelBoundsIndex(ImageStack image)
+	{
+		this.image = image;
+	}
+
+
+	// ==================================================
+	// Computation of the index
+
+	private void computeIndex(boolean computeRuns)
+	{
+		int sizeX = image.getWidth();
+		int sizeY = image.getHeight();
+		int sizeZ = image.getSize();
+
+		// data for each label, in the order of their discovery
+		HashMap<Integer, Integer> discoveryIndices = new HashMap<Integer, Integer>();
+		int nLabels = 0;
+		int[] labels = new int[16];
+		int[][] bounds = new int[16][];
+		int[] counts = new int[16];
+
+		// the runs of all regions, with the index of the region as fifth value
+		int[] runs = computeRuns ? new int[5 * 256] : null;
+		int nRuns = 0;
+
+		for (int z = 0; z < sizeZ; z++)
+		{
+			ImageProcessor slice = image.getProcessor(z + 1);
+			for (int y = 0; y < sizeY; y++)
+			{
+				int x = 0;
+				while (x < sizeX)
+				{
+					int label = (int) slice.getf(x, y);
+					if (label == 0)
+					{
+						x++;
+						continue;
+					}
+
+					// find the end of the run
+					int x0 = x;
+					while (x < sizeX && (int) slice.getf(x, y) == label)
+					{
+						x++;
+					}
+
+					// retrieve the index of the label, creating it if necessary
+					Integer index = discoveryIndices.get(label);
+					if (index == null)
+					{
+						if (nLabels == labels.length)
+						{
+							labels = Arrays.copyOf(labels, nLabels * 2);
+							bounds = Arrays.copyOf(bounds, nLabels * 2);
+							counts = Arrays.copyOf(counts, nLabels * 2);
+						}
+						index = nLabels++;
+						discoveryIndices.put(label, index);
+						labels[index] = label;
+						bounds[index] = new int[] { x0, x - 1, y, y, z, z };
+					}
+
+					// update bounds and count of the region
+					int[] box = bounds[index];
+					box[0] = Math.min(box[0], x0);
+					box[1] = Math.max(box[1], x - 1);
+					box[2] = Math.min(box[2], y);
+					box[3] = Math.max(box[3], y);
+					box[5] = z;
+					counts[index] += x - x0;
+
+					if (computeRuns)
+					{
+						if (5 * nRuns == runs.length)
+						{
+							runs = Arrays.copyOf(runs, runs.length * 2);
+						}
+						int offset = 5 * nRuns++;
+						runs[offset] = z;
+						runs[offset + 1] = y;
+						runs[offset + 2] = x0;
+						runs[offset + 3] = x;
+						runs[offset + 4] = index;
+					}
+				}
+			}
+		}
+
+		// sort labels, and compute the permutation from discovery order
+		int[] order = new int[nLabels];
+		this.labels = Arrays.copyOf(labels, nLabels);
+		Arrays.sort(this.labels);
+		this.labelIndices = LabelImages.mapLabelIndices(this.labels);
+		this.bounds = new int[nLabels][];
+		this.voxelCounts = new int[nLabels];
+		for (int i = 0; i < nLabels; i++)
+		{
+			int newIndex = this.labelIndices.get(labels[i]);
+			order[i] = newIndex;
+			this.bounds[newIndex] = bounds[i];
+			this.voxelCounts[newIndex] = counts[i];
+		}
+
+		if (computeRuns)
+		{
+			groupRuns(runs, nRuns, order);
+		}
+	}
+
+	/**
+	 * Groups the runs by region, using a counting sort that keeps the raster
+	 * order of the runs within each region.
+	 */
+	private void groupRuns(int[] allRuns, int nRuns, int[] order)
+	{
+		int nLabels = this.labels.length;
+		this.runOffsets = new int[nLabels + 1];
+		for (int r = 0; r < nRuns; r++)
+		{
+			this.runOffsets[order[allRuns[5 * r + 4]] + 1]++;
+		}
+		for (int i = 0; i < nLabels; i++)
+		{
+			this.runOffsets[i + 1] += this.runOffsets[i];
+		}
+
+		this.runs = new int[4 * nRuns];
+		int[] positions = Arrays.copyOf(this.runOffsets, nLabels);
+		for (int r = 0; r < nRuns; r++)
+		{
+			int pos = positions[order[allRuns[5 * r + 4]]]++;
+			System.arraycopy(allRuns, 5 * r, this.runs, 4 * pos, 4);
+		}
+	}
+
+
+	// ==================================================
+	// Accessors
+
+	/**
+	 * @return the sorted list of labels within the image
+	 */
+	public int[] getLabels()
+	{
+		return Arrays.copyOf(labels, labels.length);
+	}
+
+	/**
+	 * @return the number of labels within the image
+	 */
+	public int labelCount()
+	{
+		return labels.length;
+	}
+
+	/**
+	 * @return true if the voxel runs of the regions are stored within the
+	 *         index
+	 */
+	public boolean hasRuns()
+	{
+		return runs != null;
+	}
+
+	/**
+	 * Returns the bounds of a region.
+	 * 
+	 * @param label
+	 *            the label of the region
+	 * @return the bounds of the region
+	 */
+	public IntBounds3D getBounds(int label)
+	{
+		int[] box = bounds[indexOf(label)];
+		return new IntBounds3D(box[0], box[1], box[2], box[3], box[4], box[5]);
+	}
+
+	/**
+	 * Returns the number of voxels of a region.
+	 * 
+	 * @param label
+	 *            the label of the region
+	 * @return the number of voxels of the region
+	 */
+	public int getVoxelCount(int label)
+	{
+		return voxelCounts[indexOf(label)];
+	}
+
+	private int indexOf(int label)
+	{
+		Integer index = labelIndices.get(label);
+		if (index == null)
+		{
+			throw new IllegalArgumentException("Label image does not contain label " + label);
+		}
+		return index;
+	}
+
+
+	// ==================================================
+	// Per-label operations
+
+	/**
+	 * Returns a binary image with the same size as the label image, that
+	 * contains only the region with the specified label.
+	 * 
+	 * @param label
+	 *            the label of the region
+	 * @return a binary image of the selected region
+	 * @see LabelImages#binarize(ImageProcessor, int)
+	 */
+	public ImageStack binarize(int label)
+	{
+		int index = indexOf(label);
+		ImageStack result = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), 8);
+		fillMask(index, 0, 0, 0, result);
+		return result;
+	}
+
+	/**
+	 * Returns a binary image that contains only the region identified by its
+	 * label, cropped to the bounds of the region, and eventually adding some
+	 * borders.
+	 * 
+	 * @param label
+	 *            the label of the region
+	 * @param border
+	 *            the number of voxels to add to each side of the region
+	 * @return a smaller binary image containing only the selected region
+	 * @see LabelImages#cropLabel(ImageStack, int, int)
+	 */
+	public ImageStack cropLabel(int label, int border)
+	{
+		return cropIndex(indexOf(label), border);
+	}
+
+	/**
+	 * Crops all the regions within the label image.
+	 * 
+	 * @param border
+	 *            the number of voxels to add to each side of the regions
+	 * @return a map between each label and the binary image of the
+	 *         corresponding region, in the order of the labels
+	 */
+	public Map<Integer, ImageStack> cropAllLabels(int border)
+	{
+		Map<Integer, ImageStack> result = new LinkedHashMap<Integer, ImageStack>(labels.length);
+		for (int i = 0; i < labels.length; i++)
+		{
+			result.put(labels[i], cropIndex(i, border));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns an iterator over the binary masks of the regions, cropped to
+	 * the bounds of each region. The masks are computed only when requested,
+	 * avoiding to keep all of them in memory.
+	 * 
+	 * @param border
+	 *            the number of voxels to add to each side of the regions
+	 * @return an iterator over the masks of the regions, in the order of the
+	 *         labels
+	 */
+	public Iterator<LabelMask> maskIterator(final int border)
+	{
+		return new Iterator<LabelMask>()
+		{
+			int index = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return index < labels.length;
+			}
+
+			@Override
+			public LabelMask next()
+			{
+				if (!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				int[] box = bounds[index];
+				IntBounds3D cropBounds = new IntBounds3D(box[0] - border, box[1] + border, box[2] - border,
+						box[3] + border, box[4] - border, box[5] + border);
+				LabelMask mask = new LabelMask(labels[index], cropBounds, cropIndex(index, border));
+				index++;
+				return mask;
+			}
+		};
+	}
+
+	private ImageStack cropIndex(int index, int border)
+	{
+		int[] box = bounds[index];
+		int sizeX2 = box[1] - box[0] + 1 + 2 * border;
+		int sizeY2 = box[3] - box[2] + 1 + 2 * border;
+		int sizeZ2 = box[5] - box[4] + 1 + 2 * border;
+		ImageStack result = ImageStack.create(sizeX2, sizeY2, sizeZ2, 8);
+		fillMask(index, box[0] - border, box[2] - border, box[4] - border, result);
+		return result;
+	}
+
+	/**
+	 * Sets to 255 the voxels of the region within the result image, whose
+	 * origin corresponds to the position (x0, y0, z0) within the label image.
+	 * The result image is assumed to contain the bounds of the region.
+	 */
+	private void fillMask(int index, int x0, int y0, int z0, ImageStack result)
+	{
+		if (runs != null)
+		{
+			// use the runs of the region
+			for (int r = runOffsets[index]; r < runOffsets[index + 1]; r++)
+			{
+				int z = runs[4 * r];
+				int y = runs[4 * r + 1];
+				ImageProcessor slice = result.getProcessor(z - z0 + 1);
+				for (int x = runs[4 * r + 2]; x < runs[4 * r + 3]; x++)
+				{
+					slice.set(x - x0, y - y0, 255);
+				}
+			}
+			return;
+		}
+
+		// scan the bounding box of the region
+		int label = labels[index];
+		int[] box = bounds[index];
+		for (int z = box[4]; z <= box[5]; z++)
+		{
+			ImageProcessor slice = image.getProcessor(z + 1);
+			ImageProcessor resSlice = result.getProcessor(z - z0 + 1);
+			for (int y = box[2]; y <= box[3]; y++)
+			{
+				for (int x = box[0]; x <= box[1]; x++)
+				{
+					if ((int) slice.getf(x, y) == label)
+					{
+						resSlice.set(x - x0, y - y0, 255);
+					}
+				}
+			}
+		}
+	}
+
+
+	// ==================================================
+	// Inner classes
+
+	/**
+	 * The binary mask of a region, cropped to the bounds of the region.
+	 */
+	public static final class LabelMask
+	{
+		final int label;
+		final IntBounds3D bounds;
+		final ImageStack mask;
+
+		LabelMask(int label, IntBounds3D bounds, ImageStack mask)
+		{
+			this.label = label;
+			this.bounds = bounds;
+			this.mask = mask;
+		}
+
+		/**
+		 * @return the label of the region
+		 */
+		public int getLabel()
+		{
+			return label;
+		}
+
+		/**
+		 * @return the bounds of the mask within the label image, including
+		 *         the border
+		 */
+		public IntBounds3D getBounds()
+		{
+			return bounds;
+		}
+
+		/**
+		 * @return the binary image of the region
+		 */
+		public ImageStack getMask()
+		{
+			return mask;
+		}
+	}
+}
@@ -30,6 +30,7 @@ import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.TreeSet;
 
 import ij.IJ;
@@ -55,6 +56,7 @@ import inra.ijpb.binary.distmap.ChamferMask3D;
 import inra.ijpb.data.Cursor2D;
 import inra.ijpb.data.Cursor3D;
 import inra.ijpb.data.image.ImageUtils;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
 import inra.ijpb.label.conncomp.FloodFillRegionComponentsLabeling;
 import inra.ijpb.label.conncomp.FloodFillRegionComponentsLabeling3D;
 import inra.ijpb.data.IntBounds2D;
@@ -66,6 +68,7 @@ import inra.ijpb.label.distmap.ChamferDistanceTransform3DShort;
 import inra.ijpb.label.distmap.DistanceTransform2D;
 import inra.ijpb.label.distmap.DistanceTransform3D;
 import inra.ijpb.label.edit.FindAllLabels;
+import inra.ijpb.label.edit.RemapLabels;
 import inra.ijpb.label.edit.ReplaceLabelValues;
 import inra.ijpb.label.filter.ChamferLabelDilation2DShort;
 import inra.ijpb.label.filter.ChamferLabelDilation3DShort;
@@ -493,7 +496,26 @@ public class LabelImages
 		IntBounds3D bounds = labelBounds(image, label);
 		return cropLabel(image, label, bounds, border);
 	}
-	
+
+	/**
+	 * Crops all the regions within a 3D label map. The image is scanned only
+	 * once, and each region is then cropped with a cost proportional to its
+	 * size.
+	 *
+	 * @see LabelBoundsIndex
+	 *
+	 * @param image
+	 *            a 3D label map containing label of regions
+	 * @param border
+	 *            the number of voxels to add to each side of the regions
+	 * @return a map between each label and the binary image of the
+	 *         corresponding region
+	 */
+	public static final Map<Integer, ImageStack> cropAllLabels(ImageStack image, int border)
+	{
+		return LabelBoundsIndex.create(image, true).cropAllLabels(border);
+	}
+
 	/**
      * Computes the bounds of a region within a 3D label image.
      * 
@@ -1336,6 +1358,21 @@ public class LabelImages
         return new FindAllLabels().process(image);
     }
 
+    /**
+     * Returns the sorted set of unique labels existing in the given off-heap
+     * label image, excluding the value zero (used for background).
+     * 
+     * #see inra.ijpb.label.edit.FindAllLabels
+     * 
+     * @param image
+     *            a 3D label image with 32-bits or 64-bits labels
+     * @return the list of unique labels present in image (without background)
+     */
+    public final static long[] findAllLabels(OffHeapLabelImage3D image) 
+    {
+        return new FindAllLabels().process(image);
+    }
+
     /**
      * Returns the set of unique labels existing in the given image, excluding 
      * the value zero (used for background).
@@ -1502,25 +1539,47 @@ public class LabelImages
 	
 	/**
 	 * Ensures that the labels in the given label image range from 1 to Lmax.
+	 * Slices are processed in parallel.
+	 *  
+	 * @see inra.ijpb.label.edit.RemapLabels
 	 *  
 	 * @param image the 3D label image
 	 */
 	public static final void remapLabels(ImageStack image)
 	{
-		int[] labels = findAllLabels(image);
-		HashMap<Integer, Integer> map = mapLabelIndices(labels);
+		new RemapLabels().process(image);
+	}
+
+	/**
+	 * Ensures that the labels in the given off-heap label image range from 1
+	 * to Lmax. The labels are sorted in increasing order before remapping.
+	 * 
+	 * @param image
+	 *            the 3D label image with 32-bits or 64-bits labels
+	 */
+	public static final void remapLabels(OffHeapLabelImage3D image)
+	{
+		long[] labels = findAllLabels(image);
+		LongLabelIndexMap map = new LongLabelIndexMap(labels);
 		
-		for (int z = 0; z < image.getSize(); z++)
+		// keep result of last lookup, as neighbor voxels often share label
+		long lastLabel = 0;
+		long lastIndex = 0;
+		for (int z = 0; z < image.getSize(2); z++)
 		{
-			for (int y = 0; y < image.getHeight(); y++)
+			for (int y = 0; y < image.getSize(1); y++)
 			{
-				for (int x = 0; x < image.getWidth(); x++)
+				for (int x = 0; x < image.getSize(0); x++)
 				{
-					int label = (int) image.getVoxel(x, y, z);
-					if (label != 0)
+					long label = image.getLabel(x, y, z);
+					if (label == 0)
+						continue;
+					if (label != lastLabel)
 					{
-						image.setVoxel(x, y, z, map.get(label) + 1);
+						lastLabel = label;
+						lastIndex = map.indexOf(label) + 1;
 					}
+					image.setLabel(x, y, z, lastIndex);
 				}
 			}
 		}
@@ -28,10 +28,11 @@ import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import ij.process.ByteProcessor;
+import ij.Prefs;
 import ij.process.ImageProcessor;
+import ij.util.ThreadUtil;
 import inra.ijpb.geometry.Polygon2D;
 
 /**
@@ -40,11 +41,46 @@ import inra.ijpb.geometry.Polygon2D;
  * As regions may be disconnected and/or may contain hole(s), the resulting
  * polygons are not necessarily connected.
  * 
+ * The image rows are partitioned into bands that are processed in parallel.
+ * Each band tracks the boundaries that start within its rows, and the
+ * resulting polygons are the same as for sequential processing.
+ * 
  * @author dlegland
  *
  */
 public class LabelMapToPolygons
 {
+	/**
+	 * The minimum number of rows within the bands processed in parallel.
+	 */
+	private static final int MIN_BAND_HEIGHT = 32;
+
+	/**
+	 * The ordinal of the downward direction, used for initializing tracking.
+	 */
+	private static final int DOWN = Direction.DOWN.ordinal();
+
+	/**
+	 * The bit flag marking pixels already visited with the downward direction.
+	 */
+	private static final int DOWN_MASK = 1 << DOWN;
+
+	/**
+	 * The shifts to the next pixel in current direction, and to the diagonal
+	 * pixel within current configuration, indexed by direction ordinal.
+	 */
+	private static final int[][] NEXT_SHIFTS = new int[4][];
+	private static final int[][] DIAG_SHIFTS = new int[4][];
+	static
+	{
+		for (Direction direction : Direction.values())
+		{
+			int[][] shifts = direction.coordsShifts();
+			NEXT_SHIFTS[direction.ordinal()] = shifts[0];
+			DIAG_SHIFTS[direction.ordinal()] = shifts[1];
+		}
+	}
+
 	/**
 	 * The connectivity to use for tracking boundary. Should be either 4 or 8.
 	 * Default is 4.
@@ -57,6 +93,11 @@ public class LabelMapToPolygons
 	 */
 	VertexLocation vertexLocation = VertexLocation.EDGE_CENTER;
 
+	/**
+	 * The number of threads used for tracking boundaries.
+	 */
+	int nThreads = Prefs.getThreads();
+
 	/**
 	 * Enumeration of the different directions that be considered during
 	 * processing.
@@ -498,6 +539,17 @@ public class LabelMapToPolygons
 		return vertices;
 	}
 
+	/**
+	 * Sets the number of threads used for tracking boundaries.
+	 * 
+	 * @param nThreads
+	 *            the number of threads, or 1 for sequential processing
+	 */
+	public void setThreadNumber(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+
 	/**
 	 * Computes region boundaries from a label map and returns the result as a
 	 * Map from region label to polygon.
@@ -508,17 +560,101 @@ public class LabelMapToPolygons
 	 *         the region boundary (as polygon)
 	 */
 	public Map<Integer, ArrayList<Polygon2D>> process(ImageProcessor array)
+	{
+		return computePolygons(array).toMap();
+	}
+
+	/**
+	 * Computes region boundaries from a label map and returns the result as a
+	 * compact polygon store. The polygons are ordered according to the
+	 * position of the first pixel of their boundary in raster order.
+	 * 
+	 * @param array
+	 *            the label map to process
+	 * @return the store containing the boundary polygons of the regions
+	 */
+	public PolygonStore computePolygons(final ImageProcessor array)
+	{
+		// retrieve image size
+		final int sizeY = array.getHeight();
+
+		// partition rows into bands, using more bands than threads to
+		// balance the work between threads
+		final int nBands = nThreads == 1 ? 1 : Math.max(1, Math.min(nThreads * 4, sizeY / MIN_BAND_HEIGHT));
+		final PolygonStore[] bandStores = new PolygonStore[nBands];
+
+		if (nBands == 1)
+		{
+			bandStores[0] = processBand(array, 0, sizeY);
+		}
+		else
+		{
+			final AtomicInteger nextBand = new AtomicInteger(0);
+			Thread[] threads = ThreadUtil.createThreadArray(Math.min(nThreads, nBands));
+			for (int t = 0; t < threads.length; t++)
+			{
+				threads[t] = new Thread()
+				{
+					public void run()
+					{
+						for (int band = nextBand.getAndIncrement(); band < nBands; band = nextBand.getAndIncrement())
+						{
+							int y0 = (int) ((long) band * sizeY / nBands);
+							int y1 = (int) ((long) (band + 1) * sizeY / nBands);
+							bandStores[band] = processBand(array, y0, y1);
+						}
+					}
+				};
+			}
+			ThreadUtil.startAndJoin(threads);
+		}
+
+		// concatenate polygons of the bands
+		int nPolygons = 0;
+		int nVertices = 0;
+		for (PolygonStore store : bandStores)
+		{
+			nPolygons += store.size();
+			nVertices += store.totalVertexCount();
+		}
+		PolygonStore result = new PolygonStore(nPolygons, nVertices);
+		for (PolygonStore store : bandStores)
+		{
+			result.addAll(store);
+		}
+		return result;
+	}
+
+	/**
+	 * Tracks the boundaries that start within a band of rows.
+	 * 
+	 * Each boundary is associated to the first position with downward
+	 * direction encountered in raster order. Boundaries reached from the band
+	 * but containing such a position within a previous row are tracked to
+	 * mark their positions, but their polygon is discarded, as it will be
+	 * computed by the band containing its first position.
+	 * 
+	 * @param array
+	 *            the label map to process
+	 * @param y0
+	 *            the index of the first row of the band
+	 * @param y1
+	 *            the index of the last row of the band, exclusive
+	 * @return the store containing the polygons starting within the band
+	 */
+	private PolygonStore processBand(ImageProcessor array, int y0, int y1)
 	{
 		// retrieve image size
 		int sizeX = array.getWidth();
-		int sizeY = array.getHeight();
 
-		ByteProcessor maskArray = new ByteProcessor(sizeX, sizeY);
+		// the array of markers for the pixels within the band, containing a
+		// 4-bits value that indicates which directions have been visited
+		byte[] maskArray = new byte[sizeX * (y1 - y0)];
 
-		Map<Integer, ArrayList<Polygon2D>> boundaries = new HashMap<>();
+		PolygonStore store = new PolygonStore();
 
-		// iterate over all image pixels
-		for (int y = 0; y < sizeY; y++)
+		// iterate over band pixels
+		for (int y = y0; y < y1; y++)
 		{
 			int currentLabel = 0;
 
@@ -539,93 +675,91 @@ public class LabelMapToPolygons
 					continue;
 				}
 				// if the boundary was already tracked, no need to work again
-				if ((maskArray.get(x, y) & 0x08) > 0)
+				if ((maskArray[(y - y0) * sizeX + x] & DOWN_MASK) != 0)
 				{
 					continue;
 				}
 
 				// ok, we are at a transition that can be used to initialize a
 				// new boundary
-				// -> track the boundary, and convert to polygon object
-				ArrayList<Point2D> vertices = trackBoundary(array, maskArray, x, y, Direction.DOWN);
-				Polygon2D poly = Polygon2D.create(vertices);
-
-				// update map from labels to array of polygons
-				ArrayList<Polygon2D> polygons = boundaries.get(label);
-				if (polygons == null)
+				if (trackBoundary(array, maskArray, y0, y1, x, y, store))
 				{
-					polygons = new ArrayList<Polygon2D>(4);
+					store.closePolygon(label);
+				}
+				else
+				{
+					store.discardPolygon();
 				}
-				polygons.add(poly);
-				boundaries.put(label, polygons);
 			}
 		}
 
-		return boundaries;
+		return store;
 	}
 
 	/**
-	 * Tracks the boundary that starts at the current position by iterating on
-	 * successive neighbor positions, and returns the set of boundary points.
-	 * 
-	 * The positions are defined by two coordinates and a direction. The initial
-	 * position must correspond to a transition into a region, and the resulting
-	 * boundary will surround this region.
+	 * Tracks the boundary that starts at the specified pixel with the
+	 * downward direction, and adds its vertices to the store.
 	 * 
 	 * @param array
 	 *            the array containing binary or label representing the
 	 *            region(s)
 	 * @param maskArray
-	 *            an array the same size as <code>array</code> containing a
-	 *            4-bits values that indicates which directions of current pixel
-	 *            have been visited.
-	 * @param x0
-	 *            the x-coordinate of the start position
+	 *            the markers of the visited directions for the pixels within
+	 *            the band
 	 * @param y0
+	 *            the index of the first row of the band
+	 * @param y1
+	 *            the index of the last row of the band, exclusive
+	 * @param xs
+	 *            the x-coordinate of the start position
+	 * @param ys
 	 *            the y-coordinate of the start position
-	 * @param initialDirection
-	 *            the direction of the start position
-	 * @return the list of points that form the boundary starting at specified
-	 *         position
+	 * @param store
+	 *            the store to add the vertices to
+	 * @return true if the boundary starts within the band, false if it
+	 *         contains a downward position within a previous row
 	 */
-	private ArrayList<Point2D> trackBoundary(ImageProcessor array, ImageProcessor maskArray, int x0, int y0,
-			Direction initialDirection)
+	private boolean trackBoundary(ImageProcessor array, byte[] maskArray, int y0, int y1, int xs, int ys,
+			PolygonStore store)
 	{
 		// retrieve image size
 		int sizeX = array.getWidth();
 		int sizeY = array.getHeight();
 
-		// initialize result array
-		ArrayList<Point2D> vertices = new ArrayList<Point2D>();
+		// the vertex shifts for each direction
+		double[][] vertexShifts = vertexShifts(vertexLocation);
 
 		// initialize tracking algo state
-		int value = (int) array.getf(x0, y0);
-		Position pos0 = new Position(x0, y0, initialDirection);
-		Position pos = new Position(x0, y0, initialDirection);
+		int value = (int) array.getf(xs, ys);
+		int x = xs;
+		int y = ys;
+		int dir = DOWN;
+		boolean owned = true;
 
 		// iterate over boundary until we come back at initial position
 		do
 		{
 			// update vertices
-			vertices.add(pos.getVertex(vertexLocation));
+			store.addVertex(x + vertexShifts[dir][0], y + vertexShifts[dir][1]);
 
 			// mark the current pixel with integer that depends on position
-			updateMaskArray(maskArray, pos);
+			if (y >= y0 && y < y1)
+			{
+				maskArray[(y - y0) * sizeX + x] |= (1 << dir);
+			}
+			else if (y < y0 && dir == DOWN)
+			{
+				owned = false;
+			}
 
-			// compute position of the two other points in current 2-by-2
-			// configuration
-			int[][] shifts = pos.direction.coordsShifts();
 			// the pixel in the continuation of current direction
-			int xn = pos.x + shifts[0][0];
-			int yn = pos.y + shifts[0][1];
+			int xn = x + NEXT_SHIFTS[dir][0];
+			int yn = y + NEXT_SHIFTS[dir][1];
 			// the pixel in the diagonal position within current configuration
-			int xd = pos.x + shifts[1][0];
-			int yd = pos.y + shifts[1][1];
+			int xd = x + DIAG_SHIFTS[dir][0];
+			int yd = y + DIAG_SHIFTS[dir][1];
 
 			// determine configuration of the two pixels in current direction
-			// initialize with false, to manage the case of configuration on the
-			// border. In any cases, assume that reference pixel in current
-			// position belongs to the array.
 			boolean b0 = false;
 			if (xn >= 0 && xn < sizeX && yn >= 0 && yn < sizeY)
 			{
@@ -642,56 +776,46 @@ public class LabelMapToPolygons
 			if (!b0 && (!b1 || conn == 4))
 			{
 				// corner configuration -> +90 direction
-				pos = pos.direction.turnLeft(pos);
+				dir = (dir + 1) % 4;
 			}
 			else if (b1 && (b0 || conn == 8))
 			{
 				// reentrant corner configuration -> -90 direction
-				pos = pos.direction.turnRight(pos);
+				x = xd;
+				y = yd;
+				dir = (dir + 3) % 4;
 			}
 			else if (b0 && !b1)
 			{
 				// straight border configuration -> same direction
-				pos = pos.direction.forward(pos);
+				x = xn;
+				y = yn;
 			}
 			else
 			{
 				throw new RuntimeException("Should not reach this part...");
 			}
-		} while (!pos0.equals(pos));
+		} while (x != xs || y != ys || dir != DOWN);
 
-		return vertices;
+		return owned;
 	}
-	
+
 	/**
-	 * Updates, within the mask array, the pixel identified with the position,
-	 * by adding a marker that depends on the direction of the position.
-	 * 
-	 * @param maskArray
-	 *            the array of markers.
-	 * @param pos
-	 *            the data structure containing position of current pixel and
-	 *            current direction
+	 * Returns the shifts of the vertex with respect to the current pixel, for
+	 * each direction, indexed by direction ordinal.
 	 */
-	private static final void updateMaskArray(ImageProcessor maskArray, Position pos)
+	private static final double[][] vertexShifts(VertexLocation vertex)
 	{
-		// mark the current pixel with integer that depends on position
-		int mask = maskArray.get(pos.x, pos.y);
-		switch (pos.direction)
+		switch (vertex)
 		{
-			case RIGHT:
-				mask = mask | 0x01;
-				break;
-			case UP:
-				mask = mask | 0x02;
-				break;
-			case LEFT:
-				mask = mask | 0x04;
-				break;
-			case DOWN:
-				mask = mask | 0x08;
-				break;
+			case CORNER:
+				return new double[][] { { 0, 1 }, { 1, 1 }, { 1, 0 }, { 0, 0 } };
+			case EDGE_CENTER:
+				return new double[][] { { 0.5, 1 }, { 1, 0.5 }, { 0.5, 0 }, { 0, 0.5 } };
+			case PIXEL:
+				return new double[][] { { 0.5, 0.5 }, { 0.5, 0.5 }, { 0.5, 0.5 }, { 0.5, 0.5 } };
+			default:
+				throw new IllegalArgumentException("Unexpected value: " + vertex);
 		}
-		maskArray.set(pos.x, pos.y, mask);
 	}
 }
@@ -26,6 +26,7 @@ package inra.ijpb.label;
 
 import ij.ImageStack;
 import ij.process.ImageProcessor;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
 
 /**
  * A collection of utility methods for working with label images.
@@ -91,6 +92,21 @@ public class LabelUtils
         }
     }
 
+    /**
+     * Determine the largest possible label that can be used with the specified
+     * off-heap label image, depending on the number of bits used to store
+     * labels.
+     * 
+     * @param labelMap
+     *            the image used for storing labels
+     * @return the largest integer value of the label that can be stored within
+     *         the input label map.
+     */
+    public static final long getLargestPossibleLabel(OffHeapLabelImage3D labelMap)
+    {
+        return labelMap.getLargestPossibleLabel();
+    }
+
     /** 
      * Private constructor to prevent instantation.
      */
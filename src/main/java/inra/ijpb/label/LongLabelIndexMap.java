@@ -0,0 +1,204 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.label;
+
+import java.util.Arrays;
+
+/**
+ * Associates a set of labels stored as long integers to consecutive indices,
+ * starting from zero. Labels are stored within primitive arrays using open
+ * addressing, avoiding the memory overhead of boxed keys when the number of
+ * labels is large.
+ * 
+ * <p>
+ * Example of use:
+ *<pre>{@code
+ *	long[] labels = LabelImages.findAllLabels(labelMap);
+ *	LongLabelIndexMap map = new LongLabelIndexMap(labels);
+ *	int index = map.indexOf(labelMap.getLabel(x, y, z));
+ *}</pre>
+ * 
+ * @see LabelImages#mapLabelIndices(int[])
+ * 
+ * @author dlegland
+ *
+ */
+public class LongLabelIndexMap
+{
+	/** The value used to identify empty slots */
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	/** The labels, in the order they were added */
+	long[] labels;
+
+	/** The number of labels */
+	int size = 0;
+
+	/** The hash table of labels, containing EMPTY for empty slots */
+	long[] keys;
+
+	/** The index of the label stored at the same position in keys array */
+	int[] indices;
+
+	/**
+	 * Creates a new empty map.
+	 */
+	public LongLabelIndexMap()
+	{
+		this.labels = new long[16];
+		allocateTable(32);
+	}
+
+	/**
+	 * Creates a new map that associates each label of the array to its
+	 * position within the array.
+	 * 
+	 * @param labels
+	 *            the array of labels, without duplicates
+	 */
+	public LongLabelIndexMap(long[] labels)
+	{
+		this.labels = new long[Math.max(labels.length, 16)];
+		int capacity = 32;
+		while (capacity < labels.length * 2)
+		{
+			capacity *= 2;
+		}
+		allocateTable(capacity);
+
+		for (long label : labels)
+		{
+			if (add(label) != size - 1)
+			{
+				throw new IllegalArgumentException("Duplicate label in label array: " + label);
+			}
+		}
+	}
+
+	/**
+	 * Adds a label to the map, if it is not already present.
+	 * 
+	 * @param label
+	 *            the label to add
+	 * @return the index associated to the label
+	 */
+	public int add(long label)
+	{
+		if (label == EMPTY)
+		{
+			throw new IllegalArgumentException("Can not store the value Long.MIN_VALUE");
+		}
+
+		int mask = keys.length - 1;
+		int pos = hash(label) & mask;
+		while (keys[pos] != EMPTY)
+		{
+			if (keys[pos] == label)
+				return indices[pos];
+			pos = (pos + 1) & mask;
+		}
+
+		// add the new label
+		if (size == labels.length)
+		{
+			labels = Arrays.copyOf(labels, size * 2);
+		}
+		labels[size] = label;
+		keys[pos] = label;
+		indices[pos] = size;
+		size++;
+
+		// keep load factor below one half
+		if (size * 2 > keys.length)
+		{
+			rehash(keys.length * 2);
+		}
+		return size - 1;
+	}
+
+	/**
+	 * Returns the index associated to the specified label.
+	 * 
+	 * @param label
+	 *            the label
+	 * @return the index of the label, or -1 if the label is not in the map
+	 */
+	public int indexOf(long label)
+	{
+		int mask = keys.length - 1;
+		int pos = hash(label) & mask;
+		while (keys[pos] != EMPTY)
+		{
+			if (keys[pos] == label)
+				return indices[pos];
+			pos = (pos + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of labels within the map
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return a new array containing the labels, in the order of their
+	 *         indices
+	 */
+	public long[] getLabels()
+	{
+		return Arrays.copyOf(labels, size);
+	}
+
+	private void allocateTable(int capacity)
+	{
+		this.keys = new long[capacity];
+		Arrays.fill(this.keys, EMPTY);
+		this.indices = new int[capacity];
+	}
+
+	private void rehash(int capacity)
+	{
+		allocateTable(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < size; i++)
+		{
+			int pos = hash(labels[i]) & mask;
+			while (keys[pos] != EMPTY)
+			{
+				pos = (pos + 1) & mask;
+			}
+			keys[pos] = labels[i];
+			indices[pos] = i;
+		}
+	}
+
+	private static final int hash(long label)
+	{
+		// mix the bits, as consecutive labels are frequent
+		long h = label * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,368 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.label;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import inra.ijpb.geometry.Polygon2D;
+
+/**
+ * Compact storage of a collection of labeled polygons.
+ * 
+ * The vertex coordinates of all the polygons are stored within two arrays of
+ * double, and an array of offsets indicates the index of the first vertex of
+ * each polygon. This avoids the creation of one object for each vertex, and
+ * makes it possible to process images containing a large number of regions.
+ * Polygon objects or ROIs are created only when requested.
+ * 
+ * @see LabelMapToPolygons#computePolygons(ij.process.ImageProcessor)
+ * 
+ * @author dlegland
+ *
+ */
+public class PolygonStore
+{
+	// ==================================================
+	// Class variables
+
+	/** The x-coordinates of the vertices of all the polygons */
+	double[] xCoords;
+
+	/** The y-coordinates of the vertices of all the polygons */
+	double[] yCoords;
+
+	/** The total number of vertices */
+	int vertexCount = 0;
+
+	/**
+	 * The index of the first vertex of each polygon. The array contains one
+	 * more element than the number of polygons, the last one being the total
+	 * number of vertices.
+	 */
+	int[] offsets;
+
+	/** The label of the region associated to each polygon */
+	int[] labels;
+
+	/** The number of polygons */
+	int size = 0;
+
+
+	// ==================================================
+	// Constructors
+
+	/**
+	 * Creates a new empty polygon store.
+	 */
+	public PolygonStore()
+	{
+		this(16, 256);
+	}
+
+	/**
+	 * Creates a new empty polygon store, with initial capacities for the
+	 * number of polygons and the number of vertices.
+	 * 
+	 * @param polygonCapacity
+	 *            the initial capacity for polygons
+	 * @param vertexCapacity
+	 *            the initial capacity for vertices
+	 */
+	public PolygonStore(int polygonCapacity, int vertexCapacity)
+	{
+		polygonCapacity = Math.max(polygonCapacity, 1);
+		vertexCapacity = Math.max(vertexCapacity, 1);
+		this.xCoords = new double[vertexCapacity];
+		this.yCoords = new double[vertexCapacity];
+		this.offsets = new int[polygonCapacity + 1];
+		this.labels = new int[polygonCapacity];
+	}
+
+
+	// ==================================================
+	// Access to polygons
+
+	/**
+	 * @return the number of polygons within this store
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return the total number of vertices of the polygons within this store
+	 */
+	public int totalVertexCount()
+	{
+		return this.vertexCount;
+	}
+
+	/**
+	 * Returns the label of the region associated to a polygon.
+	 * 
+	 * @param index
+	 *            the index of the polygon
+	 * @return the label of the region the polygon is the boundary of
+	 */
+	public int getLabel(int index)
+	{
+		checkIndex(index);
+		return this.labels[index];
+	}
+
+	/**
+	 * Returns the list of region labels, in the order of their first polygon.
+	 * 
+	 * @return the array of distinct region labels
+	 */
+	public int[] getLabels()
+	{
+		LinkedHashMap<Integer, Integer> map = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++)
+		{
+			map.put(labels[i], i);
+		}
+		int[] res = new int[map.size()];
+		int i = 0;
+		for (int label : map.keySet())
+		{
+			res[i++] = label;
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the number of vertices of a polygon.
+	 * 
+	 * @param index
+	 *            the index of the polygon
+	 * @return the number of vertices of the polygon
+	 */
+	public int vertexNumber(int index)
+	{
+		checkIndex(index);
+		return this.offsets[index + 1] - this.offsets[index];
+	}
+
+	/**
+	 * Returns the x-coordinate of a vertex of a polygon.
+	 * 
+	 * @param index
+	 *            the index of the polygon
+	 * @param vertex
+	 *            the index of the vertex within the polygon
+	 * @return the x-coordinate of the vertex
+	 */
+	public double getX(int index, int vertex)
+	{
+		return this.xCoords[vertexIndex(index, vertex)];
+	}
+
+	/**
+	 * Returns the y-coordinate of a vertex of a polygon.
+	 * 
+	 * @param index
+	 *            the index of the polygon
+	 * @param vertex
+	 *            the index of the vertex within the polygon
+	 * @return the y-coordinate of the vertex
+	 */
+	public double getY(int index, int vertex)
+	{
+		return this.yCoords[vertexIndex(index, vertex)];
+	}
+
+	/**
+	 * Creates a new polygon instance from the vertices of a polygon within
+	 * this store.
+	 * 
+	 * @param index
+	 *            the index of the polygon
+	 * @return a new Polygon2D instance
+	 */
+	public Polygon2D getPolygon(int index)
+	{
+		checkIndex(index);
+		int start = this.offsets[index];
+		int end = this.offsets[index + 1];
+		return Polygon2D.create(Arrays.copyOfRange(xCoords, start, end), Arrays.copyOfRange(yCoords, start, end));
+	}
+
+	/**
+	 * Converts a polygon within this store into an ImageJ Polygon ROI.
+	 * 
+	 * @param index
+	 *            the index of the polygon
+	 * @return the corresponding PolygonRoi
+	 */
+	public PolygonRoi createRoi(int index)
+	{
+		checkIndex(index);
+		int start = this.offsets[index];
+		int n = this.offsets[index + 1] - start;
+
+		// extract coordinates
+		float[] px = new float[n];
+		float[] py = new float[n];
+		for (int i = 0; i < n; i++)
+		{
+			px[i] = (float) xCoords[start + i];
+			py[i] = (float) yCoords[start + i];
+		}
+
+		// create ROI data structure
+		return new PolygonRoi(px, py, n, Roi.POLYGON);
+	}
+
+	/**
+	 * Converts this store into a map between region labels and the list of
+	 * polygons associated to each region.
+	 * 
+	 * @return an associative array between the region label (as integer) and
+	 *         the region boundaries (as polygons)
+	 */
+	public Map<Integer, ArrayList<Polygon2D>> toMap()
+	{
+		Map<Integer, ArrayList<Polygon2D>> map = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++)
+		{
+			ArrayList<Polygon2D> polygons = map.get(labels[i]);
+			if (polygons == null)
+			{
+				polygons = new ArrayList<Polygon2D>(4);
+				map.put(labels[i], polygons);
+			}
+			polygons.add(getPolygon(i));
+		}
+		return map;
+	}
+
+
+	// ==================================================
+	// Population of the store
+
+	/**
+	 * Adds a vertex to the polygon currently being built. The polygon is
+	 * added to the store by calling the <code>closePolygon</code> method.
+	 * 
+	 * @param x
+	 *            the x-coordinate of the new vertex
+	 * @param y
+	 *            the y-coordinate of the new vertex
+	 */
+	void addVertex(double x, double y)
+	{
+		if (vertexCount == xCoords.length)
+		{
+			int capacity = xCoords.length * 2;
+			xCoords = Arrays.copyOf(xCoords, capacity);
+			yCoords = Arrays.copyOf(yCoords, capacity);
+		}
+		xCoords[vertexCount] = x;
+		yCoords[vertexCount] = y;
+		vertexCount++;
+	}
+
+	/**
+	 * Adds the polygon formed by the vertices added since the last polygon.
+	 * 
+	 * @param label
+	 *            the label of the region associated to the polygon
+	 */
+	void closePolygon(int label)
+	{
+		if (size == labels.length)
+		{
+			labels = Arrays.copyOf(labels, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2 + 1);
+		}
+		labels[size] = label;
+		size++;
+		offsets[size] = vertexCount;
+	}
+
+	/**
+	 * Removes the vertices added since the last polygon.
+	 */
+	void discardPolygon()
+	{
+		vertexCount = offsets[size];
+	}
+
+	/**
+	 * Appends all the polygons of another store at the end of this store.
+	 * 
+	 * @param store
+	 *            the store containing the polygons to add
+	 */
+	void addAll(PolygonStore store)
+	{
+		// ensure capacities
+		int nv = vertexCount + store.vertexCount;
+		if (nv > xCoords.length)
+		{
+			xCoords = Arrays.copyOf(xCoords, nv);
+			yCoords = Arrays.copyOf(yCoords, nv);
+		}
+		int np = size + store.size;
+		if (np > labels.length)
+		{
+			labels = Arrays.copyOf(labels, np);
+			offsets = Arrays.copyOf(offsets, np + 1);
+		}
+
+		// copy data, shifting offsets
+		System.arraycopy(store.xCoords, 0, xCoords, vertexCount, store.vertexCount);
+		System.arraycopy(store.yCoords, 0, yCoords, vertexCount, store.vertexCount);
+		System.arraycopy(store.labels, 0, labels, size, store.size);
+		for (int i = 1; i <= store.size; i++)
+		{
+			offsets[size + i] = store.offsets[i] + vertexCount;
+		}
+		vertexCount = nv;
+		size = np;
+	}
+
+	private int vertexIndex(int index, int vertex)
+	{
+		checkIndex(index);
+		if (vertex < 0 || vertex >= offsets[index + 1] - offsets[index])
+		{
+			throw new IndexOutOfBoundsException("Vertex index out of bounds: " + vertex);
+		}
+		return offsets[index] + vertex;
+	}
+
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= size)
+		{
+			throw new IndexOutOfBoundsException("Polygon index out of bounds: " + index);
+		}
+	}
+}
@@ -24,6 +24,7 @@ package inra.ijpb.label;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.ImageProcessor;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
 
 import java.util.Set;
 import java.util.TreeSet;
@@ -220,6 +221,48 @@ public class RegionAdjacencyGraph
 		return list;
 	}
 
+	/**
+	 * Returns the set of region adjacencies in an off-heap label image, using
+	 * 64-bits integers to represent labels.
+	 * 
+	 * @param image
+	 *            a 3D label image with 32-bits or 64-bits labels
+	 * @return the set of adjacencies within the image
+	 */
+	public static final Set<LongLabelPair> computeAdjacencies(OffHeapLabelImage3D image)
+	{
+		int width = image.getSize(0);
+		int height = image.getSize(1);
+		int depth = image.getSize(2);
+		
+		TreeSet<LongLabelPair> list = new TreeSet<LongLabelPair>();
+		
+		// shifts in each direction
+		int[][] shifts = new int[][] {{2, 0, 0}, {0, 2, 0}, {0, 0, 2}};
+		for (int[] shift : shifts)
+		{
+			for (int z = 0; z < depth - shift[2]; z++)
+			{
+				for (int y = 0; y < height - shift[1]; y++)
+				{
+					for (int x = 0; x < width - shift[0]; x++)
+					{
+						long label = image.getLabel(x, y, z);
+						if (label == 0)
+							continue;
+						long label2 = image.getLabel(x + shift[0], y + shift[1], z + shift[2]);
+						if (label2 == 0 || label2 == label)
+							continue;
+						
+						list.add(new LongLabelPair(label, label2));
+					}
+				}
+			}
+		}
+		
+		return list;
+	}
+
 	/**
 	 * Used to stores the adjacency information between two regions. In order to
 	 * ensure symmetry of the relation, the value of label1 field always
@@ -298,4 +341,65 @@ public class RegionAdjacencyGraph
 			return this.label1 == that.label1 && this.label2 == that.label2; 
 		}
 	}
+
+	/**
+	 * Stores the adjacency information between two regions identified by
+	 * 64-bits labels. The value of label1 field always contains the lower
+	 * label, while the value of label2 always contains the highest label.
+	 * 
+	 * @see LabelPair
+	 */
+	public static final class LongLabelPair implements Comparable <LongLabelPair>
+	{
+		/**
+		 * The first label.
+		 */
+		public final long label1;
+		
+		/**
+		 * The second label.
+		 */
+		public final long label2;
+		
+		/**
+		 * Creates a new Label Pair.
+		 * 
+		 * @param label1
+		 *            the first label.
+		 * @param label2
+		 *            the second label.
+		 */
+		public LongLabelPair(long label1, long label2)
+		{
+			this.label1 = Math.min(label1, label2);
+			this.label2 = Math.max(label1, label2);
+		}
+
+		@Override
+		public int compareTo(LongLabelPair pair) 
+		{
+			int res = Long.compare(this.label1, pair.label1);
+			return res != 0 ? res : Long.compare(this.label2, pair.label2);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = 31;
+			hash = hash * 17 + Long.hashCode(this.label1);
+			hash = hash * 17 + Long.hashCode(this.label2);
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof LongLabelPair))
+			{
+				return false;
+			}
+			LongLabelPair that = (LongLabelPair) obj;
+			return this.label1 == that.label1 && this.label2 == that.label2; 
+		}
+	}
 }
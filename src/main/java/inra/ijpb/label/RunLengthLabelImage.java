@@ -0,0 +1,576 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.label;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import inra.ijpb.data.IntBounds2D;
+import inra.ijpb.label.RegionAdjacencyGraph.LabelPair;
+
+/**
+ * Run-length encoded representation of a planar label image.
+ * 
+ * Each row of the image is represented by the list of its runs, a run being a
+ * sequence of consecutive pixels with the same non-zero label. Background
+ * pixels are not stored, making this representation well suited to label
+ * images containing mostly background. The operations provided by this class
+ * have a cost proportional to the number of runs rather than to the number of
+ * pixels.
+ * 
+ * Example of use:
+ * <pre><code>
+ * ImageProcessor labelImage = ...;
+ * RunLengthLabelImage rle = RunLengthLabelImage.create(labelImage);
+ * int[] labels = rle.findAllLabels();
+ * int[] areas = rle.pixelCount(labels);
+ * ImageProcessor filtered = rle.areaOpening(50).toImageProcessor();
+ * </code></pre>
+ * 
+ * @see RunLengthLabelImage3D
+ * @see LabelImages
+ * 
+ * @author dlegland
+ *
+ */
+public class RunLengthLabelImage
+{
+	// ==================================================
+	// Static factories
+
+	/**
+	 * Creates the run-length encoded representation of a label image.
+	 * 
+	 * @param image
+	 *            the label image, with 8, 16 or 32 bits
+	 * @return the run-length encoded label image
+	 */
+	public static final RunLengthLabelImage create(ImageProcessor image)
+	{
+		if (image.getBitDepth() == 24)
+		{
+			throw new IllegalArgumentException("Requires a label image with 8, 16 or 32 bits");
+		}
+
+		int sizeX = image.getWidth();
+		int sizeY = image.getHeight();
+		RunLengthLabelImage result = new RunLengthLabelImage(sizeX, sizeY, image.getBitDepth(), sizeY);
+
+		for (int y = 0; y < sizeY; y++)
+		{
+			int currentLabel = 0;
+			int start = 0;
+			for (int x = 0; x < sizeX; x++)
+			{
+				int label = (int) image.getf(x, y);
+				if (label == currentLabel)
+				{
+					continue;
+				}
+
+				// close current run, and start a new one
+				if (currentLabel != 0)
+				{
+					result.addRun(start, x, currentLabel);
+				}
+				currentLabel = label;
+				start = x;
+			}
+			if (currentLabel != 0)
+			{
+				result.addRun(start, sizeX, currentLabel);
+			}
+			result.closeRow();
+		}
+
+		return result;
+	}
+
+
+	// ==================================================
+	// Class variables
+
+	/** The width of the image */
+	int sizeX;
+
+	/** The height of the image */
+	int sizeY;
+
+	/** The bit depth of the image, used for conversion to ImageProcessor */
+	int bitDepth;
+
+	/**
+	 * The index of the first run of each row, and the total number of runs
+	 * as last element.
+	 */
+	int[] rowOffsets;
+
+	/** The number of rows populated so far */
+	int rowCount = 0;
+
+	/** The x-coordinate of the first pixel of each run */
+	int[] runStarts;
+
+	/** The x-coordinate after the last pixel of each run */
+	int[] runEnds;
+
+	/** The label of each run */
+	int[] runLabels;
+
+	/** The total number of runs */
+	int runCount = 0;
+
+
+	// ==================================================
+	// Constructors
+
+	/**
+	 * Creates a new empty run-length label image, to be populated row by row.
+	 */
+	RunLengthLabelImage(int sizeX, int sizeY, int bitDepth, int runCapacity)
+	{
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.bitDepth = bitDepth;
+		this.rowOffsets = new int[sizeY + 1];
+
+		runCapacity = Math.max(runCapacity, 1);
+		this.runStarts = new int[runCapacity];
+		this.runEnds = new int[runCapacity];
+		this.runLabels = new int[runCapacity];
+	}
+
+	/**
+	 * Adds a run at the end of the current row.
+	 */
+	void addRun(int start, int end, int label)
+	{
+		if (runCount == runStarts.length)
+		{
+			int capacity = runCount * 2;
+			runStarts = Arrays.copyOf(runStarts, capacity);
+			runEnds = Arrays.copyOf(runEnds, capacity);
+			runLabels = Arrays.copyOf(runLabels, capacity);
+		}
+		runStarts[runCount] = start;
+		runEnds[runCount] = end;
+		runLabels[runCount] = label;
+		runCount++;
+	}
+
+	/**
+	 * Terminates the current row, and starts the next one.
+	 */
+	void closeRow()
+	{
+		rowCount++;
+		rowOffsets[rowCount] = runCount;
+	}
+
+
+	// ==================================================
+	// Conversion
+
+	/**
+	 * Converts this run-length encoded image into an ImageProcessor, with the
+	 * same bit depth as the original image.
+	 * 
+	 * @return a new label image
+	 */
+	public ImageProcessor toImageProcessor()
+	{
+		ImageProcessor result;
+		switch (bitDepth)
+		{
+			case 8: result = new ByteProcessor(sizeX, sizeY); break;
+			case 16: result = new ShortProcessor(sizeX, sizeY); break;
+			default: result = new FloatProcessor(sizeX, sizeY); break;
+		}
+		fill(result);
+		return result;
+	}
+
+	/**
+	 * Writes the labels of the runs into the specified image, that must have
+	 * the same size as this image and contain only background.
+	 */
+	void fill(ImageProcessor image)
+	{
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int i = rowOffsets[y]; i < rowOffsets[y + 1]; i++)
+			{
+				float label = runLabels[i];
+				for (int x = runStarts[i]; x < runEnds[i]; x++)
+				{
+					image.setf(x, y, label);
+				}
+			}
+		}
+	}
+
+
+	// ==================================================
+	// Accessors
+
+	/**
+	 * @return the width of the image
+	 */
+	public int getWidth()
+	{
+		return this.sizeX;
+	}
+
+	/**
+	 * @return the height of the image
+	 */
+	public int getHeight()
+	{
+		return this.sizeY;
+	}
+
+	/**
+	 * @return the total number of runs within the image
+	 */
+	public int runCount()
+	{
+		return this.runCount;
+	}
+
+	/**
+	 * Returns the label of the specified pixel, by a binary search within the
+	 * runs of the row.
+	 * 
+	 * @param x
+	 *            the x-coordinate of the pixel
+	 * @param y
+	 *            the y-coordinate of the pixel
+	 * @return the label of the pixel, or 0 for background
+	 */
+	public int get(int x, int y)
+	{
+		int lo = rowOffsets[y];
+		int hi = rowOffsets[y + 1] - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (runEnds[mid] <= x)
+			{
+				lo = mid + 1;
+			}
+			else if (runStarts[mid] > x)
+			{
+				hi = mid - 1;
+			}
+			else
+			{
+				return runLabels[mid];
+			}
+		}
+		return 0;
+	}
+
+
+	// ==================================================
+	// Label operations
+
+	/**
+	 * Returns the set of unique labels within the image, excluding the
+	 * background.
+	 * 
+	 * @return the sorted list of labels present within the image
+	 */
+	public int[] findAllLabels()
+	{
+		return uniqueValues(Arrays.copyOf(runLabels, runCount));
+	}
+
+	/**
+	 * Counts the number of pixels of each label.
+	 * 
+	 * @param labels
+	 *            the list of labels to consider
+	 * @return the number of pixels of each label, in the same order as the
+	 *         labels array
+	 */
+	public int[] pixelCount(int[] labels)
+	{
+		int[] counts = new int[labels.length];
+		addPixelCounts(LabelImages.mapLabelIndices(labels), counts);
+		return counts;
+	}
+
+	/**
+	 * Adds the number of pixels of each label to the specified array.
+	 */
+	void addPixelCounts(HashMap<Integer, Integer> labelIndices, int[] counts)
+	{
+		for (int i = 0; i < runCount; i++)
+		{
+			Integer index = labelIndices.get(runLabels[i]);
+			if (index != null)
+			{
+				counts[index] += runEnds[i] - runStarts[i];
+			}
+		}
+	}
+
+	/**
+	 * Computes the bounds of a region within the image.
+	 * 
+	 * @param label
+	 *            the label of the region
+	 * @return the bounds of the region
+	 */
+	public IntBounds2D labelBounds(int label)
+	{
+		int xmin = Integer.MAX_VALUE;
+		int xmax = Integer.MIN_VALUE;
+		int ymin = Integer.MAX_VALUE;
+		int ymax = Integer.MIN_VALUE;
+
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int i = rowOffsets[y]; i < rowOffsets[y + 1]; i++)
+			{
+				if (runLabels[i] != label)
+				{
+					continue;
+				}
+				xmin = Math.min(xmin, runStarts[i]);
+				xmax = Math.max(xmax, runEnds[i] - 1);
+				ymin = Math.min(ymin, y);
+				ymax = Math.max(ymax, y);
+			}
+		}
+
+		return new IntBounds2D(xmin, xmax, ymin, ymax);
+	}
+
+	/**
+	 * Returns a binary image that contains only the region identified by its
+	 * label, cropped to the bounds of the region, and eventually adding some
+	 * borders.
+	 * 
+	 * @param label
+	 *            the label of the region to select
+	 * @param border
+	 *            the number of pixels to add to each side of the region
+	 * @return a smaller binary image containing only the selected region
+	 */
+	public ImageProcessor cropLabel(int label, int border)
+	{
+		IntBounds2D bounds = labelBounds(label);
+		ImageProcessor result = new ByteProcessor(bounds.getWidth() + 2 * border, bounds.getHeight() + 2 * border);
+		cropLabel(label, bounds.getXMin() - border, bounds.getYMin() - border, result);
+		return result;
+	}
+
+	/**
+	 * Writes the pixels of the region with the specified label into a binary
+	 * image, whose origin corresponds to the position (x0, y0) of this image.
+	 */
+	void cropLabel(int label, int x0, int y0, ImageProcessor result)
+	{
+		for (int y = Math.max(y0, 0); y < Math.min(y0 + result.getHeight(), sizeY); y++)
+		{
+			for (int i = rowOffsets[y]; i < rowOffsets[y + 1]; i++)
+			{
+				if (runLabels[i] != label)
+				{
+					continue;
+				}
+				for (int x = runStarts[i]; x < runEnds[i]; x++)
+				{
+					result.set(x - x0, y - y0, 255);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a new image containing only the specified labels.
+	 * 
+	 * @param labels
+	 *            the labels to keep
+	 * @return a new run-length label image containing only the specified
+	 *         labels
+	 */
+	public RunLengthLabelImage keepLabels(int[] labels)
+	{
+		HashMap<Integer, Integer> labelIndices = LabelImages.mapLabelIndices(labels);
+		RunLengthLabelImage result = new RunLengthLabelImage(sizeX, sizeY, bitDepth, runCount);
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int i = rowOffsets[y]; i < rowOffsets[y + 1]; i++)
+			{
+				if (labelIndices.containsKey(runLabels[i]))
+				{
+					result.addRun(runStarts[i], runEnds[i], runLabels[i]);
+				}
+			}
+			result.closeRow();
+		}
+		return result;
+	}
+
+	/**
+	 * Applies area opening: creates a new image that contains only the
+	 * regions with at least the specified number of pixels.
+	 * 
+	 * @param nPixelMin
+	 *            the minimal number of pixels of regions
+	 * @return a new run-length label image containing only regions with
+	 *         enough pixels
+	 */
+	public RunLengthLabelImage areaOpening(int nPixelMin)
+	{
+		int[] labels = findAllLabels();
+		return keepLabels(selectLabels(labels, pixelCount(labels), nPixelMin));
+	}
+
+	/**
+	 * Computes the set of adjacencies between regions. As for the
+	 * {@link RegionAdjacencyGraph} class, two regions are adjacent if they are
+	 * separated by one pixel in the horizontal or vertical direction.
+	 * 
+	 * @return the set of adjacencies between regions
+	 */
+	public Set<LabelPair> computeAdjacencies()
+	{
+		TreeSet<LabelPair> adjacencies = new TreeSet<LabelPair>();
+		addAdjacencies(adjacencies);
+		return adjacencies;
+	}
+
+	/**
+	 * Adds the adjacencies between regions within the plane to the set.
+	 */
+	void addAdjacencies(Set<LabelPair> adjacencies)
+	{
+		// transitions in x direction
+		for (int y = 0; y < sizeY; y++)
+		{
+			int end = rowOffsets[y + 1];
+			for (int i = rowOffsets[y]; i < end; i++)
+			{
+				// as runs are disjoint, only the runs starting less than two
+				// pixels after the end of current run can be reached
+				for (int j = i + 1; j < end && runStarts[j] < runEnds[i] + 2; j++)
+				{
+					if (runEnds[j] > runStarts[i] + 2 && runLabels[j] != runLabels[i])
+					{
+						adjacencies.add(new LabelPair(runLabels[i], runLabels[j]));
+					}
+				}
+			}
+		}
+
+		// transitions in y direction
+		for (int y = 0; y < sizeY - 2; y++)
+		{
+			addAdjacencies(this, y, this, y + 2, adjacencies);
+		}
+	}
+
+	/**
+	 * Adds the adjacencies between the regions of two rows, by identifying
+	 * the pairs of overlapping runs with different labels.
+	 */
+	static void addAdjacencies(RunLengthLabelImage image1, int y1, RunLengthLabelImage image2, int y2,
+			Set<LabelPair> adjacencies)
+	{
+		int i = image1.rowOffsets[y1];
+		int iEnd = image1.rowOffsets[y1 + 1];
+		int j = image2.rowOffsets[y2];
+		int jEnd = image2.rowOffsets[y2 + 1];
+		while (i < iEnd && j < jEnd)
+		{
+			int end1 = image1.runEnds[i];
+			int end2 = image2.runEnds[j];
+			if (image1.runStarts[i] < end2 && image2.runStarts[j] < end1
+					&& image1.runLabels[i] != image2.runLabels[j])
+			{
+				adjacencies.add(new LabelPair(image1.runLabels[i], image2.runLabels[j]));
+			}
+
+			// move to the next run that can still overlap
+			if (end1 <= end2)
+			{
+				i++;
+			}
+			if (end2 <= end1)
+			{
+				j++;
+			}
+		}
+	}
+
+
+	// ==================================================
+	// Utility methods
+
+	/**
+	 * Sorts the values of the array and returns the distinct values.
+	 */
+	static int[] uniqueValues(int[] values)
+	{
+		if (values.length == 0)
+		{
+			return values;
+		}
+		Arrays.sort(values);
+		int n = 1;
+		for (int i = 1; i < values.length; i++)
+		{
+			if (values[i] != values[n - 1])
+			{
+				values[n++] = values[i];
+			}
+		}
+		return Arrays.copyOf(values, n);
+	}
+
+	/**
+	 * Returns the labels whose count is greater than or equal to the
+	 * specified threshold.
+	 */
+	static int[] selectLabels(int[] labels, int[] counts, int minCount)
+	{
+		int[] result = new int[labels.length];
+		int n = 0;
+		for (int i = 0; i < labels.length; i++)
+		{
+			if (counts[i] >= minCount)
+			{
+				result[n++] = labels[i];
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+}
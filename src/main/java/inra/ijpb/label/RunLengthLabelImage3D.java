@@ -0,0 +1,348 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.label;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+
+import ij.ImageStack;
+import inra.ijpb.data.IntBounds2D;
+import inra.ijpb.data.IntBounds3D;
+import inra.ijpb.label.RegionAdjacencyGraph.LabelPair;
+
+/**
+ * Run-length encoded representation of a 3D label image.
+ * 
+ * The image is represented by the run-length encoding of each slice, each
+ * row of a slice being represented by the list of its runs of voxels with the
+ * same non-zero label. The operations provided by this class have a cost
+ * proportional to the number of runs rather than to the number of voxels.
+ * 
+ * @see RunLengthLabelImage
+ * @see LabelImages
+ * 
+ * @author dlegland
+ *
+ */
+public class RunLengthLabelImage3D
+{
+	// ==================================================
+	// Static factories
+
+	/**
+	 * Creates the run-length encoded representation of a 3D label image.
+	 * 
+	 * @param image
+	 *            the 3D label image, with 8, 16 or 32 bits
+	 * @return the run-length encoded label image
+	 */
+	public static final RunLengthLabelImage3D create(ImageStack image)
+	{
+		int sizeZ = image.getSize();
+		RunLengthLabelImage[] slices = new RunLengthLabelImage[sizeZ];
+		for (int z = 0; z < sizeZ; z++)
+		{
+			slices[z] = RunLengthLabelImage.create(image.getProcessor(z + 1));
+		}
+		return new RunLengthLabelImage3D(image.getWidth(), image.getHeight(), slices);
+	}
+
+
+	// ==================================================
+	// Class variables
+
+	/** The width of the image */
+	int sizeX;
+
+	/** The height of the image */
+	int sizeY;
+
+	/** The run-length encoding of each slice */
+	RunLengthLabelImage[] slices;
+
+
+	// ==================================================
+	// Constructors
+
+	RunLengthLabelImage3D(int sizeX, int sizeY, RunLengthLabelImage[] slices)
+	{
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.slices = slices;
+	}
+
+
+	// ==================================================
+	// Conversion
+
+	/**
+	 * Converts this run-length encoded image into an ImageStack, with the same
+	 * bit depth as the original image.
+	 * 
+	 * @return a new 3D label image
+	 */
+	public ImageStack toImageStack()
+	{
+		int bitDepth = slices.length > 0 ? slices[0].bitDepth : 8;
+		ImageStack result = ImageStack.create(sizeX, sizeY, slices.length, bitDepth);
+		for (int z = 0; z < slices.length; z++)
+		{
+			slices[z].fill(result.getProcessor(z + 1));
+		}
+		return result;
+	}
+
+
+	// ==================================================
+	// Accessors
+
+	/**
+	 * @return the width of the image
+	 */
+	public int getWidth()
+	{
+		return this.sizeX;
+	}
+
+	/**
+	 * @return the height of the image
+	 */
+	public int getHeight()
+	{
+		return this.sizeY;
+	}
+
+	/**
+	 * @return the number of slices of the image
+	 */
+	public int getSize()
+	{
+		return this.slices.length;
+	}
+
+	/**
+	 * Returns the run-length encoding of a slice.
+	 * 
+	 * @param z
+	 *            the slice index, starting from 0
+	 * @return the run-length encoded slice
+	 */
+	public RunLengthLabelImage getSlice(int z)
+	{
+		return this.slices[z];
+	}
+
+	/**
+	 * @return the total number of runs within the image
+	 */
+	public int runCount()
+	{
+		int count = 0;
+		for (RunLengthLabelImage slice : slices)
+		{
+			count += slice.runCount;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the label of the specified voxel.
+	 * 
+	 * @param x
+	 *            the x-coordinate of the voxel
+	 * @param y
+	 *            the y-coordinate of the voxel
+	 * @param z
+	 *            the z-coordinate of the voxel
+	 * @return the label of the voxel, or 0 for background
+	 */
+	public int get(int x, int y, int z)
+	{
+		return slices[z].get(x, y);
+	}
+
+
+	// ==================================================
+	// Label operations
+
+	/**
+	 * Returns the set of unique labels within the image, excluding the
+	 * background.
+	 * 
+	 * @return the sorted list of labels present within the image
+	 */
+	public int[] findAllLabels()
+	{
+		int[] values = new int[runCount()];
+		int offset = 0;
+		for (RunLengthLabelImage slice : slices)
+		{
+			System.arraycopy(slice.runLabels, 0, values, offset, slice.runCount);
+			offset += slice.runCount;
+		}
+		return RunLengthLabelImage.uniqueValues(values);
+	}
+
+	/**
+	 * Counts the number of voxels of each label.
+	 * 
+	 * @param labels
+	 *            the list of labels to consider
+	 * @return the number of voxels of each label, in the same order as the
+	 *         labels array
+	 */
+	public int[] voxelCount(int[] labels)
+	{
+		HashMap<Integer, Integer> labelIndices = LabelImages.mapLabelIndices(labels);
+		int[] counts = new int[labels.length];
+		for (RunLengthLabelImage slice : slices)
+		{
+			slice.addPixelCounts(labelIndices, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Computes the bounds of a region within the image.
+	 * 
+	 * @param label
+	 *            the label of the region
+	 * @return the 3D bounds of the region
+	 */
+	public IntBounds3D labelBounds(int label)
+	{
+		int xmin = Integer.MAX_VALUE;
+		int xmax = Integer.MIN_VALUE;
+		int ymin = Integer.MAX_VALUE;
+		int ymax = Integer.MIN_VALUE;
+		int zmin = Integer.MAX_VALUE;
+		int zmax = Integer.MIN_VALUE;
+
+		for (int z = 0; z < slices.length; z++)
+		{
+			IntBounds2D bounds = slices[z].labelBounds(label);
+			if (bounds.getXMin() > bounds.getXMax())
+			{
+				continue;
+			}
+			xmin = Math.min(xmin, bounds.getXMin());
+			xmax = Math.max(xmax, bounds.getXMax());
+			ymin = Math.min(ymin, bounds.getYMin());
+			ymax = Math.max(ymax, bounds.getYMax());
+			zmin = Math.min(zmin, z);
+			zmax = Math.max(zmax, z);
+		}
+
+		return new IntBounds3D(xmin, xmax, ymin, ymax, zmin, zmax);
+	}
+
+	/**
+	 * Returns a binary image that contains only the region identified by its
+	 * label, cropped to the bounds of the region, and eventually adding some
+	 * borders.
+	 * 
+	 * @param label
+	 *            the label of the region to select
+	 * @param border
+	 *            the number of voxels to add to each side of the region
+	 * @return a smaller binary image containing only the selected region
+	 */
+	public ImageStack cropLabel(int label, int border)
+	{
+		IntBounds3D bounds = labelBounds(label);
+		int sizeZ2 = bounds.getDepth() + 2 * border;
+		ImageStack result = ImageStack.create(bounds.getWidth() + 2 * border, bounds.getHeight() + 2 * border,
+				sizeZ2, 8);
+
+		int x0 = bounds.getXMin() - border;
+		int y0 = bounds.getYMin() - border;
+		int z0 = bounds.getZMin() - border;
+		for (int z = Math.max(z0, 0); z < Math.min(z0 + sizeZ2, slices.length); z++)
+		{
+			slices[z].cropLabel(label, x0, y0, result.getProcessor(z - z0 + 1));
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a new image containing only the specified labels.
+	 * 
+	 * @param labels
+	 *            the labels to keep
+	 * @return a new run-length label image containing only the specified
+	 *         labels
+	 */
+	public RunLengthLabelImage3D keepLabels(int[] labels)
+	{
+		RunLengthLabelImage[] newSlices = new RunLengthLabelImage[slices.length];
+		for (int z = 0; z < slices.length; z++)
+		{
+			newSlices[z] = slices[z].keepLabels(labels);
+		}
+		return new RunLengthLabelImage3D(sizeX, sizeY, newSlices);
+	}
+
+	/**
+	 * Applies volume opening: creates a new image that contains only the
+	 * regions with at least the specified number of voxels.
+	 * 
+	 * @param nVoxelMin
+	 *            the minimal number of voxels of regions
+	 * @return a new run-length label image containing only regions with
+	 *         enough voxels
+	 */
+	public RunLengthLabelImage3D volumeOpening(int nVoxelMin)
+	{
+		int[] labels = findAllLabels();
+		return keepLabels(RunLengthLabelImage.selectLabels(labels, voxelCount(labels), nVoxelMin));
+	}
+
+	/**
+	 * Computes the set of adjacencies between regions. As for the
+	 * {@link RegionAdjacencyGraph} class, two regions are adjacent if they are
+	 * separated by one voxel in the x, y or z direction.
+	 * 
+	 * @return the set of adjacencies between regions
+	 */
+	public Set<LabelPair> computeAdjacencies()
+	{
+		TreeSet<LabelPair> adjacencies = new TreeSet<LabelPair>();
+
+		// transitions in x and y directions
+		for (RunLengthLabelImage slice : slices)
+		{
+			slice.addAdjacencies(adjacencies);
+		}
+
+		// transitions in z direction
+		for (int z = 0; z < slices.length - 2; z++)
+		{
+			for (int y = 0; y < sizeY; y++)
+			{
+				RunLengthLabelImage.addAdjacencies(slices[z], y, slices[z + 2], y, adjacencies);
+			}
+		}
+
+		return adjacencies;
+	}
+}
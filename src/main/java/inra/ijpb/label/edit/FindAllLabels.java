@@ -24,6 +24,7 @@
  */
 package inra.ijpb.label.edit;
 
+import java.util.Arrays;
 import java.util.TreeSet;
 
 import ij.ImagePlus;
@@ -33,6 +34,8 @@ import ij.process.ImageProcessor;
 import inra.ijpb.algo.AlgoStub;
 import inra.ijpb.data.image.Image3D;
 import inra.ijpb.data.image.Images3D;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
+import inra.ijpb.label.LongLabelIndexMap;
 
 /**
  * Extract the set of unique labels existing in the given image, excluding the
@@ -159,6 +162,53 @@ public class FindAllLabels extends AlgoStub
         return convertToArray(labels);
     }
     
+    /**
+     * Returns the sorted set of unique labels existing in the given off-heap
+     * label image, excluding the value zero (used for background). Labels are
+     * collected within primitive arrays, making it possible to process images
+     * with a large number of labels.
+     * 
+     * @param image
+     *            a 3D label image with 32-bits or 64-bits labels
+     * @return the list of unique labels present in image (without background)
+     */
+    public long[] process(OffHeapLabelImage3D image) 
+    {
+        // retrieve image size
+        int sizeX = image.getSize(0);
+        int sizeY = image.getSize(1);
+        int sizeZ = image.getSize(2);
+        
+        // the set of labels, stored as primitive values
+        LongLabelIndexMap labels = new LongLabelIndexMap();
+        
+        // iterate on image voxels, skipping runs of identical labels
+        long lastLabel = 0;
+        for (int z = 0; z < sizeZ; z++) 
+        {
+            this.fireProgressChanged(this, z, sizeZ);
+            for (int y = 0; y < sizeY; y++)  
+            {
+                for (int x = 0; x < sizeX; x++)
+                {
+                    long label = image.getLabel(x, y, z);
+                    if (label == lastLabel)
+                        continue;
+                    lastLabel = label;
+                    if (label != 0)
+                        labels.add(label);
+                }
+            }
+        }
+        
+        this.fireProgressChanged(this, 1, 1);
+        
+        // sort the labels
+        long[] array = labels.getLabels();
+        Arrays.sort(array);
+        return array;
+    }
+    
     /**
      * Converts a tree containing integers into a sorted array of ints.
      * 
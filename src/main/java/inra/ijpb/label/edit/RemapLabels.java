@@ -0,0 +1,470 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.label.edit;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImageStack;
+import ij.Prefs;
+import ij.util.ThreadUtil;
+import inra.ijpb.algo.AlgoMetrics;
+import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.data.IntBounds3D;
+import inra.ijpb.label.LongLabelIndexMap;
+
+/**
+ * Remaps the labels of a 3D label image such that they range from 1 to the
+ * number of labels, keeping the order of the original labels. The image is
+ * modified in place.
+ * 
+ * The labels are collected during a first pass over the slices, using dense
+ * arrays for 8- and 16-bits images, and primitive hash sets for 32-bits
+ * images. The slices are then rewritten using a lookup table. Both passes
+ * process several slices in parallel. The second pass can also compute the
+ * number of voxels and the bounds of each region.
+ * 
+ * <pre>{@code
+    ImageStack labelMap = ...;
+    RemapLabels algo = new RemapLabels();
+    RemapLabels.Result res = algo.computeResult(labelMap);
+    // label 'i+1' in the remapped image corresponds to the label
+    // 'res.labels[i]' in the original image
+    long count = res.voxelCounts[i];
+    IntBounds3D bounds = res.bounds[i];
+ * }</pre>
+ * 
+ * @see inra.ijpb.label.LabelImages#remapLabels(ImageStack)
+ * 
+ * @author dlegland
+ */
+public class RemapLabels extends AlgoStub
+{
+	/**
+	 * Default empty constructor.
+	 */
+	public RemapLabels()
+	{
+	}
+
+	/**
+	 * Remaps the labels of the 3D label image, such that they range from 1
+	 * to the number of labels.
+	 * 
+	 * @param image
+	 *            the 3D label image, that will be modified
+	 * @return the array of original labels, such that label
+	 *         <code>labels[i]</code> is replaced by <code>i+1</code>
+	 */
+	public int[] process(ImageStack image)
+	{
+		return remap(image, false).labels;
+	}
+
+	/**
+	 * Remaps the labels of the 3D label image, such that they range from 1
+	 * to the number of labels, and computes the number of voxels and the
+	 * bounds of each region.
+	 * 
+	 * @param image
+	 *            the 3D label image, that will be modified
+	 * @return the original labels together with the voxel counts and the
+	 *         bounds of each region
+	 */
+	public Result computeResult(ImageStack image)
+	{
+		return remap(image, true);
+	}
+
+	private Result remap(final ImageStack image, final boolean computeStats)
+	{
+		// size of image
+		final int sizeX = image.getWidth();
+		final int sizeY = image.getHeight();
+		final int sizeZ = image.getSize();
+		final int bitDepth = image.getBitDepth();
+		if (bitDepth != 8 && bitDepth != 16 && bitDepth != 32)
+		{
+			throw new IllegalArgumentException("Requires a label image with 8, 16 or 32 bits, not " + bitDepth);
+		}
+
+		// each thread processes a slice, then picks the next one
+		final int nThreads = Math.max(1, Math.min(Prefs.getThreads(), sizeZ));
+		final AtomicInteger doneSlices = new AtomicInteger(0);
+
+		// collect the labels within each thread
+		fireStatusChanged(this, "Find labels");
+		final long voxelCount = (long) sizeX * sizeY * sizeZ;
+		AlgoMetrics.Stage stage = startStage("Find labels");
+		final boolean[][] threadPresence = new boolean[nThreads][];
+		final LongLabelIndexMap[] threadLabels = new LongLabelIndexMap[nThreads];
+		final AtomicInteger nextSlice = new AtomicInteger(0);
+		Thread[] threads = ThreadUtil.createThreadArray(nThreads);
+		for (int t = 0; t < nThreads; t++)
+		{
+			final boolean[] presence = threadPresence[t] = bitDepth < 32 ? new boolean[1 << bitDepth] : null;
+			final LongLabelIndexMap labels = threadLabels[t] = bitDepth == 32 ? new LongLabelIndexMap() : null;
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					int[] row = new int[sizeX];
+					for (int z = nextSlice.getAndIncrement(); z < sizeZ; z = nextSlice.getAndIncrement())
+					{
+						Object pixels = image.getPixels(z + 1);
+						for (int y = 0; y < sizeY; y++)
+						{
+							readRow(pixels, y * sizeX, row);
+							if (presence != null)
+							{
+								for (int x = 0; x < sizeX; x++)
+								{
+									presence[row[x]] = true;
+								}
+							}
+							else
+							{
+								int lastLabel = 0;
+								for (int x = 0; x < sizeX; x++)
+								{
+									if (row[x] != lastLabel)
+									{
+										lastLabel = row[x];
+										labels.add(lastLabel);
+									}
+								}
+							}
+						}
+						fireProgressChanged(RemapLabels.this, doneSlices.incrementAndGet(), 2 * sizeZ);
+					}
+				}
+			};
+		}
+		ThreadUtil.startAndJoin(threads);
+		stage.stop(voxelCount);
+
+		// merge the labels found by each thread
+		final int[] labels = mergeLabels(threadPresence, threadLabels);
+		final int nLabels = labels.length;
+
+		// create the lookup table, using dense array when possible
+		final int[] lut;
+		final LongLabelIndexMap labelIndices;
+		if (bitDepth < 32)
+		{
+			lut = new int[1 << bitDepth];
+			labelIndices = null;
+		}
+		else if (nLabels == 0 || (labels[0] > 0 && labels[nLabels - 1] <= Math.max(1 << 16, 4 * nLabels)))
+		{
+			lut = new int[nLabels == 0 ? 1 : labels[nLabels - 1] + 1];
+			labelIndices = null;
+		}
+		else
+		{
+			lut = null;
+			long[] longLabels = new long[nLabels];
+			for (int i = 0; i < nLabels; i++)
+			{
+				longLabels[i] = labels[i];
+			}
+			labelIndices = new LongLabelIndexMap(longLabels);
+		}
+		if (lut != null)
+		{
+			for (int i = 0; i < nLabels; i++)
+			{
+				lut[labels[i]] = i + 1;
+			}
+		}
+
+		// rewrite the slices, and compute statistics within each thread
+		fireStatusChanged(this, "Remap labels");
+		stage = startStage("Remap labels");
+		final Stats[] threadStats = new Stats[nThreads];
+		nextSlice.set(0);
+		threads = ThreadUtil.createThreadArray(nThreads);
+		for (int t = 0; t < nThreads; t++)
+		{
+			final Stats stats = threadStats[t] = computeStats ? new Stats(nLabels) : null;
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					int[] row = new int[sizeX];
+					for (int z = nextSlice.getAndIncrement(); z < sizeZ; z = nextSlice.getAndIncrement())
+					{
+						Object pixels = image.getPixels(z + 1);
+						for (int y = 0; y < sizeY; y++)
+						{
+							readRow(pixels, y * sizeX, row);
+							int lastLabel = 0;
+							int newLabel = 0;
+							for (int x = 0; x < sizeX; x++)
+							{
+								int label = row[x];
+								if (label == 0)
+									continue;
+								if (label != lastLabel)
+								{
+									lastLabel = label;
+									newLabel = lut != null ? lut[label] : labelIndices.indexOf(label) + 1;
+								}
+								row[x] = newLabel;
+								if (stats != null)
+								{
+									stats.add(newLabel - 1, x, y, z);
+								}
+							}
+							writeRow(row, pixels, y * sizeX);
+						}
+						if (image.isVirtual())
+						{
+							image.setPixels(pixels, z + 1);
+						}
+						fireProgressChanged(RemapLabels.this, doneSlices.incrementAndGet(), 2 * sizeZ);
+					}
+				}
+			};
+		}
+		ThreadUtil.startAndJoin(threads);
+		stage.stop(voxelCount);
+
+		// create result
+		Result res = new Result(labels);
+		if (computeStats)
+		{
+			Stats stats = threadStats[0];
+			for (int t = 1; t < nThreads; t++)
+			{
+				stats.merge(threadStats[t]);
+			}
+			res.voxelCounts = stats.counts;
+			res.bounds = stats.createBounds();
+		}
+
+		fireStatusChanged(this, "");
+		fireProgressChanged(this, 1, 1);
+		return res;
+	}
+
+	/**
+	 * Merges the labels found by each thread into a sorted array of labels,
+	 * without the background label.
+	 */
+	private static final int[] mergeLabels(boolean[][] threadPresence, LongLabelIndexMap[] threadLabels)
+	{
+		if (threadPresence[0] != null)
+		{
+			// dense arrays: union of presence flags
+			boolean[] presence = threadPresence[0];
+			for (int t = 1; t < threadPresence.length; t++)
+			{
+				for (int i = 0; i < presence.length; i++)
+				{
+					presence[i] |= threadPresence[t][i];
+				}
+			}
+
+			int nLabels = 0;
+			for (int i = 1; i < presence.length; i++)
+			{
+				if (presence[i]) nLabels++;
+			}
+			int[] labels = new int[nLabels];
+			nLabels = 0;
+			for (int i = 1; i < presence.length; i++)
+			{
+				if (presence[i]) labels[nLabels++] = i;
+			}
+			return labels;
+		}
+
+		// hash sets: union of label sets
+		LongLabelIndexMap merged = threadLabels[0];
+		for (int t = 1; t < threadLabels.length; t++)
+		{
+			for (long label : threadLabels[t].getLabels())
+			{
+				merged.add(label);
+			}
+		}
+		long[] longLabels = merged.getLabels();
+		Arrays.sort(longLabels);
+
+		int[] labels = new int[longLabels.length];
+		int nLabels = 0;
+		for (long label : longLabels)
+		{
+			if (label != 0) labels[nLabels++] = (int) label;
+		}
+		return Arrays.copyOf(labels, nLabels);
+	}
+
+	/**
+	 * Reads the labels of a row of a slice, converted to integers.
+	 */
+	private static final void readRow(Object pixels, int offset, int[] row)
+	{
+		if (pixels instanceof byte[])
+		{
+			byte[] array = (byte[]) pixels;
+			for (int x = 0; x < row.length; x++)
+				row[x] = array[offset + x] & 0x00FF;
+		}
+		else if (pixels instanceof short[])
+		{
+			short[] array = (short[]) pixels;
+			for (int x = 0; x < row.length; x++)
+				row[x] = array[offset + x] & 0x00FFFF;
+		}
+		else
+		{
+			float[] array = (float[]) pixels;
+			for (int x = 0; x < row.length; x++)
+				row[x] = (int) array[offset + x];
+		}
+	}
+
+	/**
+	 * Writes the labels of a row into a slice. Background voxels are written
+	 * with the value 0, also for non integer values in float images.
+	 */
+	private static final void writeRow(int[] row, Object pixels, int offset)
+	{
+		if (pixels instanceof byte[])
+		{
+			byte[] array = (byte[]) pixels;
+			for (int x = 0; x < row.length; x++)
+				array[offset + x] = (byte) row[x];
+		}
+		else if (pixels instanceof short[])
+		{
+			short[] array = (short[]) pixels;
+			for (int x = 0; x < row.length; x++)
+				array[offset + x] = (short) row[x];
+		}
+		else
+		{
+			float[] array = (float[]) pixels;
+			for (int x = 0; x < row.length; x++)
+				array[offset + x] = row[x];
+		}
+	}
+
+	/**
+	 * Voxel counts and bounds of the regions, accumulated by a thread.
+	 */
+	private static final class Stats
+	{
+		long[] counts;
+		int[] xmin, xmax, ymin, ymax, zmin, zmax;
+
+		Stats(int nLabels)
+		{
+			counts = new long[nLabels];
+			xmin = new int[nLabels];
+			ymin = new int[nLabels];
+			zmin = new int[nLabels];
+			xmax = new int[nLabels];
+			ymax = new int[nLabels];
+			zmax = new int[nLabels];
+			Arrays.fill(xmin, Integer.MAX_VALUE);
+			Arrays.fill(ymin, Integer.MAX_VALUE);
+			Arrays.fill(zmin, Integer.MAX_VALUE);
+			Arrays.fill(xmax, Integer.MIN_VALUE);
+			Arrays.fill(ymax, Integer.MIN_VALUE);
+			Arrays.fill(zmax, Integer.MIN_VALUE);
+		}
+
+		void add(int index, int x, int y, int z)
+		{
+			counts[index]++;
+			if (x < xmin[index]) xmin[index] = x;
+			if (x > xmax[index]) xmax[index] = x;
+			if (y < ymin[index]) ymin[index] = y;
+			if (y > ymax[index]) ymax[index] = y;
+			if (z < zmin[index]) zmin[index] = z;
+			if (z > zmax[index]) zmax[index] = z;
+		}
+
+		void merge(Stats that)
+		{
+			for (int i = 0; i < counts.length; i++)
+			{
+				counts[i] += that.counts[i];
+				xmin[i] = Math.min(xmin[i], that.xmin[i]);
+				xmax[i] = Math.max(xmax[i], that.xmax[i]);
+				ymin[i] = Math.min(ymin[i], that.ymin[i]);
+				ymax[i] = Math.max(ymax[i], that.ymax[i]);
+				zmin[i] = Math.min(zmin[i], that.zmin[i]);
+				zmax[i] = Math.max(zmax[i], that.zmax[i]);
+			}
+		}
+
+		IntBounds3D[] createBounds()
+		{
+			IntBounds3D[] bounds = new IntBounds3D[counts.length];
+			for (int i = 0; i < counts.length; i++)
+			{
+				bounds[i] = new IntBounds3D(xmin[i], xmax[i], ymin[i], ymax[i], zmin[i], zmax[i]);
+			}
+			return bounds;
+		}
+	}
+
+	/**
+	 * Data class that stores the result of label remapping.
+	 */
+	public class Result
+	{
+		/**
+		 * The original labels, in increasing order. The label
+		 * <code>labels[i]</code> is replaced by <code>i+1</code>.
+		 */
+		public int[] labels;
+
+		/**
+		 * The number of voxels of each region, indexed by new label minus
+		 * one. Only computed by the <code>computeResult</code> method.
+		 */
+		public long[] voxelCounts = null;
+
+		/**
+		 * The bounds of each region, as inclusive voxel coordinates, indexed
+		 * by new label minus one. Only computed by the
+		 * <code>computeResult</code> method.
+		 */
+		public IntBounds3D[] bounds = null;
+
+		/**
+		 * Creates a new Result from the array of original labels.
+		 * 
+		 * @param labels
+		 *            the original labels, in increasing order
+		 */
+		public Result(int[] labels)
+		{
+			this.labels = labels;
+		}
+	}
+}
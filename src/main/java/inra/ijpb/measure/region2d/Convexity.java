@@ -26,15 +26,20 @@ package inra.ijpb.measure.region2d;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import ij.Prefs;
 import ij.measure.Calibration;
 import ij.measure.ResultsTable;
 import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
-import inra.ijpb.geometry.Box2D;
+import ij.util.ThreadUtil;
 import inra.ijpb.geometry.Polygon2D;
+import inra.ijpb.geometry.PolygonRasterizer;
 import inra.ijpb.geometry.Polygons2D;
+import inra.ijpb.label.LabelImages;
 
 /**
  * Computes convex area and convexity for regions within a binary or label
@@ -67,28 +72,86 @@ public class Convexity extends RegionAnalyzer2D<Convexity.Result>
 		int sizeY = binaryImage.getHeight();
 		ImageProcessor result = new ByteProcessor(sizeX, sizeY);
 		
-		// determines bounds
-		Box2D box = convexHull.boundingBox();
-		int ymin = (int) Math.max(0, Math.floor(box.getYMin()));
-		int ymax = (int) Math.min(sizeY, Math.ceil(box.getYMax()));
-		int xmin = (int) Math.max(0, Math.floor(box.getXMin()));
-		int xmax = (int) Math.min(sizeX, Math.ceil(box.getXMax()));
+		// fill the pixels within the convex hull
+		new PolygonRasterizer(convexHull).fill(result, 255);
 		
-		// iterate over pixels within bounding box
-		for (int y = ymin; y < ymax; y++)
+		return result;
+	}
+	
+	/**
+	 * Computes the label image obtained by replacing each region of the input
+	 * label image by its convex hull. When convex hulls overlap, the pixels
+	 * of the original regions keep their label, and the other pixels are
+	 * assigned the largest label among the hulls that contain them.
+	 * 
+	 * @param labelImage
+	 *            the label image containing the regions
+	 * @return a label image of the same type, containing the convex hull of
+	 *         each region
+	 */
+	public static final ImageProcessor convexifyLabels(ImageProcessor labelImage)
+	{
+		int[] labels = LabelImages.findAllLabels(labelImage);
+		Polygon2D[] hulls = convexHulls(labelImage, labels);
+		
+		// fill convex hulls by increasing labels
+		ImageProcessor result = labelImage.createProcessor(labelImage.getWidth(), labelImage.getHeight());
+		PolygonRasterizer rasterizer = new PolygonRasterizer();
+		for (int i = 0; i < labels.length; i++)
 		{
-			for (int x = xmin; x < xmax; x++)
+			rasterizer.setPolygon(hulls[i]);
+			rasterizer.fill(result, labels[i]);
+		}
+		
+		// restore the labels of the original regions
+		int nPixels = labelImage.getPixelCount();
+		for (int i = 0; i < nPixels; i++)
+		{
+			float label = labelImage.getf(i);
+			if (label != 0)
 			{
-				if (convexHull.contains(new Point2D.Double(x + 0.5, y + 0.5)))
-				{
-					result.set(x, y, 255);
-				}
+				result.setf(i, label);
 			}
 		}
 		
 		return result;
 	}
 	
+	/**
+	 * Computes the convex hull of each region within a label image. The
+	 * convex hulls are computed in parallel.
+	 * 
+	 * @param labelImage
+	 *            the label image containing the regions
+	 * @param labels
+	 *            the labels of the regions
+	 * @return the array of convex hulls, in the same order as the labels
+	 */
+	private static final Polygon2D[] convexHulls(ImageProcessor labelImage, final int[] labels)
+	{
+		final ArrayList<Point2D>[] pointArrays = RegionBoundaries.boundaryPixelsMiddleEdges(labelImage, labels);
+		final Polygon2D[] hulls = new Polygon2D[labels.length];
+		
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = ThreadUtil.createThreadArray(Math.max(1, Math.min(Prefs.getThreads(), labels.length)));
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					for (int i = ai.getAndIncrement(); i < labels.length; i = ai.getAndIncrement())
+					{
+						hulls[i] = Polygons2D.convexHull(pointArrays[i]);
+					}
+				}
+			};
+		}
+		ThreadUtil.startAndJoin(threads);
+		
+		return hulls;
+	}
+	
 	@Override
 	public ResultsTable createTable(Map<Integer, Convexity.Result> results)
 	{
@@ -114,61 +177,79 @@ public class Convexity extends RegionAnalyzer2D<Convexity.Result>
 	}
 
 	@Override
-	public Convexity.Result[] analyzeRegions(ImageProcessor image, int[] labels,
+	public Convexity.Result[] analyzeRegions(ImageProcessor image, final int[] labels,
 			Calibration calib)
 	{
 		// get image size
-		int sizeX = image.getWidth();
-		int sizeY = image.getHeight();
+		final int sizeX = image.getWidth();
+		final int sizeY = image.getHeight();
 		
 		// calibrated area of a single pixel
-		double pixelArea = calib.pixelWidth * calib.pixelHeight;
+		final double pixelArea = calib.pixelWidth * calib.pixelHeight;
+		
+		// create a look-up table from label to index in label array
+		int maxLabel = 0;
+		for (int label : labels)
+		{
+			maxLabel = Math.max(maxLabel, label);
+		}
+		int[] labelIndices = new int[maxLabel + 1];
+		Arrays.fill(labelIndices, -1);
+		for (int i = 0; i < labels.length; i++)
+		{
+			labelIndices[labels[i]] = i;
+		}
+		
+		// count the pixels of each region
+		final int[] counts = new int[labels.length];
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				int label = (int) image.getf(x, y);
+				if (label <= 0 || label > maxLabel)
+					continue;
+				int index = labelIndices[label];
+				if (index >= 0)
+				{
+					counts[index]++;
+				}
+			}
+		}
 		
 		// create result array
-		Convexity.Result[] res = new Convexity.Result[labels.length];
+		final Convexity.Result[] res = new Convexity.Result[labels.length];
 		
-        // compute convex hull of boundary points around each region
-        ArrayList<Point2D>[] pointArrays = RegionBoundaries.boundaryPixelsMiddleEdges(image, labels);
-
-        // iterate over labels
-		for (int i = 0; i < labels.length; i++)
+		// compute convex hull of boundary points around each region
+		final ArrayList<Point2D>[] pointArrays = RegionBoundaries.boundaryPixelsMiddleEdges(image, labels);
+		
+		// compute convex hull and convex area of each region, in parallel
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = ThreadUtil.createThreadArray(Math.max(1, Math.min(Prefs.getThreads(), labels.length)));
+		for (int t = 0; t < threads.length; t++)
 		{
-			// compute convex hull of boundary points around the binary particle
-            Polygon2D convexHull = Polygons2D.convexHull(pointArrays[i]);
-
-			// determine bounds
-			Box2D box = convexHull.boundingBox();
-            int xmin = (int) Math.max(0, Math.floor(box.getXMin()));
-            int xmax = (int) Math.min(sizeX, Math.ceil(box.getXMax()));
-			int ymin = (int) Math.max(0, Math.floor(box.getYMin()));
-			int ymax = (int) Math.min(sizeY, Math.ceil(box.getYMax()));
-			
-			double area = 0;
-			double convexArea = 0;
-			
-			// iterate over pixels within bounding box
-			for (int y = ymin; y < ymax; y++)
+			threads[t] = new Thread()
 			{
-				for (int x = xmin; x < xmax; x++)
+				public void run()
 				{
-					if ((int) image.getf(x, y) == labels[i])
-					{
-						area++;
-					}
-					if (convexHull.contains(new Point2D.Double(x + 0.5, y + 0.5)))
+					// each thread uses its own rasterizer to reuse buffers
+					PolygonRasterizer rasterizer = new PolygonRasterizer();
+					for (int i = ai.getAndIncrement(); i < labels.length; i = ai.getAndIncrement())
 					{
-						convexArea++;
+						Polygon2D convexHull = Polygons2D.convexHull(pointArrays[i]);
+						rasterizer.setPolygon(convexHull);
+						
+						// calibrate measures
+						double area = counts[i] * pixelArea;
+						double convexArea = rasterizer.countPixels(sizeX, sizeY) * pixelArea;
+						
+						// save convexity measures for this label
+						res[i] = new Convexity.Result(area, convexArea);
 					}
 				}
-			}
-			
-			// calibrate measures
-            area *= pixelArea;
-            convexArea *= pixelArea;
-            
-            // save convexity measures for this label
-            res[i] = new Convexity.Result(area, convexArea);
+			};
 		}
+		ThreadUtil.startAndJoin(threads);
 		
 		return res;
 	}
@@ -24,16 +24,26 @@
  */
 package inra.ijpb.measure.region3d;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.ImageStack;
+import ij.Prefs;
+import ij.util.ThreadUtil;
 import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.geometry.Box3D;
 import inra.ijpb.label.LabelImages;
 
 /**
  * Computes histogram of binary 2-by-2-by-2 configurations within a 3D image.
  * 
+ * The configurations are processed plane by plane, and the planes are
+ * distributed over several threads, each thread updating its own histogram(s)
+ * that are merged at the end. Within a plane, the voxel values are read row
+ * by row from the slice arrays, and the index of the configuration is updated
+ * by shifting the index of the previous configuration.
+ * 
  * Implements the Algo interface, so the progress can be tracked.
  * 
  * @author dlegland
@@ -41,6 +51,13 @@ import inra.ijpb.label.LabelImages;
  */
 public class BinaryConfigurationsHistogram3D extends AlgoStub
 {
+    /**
+     * The maximum number of integer counts allocated for the per-thread
+     * histograms of labels (corresponding to 256 MB). Reduces the number of
+     * threads for images with many labels.
+     */
+    private static final int MAX_THREAD_COUNTS = 1 << 26;
+    
     // ==================================================
     // Static methods
 
@@ -113,77 +130,64 @@ public class BinaryConfigurationsHistogram3D extends AlgoStub
      * @return an array of 256 integers containing the number of each binary
      *         configurations
      */
-    public int[] process(ImageStack image)
+    public int[] process(final ImageStack image)
     {   
         // Algorithm:
         // iterate on configurations of 2-by-2-by-2 voxels containing on voxel of 3D image. 
-        // For each configuration, identify the labels within the configuration.
-        // For each label, compute the equivalent binary configuration index, 
-        // and adds is contribution to the measure associated to the label. 
+        // The planes of configurations are distributed over threads, and the
+        // histograms of each thread are summed at the end.
         
-        // create result histogram
-        int[] histo = new int[256];
-
         // size of image
-        int sizeX = image.getWidth();
-        int sizeY = image.getHeight();
-        int sizeZ = image.getSize();
+        final int sizeX = image.getWidth();
+        final int sizeY = image.getHeight();
+        final int sizeZ = image.getSize();
 
-        // values of pixels within current 2-by-2-by-2 configuration
-        boolean[] configValues = new boolean[8];
+        // each thread process a plane of configurations, then picks the next one
+        final AtomicInteger nextPlane = new AtomicInteger(0);
+        final AtomicInteger donePlanes = new AtomicInteger(0);
+        final int[][] threadHistos = new int[Math.max(1, Math.min(Prefs.getThreads(), sizeZ + 1))][];
         
-        // Iterate over all 2-by-2-by-2 configurations containing at least one
-        // voxel within the image.
-        // Current pixel is the lower-right pixel in configuration
-        // (corresponding to b111).
-        for (int z = 0; z < sizeZ + 1; z++) 
+        Thread[] threads = ThreadUtil.createThreadArray(threadHistos.length);
+        for (int t = 0; t < threads.length; t++)
         {
-            this.fireProgressChanged(this, z, sizeZ + 1);
-            
-            for (int y = 0; y < sizeY + 1; y++) 
+            final int[] histo = threadHistos[t] = new int[256];
+            threads[t] = new Thread()
             {
-                // initialize left voxels
-                configValues[0] = false;
-                configValues[2] = false;
-                configValues[4] = false;
-                configValues[6] = false;
-
-                for (int x = 0; x < sizeX + 1; x++) 
+                public void run()
                 {
-                    // update pixel values of configuration
-                    if (x < sizeX)
-                    {
-                        configValues[1] = y > 0 & z > 0 ? image.getVoxel(x, y - 1, z - 1) > 0 : false;
-                        configValues[3] = y < sizeY & z > 0 ? image.getVoxel(x, y, z - 1) > 0 : false;
-                        configValues[5] = y > 0 & z < sizeZ ? image.getVoxel(x, y - 1, z) > 0 : false;
-                        configValues[7] = y < sizeY & z < sizeZ ? image.getVoxel(x, y, z) > 0 : false;
-                    }
-                    else
+                    // binary values of the four rows of current configurations,
+                    // with one background voxel on each side
+                    int[][] rows = new int[4][sizeX + 2];
+                    
+                    // Current voxel is the lower-right voxel in configuration
+                    // (corresponding to b111).
+                    for (int z = nextPlane.getAndIncrement(); z <= sizeZ; z = nextPlane.getAndIncrement())
                     {
-                        // if reference voxel outside of image, the four new
-                        // values are outside, and are set to background
-                        configValues[1] = configValues[3] = configValues[5] = configValues[7] = false;   
+                        readBinaryRow(image, -1, z - 1, rows[1]);
+                        readBinaryRow(image, -1, z, rows[3]);
+                        for (int y = 0; y < sizeY + 1; y++) 
+                        {
+                            nextRows(image, y, z, rows, null);
+                            
+                            int index = 0;
+                            for (int x = 0; x < sizeX + 1; x++) 
+                            {
+                                index = shiftIndex(index, rows, x + 1);
+                                histo[index]++;
+                            }
+                        }
+                        
+                        fireProgressChanged(BinaryConfigurationsHistogram3D.this, donePlanes.incrementAndGet(), sizeZ + 1);
                     }
-
-                    // Compute index of local configuration
-                    int index = configIndex(configValues);
-
-                    // add the contribution of the configuration to the measure
-                    histo[index]++;
-                    
-                    // update values of configuration for next iteration
-                    configValues[0] = configValues[1];
-                    configValues[2] = configValues[3];
-                    configValues[4] = configValues[5];
-                    configValues[6] = configValues[7];
                 }
-            }
+            };
         }
+        ThreadUtil.startAndJoin(threads);
         
         this.fireProgressChanged(this, 1, 1);
 
-        // return the histogram
-        return histo;
+        // return the merged histogram
+        return sumHistograms(threadHistos);
     }
 
     /**
@@ -201,83 +205,65 @@ public class BinaryConfigurationsHistogram3D extends AlgoStub
      * @return an array of 256 integers containing the number of each binary
      *         configurations
      */
-    public int[] processInnerFrame(ImageStack image)
+    public int[] processInnerFrame(final ImageStack image)
     {   
         // Algorithm:
         // iterate on configurations of 2-by-2-by-2 voxels fully contained within 3D image. 
-        // For each configuration, identify the labels within the configuration.
-        // For each label, compute the equivalent binary configuration index, 
-        // and adds is contribution to the measure associated to the label. 
+        // The planes of configurations are distributed over threads, and the
+        // histograms of each thread are summed at the end.
         
         // size of image
-        int sizeX = image.getWidth();
-        int sizeY = image.getHeight();
-        int sizeZ = image.getSize();
+        final int sizeX = image.getWidth();
+        final int sizeY = image.getHeight();
+        final int sizeZ = image.getSize();
     
-        // create result histogram
-        int[] histo = new int[256];
-        
-        // values of pixels within current 2-by-2-by-2 configuration
-        boolean[] configValues = new boolean[8];
+        // each thread process a plane of configurations, then picks the next one
+        final AtomicInteger nextPlane = new AtomicInteger(1);
+        final AtomicInteger donePlanes = new AtomicInteger(0);
+        final int[][] threadHistos = new int[Math.max(1, Math.min(Prefs.getThreads(), sizeZ - 1))][];
         
-        // Iterate over all 2-by-2-by-2 configurations containing at least one
-        // voxel within the image.
-        // Current pixel is the lower-right voxel in configuration
-        // (corresponding to b111).
-        for (int z = 1; z < sizeZ; z++) 
+        Thread[] threads = ThreadUtil.createThreadArray(threadHistos.length);
+        for (int t = 0; t < threads.length; t++)
         {
-            this.fireProgressChanged(this, z, sizeZ + 1);
-            
-            for (int y = 1; y < sizeY; y++) 
+            final int[] histo = threadHistos[t] = new int[256];
+            threads[t] = new Thread()
             {
-                // initialize left voxels
-                configValues[0] = image.getVoxel(0, y - 1, z - 1) > 0;
-                configValues[2] = image.getVoxel(0, y, z - 1) > 0;
-                configValues[4] = image.getVoxel(0, y - 1, z) > 0;
-                configValues[6] = image.getVoxel(0, y, z) > 0;
-    
-                for (int x = 1; x < sizeX; x++) 
+                public void run()
                 {
-                    // update pixel values of configuration
-                    configValues[1] = image.getVoxel(x, y - 1, z - 1) > 0;
-                    configValues[3] = image.getVoxel(x, y, z - 1) > 0;
-                    configValues[5] = image.getVoxel(x, y - 1, z) > 0;
-                    configValues[7] = image.getVoxel(x, y, z) > 0;
-    
-                    // Compute index of local configuration
-                    int index = configIndex(configValues);
-    
-                    // add the contribution of the configuration to the measure
-                    histo[index]++;
+                    // binary values of the four rows of current configurations
+                    int[][] rows = new int[4][sizeX + 2];
                     
-                    // update values of configuration for next iteration
-                    configValues[0] = configValues[1];
-                    configValues[2] = configValues[3];
-                    configValues[4] = configValues[5];
-                    configValues[6] = configValues[7];
+                    // Current voxel is the lower-right voxel in configuration
+                    // (corresponding to b111).
+                    for (int z = nextPlane.getAndIncrement(); z < sizeZ; z = nextPlane.getAndIncrement())
+                    {
+                        readBinaryRow(image, 0, z - 1, rows[1]);
+                        readBinaryRow(image, 0, z, rows[3]);
+                        for (int y = 1; y < sizeY; y++) 
+                        {
+                            nextRows(image, y, z, rows, null);
+                            
+                            // initialize with left voxels, then process
+                            // configurations fully within image
+                            int index = shiftIndex(0, rows, 1);
+                            for (int x = 1; x < sizeX; x++) 
+                            {
+                                index = shiftIndex(index, rows, x + 1);
+                                histo[index]++;
+                            }
+                        }
+                        
+                        fireProgressChanged(BinaryConfigurationsHistogram3D.this, donePlanes.incrementAndGet(), sizeZ + 1);
+                    }
                 }
-            }
+            };
         }
+        ThreadUtil.startAndJoin(threads);
         
         this.fireProgressChanged(this, 1, 1);
 
-        // return the histogram
-        return histo;
-    }
-
-    private static final int configIndex(boolean[] configValues)
-    {
-        // Compute index of local configuration
-        int index = 0;
-        index += configValues[0] ?   1 : 0;
-        index += configValues[1] ?   2 : 0;
-        index += configValues[2] ?   4 : 0;
-        index += configValues[3] ?   8 : 0;
-        index += configValues[4] ?  16 : 0;
-        index += configValues[5] ?  32 : 0;
-        index += configValues[6] ?  64 : 0;
-        index += configValues[7] ? 128 : 0;
-        return index;
+        // return the merged histogram
+        return sumHistograms(threadHistos);
     }
 
     /**
@@ -296,7 +282,7 @@ public class BinaryConfigurationsHistogram3D extends AlgoStub
      * @return an array of nLabels-by-256 integers containing the number of
      *         binary configurations for each label
      */
-    public int[][] process(ImageStack image, int[] labels)
+    public int[][] process(final ImageStack image, int[] labels)
     {   
         // Algorithm:
         // iterate on configurations of 2-by-2-by-2 voxels containing on voxel of 3D image. 
@@ -304,109 +290,497 @@ public class BinaryConfigurationsHistogram3D extends AlgoStub
         // For each label, compute the equivalent binary configuration index, 
         // and adds is contribution to the measure associated to the label. 
         
-        // create associative array to know index of each label
-        HashMap<Integer, Integer> labelIndices = LabelImages.mapLabelIndices(labels);
-
-        // initialize the result array containing one measure for each label
-        int nLabels = labels.length;
-        int[][] histos = new int[nLabels][256];
-
         // size of image
-        int sizeX = image.getWidth();
-        int sizeY = image.getHeight();
-        int sizeZ = image.getSize();
+        final int sizeX = image.getWidth();
+        final int sizeY = image.getHeight();
+        final int sizeZ = image.getSize();
 
-        // for each configuration of 2x2x2 voxels, we identify the labels
-        ArrayList<Integer> localLabels = new ArrayList<Integer>(8);
-        
-        // values of pixels within current 2-by-2-by-2 configuration
-        int[] configValues = new int[8];
+        // create look-up table to convert label values into label indices
+        final LabelIndexMap labelMap = new LabelIndexMap(labels);
+        final int nLabels = labels.length;
+
+        // limit the number of threads to bound the memory used by histograms
+        int nThreads = Math.min(Prefs.getThreads(), sizeZ + 1);
+        nThreads = Math.min(nThreads, MAX_THREAD_COUNTS / (256 * Math.max(nLabels, 1)));
+        final int[][][] threadHistos = new int[Math.max(1, nThreads)][][];
         
-        // Iterate over all 2-by-2-by-2 configurations containing at least one
-        // voxel within the image.
-        // Current pixel is the lower-right pixel in configuration
-        // (corresponding to b111).
-        for (int z = 0; z < sizeZ + 1; z++) 
+        // each thread process a plane of configurations, then picks the next one
+        final AtomicInteger nextPlane = new AtomicInteger(0);
+        final AtomicInteger donePlanes = new AtomicInteger(0);
+        Thread[] threads = ThreadUtil.createThreadArray(threadHistos.length);
+        for (int t = 0; t < threads.length; t++)
         {
-            this.fireProgressChanged(this, z, sizeZ + 1);
-
-            for (int y = 0; y < sizeY + 1; y++) 
+            final int[][] histos = threadHistos[t] = new int[nLabels][256];
+            threads[t] = new Thread()
             {
-                // initialize left voxels
-                configValues[0] = 0;
-                configValues[2] = 0;
-                configValues[4] = 0;
-                configValues[6] = 0;
-
-                for (int x = 0; x < sizeX + 1; x++) 
+                public void run()
                 {
-                    // update pixel values of configuration
-                    if (x < sizeX)
-                    {
-                        configValues[1] = y > 0 & z > 0 ? (int) image.getVoxel(x, y - 1, z - 1) : 0;
-                        configValues[3] = y < sizeY & z > 0 ? (int) image.getVoxel(x, y, z - 1) : 0;
-                        configValues[5] = y > 0 & z < sizeZ ? (int) image.getVoxel(x, y - 1, z) : 0;
-                        configValues[7] = y < sizeY & z < sizeZ ? (int) image.getVoxel(x, y, z) : 0;
-                    }
-                    else
-                    {
-                        // if reference voxel outside of image, the four new
-                        // values are outside, and are set to zero
-                        configValues[1] = configValues[3] = configValues[5] = configValues[7] = 0;   
-                    }
-
-                    // identify labels in current config
-                    localLabels.clear();
-                    for (int label : configValues)
+                    // label indices (starting from 1) of the four rows of
+                    // current configurations, with one background voxel on
+                    // each side
+                    int[][] rows = new int[4][sizeX + 2];
+                    
+                    // label indices within current configuration
+                    int[] configValues = new int[8];
+                    
+                    // Current voxel is the lower-right voxel in configuration
+                    // (corresponding to b111).
+                    for (int z = nextPlane.getAndIncrement(); z <= sizeZ; z = nextPlane.getAndIncrement())
                     {
-                        if (label == 0)
-                            continue;
-                        // keep only one instance of each label
-                        if (!localLabels.contains(label))
-                            localLabels.add(label);
+                        readLabelRow(image, -1, z - 1, labelMap, rows[1]);
+                        readLabelRow(image, -1, z, labelMap, rows[3]);
+                        for (int y = 0; y < sizeY + 1; y++) 
+                        {
+                            nextRows(image, y, z, rows, labelMap);
+                            
+                            for (int x = 0; x < sizeX + 1; x++) 
+                            {
+                                addConfiguration(rows, x, configValues, histos);
+                            }
+                        }
+                        
+                        fireProgressChanged(BinaryConfigurationsHistogram3D.this, donePlanes.incrementAndGet(), sizeZ + 1);
                     }
+                }
+            };
+        }
+        ThreadUtil.startAndJoin(threads);
+        
+        this.fireProgressChanged(this, 1, 1);
 
-                    // For each label, compute binary confi
-                    for (int label : localLabels) 
-                    {
-                        // Compute index of local configuration
-                        int index = configIndex(configValues, label);
+        // merge the histograms of each thread
+        int[][] histos = threadHistos[0];
+        for (int t = 1; t < threadHistos.length; t++)
+        {
+            for (int i = 0; i < nLabels; i++)
+            {
+                for (int k = 0; k < 256; k++)
+                {
+                    histos[i][k] += threadHistos[t][i][k];
+                }
+            }
+        }
+        return histos;
+    }
 
-                        // retrieve label index from label value
-                        int labelIndex = labelIndices.get(label);
+    /**
+     * Computes the histogram of binary configurations of each label, by
+     * restricting the processing to the configurations that intersect the
+     * bounding box of the label. This is faster than the
+     * {@link #process(ImageStack, int[])} method for images that contain few
+     * small regions, as the whole image is not scanned. The labels are
+     * distributed over several threads.
+     * 
+     * The bounding boxes are given in voxel coordinates, as returned by the
+     * {@link BoundingBox3D} class without spatial calibration: the maximal
+     * bound of each box corresponds to the last voxel of the region plus one.
+     * 
+     * @see #process(ImageStack, int[])
+     * 
+     * @param image
+     *            the input 3D image of labels
+     * @param labels
+     *            the set of labels to process
+     * @param boxes
+     *            the bounding box of each label, in voxel coordinates
+     * @return an array of nLabels-by-256 integers containing the number of
+     *         binary configurations for each label
+     */
+    public int[][] process(final ImageStack image, final int[] labels, Box3D[] boxes)
+    {
+        if (boxes.length != labels.length)
+        {
+            throw new IllegalArgumentException("Requires as many bounding boxes as labels");
+        }
+        
+        // size of image
+        final int sizeX = image.getWidth();
+        final int sizeY = image.getHeight();
+        final int sizeZ = image.getSize();
+        
+        // convert boxes into ranges of configurations, clamped to the image.
+        // Current voxel is the lower-right voxel in configuration.
+        final int nLabels = labels.length;
+        final int[][] ranges = new int[nLabels][];
+        for (int i = 0; i < nLabels; i++)
+        {
+            Box3D box = boxes[i];
+            ranges[i] = new int[] {
+                    clamp(Math.floor(box.getXMin()), sizeX), clamp(Math.ceil(box.getXMax()), sizeX),
+                    clamp(Math.floor(box.getYMin()), sizeY), clamp(Math.ceil(box.getYMax()), sizeY),
+                    clamp(Math.floor(box.getZMin()), sizeZ), clamp(Math.ceil(box.getZMax()), sizeZ)};
+        }
 
-                        // add the contribution of the configuration to the
-                        // accumulator for the label
-                        histos[labelIndex][index]++;
-                    }
+        final int[][] histos = new int[nLabels][256];
+        
+        // each thread process a label, then picks the next one
+        final AtomicInteger nextLabel = new AtomicInteger(0);
+        final AtomicInteger doneLabels = new AtomicInteger(0);
+        Thread[] threads = ThreadUtil.createThreadArray(Math.max(1, Math.min(Prefs.getThreads(), nLabels)));
+        for (int t = 0; t < threads.length; t++)
+        {
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    // allocate row buffers according to the largest box
+                    int[][] rows = new int[4][0];
                     
-                    // update values of configuration for next iteration
-                    configValues[0] = configValues[1];
-                    configValues[2] = configValues[3];
-                    configValues[4] = configValues[5];
-                    configValues[6] = configValues[7];
+                    for (int i = nextLabel.getAndIncrement(); i < nLabels; i = nextLabel.getAndIncrement())
+                    {
+                        int[] range = ranges[i];
+                        int x0 = range[0], x1 = range[1];
+                        if (x1 < x0 || range[3] < range[2] || range[5] < range[4])
+                        {
+                            // empty region
+                            continue;
+                        }
+                        
+                        int width = x1 - x0;
+                        if (rows[0].length < width + 2)
+                        {
+                            rows = new int[4][width + 2];
+                        }
+                        
+                        int label = labels[i];
+                        int[] histo = histos[i];
+                        for (int z = range[4]; z <= range[5]; z++)
+                        {
+                            readLabelRow(image, range[2] - 1, z - 1, x0, x1, label, rows[1]);
+                            readLabelRow(image, range[2] - 1, z, x0, x1, label, rows[3]);
+                            for (int y = range[2]; y <= range[3]; y++)
+                            {
+                                // shift previous rows, and read the new ones
+                                int[] tmp = rows[0]; rows[0] = rows[1]; rows[1] = tmp;
+                                tmp = rows[2]; rows[2] = rows[3]; rows[3] = tmp;
+                                readLabelRow(image, y, z - 1, x0, x1, label, rows[1]);
+                                readLabelRow(image, y, z, x0, x1, label, rows[3]);
+                                
+                                int index = 0;
+                                for (int x = 0; x <= width; x++)
+                                {
+                                    index = shiftIndex(index, rows, x + 1);
+                                    histo[index]++;
+                                }
+                            }
+                        }
+                        
+                        fireProgressChanged(BinaryConfigurationsHistogram3D.this, doneLabels.incrementAndGet(), nLabels);
+                    }
                 }
-            }
+            };
+        }
+        ThreadUtil.startAndJoin(threads);
+        
+        // as for the scan of the whole image, only the configurations that
+        // contain the label are counted
+        for (int i = 0; i < nLabels; i++)
+        {
+            histos[i][0] = 0;
         }
         
         this.fireProgressChanged(this, 1, 1);
-
-        // return the histogram
         return histos;
     }
+    
+    
+    // ==================================================
+    // Utility methods
 
-    private static final int configIndex(int[] configValues, int label)
+    /**
+     * Updates the index of a configuration when the configuration is shifted
+     * by one voxel in the x direction: the values of the right voxels become
+     * the values of the left voxels (bits 1, 3, 5 and 7 are shifted to 0, 2,
+     * 4 and 6), and the new right voxels are read from the rows.
+     * 
+     * @param index
+     *            the index of the previous configuration
+     * @param rows
+     *            the binary values of the four rows of voxels within the
+     *            configuration, in the order (y-1, z-1), (y, z-1), (y-1, z),
+     *            and (y, z)
+     * @param pos
+     *            the position of the new right voxels within the rows
+     * @return the index of the new configuration
+     */
+    private static final int shiftIndex(int index, int[][] rows, int pos)
     {
-        // Compute index of local configuration
-        int index = 0;
-        index += configValues[0] == label ?   1 : 0;
-        index += configValues[1] == label ?   2 : 0;
-        index += configValues[2] == label ?   4 : 0;
-        index += configValues[3] == label ?   8 : 0;
-        index += configValues[4] == label ?  16 : 0;
-        index += configValues[5] == label ?  32 : 0;
-        index += configValues[6] == label ?  64 : 0;
-        index += configValues[7] == label ? 128 : 0;
-        return index;
+        return ((index >> 1) & 0x55) | (rows[0][pos] << 1) | (rows[1][pos] << 3)
+                | (rows[2][pos] << 5) | (rows[3][pos] << 7);
+    }
+    
+    /**
+     * Updates the four rows of a configuration when moving to the next row of
+     * configurations: the rows at y become the rows at y-1, and the rows at y
+     * are read from the image. The rows are stored in the order (y-1, z-1),
+     * (y, z-1), (y-1, z), and (y, z).
+     */
+    private static final void nextRows(ImageStack image, int y, int z, int[][] rows, LabelIndexMap labelMap)
+    {
+        int[] tmp = rows[0]; rows[0] = rows[1]; rows[1] = tmp;
+        tmp = rows[2]; rows[2] = rows[3]; rows[3] = tmp;
+        
+        if (labelMap == null)
+        {
+            readBinaryRow(image, y, z - 1, rows[1]);
+            readBinaryRow(image, y, z, rows[3]);
+        }
+        else
+        {
+            readLabelRow(image, y, z - 1, labelMap, rows[1]);
+            readLabelRow(image, y, z, labelMap, rows[3]);
+        }
+    }
+    
+    /**
+     * Identifies the labels within the configuration whose lower-right voxel
+     * is at position x, and updates the histogram of each label. The rows
+     * contain label indices starting from 1, and are stored in the order
+     * (y-1, z-1), (y, z-1), (y-1, z), and (y, z).
+     */
+    static final void addConfiguration(int[][] rows, int x, int[] configValues, int[][] histos)
+    {
+        configValues[0] = rows[0][x];
+        configValues[1] = rows[0][x + 1];
+        configValues[2] = rows[1][x];
+        configValues[3] = rows[1][x + 1];
+        configValues[4] = rows[2][x];
+        configValues[5] = rows[2][x + 1];
+        configValues[6] = rows[3][x];
+        configValues[7] = rows[3][x + 1];
+        
+        // fast processing of configurations within a single region
+        int value0 = configValues[0];
+        boolean uniform = true;
+        for (int i = 1; i < 8 && uniform; i++)
+        {
+            uniform = configValues[i] == value0;
+        }
+        if (uniform)
+        {
+            if (value0 != 0)
+            {
+                histos[value0 - 1][255]++;
+            }
+            return;
+        }
+        
+        for (int i = 0; i < 8; i++)
+        {
+            int label = configValues[i];
+            if (label == 0)
+                continue;
+            
+            // compute the configuration index only for the first occurrence
+            // of the label
+            int index = 1 << i;
+            boolean first = true;
+            for (int j = 0; j < i && first; j++)
+            {
+                first = configValues[j] != label;
+            }
+            if (!first)
+                continue;
+            for (int j = i + 1; j < 8; j++)
+            {
+                if (configValues[j] == label)
+                {
+                    index |= 1 << j;
+                }
+            }
+            histos[label - 1][index]++;
+        }
+    }
+    
+    /**
+     * Reads a row of voxels of the image as binary values (0 or 1), and
+     * stores them into the buffer, starting at position 1. If the row is
+     * outside of the image, the buffer is filled with zeros.
+     */
+    private static final void readBinaryRow(ImageStack image, int y, int z, int[] row)
+    {
+        int sizeX = image.getWidth();
+        if (y < 0 || y >= image.getHeight() || z < 0 || z >= image.getSize())
+        {
+            Arrays.fill(row, 0);
+            return;
+        }
+        
+        Object pixels = image.getPixels(z + 1);
+        int offset = y * sizeX;
+        if (pixels instanceof byte[])
+        {
+            byte[] array = (byte[]) pixels;
+            for (int x = 0; x < sizeX; x++)
+                row[x + 1] = array[offset + x] != 0 ? 1 : 0;
+        }
+        else if (pixels instanceof short[])
+        {
+            short[] array = (short[]) pixels;
+            for (int x = 0; x < sizeX; x++)
+                row[x + 1] = array[offset + x] != 0 ? 1 : 0;
+        }
+        else if (pixels instanceof float[])
+        {
+            float[] array = (float[]) pixels;
+            for (int x = 0; x < sizeX; x++)
+                row[x + 1] = array[offset + x] > 0 ? 1 : 0;
+        }
+        else
+        {
+            for (int x = 0; x < sizeX; x++)
+                row[x + 1] = image.getVoxel(x, y, z) > 0 ? 1 : 0;
+        }
+    }
+    
+    /**
+     * Reads a row of voxels of the image, converts the label values into
+     * label indices starting from 1 (0 for background and for labels that are
+     * not processed), and stores them into the buffer, starting at position 1.
+     * If the row is outside of the image, the buffer is filled with zeros.
+     */
+    private static final void readLabelRow(ImageStack image, int y, int z, LabelIndexMap labelMap, int[] row)
+    {
+        int sizeX = image.getWidth();
+        if (y < 0 || y >= image.getHeight() || z < 0 || z >= image.getSize())
+        {
+            Arrays.fill(row, 0);
+            return;
+        }
+        
+        Object pixels = image.getPixels(z + 1);
+        int offset = y * sizeX;
+        if (pixels instanceof byte[])
+        {
+            byte[] array = (byte[]) pixels;
+            for (int x = 0; x < sizeX; x++)
+                row[x + 1] = labelMap.get(array[offset + x] & 0x00FF);
+        }
+        else if (pixels instanceof short[])
+        {
+            short[] array = (short[]) pixels;
+            for (int x = 0; x < sizeX; x++)
+                row[x + 1] = labelMap.get(array[offset + x] & 0x00FFFF);
+        }
+        else if (pixels instanceof float[])
+        {
+            float[] array = (float[]) pixels;
+            for (int x = 0; x < sizeX; x++)
+                row[x + 1] = labelMap.get((int) array[offset + x]);
+        }
+        else
+        {
+            for (int x = 0; x < sizeX; x++)
+                row[x + 1] = labelMap.get((int) image.getVoxel(x, y, z));
+        }
+    }
+    
+    /**
+     * Reads the voxels of a row between x0 (inclusive) and x1 (exclusive),
+     * and stores 1 for voxels with the specified label and 0 for the others
+     * into the buffer, starting at position 1. The buffer position x1-x0+1 is
+     * set to zero. If the row is outside of the image, the buffer is filled
+     * with zeros.
+     */
+    private static final void readLabelRow(ImageStack image, int y, int z, int x0, int x1, int label, int[] row)
+    {
+        int width = x1 - x0;
+        row[width + 1] = 0;
+        if (y < 0 || y >= image.getHeight() || z < 0 || z >= image.getSize())
+        {
+            Arrays.fill(row, 0, width + 1, 0);
+            return;
+        }
+        
+        Object pixels = image.getPixels(z + 1);
+        int offset = y * image.getWidth() + x0;
+        if (pixels instanceof byte[])
+        {
+            byte[] array = (byte[]) pixels;
+            for (int x = 0; x < width; x++)
+                row[x + 1] = (array[offset + x] & 0x00FF) == label ? 1 : 0;
+        }
+        else if (pixels instanceof short[])
+        {
+            short[] array = (short[]) pixels;
+            for (int x = 0; x < width; x++)
+                row[x + 1] = (array[offset + x] & 0x00FFFF) == label ? 1 : 0;
+        }
+        else if (pixels instanceof float[])
+        {
+            float[] array = (float[]) pixels;
+            for (int x = 0; x < width; x++)
+                row[x + 1] = (int) array[offset + x] == label ? 1 : 0;
+        }
+        else
+        {
+            for (int x = 0; x < width; x++)
+                row[x + 1] = (int) image.getVoxel(x0 + x, y, z) == label ? 1 : 0;
+        }
+    }
+    
+    private static final int clamp(double value, int size)
+    {
+        return (int) Math.max(0, Math.min(value, size));
+    }
+    
+    private static final int[] sumHistograms(int[][] histos)
+    {
+        int[] res = new int[256];
+        for (int[] histo : histos)
+        {
+            for (int i = 0; i < 256; i++)
+            {
+                res[i] += histo[i];
+            }
+        }
+        return res;
+    }
+    
+    /**
+     * Converts label values into label indices starting from 1, using an
+     * array when the label values are small enough, or a hash map otherwise.
+     * The background and the labels that are not in the list are associated
+     * to 0.
+     */
+    private static final class LabelIndexMap
+    {
+        int[] lut = null;
+        HashMap<Integer, Integer> map = null;
+        
+        LabelIndexMap(int[] labels)
+        {
+            int maxLabel = 0;
+            for (int label : labels)
+            {
+                maxLabel = Math.max(maxLabel, label);
+            }
+            
+            if (maxLabel <= Math.max(1 << 16, 4 * labels.length))
+            {
+                lut = new int[maxLabel + 1];
+                for (int i = 0; i < labels.length; i++)
+                {
+                    if (labels[i] > 0)
+                        lut[labels[i]] = i + 1;
+                }
+            }
+            else
+            {
+                map = LabelImages.mapLabelIndices(labels);
+            }
+        }
+        
+        int get(int label)
+        {
+            if (lut != null)
+            {
+                return label > 0 && label < lut.length ? lut[label] : 0;
+            }
+            if (label == 0)
+                return 0;
+            Integer index = map.get(label);
+            return index == null ? 0 : index + 1;
+        }
     }
 }
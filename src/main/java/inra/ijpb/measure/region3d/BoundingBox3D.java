@@ -24,14 +24,17 @@
  */
 package inra.ijpb.measure.region3d;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import ij.ImageStack;
 import ij.measure.Calibration;
 import ij.measure.ResultsTable;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
 import inra.ijpb.geometry.Box3D;
 import inra.ijpb.label.LabelImages;
+import inra.ijpb.label.LongLabelIndexMap;
 
 /**
  * Compute bounding box of each region within a label or binary image.
@@ -170,6 +173,112 @@ public class BoundingBox3D extends RegionAnalyzer3D<Box3D>
 		return boxes;
 	}
 
+	/**
+	 * Computes the bounding box of each region within an off-heap label
+	 * image, without allocating a temporary stack.
+	 * 
+	 * @param image
+	 *            the input image containing label of particles
+	 * @param labels
+	 *            the array of labels within the image
+	 * @param calib
+	 *            the calibration of the image
+	 * @return an array of Box3D representing the calibrated coordinates of
+	 *         the bounding box of each region
+	 */
+	@Override
+	public Box3D[] analyzeRegions(OffHeapLabelImage3D image, long[] labels, Calibration calib)
+	{
+		// size of image
+		int sizeX = image.getSize(0);
+		int sizeY = image.getSize(1);
+		int sizeZ = image.getSize(2);
+
+		// Extract spatial calibration
+		double sx = 1, sy = 1, sz = 1;
+		double ox = 0, oy = 0, oz = 0;
+		if (calib != null)
+		{
+			sx = calib.pixelWidth;
+			sy = calib.pixelHeight;
+			sz = calib.pixelDepth;
+			ox = calib.xOrigin;
+			oy = calib.yOrigin;
+			oz = calib.zOrigin;
+		}
+		
+		// create associative array to know index of each label
+		LongLabelIndexMap labelIndices = new LongLabelIndexMap(labels);
+
+		// allocate memory for result, initialized to extreme values
+		int nLabels = labels.length;
+		int[] xmin = new int[nLabels];
+		int[] xmax = new int[nLabels];
+		int[] ymin = new int[nLabels];
+		int[] ymax = new int[nLabels];
+		int[] zmin = new int[nLabels];
+		int[] zmax = new int[nLabels];
+		Arrays.fill(xmin, Integer.MAX_VALUE);
+		Arrays.fill(ymin, Integer.MAX_VALUE);
+		Arrays.fill(zmin, Integer.MAX_VALUE);
+		Arrays.fill(xmax, Integer.MIN_VALUE);
+		Arrays.fill(ymax, Integer.MIN_VALUE);
+		Arrays.fill(zmax, Integer.MIN_VALUE);
+
+		// compute extreme coordinates of each region
+		fireStatusChanged(this, "Compute bounds");
+		long lastLabel = 0;
+		int index = -1;
+		for (int z = 0; z < sizeZ; z++) 
+		{
+			for (int y = 0; y < sizeY; y++) 
+			{
+				for (int x = 0; x < sizeX; x++)
+				{
+					long label = image.getLabel(x, y, z);
+					if (label == 0)
+						continue;
+					if (label != lastLabel)
+					{
+						lastLabel = label;
+						index = labelIndices.indexOf(label);
+					}
+
+					// do not process labels that are not in the input list 
+					if (index < 0)
+						continue;
+
+					xmin[index] = Math.min(xmin[index], x);
+					xmax[index] = Math.max(xmax[index], x + 1);
+					ymin[index] = Math.min(ymin[index], y);
+					ymax[index] = Math.max(ymax[index], y + 1);
+					zmin[index] = Math.min(zmin[index], z);
+					zmax[index] = Math.max(zmax[index], z + 1);
+				}
+			}
+		}
+
+		// create bounding box instances
+		Box3D[] boxes = new Box3D[nLabels];
+		for (int i = 0; i < nLabels; i++)
+		{
+			if (xmax[i] < xmin[i])
+			{
+				// keep same convention as for ImageStack, for missing labels
+				boxes[i] = new Box3D(
+						Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+						Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+						Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+				continue;
+			}
+			boxes[i] = new Box3D(
+					xmin[i] * sx + ox, xmax[i] * sx + ox,
+					ymin[i] * sy + oy, ymax[i] * sy + oy, 
+					zmin[i] * sz + oz, zmax[i] * sz + oz);
+		}
+		return boxes;
+	}
+
 	/**
 	 * Utility method that transforms the mapping between labels and Box3D
 	 * instances into a ResultsTable that can be displayed with ImageJ.
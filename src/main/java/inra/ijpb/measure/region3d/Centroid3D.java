@@ -30,8 +30,10 @@ import java.util.Map;
 import ij.ImageStack;
 import ij.measure.Calibration;
 import ij.measure.ResultsTable;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
 import inra.ijpb.geometry.Point3D;
 import inra.ijpb.label.LabelImages;
+import inra.ijpb.label.LongLabelIndexMap;
 
 /**
  * Computes centroid position of regions within 3D binary or label images.
@@ -269,4 +271,94 @@ public class Centroid3D extends RegionAnalyzer3D<Point3D>
 
 		return points;
 	}
+
+	/**
+	 * Computes the centroid of each region within an off-heap label image,
+	 * without allocating a temporary stack.
+	 * 
+	 * @param image
+	 *            the input 3D image containing label of particles
+	 * @param labels
+	 *            the array of labels within the image
+	 * @param calib
+	 *            the spatial calibration of the image
+	 * @return an array of Point3D representing the calibrated centroid
+	 *         coordinates of each region
+	 */
+	@Override
+	public Point3D[] analyzeRegions(OffHeapLabelImage3D image, long[] labels, Calibration calib)
+	{
+		// size of image
+		int sizeX = image.getSize(0);
+		int sizeY = image.getSize(1);
+		int sizeZ = image.getSize(2);
+
+		// Extract spatial calibration
+		double sx = 1, sy = 1, sz = 1;
+		double ox = 0, oy = 0, oz = 0;
+		if (calib != null)
+		{
+			sx = calib.pixelWidth;
+			sy = calib.pixelHeight;
+			sz = calib.pixelDepth;
+			ox = calib.xOrigin;
+			oy = calib.yOrigin;
+			oz = calib.zOrigin;
+		}
+
+		// create associative array to know index of each label
+		LongLabelIndexMap labelIndices = new LongLabelIndexMap(labels);
+
+		// allocate memory for result
+		int nLabels = labels.length;
+		long[] counts = new long[nLabels];
+		double[] cx = new double[nLabels];
+		double[] cy = new double[nLabels];
+		double[] cz = new double[nLabels];
+
+		fireStatusChanged(this, "Compute centroids");
+		long lastLabel = 0;
+		int index = -1;
+		for (int z = 0; z < sizeZ; z++)
+		{
+			this.fireProgressChanged(this, z, sizeZ);
+			for (int y = 0; y < sizeY; y++)
+			{
+				for (int x = 0; x < sizeX; x++)
+				{
+					long label = image.getLabel(x, y, z);
+					if (label == 0) continue;
+					if (label != lastLabel)
+					{
+						lastLabel = label;
+						index = labelIndices.indexOf(label);
+					}
+
+					// do not process labels that are not in the input list
+					if (index < 0) continue;
+
+					cx[index] += x * sx;
+					cy[index] += y * sy;
+					cz[index] += z * sz;
+					counts[index]++;
+				}
+			}
+		}
+		this.fireProgressChanged(this, 1, 1);
+
+		// normalize, and add coordinates of origin pixel (IJ coordinate system)
+		Point3D[] points = new Point3D[nLabels];
+		for (int i = 0; i < nLabels; i++)
+		{
+			if (counts[i] > 0)
+			{
+				cx[i] = cx[i] / counts[i] + .5 * sx + ox;
+				cy[i] = cy[i] / counts[i] + .5 * sy + oy;
+				cz[i] = cz[i] / counts[i] + .5 * sz + oz;
+			}
+			points[i] = new Point3D(cx[i], cy[i], cz[i]);
+		}
+
+		return points;
+	}
 }
@@ -250,6 +250,27 @@ public class GeodesicDiameter3D extends RegionAnalyzer3D<GeodesicDiameter3D.Resu
 	}
 
 
+	/**
+	 * Translates the positions of the characteristic points of the result.
+	 */
+	@Override
+	protected Result translateResult(Result result, int x0, int y0, int z0)
+	{
+		result.initialPoint = translate(result.initialPoint, x0, y0, z0);
+		result.firstExtremity = translate(result.firstExtremity, x0, y0, z0);
+		result.secondExtremity = translate(result.secondExtremity, x0, y0, z0);
+		return result;
+	}
+
+	private static final Cursor3D translate(Cursor3D pos, int x0, int y0, int z0)
+	{
+		// keep the positions of regions that were not found
+		if (pos.getX() == -1)
+			return pos;
+		return new Cursor3D(pos.getX() + x0, pos.getY() + y0, pos.getZ() + z0);
+	}
+
+
 	// ==================================================
 	// Implementation of AlgoListener interface 
 
@@ -158,9 +158,26 @@ public class IntrinsicVolumes3D extends RegionAnalyzer3D<IntrinsicVolumes3D.Resu
         algo.addAlgoListener(this);
         int[][] histograms = algo.process(image, labels);
 
+        return computeResults(histograms, calib);
+    }
+    
+    /**
+     * Computes the intrinsic volumes of each region from the histograms of
+     * binary configurations of the regions.
+     * 
+     * @param histograms
+     *            the histograms of binary configurations of each region, as
+     *            computed by {@link BinaryConfigurationsHistogram3D}
+     * @param calib
+     *            the spatial calibration of the image
+     * @return the intrinsic volumes of each region
+     */
+    Result[] computeResults(int[][] histograms, Calibration calib)
+    {
         // initialize result array
-        Result[] results = new Result[labels.length];
-        for (int i = 0; i < labels.length; i++)
+        int nLabels = histograms.length;
+        Result[] results = new Result[nLabels];
+        for (int i = 0; i < nLabels; i++)
         {
             results[i] = new Result();
         }
@@ -170,7 +187,7 @@ public class IntrinsicVolumes3D extends RegionAnalyzer3D<IntrinsicVolumes3D.Resu
         {
             double[] volumeLut = IntrinsicVolumes3DUtils.volumeLut(calib);
             double[] volumes = BinaryConfigurationsHistogram3D.applyLut(histograms, volumeLut);
-            for (int i = 0; i < labels.length; i++)
+            for (int i = 0; i < nLabels; i++)
             {
                 results[i].volume = volumes[i];
             }
@@ -181,7 +198,7 @@ public class IntrinsicVolumes3D extends RegionAnalyzer3D<IntrinsicVolumes3D.Resu
         {
             double[] areaLut = IntrinsicVolumes3DUtils.surfaceAreaLut(calib, this.directionNumber);
             double[] areas = BinaryConfigurationsHistogram3D.applyLut(histograms, areaLut);
-            for (int i = 0; i < labels.length; i++)
+            for (int i = 0; i < nLabels; i++)
             {
                 results[i].surfaceArea = areas[i];
             }
@@ -192,7 +209,7 @@ public class IntrinsicVolumes3D extends RegionAnalyzer3D<IntrinsicVolumes3D.Resu
         {
             double[] breadthLut = IntrinsicVolumes3DUtils.meanBreadthLut(calib, this.directionNumber, 8);
             double[] breadths = BinaryConfigurationsHistogram3D.applyLut(histograms, breadthLut);
-            for (int i = 0; i < labels.length; i++)
+            for (int i = 0; i < nLabels; i++)
             {
                 results[i].meanBreadth = breadths[i];
             }
@@ -203,7 +220,7 @@ public class IntrinsicVolumes3D extends RegionAnalyzer3D<IntrinsicVolumes3D.Resu
         {
             double[] eulerLut = IntrinsicVolumes3DUtils.eulerNumberLut(this.connectivity);
             double[] eulers = BinaryConfigurationsHistogram3D.applyLut(histograms, eulerLut);
-            for (int i = 0; i < labels.length; i++)
+            for (int i = 0; i < nLabels; i++)
             {
                 results[i].eulerNumber = eulers[i];
             }
@@ -24,6 +24,8 @@
  */
 package inra.ijpb.measure.region3d;
 
+import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -33,7 +35,9 @@ import ij.measure.Calibration;
 import inra.ijpb.algo.AlgoEvent;
 import inra.ijpb.algo.AlgoListener;
 import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
 import inra.ijpb.label.LabelImages;
+import inra.ijpb.label.LongLabelIndexMap;
 import inra.ijpb.label.edit.FindAllLabels;
 import inra.ijpb.measure.RegionAnalyzer;
 
@@ -53,6 +57,24 @@ import inra.ijpb.measure.RegionAnalyzer;
 public abstract class RegionAnalyzer3D<T> extends AlgoStub implements RegionAnalyzer<T>, AlgoListener
 {
 	/**
+	 * The maximum number of voxels within the crop of a batch of regions,
+	 * when processing off-heap label images.
+	 */
+	private static final long BATCH_VOXEL_COUNT = 1L << 26;
+
+	/**
+	 * The maximum number of regions within a batch, so that labels can be
+	 * exactly represented as float values.
+	 */
+	private static final int MAX_BATCH_LABEL_COUNT = 1 << 24;
+
+	/**
+	 * The number of voxels added around the bounding box of the regions of a
+	 * batch, so that analyzers see the background around regions.
+	 */
+	private static final int CROP_MARGIN = 2;
+
+	/**
      * Utility method that convert an array of result into a map using labels as
      * keys.
      * 
@@ -82,6 +104,36 @@ public abstract class RegionAnalyzer3D<T> extends AlgoStub implements RegionAnal
         return map;
 	}
 
+	/**
+	 * Utility method that convert an array of result into a map using labels
+	 * stored as long integers as keys.
+	 * 
+	 * @param <T2>
+	 *            the type of data measured for each label
+	 * @param labels
+	 *            the array of labels to use as keys
+	 * @param data
+	 *            the array of objects to map
+	 * @return a map between each entry of label array and data array
+	 */
+	public static final <T2> Map<Long, T2> createMap(long[] labels, T2[] data)
+	{
+		// check input sizes
+		int nLabels = labels.length;
+		if (data.length != nLabels)
+		{
+			throw new IllegalArgumentException("Require same number of elements for label array and data array");
+		}
+		
+		// iterate over labels
+		Map<Long, T2> map = new TreeMap<Long, T2>();
+		for (int i = 0; i < nLabels; i++)
+		{
+			map.put(labels[i], data[i]);
+		}
+		return map;
+	}
+
 	/**
 	 * Computes an instance of the generic type T for each region in input label image.
 	 * 
@@ -156,6 +208,296 @@ public abstract class RegionAnalyzer3D<T> extends AlgoStub implements RegionAnal
         return map;
 	}
 	
+	/**
+	 * Computes an instance of the generic type T for each region in an
+	 * off-heap label image, that may contain labels that can not be
+	 * represented within ImageJ stacks.
+	 * 
+	 * The default implementation groups the regions into batches of regions
+	 * with close bounding boxes. For each batch, the bounding box of the
+	 * regions (plus a small margin) is copied into a temporary 32-bit stack,
+	 * where regions are relabeled with consecutive indices, and that is
+	 * analyzed with the
+	 * {@link #analyzeRegions(ImageStack, int[], ij.measure.Calibration)}
+	 * method. The origin of the calibration is shifted according to the
+	 * position of the crop, and the results are converted back with the
+	 * {@link #translateResult(Object, int, int, int)} method. A region
+	 * whose bounding box is larger than 2^26 voxels is processed within a
+	 * single crop, that must fit within the Java heap; otherwise an
+	 * IllegalStateException is thrown before the allocation of the temporary
+	 * stack. Sub-classes may override this method to avoid the allocation of
+	 * the temporary stacks.
+	 * 
+	 * @param image
+	 *            the input 3D image containing label of particles
+	 * @param labels
+	 *            the array of labels within the image
+	 * @param calib
+	 *            the spatial calibration of the image
+	 * @return an array of the type used to represent the analysis result of
+	 *         each region
+	 * @throws IllegalStateException
+	 *             if the temporary stack of a batch can not fit within the
+	 *             available heap memory
+	 */
+	@SuppressWarnings("unchecked")
+	public T[] analyzeRegions(OffHeapLabelImage3D image, long[] labels, Calibration calib)
+	{
+		int sizeX = image.getSize(0);
+		int sizeY = image.getSize(1);
+		int sizeZ = image.getSize(2);
+		int nLabels = labels.length;
+		LongLabelIndexMap labelIndices = new LongLabelIndexMap(labels);
+		if (calib == null)
+		{
+			calib = new Calibration();
+		}
+		
+		// compute the bounding box of each region
+		fireStatusChanged(this, "Compute region bounds");
+		int[][] bounds = regionBounds(image, labelIndices, nLabels);
+		int[] xmin = bounds[0], xmax = bounds[1];
+		int[] ymin = bounds[2], ymax = bounds[3];
+		int[] zmin = bounds[4], zmax = bounds[5];
+		
+		// sort regions according to their first slice, so that batches
+		// contain regions close to each other (counting sort)
+		int[] order = new int[nLabels];
+		int[] rank = new int[nLabels];
+		int[] sliceStarts = new int[sizeZ + 1];
+		for (int i = 0; i < nLabels; i++)
+		{
+			sliceStarts[zmin[i] + 1]++;
+		}
+		for (int z = 0; z < sizeZ; z++)
+		{
+			sliceStarts[z + 1] += sliceStarts[z];
+		}
+		for (int i = 0; i < nLabels; i++)
+		{
+			int pos = sliceStarts[zmin[i]]++;
+			order[pos] = i;
+			rank[i] = pos;
+		}
+		
+		T[] results = null;
+		int first = 0;
+		while (first < nLabels)
+		{
+			// add regions to the batch while the box of the batch is small
+			// enough, and labels can be exactly represented as float values
+			int index = order[first];
+			int x0 = xmin[index], x1 = xmax[index];
+			int y0 = ymin[index], y1 = ymax[index];
+			int z0 = zmin[index], z1 = zmax[index];
+			int last = first + 1;
+			while (last < nLabels && last - first < MAX_BATCH_LABEL_COUNT)
+			{
+				index = order[last];
+				int bx0 = Math.min(x0, xmin[index]), bx1 = Math.max(x1, xmax[index]);
+				int by0 = Math.min(y0, ymin[index]), by1 = Math.max(y1, ymax[index]);
+				int bz0 = Math.min(z0, zmin[index]), bz1 = Math.max(z1, zmax[index]);
+				if ((long) (bx1 - bx0 + 1) * (by1 - by0 + 1) * (bz1 - bz0 + 1) > BATCH_VOXEL_COUNT)
+				{
+					break;
+				}
+				x0 = bx0; x1 = bx1;
+				y0 = by0; y1 = by1;
+				z0 = bz0; z1 = bz1;
+				last++;
+			}
+			
+			// add a margin around the regions, within image bounds
+			x0 = Math.max(x0 - CROP_MARGIN, 0); x1 = Math.min(x1 + CROP_MARGIN, sizeX - 1);
+			y0 = Math.max(y0 - CROP_MARGIN, 0); y1 = Math.min(y1 + CROP_MARGIN, sizeY - 1);
+			z0 = Math.max(z0 - CROP_MARGIN, 0); z1 = Math.min(z1 + CROP_MARGIN, sizeZ - 1);
+			int sizeX2 = x1 - x0 + 1;
+			int sizeY2 = y1 - y0 + 1;
+			int sizeZ2 = z1 - z0 + 1;
+			
+			fireStatusChanged(this, "Analyze regions " + (first + 1) + " to " + last);
+			checkAvailableMemory((long) sizeX2 * sizeY2 * sizeZ2 * 4);
+			ImageStack batchImage = ImageStack.create(sizeX2, sizeY2, sizeZ2, 32);
+			
+			// convert labels of current batch to consecutive indices
+			long lastLabel = 0;
+			int lastIndex = 0;
+			for (int z = z0; z <= z1; z++)
+			{
+				float[] pixels = (float[]) batchImage.getPixels(z - z0 + 1);
+				for (int y = y0; y <= y1; y++)
+				{
+					int offset = (y - y0) * sizeX2 - x0;
+					for (int x = x0; x <= x1; x++)
+					{
+						long label = image.getLabel(x, y, z);
+						if (label != lastLabel)
+						{
+							lastLabel = label;
+							int i = label == 0 ? -1 : labelIndices.indexOf(label);
+							lastIndex = i >= 0 && rank[i] >= first && rank[i] < last ? rank[i] - first + 1 : 0;
+						}
+						pixels[offset + x] = lastIndex;
+					}
+				}
+			}
+			
+			int[] batchLabels = new int[last - first];
+			for (int i = 0; i < batchLabels.length; i++)
+			{
+				batchLabels[i] = i + 1;
+			}
+			Calibration batchCalib = calib.copy();
+			batchCalib.xOrigin = calib.xOrigin + x0 * calib.pixelWidth;
+			batchCalib.yOrigin = calib.yOrigin + y0 * calib.pixelHeight;
+			batchCalib.zOrigin = calib.zOrigin + z0 * calib.pixelDepth;
+			T[] batchResults = analyzeRegions(batchImage, batchLabels, batchCalib);
+			
+			if (results == null)
+			{
+				results = (T[]) Array.newInstance(batchResults.getClass().getComponentType(), nLabels);
+			}
+			for (int i = 0; i < batchLabels.length; i++)
+			{
+				results[order[first + i]] = translateResult(batchResults[i], x0, y0, z0);
+			}
+			first = last;
+		}
+		
+		fireStatusChanged(this, "");
+		return results;
+	}
+
+	/**
+	 * Converts the result computed for a region within a crop of the label
+	 * image into the result for the whole image. Called by the default
+	 * implementation of the
+	 * {@link #analyzeRegions(OffHeapLabelImage3D, long[], Calibration)}
+	 * method.
+	 * 
+	 * The default implementation returns the result unchanged, as the origin
+	 * of the calibration used for analyzing the crop is already shifted.
+	 * Sub-classes whose results contain voxel positions should translate
+	 * them.
+	 * 
+	 * @param result
+	 *            the result computed within the crop
+	 * @param x0
+	 *            the x-position of the crop within the image
+	 * @param y0
+	 *            the y-position of the crop within the image
+	 * @param z0
+	 *            the z-position of the crop within the image
+	 * @return the result for the whole image
+	 */
+	protected T translateResult(T result, int x0, int y0, int z0)
+	{
+		return result;
+	}
+
+	/**
+	 * Computes the bounds of each region, as voxel indices, and returns them
+	 * as six arrays: xmin, xmax, ymin, ymax, zmin, zmax.
+	 */
+	private static final int[][] regionBounds(OffHeapLabelImage3D image,
+			LongLabelIndexMap labelIndices, int nLabels)
+	{
+		int sizeX = image.getSize(0);
+		int sizeY = image.getSize(1);
+		int sizeZ = image.getSize(2);
+		int[][] bounds = new int[6][nLabels];
+		Arrays.fill(bounds[0], Integer.MAX_VALUE);
+		Arrays.fill(bounds[1], -1);
+		Arrays.fill(bounds[2], Integer.MAX_VALUE);
+		Arrays.fill(bounds[3], -1);
+		Arrays.fill(bounds[4], Integer.MAX_VALUE);
+		Arrays.fill(bounds[5], -1);
+		
+		long lastLabel = 0;
+		int index = -1;
+		for (int z = 0; z < sizeZ; z++)
+		{
+			for (int y = 0; y < sizeY; y++)
+			{
+				for (int x = 0; x < sizeX; x++)
+				{
+					long label = image.getLabel(x, y, z);
+					if (label != lastLabel)
+					{
+						lastLabel = label;
+						index = label == 0 ? -1 : labelIndices.indexOf(label);
+					}
+					if (index < 0)
+						continue;
+					
+					bounds[0][index] = Math.min(bounds[0][index], x);
+					bounds[1][index] = Math.max(bounds[1][index], x);
+					bounds[2][index] = Math.min(bounds[2][index], y);
+					bounds[3][index] = Math.max(bounds[3][index], y);
+					bounds[4][index] = Math.min(bounds[4][index], z);
+					bounds[5][index] = Math.max(bounds[5][index], z);
+				}
+			}
+		}
+		
+		// regions not found within image are associated to the first voxel
+		for (int i = 0; i < nLabels; i++)
+		{
+			if (bounds[1][i] < 0)
+			{
+				bounds[0][i] = 0; bounds[1][i] = 0;
+				bounds[2][i] = 0; bounds[3][i] = 0;
+				bounds[4][i] = 0; bounds[5][i] = 0;
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * Throws an IllegalStateException if the specified amount of memory can
+	 * not be allocated within the Java heap.
+	 */
+	private static final void checkAvailableMemory(long byteCount)
+	{
+		Runtime runtime = Runtime.getRuntime();
+		long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		if (byteCount > available)
+		{
+			throw new IllegalStateException("Analysis of off-heap label image requires a temporary stack of "
+					+ (byteCount >> 20) + " MB, but only " + (available >> 20) + " MB are available");
+		}
+	}
+
+	/**
+	 * Identifies labels within an off-heap label image and computes an
+	 * instance of the generic type T for each region.
+	 * 
+	 * @param image
+	 *            a 3D label image with 32-bits or 64-bits labels
+	 * @param calib
+	 *            the spatial calibration of the image
+	 * @return a map between the region label and the result of analysis for
+	 *         each region
+	 */
+	public Map<Long, T> analyzeRegions(OffHeapLabelImage3D image, Calibration calib)
+	{
+		// extract particle labels
+		fireStatusChanged(this, "Find Labels");
+		long[] labels = LabelImages.findAllLabels(image);
+		
+		// compute analysis result for each label
+		fireStatusChanged(this, "Analyze regions");
+		T[] results = analyzeRegions(image, labels, calib);
+		
+		// encapsulate into map
+		fireStatusChanged(this, "Convert to map");
+		Map<Long, T> map = createMap(labels, results);
+		
+		// cleanup monitoring
+		fireStatusChanged(this, "");
+		return map;
+	}
+	
     @Override
     public void algoProgressChanged(AlgoEvent evt)
     {
@@ -0,0 +1,392 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.measure.region3d;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+/**
+ * <p>
+ * Computation of intrinsic volumes (Volume, Surface Area, Mean Breadth and
+ * Euler Number) of the regions within a 3D label image whose slices are
+ * provided one after the other, for example during acquisition.
+ * </p>
+ * 
+ * <p>
+ * The histogram of 2-by-2-by-2 binary configurations of a region only
+ * depends on pairs of adjacent slices. Only the last slice is kept, and the
+ * configurations between the last slice and the new one are counted for each
+ * label when a new slice is added. The memory usage is therefore proportional
+ * to the size of two slices and to the number of labels, and does not depend
+ * on the number of slices. The labels are identified as they appear within
+ * the slices.
+ * </p>
+ * 
+ * <p>
+ * The results are identical to the results obtained with the
+ * {@link IntrinsicVolumes3D} class on the whole stack.
+ * </p>
+ * 
+ * Example of use:
+ * <pre><code>
+ * StreamingIntrinsicVolumes3D algo = new StreamingIntrinsicVolumes3D(sizeX, sizeY);
+ * algo.setConnectivity(26);
+ * for (ImageProcessor slice : acquiredSlices)
+ * {
+ *     algo.addSlice(slice);
+ * }
+ * Map&lt;Integer, IntrinsicVolumes3D.Result&gt; results = algo.computeResults(calib);
+ * </code></pre>
+ * 
+ * @see IntrinsicVolumes3D
+ * @see BinaryConfigurationsHistogram3D
+ * 
+ * @author dlegland
+ *
+ */
+public class StreamingIntrinsicVolumes3D
+{
+    // ==================================================
+    // Class members
+
+    /** The size of the slices in the X direction */
+    int sizeX;
+    
+    /** The size of the slices in the Y direction */
+    int sizeY;
+    
+    /** The analyzer used to store options and to compute results */
+    IntrinsicVolumes3D analyzer = new IntrinsicVolumes3D();
+
+    /**
+     * The label indices (starting from 1) of the last slice, or null if no
+     * slice was added yet.
+     */
+    int[] previousSlice = null;
+    
+    /** The label indices (starting from 1) of the new slice */
+    int[] currentSlice;
+    
+    /** The number of slices added so far */
+    int sliceCount = 0;
+    
+    /** Becomes true when the last plane of configurations was processed */
+    boolean finished = false;
+    
+    /** The label value associated to each label index */
+    int[] labels = new int[16];
+    
+    /** The number of labels found so far */
+    int nLabels = 0;
+    
+    /** The index (starting from 1) of labels lower than 65536 */
+    int[] smallLabelIndices = new int[0x010000];
+    
+    /** The index (starting from 1) of the other labels */
+    HashMap<Integer, Integer> labelIndices = new HashMap<Integer, Integer>();
+    
+    /** The histogram of binary configurations of each label */
+    int[][] histograms = new int[16][];
+    
+    /** The buffers for the four rows of voxels of configurations */
+    int[][] rows;
+    
+    /** The label indices within a configuration */
+    int[] configValues = new int[8];
+    
+    
+    // ==================================================
+    // Constructors
+
+    /**
+     * Creates a new streaming analyzer for slices with the specified size.
+     * 
+     * @param sizeX
+     *            the width of the slices
+     * @param sizeY
+     *            the height of the slices
+     */
+    public StreamingIntrinsicVolumes3D(int sizeX, int sizeY)
+    {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.currentSlice = new int[sizeX * sizeY];
+        this.rows = new int[4][sizeX + 2];
+    }
+    
+    
+    // ==================================================
+    // setup computation options
+
+    /**
+     * @return the directionNumber used to compute surface area and mean breadth
+     */
+    public int getDirectionNumber()
+    {
+        return analyzer.getDirectionNumber();
+    }
+
+    /**
+     * @param directionNumber
+     *            the number of directions used to compute surface area and mean
+     *            breadth (either 3 or 13, default is 13)
+     */
+    public void setDirectionNumber(int directionNumber)
+    {
+        analyzer.setDirectionNumber(directionNumber);
+    }
+
+    /**
+     * @return the connectivity used to compute Euler number
+     */
+    public int getConnectivity()
+    {
+        return analyzer.getConnectivity();
+    }
+
+    /**
+     * @param connectivity
+     *            the connectivity used to compute Euler number (either 6 or 26,
+     *            default is 6)
+     */
+    public void setConnectivity(int connectivity)
+    {
+        analyzer.setConnectivity(connectivity);
+    }
+    
+    
+    // ==================================================
+    // Processing methods
+
+    /**
+     * Adds a new slice to the 3D image, and updates the histograms of binary
+     * configurations of the labels between the previous slice and the new
+     * one.
+     * 
+     * @param slice
+     *            the new slice of the label image
+     * @throws IllegalArgumentException
+     *             if the size of the slice does not match the size given at
+     *             construction
+     * @throws IllegalStateException
+     *             if the results were already computed
+     */
+    public void addSlice(ImageProcessor slice)
+    {
+        if (finished)
+        {
+            throw new IllegalStateException("Can not add slices after the computation of results");
+        }
+        if (slice.getWidth() != sizeX || slice.getHeight() != sizeY)
+        {
+            throw new IllegalArgumentException("Slice size must be " + sizeX + "x" + sizeY);
+        }
+        
+        // convert label values into label indices
+        for (int i = 0; i < sizeX * sizeY; i++)
+        {
+            currentSlice[i] = labelIndex((int) slice.getf(i));
+        }
+        
+        // process configurations between previous slice and current one
+        processPlane(previousSlice, currentSlice);
+        
+        // the current slice becomes the previous one
+        if (previousSlice == null)
+        {
+            previousSlice = new int[sizeX * sizeY];
+        }
+        int[] tmp = previousSlice;
+        previousSlice = currentSlice;
+        currentSlice = tmp;
+        sliceCount++;
+    }
+    
+    /**
+     * Adds all the slices of a 3D image.
+     * 
+     * @param image
+     *            the 3D image containing the slices to add
+     */
+    public void addSlices(ImageStack image)
+    {
+        for (int z = 1; z <= image.getSize(); z++)
+        {
+            addSlice(image.getProcessor(z));
+        }
+    }
+    
+    /**
+     * Processes the configurations between the last slice and the background
+     * after the image. No slice can be added afterwards. This method is
+     * called by the methods that compute results.
+     */
+    public void finish()
+    {
+        if (finished)
+            return;
+        
+        if (previousSlice != null)
+        {
+            processPlane(previousSlice, null);
+        }
+        finished = true;
+    }
+    
+    /**
+     * @return the number of slices added so far
+     */
+    public int getSliceCount()
+    {
+        return sliceCount;
+    }
+    
+    /**
+     * @return the labels found within the slices, sorted in ascending order
+     */
+    public int[] getLabels()
+    {
+        int[] res = Arrays.copyOf(labels, nLabels);
+        Arrays.sort(res);
+        return res;
+    }
+    
+    /**
+     * Returns the histograms of binary configurations of the labels found
+     * within the slices, in the same order as the array returned by
+     * {@link #getLabels()}. Finishes the processing of the image.
+     * 
+     * @return an array of nLabels-by-256 integers containing the number of
+     *         binary configurations for each label
+     */
+    public int[][] getHistograms()
+    {
+        finish();
+        int[] sorted = getLabels();
+        int[][] res = new int[nLabels][];
+        for (int i = 0; i < nLabels; i++)
+        {
+            res[i] = histograms[labelIndex(sorted[i]) - 1].clone();
+        }
+        return res;
+    }
+    
+    /**
+     * Computes the intrinsic volumes of the regions found within the slices.
+     * Finishes the processing of the image.
+     * 
+     * @param calib
+     *            the spatial calibration of the image
+     * @return the intrinsic volumes of each region, associated to the label
+     *         of the region
+     */
+    public Map<Integer, IntrinsicVolumes3D.Result> computeResults(Calibration calib)
+    {
+        int[][] histos = getHistograms();
+        IntrinsicVolumes3D.Result[] results = analyzer.computeResults(histos, calib);
+        return RegionAnalyzer3D.createMap(getLabels(), results);
+    }
+    
+    /**
+     * Counts the configurations between two slices. Null slices correspond to
+     * background before the first slice or after the last slice.
+     */
+    private void processPlane(int[] slice1, int[] slice2)
+    {
+        readRow(slice1, -1, rows[1]);
+        readRow(slice2, -1, rows[3]);
+        for (int y = 0; y < sizeY + 1; y++)
+        {
+            // shift previous rows, and read the new ones
+            int[] tmp = rows[0]; rows[0] = rows[1]; rows[1] = tmp;
+            tmp = rows[2]; rows[2] = rows[3]; rows[3] = tmp;
+            readRow(slice1, y, rows[1]);
+            readRow(slice2, y, rows[3]);
+            
+            for (int x = 0; x < sizeX + 1; x++)
+            {
+                BinaryConfigurationsHistogram3D.addConfiguration(rows, x, configValues, histograms);
+            }
+        }
+    }
+    
+    /**
+     * Copies a row of the slice into the buffer starting at position 1, or
+     * fills the buffer with zeros if the slice is null or the row is outside
+     * of the slice.
+     */
+    private void readRow(int[] slice, int y, int[] row)
+    {
+        if (slice == null || y < 0 || y >= sizeY)
+        {
+            Arrays.fill(row, 0);
+            return;
+        }
+        System.arraycopy(slice, y * sizeX, row, 1, sizeX);
+    }
+    
+    /**
+     * Returns the index (starting from 1) of the specified label, creating a
+     * new index and a new histogram if the label was not found yet. Returns 0
+     * for background.
+     */
+    private int labelIndex(int label)
+    {
+        if (label == 0)
+            return 0;
+        
+        if (label > 0 && label < smallLabelIndices.length)
+        {
+            int index = smallLabelIndices[label];
+            if (index == 0)
+            {
+                index = smallLabelIndices[label] = newLabel(label);
+            }
+            return index;
+        }
+        
+        Integer index = labelIndices.get(label);
+        if (index == null)
+        {
+            index = newLabel(label);
+            labelIndices.put(label, index);
+        }
+        return index;
+    }
+    
+    private int newLabel(int label)
+    {
+        if (nLabels == labels.length)
+        {
+            labels = Arrays.copyOf(labels, nLabels * 2);
+            histograms = Arrays.copyOf(histograms, nLabels * 2);
+        }
+        labels[nLabels] = label;
+        histograms[nLabels] = new int[256];
+        return ++nLabels;
+    }
+}
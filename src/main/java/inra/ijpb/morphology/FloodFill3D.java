@@ -26,7 +26,7 @@ import static java.lang.Math.min;
 import ij.ImageStack;
 import inra.ijpb.data.image.Image3D;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * <p>
@@ -109,17 +109,16 @@ public class FloodFill3D
 			return ;
 		
 		// initialize the stack with original pixel
-		ArrayList<Cursor3D> stack = new ArrayList<Cursor3D>();
-		stack.add(new Cursor3D(x0, y0, z0));
+		PositionStack stack = new PositionStack();
+		stack.push(x0, y0, z0);
 		
 		// process all items in stack
 		while (!stack.isEmpty()) 
 		{
 			// Extract current position
-			Cursor3D p = stack.remove(stack.size() - 1);
-			int px = p.x;
-			int py = p.y;
-			int pz = p.z;
+			int pz = stack.pop();
+			int py = stack.pop();
+			int px = stack.pop();
 			
 			// process only pixel of the same value
 			if (image.getVoxel(px, py, pz) != oldValue) 
@@ -152,7 +151,7 @@ public class FloodFill3D
 					int val = (int) image.getVoxel(i, py - 1, pz);
 					if (!inScanLine && val == oldValue)
 					{
-						stack.add(new Cursor3D(i, py - 1, pz));
+						stack.push(i, py - 1, pz);
 						inScanLine = true;
 					} 
 					else if (inScanLine && val != oldValue)
@@ -171,7 +170,7 @@ public class FloodFill3D
 					int val = (int) image.getVoxel(i, py + 1, pz);
 					if (!inScanLine && val == oldValue)
 					{
-						stack.add(new Cursor3D(i, py + 1, pz));
+						stack.push(i, py + 1, pz);
 						inScanLine = true;
 					} 
 					else if (inScanLine && val != oldValue)
@@ -190,7 +189,7 @@ public class FloodFill3D
 					int val = (int) image.getVoxel(i, py, pz - 1);
 					if (!inScanLine && val == oldValue)
 					{
-						stack.add(new Cursor3D(i, py, pz - 1));
+						stack.push(i, py, pz - 1);
 						inScanLine = true;
 					} 
 					else if (inScanLine && val != oldValue)
@@ -209,7 +208,7 @@ public class FloodFill3D
 					int val = (int) image.getVoxel(i, py, pz + 1);
 					if (!inScanLine && val == oldValue)
 					{
-						stack.add(new Cursor3D(i, py, pz + 1));
+						stack.push(i, py, pz + 1);
 						inScanLine = true;
 					}
 					else if (inScanLine && val != oldValue)
@@ -253,17 +252,16 @@ public class FloodFill3D
 			return ;
 		
 		// initialize the stack with original pixel
-		ArrayList<Cursor3D> stack = new ArrayList<Cursor3D>();
-		stack.add(new Cursor3D(x0, y0, z0));
+		PositionStack stack = new PositionStack();
+		stack.push(x0, y0, z0);
 		
 		// process all items in stack
 		while (!stack.isEmpty())
 		{
 			// Extract current position
-			Cursor3D p = stack.remove(stack.size()-1);
-			int px = p.x;
-			int py = p.y;
-			int pz = p.z;
+			int pz = stack.pop();
+			int py = stack.pop();
+			int px = stack.pop();
 			
 			// process only pixel with the same value
 			if (image.getVoxel(px, py, pz) != oldValue) 
@@ -302,7 +300,7 @@ public class FloodFill3D
 						int val = (int) image.getVoxel(i, y2, z2);
 						if (!inScanLine && val == oldValue)
 						{
-							stack.add(new Cursor3D(i, y2, z2));
+							stack.push(i, y2, z2);
 							inScanLine = true;
 						} 
 						else if (inScanLine && val != oldValue)
@@ -378,17 +376,16 @@ public class FloodFill3D
 			return ;
 		
 		// initialize the stack with original pixel
-		ArrayList<Cursor3D> stack = new ArrayList<Cursor3D>();
-		stack.add(new Cursor3D(x0, y0, z0));
+		PositionStack stack = new PositionStack();
+		stack.push(x0, y0, z0);
 		
 		// process all items in stack
 		while (!stack.isEmpty()) 
 		{
 			// Extract current position
-			Cursor3D p = stack.remove(stack.size()-1);
-			int px = p.x;
-			int py = p.y;
-			int pz = p.z;
+			int pz = stack.pop();
+			int py = stack.pop();
+			int px = stack.pop();
 			
 			// process only pixel of the same value
 			if (image.getVoxel(px, py, pz) != oldValue) 
@@ -421,7 +418,7 @@ public class FloodFill3D
 					double val = image.getVoxel(i, py - 1, pz);
 					if (!inScanLine && val == oldValue)
 					{
-						stack.add(new Cursor3D(i, py - 1, pz));
+						stack.push(i, py - 1, pz);
 						inScanLine = true;
 					} 
 					else if (inScanLine && val != oldValue)
@@ -440,7 +437,7 @@ public class FloodFill3D
 					double val = image.getVoxel(i, py + 1, pz);
 					if (!inScanLine && val == oldValue)
 					{
-						stack.add(new Cursor3D(i, py + 1, pz));
+						stack.push(i, py + 1, pz);
 						inScanLine = true;
 					}
 					else if (inScanLine && val != oldValue)
@@ -459,7 +456,7 @@ public class FloodFill3D
 					double val = image.getVoxel(i, py, pz - 1);
 					if (!inScanLine && val == oldValue)
 					{
-						stack.add(new Cursor3D(i, py, pz - 1));
+						stack.push(i, py, pz - 1);
 						inScanLine = true;
 					}
 					else if (inScanLine && val != oldValue)
@@ -478,7 +475,7 @@ public class FloodFill3D
 					double val = image.getVoxel(i, py, pz + 1);
 					if (!inScanLine && val == oldValue)
 					{
-						stack.add(new Cursor3D(i, py, pz + 1));
+						stack.push(i, py, pz + 1);
 						inScanLine = true;
 					} 
 					else if (inScanLine && val != oldValue)
@@ -522,17 +519,16 @@ public class FloodFill3D
 			return ;
 		
 		// initialize the stack with original pixel
-		ArrayList<Cursor3D> stack = new ArrayList<Cursor3D>();
-		stack.add(new Cursor3D(x0, y0, z0));
+		PositionStack stack = new PositionStack();
+		stack.push(x0, y0, z0);
 		
 		// process all items in stack
 		while (!stack.isEmpty())
 		{
 			// Extract current position
-			Cursor3D p = stack.remove(stack.size()-1);
-			int px = p.x;
-			int py = p.y;
-			int pz = p.z;
+			int pz = stack.pop();
+			int py = stack.pop();
+			int px = stack.pop();
 			
 			// process only pixel with the same value
 			if (image.getVoxel(px, py, pz) != oldValue) 
@@ -571,7 +567,7 @@ public class FloodFill3D
 						double val = image.getVoxel(i, y2, z2);
 						if (!inScanLine && val == oldValue)
 						{
-							stack.add(new Cursor3D(i, y2, z2));
+							stack.push(i, y2, z2);
 							inScanLine = true;
 						} 
 						else if (inScanLine && val != oldValue)
@@ -656,17 +652,16 @@ public class FloodFill3D
 		int oldValue = (int) inputImage.getVoxel(x0, y0, z0);
 
 		// initialize the stack with original pixel
-		ArrayList<Cursor3D> stack = new ArrayList<Cursor3D>();
-		stack.add(new Cursor3D(x0, y0, z0));
+		PositionStack stack = new PositionStack();
+		stack.push(x0, y0, z0);
 
 		// process all items in stack
 		while (!stack.isEmpty()) 
 		{
 			// Extract current position
-			Cursor3D p = stack.remove(stack.size()-1);
-			int px = p.x;
-			int py = p.y;
-			int pz = p.z;
+			int pz = stack.pop();
+			int py = stack.pop();
+			int px = stack.pop();
 
 			// process only pixel of the same value
 			if ((int) inputImage.getVoxel(px, py, pz) != oldValue)
@@ -705,7 +700,7 @@ public class FloodFill3D
 
 					if (!inScanLine && val == oldValue && lab != value)
 					{
-						stack.add(new Cursor3D(i, py - 1, pz));
+						stack.push(i, py - 1, pz);
 						inScanLine = true;
 					} 
 					else if (inScanLine && val != oldValue)
@@ -726,7 +721,7 @@ public class FloodFill3D
 
 					if (!inScanLine && val == oldValue && lab != value)
 					{
-						stack.add(new Cursor3D(i, py + 1, pz));
+						stack.push(i, py + 1, pz);
 						inScanLine = true;
 					} 
 					else if (inScanLine && val != oldValue)
@@ -747,7 +742,7 @@ public class FloodFill3D
 
 					if (!inScanLine && val == oldValue && lab != value)
 					{
-						stack.add(new Cursor3D(i, py, pz - 1));
+						stack.push(i, py, pz - 1);
 						inScanLine = true;
 					}
 					else if (inScanLine && val != oldValue)
@@ -768,7 +763,7 @@ public class FloodFill3D
 
 					if (!inScanLine && val == oldValue && lab != value)
 					{
-						stack.add(new Cursor3D(i, py, pz + 1));
+						stack.push(i, py, pz + 1);
 						inScanLine = true;
 					} 
 					else if (inScanLine && val != oldValue)
@@ -812,17 +807,16 @@ public class FloodFill3D
 		int oldValue = (int) inputImage.getVoxel(x0, y0, z0);
 				
 		// initialize the stack with original pixel
-		ArrayList<Cursor3D> stack = new ArrayList<Cursor3D>();
-		stack.add(new Cursor3D(x0, y0, z0));
+		PositionStack stack = new PositionStack();
+		stack.push(x0, y0, z0);
 		
 		// process all items in stack
 		while (!stack.isEmpty()) 
 		{
 			// Extract current position
-			Cursor3D p = stack.remove(stack.size()-1);
-			int px = p.x;
-			int py = p.y;
-			int pz = p.z;
+			int pz = stack.pop();
+			int py = stack.pop();
+			int px = stack.pop();
 			
 			// process only pixel of the same value
 			if ((int) inputImage.getVoxel(px, py, pz) != oldValue)
@@ -867,7 +861,7 @@ public class FloodFill3D
 						
 						if (!inScanLine && val == oldValue && lab != value)
 						{
-							stack.add(new Cursor3D(i, y2, z2));
+							stack.push(i, y2, z2);
 							inScanLine = true;
 						} 
 						else if (inScanLine && val != oldValue)
@@ -949,8 +943,8 @@ public class FloodFill3D
     	double oldValue = inputImage.getVoxel(x0, y0, z0);
     
     	// initialize the stack with original pixel
-    	ArrayList<Cursor3D> stack = new ArrayList<Cursor3D>();
-    	stack.add(new Cursor3D(x0, y0, z0));
+    	PositionStack stack = new PositionStack();
+    	stack.push(x0, y0, z0);
     
     	boolean inScanLine;
     
@@ -958,10 +952,9 @@ public class FloodFill3D
     	while (!stack.isEmpty()) 
     	{
     		// Extract current position
-    		Cursor3D p = stack.remove(stack.size()-1);
-    		int px = p.x;
-    		int py = p.y;
-    		int pz = p.z;
+    		int pz = stack.pop();
+    		int py = stack.pop();
+    		int px = stack.pop();
     
     		// process only pixel of the same value
     		if (inputImage.getVoxel(px, py, pz) != oldValue)
@@ -1000,7 +993,7 @@ public class FloodFill3D
     
     				if (!inScanLine && val == oldValue && lab != value) 
     				{
-    					stack.add(new Cursor3D(i, py - 1, pz));
+    					stack.push(i, py - 1, pz);
     					inScanLine = true;
     				} 
     				else if (inScanLine && val != oldValue)
@@ -1021,7 +1014,7 @@ public class FloodFill3D
     
     				if (!inScanLine && val == oldValue && lab != value) 
     				{
-    					stack.add(new Cursor3D(i, py + 1, pz));
+    					stack.push(i, py + 1, pz);
     					inScanLine = true;
     				}
     				else if (inScanLine && val != oldValue)
@@ -1042,7 +1035,7 @@ public class FloodFill3D
     
     				if (!inScanLine && val == oldValue && lab != value) 
     				{
-    					stack.add(new Cursor3D(i, py, pz - 1));
+    					stack.push(i, py, pz - 1);
     					inScanLine = true;
     				}
     				else if (inScanLine && val != oldValue)
@@ -1063,7 +1056,7 @@ public class FloodFill3D
     
     				if (!inScanLine && val == oldValue && lab != value)
     				{
-    					stack.add(new Cursor3D(i, py, pz + 1));
+    					stack.push(i, py, pz + 1);
     					inScanLine = true;
     				} 
     				else if (inScanLine && val != oldValue)
@@ -1106,8 +1099,8 @@ public class FloodFill3D
     	double oldValue = inputImage.getVoxel(x0, y0, z0);
     			
     	// initialize the stack with original pixel
-    	ArrayList<Cursor3D> stack = new ArrayList<Cursor3D>();
-    	stack.add(new Cursor3D(x0, y0, z0));
+    	PositionStack stack = new PositionStack();
+    	stack.push(x0, y0, z0);
     	
     	boolean inScanLine;
     	
@@ -1115,10 +1108,9 @@ public class FloodFill3D
     	while (!stack.isEmpty())
     	{
     		// Extract current position
-    		Cursor3D p = stack.remove(stack.size()-1);
-    		int px = p.x;
-    		int py = p.y;
-    		int pz = p.z;
+    		int pz = stack.pop();
+    		int py = stack.pop();
+    		int px = stack.pop();
     		
     		// process only pixel of the same value
     		if (inputImage.getVoxel(px, py, pz) != oldValue)
@@ -1163,7 +1155,7 @@ public class FloodFill3D
     					
     					if (!inScanLine && val == oldValue && lab != value) 
     					{
-    						stack.add(new Cursor3D(i, y2, z2));
+    						stack.push(i, y2, z2);
     						inScanLine = true;
     					}
     					else if (inScanLine && val != oldValue)
@@ -1245,8 +1237,8 @@ public class FloodFill3D
 		double oldValue = inputImage.getValue(x0, y0, z0);
 
 		// initialize the stack with original pixel
-		ArrayList<Cursor3D> stack = new ArrayList<Cursor3D>();
-		stack.add(new Cursor3D(x0, y0, z0));
+		PositionStack stack = new PositionStack();
+		stack.push(x0, y0, z0);
 
 		boolean inScanLine;
 
@@ -1254,10 +1246,9 @@ public class FloodFill3D
 		while (!stack.isEmpty()) 
 		{
 			// Extract current position
-			Cursor3D p = stack.remove(stack.size()-1);
-			int px = p.x;
-			int py = p.y;
-			int pz = p.z;
+			int pz = stack.pop();
+			int py = stack.pop();
+			int px = stack.pop();
 
 			// process only pixel of the same value
 			if (inputImage.getValue(px, py, pz) != oldValue)
@@ -1296,7 +1287,7 @@ public class FloodFill3D
 
 					if (!inScanLine && val == oldValue && lab != value) 
 					{
-						stack.add(new Cursor3D(i, py - 1, pz));
+						stack.push(i, py - 1, pz);
 						inScanLine = true;
 					} 
 					else if (inScanLine && val != oldValue)
@@ -1317,7 +1308,7 @@ public class FloodFill3D
 
 					if (!inScanLine && val == oldValue && lab != value) 
 					{
-						stack.add(new Cursor3D(i, py + 1, pz));
+						stack.push(i, py + 1, pz);
 						inScanLine = true;
 					}
 					else if (inScanLine && val != oldValue)
@@ -1338,7 +1329,7 @@ public class FloodFill3D
 
 					if (!inScanLine && val == oldValue && lab != value) 
 					{
-						stack.add(new Cursor3D(i, py, pz - 1));
+						stack.push(i, py, pz - 1);
 						inScanLine = true;
 					}
 					else if (inScanLine && val != oldValue)
@@ -1359,7 +1350,7 @@ public class FloodFill3D
 
 					if (!inScanLine && val == oldValue && lab != value)
 					{
-						stack.add(new Cursor3D(i, py, pz + 1));
+						stack.push(i, py, pz + 1);
 						inScanLine = true;
 					} 
 					else if (inScanLine && val != oldValue)
@@ -1402,8 +1393,8 @@ public class FloodFill3D
 		double oldValue = inputImage.getValue(x0, y0, z0);
 				
 		// initialize the stack with original pixel
-		ArrayList<Cursor3D> stack = new ArrayList<Cursor3D>();
-		stack.add(new Cursor3D(x0, y0, z0));
+		PositionStack stack = new PositionStack();
+		stack.push(x0, y0, z0);
 		
 		boolean inScanLine;
 		
@@ -1411,10 +1402,9 @@ public class FloodFill3D
 		while (!stack.isEmpty())
 		{
 			// Extract current position
-			Cursor3D p = stack.remove(stack.size()-1);
-			int px = p.x;
-			int py = p.y;
-			int pz = p.z;
+			int pz = stack.pop();
+			int py = stack.pop();
+			int px = stack.pop();
 			
 			// process only pixel of the same value
 			if (inputImage.getValue(px, py, pz) != oldValue)
@@ -1459,7 +1449,7 @@ public class FloodFill3D
 						
 						if (!inScanLine && val == oldValue && lab != value) 
 						{
-							stack.add(new Cursor3D(i, y2, z2));
+							stack.push(i, y2, z2);
 							inScanLine = true;
 						}
 						else if (inScanLine && val != oldValue)
@@ -1481,20 +1471,36 @@ public class FloodFill3D
     }
 
     /**
-	 * Defines a position within a 3D stack.
+	 * Stack of positions within a 3D image, stored as consecutive triplets
+	 * of coordinates in a growable array of integers.
 	 * Needs to be a static class to be called by static methods.
 	 */
-	private static class Cursor3D 
+	private static class PositionStack 
 	{
-		int x;
-		int y;
-		int z;
+		int[] buffer = new int[3 * 64];
+		int size = 0;
 		
-		public Cursor3D(int x, int y, int z) 
+		public void push(int x, int y, int z) 
 		{
-			this.x = x;
-			this.y = y;
-			this.z = z;
+			if (size + 3 > buffer.length)
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			buffer[size++] = x;
+			buffer[size++] = y;
+			buffer[size++] = z;
+		}
+		
+		/**
+		 * Removes and returns the last coordinate of the stack, such that
+		 * the coordinates of a position are returned in z, y, x order.
+		 */
+		public int pop()
+		{
+			return buffer[--size];
+		}
+		
+		public boolean isEmpty()
+		{
+			return size == 0;
 		}
 	}
 }
@@ -22,8 +22,12 @@
 package inra.ijpb.morphology.directional;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import ij.Prefs;
 import ij.process.ImageProcessor;
+import ij.util.ThreadUtil;
+import inra.ijpb.algo.AlgoMetrics;
 import inra.ijpb.algo.AlgoStub;
 import inra.ijpb.data.border.BorderManager;
 import inra.ijpb.data.border.MirroringBorder;
@@ -41,6 +45,12 @@ import inra.ijpb.morphology.Strel;
  * element. The results are combined to create the resulting image.
  * </p>
  * 
+ * <p>
+ * Orientations are processed in parallel. Each thread combines the results
+ * of the orientations it processes within its own accumulator array, and
+ * the accumulators are combined at the end.
+ * </p>
+ * 
  * @author David Legland
  *
  */
@@ -242,6 +252,12 @@ public class DirectionalFilter extends AlgoStub
 	 */
 	int nDirections;
 
+	/**
+	 * The number of threads used to process orientations. Default is the
+	 * number of threads specified in ImageJ preferences.
+	 */
+	int nThreads = Prefs.getThreads();
+
 	
 	// =======================================================================
 	// Constructors
@@ -294,17 +310,29 @@ public class DirectionalFilter extends AlgoStub
 	// =======================================================================
 	// Methods
 
+	/**
+	 * Changes the number of threads used to process the orientations.
+	 * 
+	 * @param nThreads
+	 *            the number of threads, or 1 for sequential processing
+	 */
+	public void setThreadNumber(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+	
 	/**
 	 * Apply directional filter with current settings to the specified image.
 	 * 
 	 * @param image
 	 *            a grayscale image
-	 * @return the result of directional filter
+	 * @return the result of directional filter, or null if the filter was
+	 *         cancelled
 	 */
-	public ImageProcessor process(ImageProcessor image)
+	public ImageProcessor process(final ImageProcessor image)
 	{
 		// determine the sign of min/max computation
-		int sign = this.type == Type.MAX ? 1 : -1;
+		final int sign = this.type == Type.MAX ? 1 : -1;
 		
 		// initialize result
 		ImageProcessor result = image.duplicate();
@@ -320,32 +348,66 @@ public class DirectionalFilter extends AlgoStub
 		
 		int sizeX = image.getWidth();
 		int sizeY = image.getHeight();
+		final float[] init = new float[sizeX * sizeY];
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				init[y * sizeX + x] = result.getf(x, y);
+			}
+		}
 		
 		fireStatusChanged(this, "Directional Filter...");
+		AlgoMetrics.Stage stage = startStage("Directional Filter");
 
-		// Iterate over the set of directions
-		for (int i = 0; i < nDirections; i++)
+		// each thread processes a direction, then picks the next one
+		final AtomicInteger nextDirection = new AtomicInteger(0);
+		final AtomicInteger doneDirections = new AtomicInteger(0);
+		final float[][] accums = new float[Math.max(1, Math.min(nThreads, nDirections))][];
+		Thread[] threads = ThreadUtil.createThreadArray(accums.length);
+		for (int t = 0; t < threads.length; t++)
 		{
-			fireProgressChanged(this, i, nDirections);
-			
-			// Create the structuring element for current orientation
-			double theta = ((double) i) * 180.0 / nDirections;
-			Strel strel = this.strelFactory.createStrel(theta);
-
-			// Apply oriented filter
-			ImageProcessor oriented = this.operation.apply(image, strel);
-
-			// combine current result with global result
-			for (int y = 0; y < sizeY; y++)
+			final float[] accum = accums[t] = t == 0 ? init : init.clone();
+			threads[t] = new Thread()
 			{
-				for (int x = 0; x < sizeX; x++)
+				public void run()
 				{
-					float value = oriented.getf(x, y);
-					if (value * sign > result.getf(x, y) * sign)
+					// buffer for the values computed for each orientation
+					float[] values = new float[init.length];
+					
+					for (int i = nextDirection.getAndIncrement(); i < nDirections; i = nextDirection.getAndIncrement())
 					{
-						result.setf(x, y, value);
+						if (isCancelled())
+							return;
+						
+						// Create the structuring element for current orientation
+						double theta = ((double) i) * 180.0 / nDirections;
+						Strel strel = strelFactory.createStrel(theta);
+
+						// Apply oriented filter, and combine with accumulator
+						applyAndCombine(image, strel, accum, values, sign);
+						
+						fireProgressChanged(DirectionalFilter.this, doneDirections.incrementAndGet(), nDirections);
 					}
 				}
+			};
+		}
+		ThreadUtil.startAndJoin(threads);
+		stage.stop((long) sizeX * sizeY * nDirections);
+		if (isCancelled())
+			return null;
+		
+		// combine the accumulators of the different threads
+		float[] accum = accums[0];
+		for (int t = 1; t < accums.length; t++)
+		{
+			combine(accums[t], accum, sign);
+		}
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				result.setf(x, y, accum[y * sizeX + x]);
 			}
 		}
 		
@@ -355,6 +417,110 @@ public class DirectionalFilter extends AlgoStub
 		return result;
 	}
 	
+	/**
+	 * Applies the operation with the specified structuring element, and
+	 * combines the result with the accumulator. Mean and median filters are
+	 * computed within the values buffer, other operations use a temporary
+	 * image.
+	 */
+	private void applyAndCombine(ImageProcessor image, Strel strel, float[] accum, float[] values, int sign)
+	{
+		Object pixels = image.getPixels();
+		if (isGray(image) && (this.operation == Operation.MEAN || this.operation == Operation.MEDIAN))
+		{
+			if (this.operation == Operation.MEAN)
+			{
+				computeMean(image, strel.getShifts(), values);
+			}
+			else
+			{
+				computeMedian(image, strel.getShifts(), values);
+			}
+			
+			for (int i = 0; i < accum.length; i++)
+			{
+				float value = convertToPixelType(values[i], pixels);
+				if (value * sign > accum[i] * sign)
+				{
+					accum[i] = value;
+				}
+			}
+			return;
+		}
+		
+		ImageProcessor oriented = this.operation.apply(image, strel);
+		combine(oriented, accum, sign);
+	}
+
+	/**
+	 * Converts a value computed by a filter as the value it would have when
+	 * stored in an image of the same type as the specified pixel array, using
+	 * the same rounding as the setf method of ImageJ processors.
+	 */
+	private static final float convertToPixelType(float value, Object pixels)
+	{
+		if (pixels instanceof byte[])
+			return ((byte) (int) (value + 0.5f)) & 0x00FF;
+		if (pixels instanceof short[])
+			return ((short) (int) (value + 0.5f)) & 0x00FFFF;
+		return value;
+	}
+	
+	/**
+	 * Combines the values of an image with the values of an accumulator.
+	 */
+	private static final void combine(ImageProcessor image, float[] accum, int sign)
+	{
+		Object pixels = image.getPixels();
+		if (pixels instanceof byte[])
+		{
+			byte[] array = (byte[]) pixels;
+			for (int i = 0; i < accum.length; i++)
+			{
+				float value = array[i] & 0x00FF;
+				if (value * sign > accum[i] * sign)
+					accum[i] = value;
+			}
+		}
+		else if (pixels instanceof short[])
+		{
+			short[] array = (short[]) pixels;
+			for (int i = 0; i < accum.length; i++)
+			{
+				float value = array[i] & 0x00FFFF;
+				if (value * sign > accum[i] * sign)
+					accum[i] = value;
+			}
+		}
+		else if (pixels instanceof float[])
+		{
+			combine((float[]) pixels, accum, sign);
+		}
+		else
+		{
+			int sizeX = image.getWidth();
+			for (int i = 0; i < accum.length; i++)
+			{
+				float value = image.getf(i % sizeX, i / sizeX);
+				if (value * sign > accum[i] * sign)
+					accum[i] = value;
+			}
+		}
+	}
+	
+	/**
+	 * Combines the values of two accumulators, and stores the result in the
+	 * second one.
+	 */
+	private static final void combine(float[] values, float[] accum, int sign)
+	{
+		for (int i = 0; i < accum.length; i++)
+		{
+			if (values[i] * sign > accum[i] * sign)
+				accum[i] = values[i];
+		}
+	}
+	
 	
 	// =======================================================================
 	// Utility Methods
@@ -368,30 +534,48 @@ public class DirectionalFilter extends AlgoStub
 	public static ImageProcessor mean(ImageProcessor image, Strel strel) {
 		// Allocate memory for result
 		ImageProcessor result = image.duplicate();
-		
+
+		float[] values = new float[image.getWidth() * image.getHeight()];
+		computeMean(image, strel.getShifts(), values);
+		copyValues(values, result);
+
+		return result;
+	}
+
+	/**
+	 * Computes the average value among the neighbors of each pixel, and
+	 * stores the results in the values array. When the shifts are periodic,
+	 * the mean is updated with a running sum while moving along the line
+	 * direction.
+	 */
+	private static void computeMean(ImageProcessor image, int[][] shifts, float[] values)
+	{
+		if (isGray(image) && slide(image, shifts, new SlidingMean(shifts.length), values))
+		{
+			return;
+		}
+
 		BorderManager bm = new MirroringBorder(image);
-		
-		int[][] shifts = strel.getShifts();
-		double accum;
-		
+		int sizeX = image.getWidth();
+
 		// Iterate on image pixels
 		for (int y = 0; y < image.getHeight(); y++) {
-			for (int x = 0; x < image.getWidth(); x++) {
-				// reset accumulator
-				accum = 0;
-				
-				// iterate on neighbors
-				for (int i = 0; i < shifts.length; i++) {
-					accum += bm.getf(x + shifts[i][0], y + shifts[i][1]);
-				}
-				
-				// compute result
-				double res = accum / shifts.length;
-				result.setf(x, y, (float) res);
-			}			
+			for (int x = 0; x < sizeX; x++) {
+				values[y * sizeX + x] = (float) meanValue(bm, shifts, x, y);
+			}
 		}
-		
-		return result;
+	}
+
+	/**
+	 * Computes the average value among the neighbors of a pixel.
+	 */
+	private static double meanValue(BorderManager bm, int[][] shifts, int x, int y)
+	{
+		double accum = 0;
+		for (int i = 0; i < shifts.length; i++) {
+			accum += bm.getf(x + shifts[i][0], y + shifts[i][1]);
+		}
+		return accum / shifts.length;
 	}
 
 	/**
@@ -405,30 +589,473 @@ public class DirectionalFilter extends AlgoStub
 		// Allocate memory for result
 		ImageProcessor result = image.duplicate();
 
-		BorderManager bm = new MirroringBorder(image);
+		float[] values = new float[image.getWidth() * image.getHeight()];
+		computeMedian(image, strel.getShifts(), values);
+		copyValues(values, result);
+
+		return result;
+	}
 
-		int[][] shifts = strel.getShifts();
+	/**
+	 * Computes the median value among the neighbors of each pixel, and stores
+	 * the results in the values array. For 8- and 16-bit images with periodic
+	 * shifts, the median is obtained from a histogram updated while moving
+	 * along the line direction.
+	 */
+	private static void computeMedian(ImageProcessor image, int[][] shifts, float[] values)
+	{
 		int n = shifts.length;
+		Object pixels = image.getPixels();
+		if ((pixels instanceof byte[] || pixels instanceof short[]) && n % 2 == 1)
+		{
+			int nValues = pixels instanceof byte[] ? 256 : 65536;
+			if (slide(image, shifts, new SlidingMedian(nValues, n), values))
+			{
+				return;
+			}
+		}
+
+		BorderManager bm = new MirroringBorder(image);
+		int sizeX = image.getWidth();
 		double[] buffer = new double[n];
 
 		// Iterate on image pixels
 		for (int y = 0; y < image.getHeight(); y++)
 		{
-			for (int x = 0; x < image.getWidth(); x++)
+			for (int x = 0; x < sizeX; x++)
+			{
+				values[y * sizeX + x] = (float) medianValue(bm, shifts, buffer, x, y);
+			}
+		}
+	}
+
+	/**
+	 * Computes the median value among the neighbors of a pixel, using the
+	 * specified buffer that must have the same size as the shift array.
+	 */
+	private static double medianValue(BorderManager bm, int[][] shifts, double[] buffer, int x, int y)
+	{
+		for (int i = 0; i < shifts.length; i++)
+		{
+			buffer[i] = bm.getf(x + shifts[i][0], y + shifts[i][1]);
+		}
+		return median(buffer);
+	}
+
+	/**
+	 * Computes the values of a sliding window filter by moving the window
+	 * along the chains of pixels separated by the period vector of the
+	 * shifts. The neighborhoods of two consecutive pixels within a chain
+	 * differ only by the pixels of one period, so the cost for each pixel
+	 * depends on the period and not on the number of shifts.
+	 *
+	 * Returns false, without computing anything, if the shifts are not
+	 * periodic, or if the cost estimated for the sliding computation, that
+	 * includes the cost of updating the window, is larger than the cost of
+	 * the direct computation.
+	 */
+	private static boolean slide(ImageProcessor image, int[][] shifts, SlidingWindow window, float[] values)
+	{
+		int n = shifts.length;
+		int period = findPeriod(shifts);
+		if (period == 0)
+		{
+			return false;
+		}
+
+		// the period vector between the neighborhoods of consecutive pixels
+		int dx = shifts[period][0] - shifts[0][0];
+		int dy = shifts[period][1] - shifts[0][1];
+
+		// compare the costs of sliding and direct computations, considering
+		// each chain requires to fill and to empty the window
+		int sizeX = image.getWidth();
+		int sizeY = image.getHeight();
+		long nPixels = (long) sizeX * sizeY;
+		long nChains = (long) Math.min(Math.abs(dx), sizeX) * sizeY + (long) Math.min(Math.abs(dy), sizeY) * sizeX;
+		double slideCost = nPixels * window.updateCost(image, shifts, period) + Math.min(nChains, nPixels) * 2.0 * n;
+		if (slideCost >= nPixels * window.directCost(n))
+		{
+			return false;
+		}
+
+		BorderManager bm = new MirroringBorder(image);
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				// process only pixels at the beginning of a chain
+				int xp = x - dx;
+				int yp = y - dy;
+				if (xp >= 0 && xp < sizeX && yp >= 0 && yp < sizeY)
+				{
+					continue;
+				}
+
+				// initialize window with the neighborhood of the first pixel
+				window.reset();
+				for (int i = 0; i < n; i++)
+				{
+					window.add(bm.getf(x + shifts[i][0], y + shifts[i][1]));
+				}
+
+				int x0 = x;
+				int y0 = y;
+				while (true)
+				{
+					values[y0 * sizeX + x0] = (float) window.value();
+
+					int x1 = x0 + dx;
+					int y1 = y0 + dy;
+					if (x1 < 0 || x1 >= sizeX || y1 < 0 || y1 >= sizeY)
+					{
+						// empty the window for the next chain
+						for (int i = 0; i < n; i++)
+						{
+							window.remove(bm.getf(x0 + shifts[i][0], y0 + shifts[i][1]));
+						}
+						break;
+					}
+
+					// update window: remove the values of the first period,
+					// and add the values of the last period
+					for (int i = 0; i < period; i++)
+					{
+						window.remove(bm.getf(x0 + shifts[i][0], y0 + shifts[i][1]));
+					}
+					for (int i = n - period; i < n; i++)
+					{
+						window.add(bm.getf(x1 + shifts[i][0], y1 + shifts[i][1]));
+					}
+					x0 = x1;
+					y0 = y1;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Finds the smallest period of the shifts, defined as the smallest
+	 * integer P such that the difference between the shifts at index k and at
+	 * index k-P is the same for all k greater than or equal to P. Returns 0
+	 * if no period smaller than half the number of shifts can be found.
+	 */
+	private static int findPeriod(int[][] shifts)
+	{
+		int n = shifts.length;
+		for (int period = 1; period <= n / 2; period++)
+		{
+			int dx = shifts[period][0] - shifts[0][0];
+			int dy = shifts[period][1] - shifts[0][1];
+			boolean periodic = true;
+			for (int k = period + 1; k < n; k++)
+			{
+				if (shifts[k][0] - shifts[k - period][0] != dx || shifts[k][1] - shifts[k - period][1] != dy)
+				{
+					periodic = false;
+					break;
+				}
+			}
+			if (periodic)
+			{
+				return period;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Copies the values into an image of the same size.
+	 */
+	private static void copyValues(float[] values, ImageProcessor image)
+	{
+		int sizeX = image.getWidth();
+		for (int y = 0; y < image.getHeight(); y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				image.setf(x, y, values[y * sizeX + x]);
+			}
+		}
+	}
+
+	private static boolean isGray(ImageProcessor image)
+	{
+		Object pixels = image.getPixels();
+		return pixels instanceof byte[] || pixels instanceof short[] || pixels instanceof float[];
+	}
+
+	/**
+	 * The values within a window moving along the image, that can be updated
+	 * by adding and removing values.
+	 */
+	private static abstract class SlidingWindow
+	{
+		/**
+		 * Resets the state of the window, once all its values have been
+		 * removed.
+		 */
+		abstract void reset();
+
+		abstract void add(float value);
+
+		abstract void remove(float value);
+
+		/** Returns the value of the filter for the current window. */
+		abstract double value();
+
+		/**
+		 * Estimates the cost of moving the window by one period and of
+		 * computing the new value, in number of pixel accesses.
+		 */
+		abstract double updateCost(ImageProcessor image, int[][] shifts, int period);
+
+		/**
+		 * Estimates the cost of computing the value of the filter directly
+		 * from the neighbors of a pixel, in number of pixel accesses.
+		 */
+		abstract double directCost(int windowSize);
+	}
+
+	/**
+	 * Computes the mean value within the window using a running sum.
+	 */
+	private static final class SlidingMean extends SlidingWindow
+	{
+		final int windowSize;
+		double sum = 0;
+
+		SlidingMean(int windowSize)
+		{
+			this.windowSize = windowSize;
+		}
+
+		@Override
+		void reset()
+		{
+			this.sum = 0;
+		}
+
+		@Override
+		void add(float value)
+		{
+			this.sum += value;
+		}
+
+		@Override
+		void remove(float value)
+		{
+			this.sum -= value;
+		}
+
+		@Override
+		double value()
+		{
+			return this.sum / this.windowSize;
+		}
+
+		@Override
+		double updateCost(ImageProcessor image, int[][] shifts, int period)
+		{
+			return 2 * period;
+		}
+
+		@Override
+		double directCost(int windowSize)
+		{
+			return windowSize;
+		}
+	}
+
+	/**
+	 * Computes the median value within the window using the histogram of
+	 * integer values. The histogram is completed by the counts within blocks
+	 * of 256 values, making it possible to skip empty blocks when searching
+	 * the median value. As the window moves by small steps, the median is
+	 * updated from its previous value.
+	 * 
+	 * The cost of the update depends on the number of histogram bins between
+	 * successive medians. For 16-bit images whose neighborhoods contain
+	 * widely spread values, it can exceed the cost of sorting the
+	 * neighbors, and the direct computation is used instead.
+	 */
+	private static final class SlidingMedian extends SlidingWindow
+	{
+		/**
+		 * The cost of visiting a histogram bin when searching the median,
+		 * relative to the cost of a pixel access.
+		 */
+		static final double SCAN_COST = 0.02;
+
+		/**
+		 * The cost of a comparison when sorting the neighbor values,
+		 * relative to the cost of a pixel access.
+		 */
+		static final double SORT_COST = 0.04;
+
+		/** the number of neighborhoods used to estimate the update cost */
+		static final int SAMPLE_COUNT = 64;
+
+		/** the number of values within each histogram bin */
+		final int[] counts;
+
+		/** the number of values within each block of 256 histogram bins */
+		final int[] blockCounts;
+
+		/** the rank of the median value within the window */
+		final int rank;
+
+		/** the current median value */
+		int median = 0;
+
+		/** the number of values within the window smaller than the median */
+		int below = 0;
+
+		SlidingMedian(int nValues, int windowSize)
+		{
+			this.counts = new int[nValues];
+			this.blockCounts = new int[(nValues + 255) >> 8];
+			this.rank = windowSize / 2;
+		}
+
+		@Override
+		void reset()
+		{
+			this.median = 0;
+			this.below = 0;
+		}
+
+		@Override
+		void add(float value)
+		{
+			int v = (int) value;
+			counts[v]++;
+			blockCounts[v >> 8]++;
+			if (v < median)
+			{
+				below++;
+			}
+		}
+
+		@Override
+		void remove(float value)
+		{
+			int v = (int) value;
+			counts[v]--;
+			blockCounts[v >> 8]--;
+			if (v < median)
+			{
+				below--;
+			}
+		}
+
+		@Override
+		double value()
+		{
+			// move to smaller values while too many values are below median
+			while (below > rank)
 			{
-				// iterate on neighbors
-				for (int i = 0; i < shifts.length; i++)
+				median = previous(median);
+				below -= counts[median];
+			}
+
+			// move to larger values while not enough values up to median
+			while (below + counts[median] <= rank)
+			{
+				below += counts[median];
+				median = next(median);
+			}
+			return median;
+		}
+
+		/**
+		 * Estimates the number of histogram bins visited when the median
+		 * moves to the next value, from the values around the median within
+		 * a sample of neighborhoods. Moving within a block visits each bin,
+		 * whereas moving to another block visits the remaining bins of the
+		 * current block, the empty blocks, and the bins of the new block.
+		 */
+		@Override
+		double updateCost(ImageProcessor image, int[][] shifts, int period)
+		{
+			int n = shifts.length;
+			int sizeX = image.getWidth();
+			long nPixels = (long) sizeX * image.getHeight();
+			int nSamples = (int) Math.min(SAMPLE_COUNT, nPixels);
+			BorderManager bm = new MirroringBorder(image);
+			double[] buffer = new double[n];
+
+			double gap = 0;
+			for (int s = 0; s < nSamples; s++)
+			{
+				int index = (int) ((2 * s + 1) * nPixels / (2 * nSamples));
+				int x = index % sizeX;
+				int y = index / sizeX;
+				for (int i = 0; i < n; i++)
 				{
 					buffer[i] = bm.getf(x + shifts[i][0], y + shifts[i][1]);
 				}
+				Arrays.sort(buffer);
+				gap += (buffer[Math.min(rank + 1, n - 1)] - buffer[Math.max(rank - 1, 0)]) / 2;
+			}
+			gap /= nSamples;
+
+			double scan = gap < 256 ? gap : 256 + gap / 256;
+
+			// one more access for reading the median and writing the result
+			return 2 * period + 1 + period * scan * SCAN_COST;
+		}
+
+		@Override
+		double directCost(int windowSize)
+		{
+			double log2 = Math.log(windowSize) / Math.log(2);
+			return windowSize + windowSize * log2 * SORT_COST;
+		}
 
-				// compute result
-				double res = median(buffer);
-				result.setf(x, y, (float) res);
+		/**
+		 * Returns the largest value smaller than v within the window.
+		 */
+		private int previous(int v)
+		{
+			int w = v - 1;
+			while (true)
+			{
+				if ((w & 0xFF) == 0xFF && blockCounts[w >> 8] == 0)
+				{
+					w -= 256;
+					continue;
+				}
+				if (counts[w] > 0)
+				{
+					return w;
+				}
+				w--;
 			}
 		}
 
-		return result;
+		/**
+		 * Returns the smallest value larger than v within the window.
+		 */
+		private int next(int v)
+		{
+			int w = v + 1;
+			while (true)
+			{
+				if ((w & 0xFF) == 0 && blockCounts[w >> 8] == 0)
+				{
+					w += 256;
+					continue;
+				}
+				if (counts[w] > 0)
+				{
+					return w;
+				}
+				w++;
+			}
+		}
 	}
 
 	/**
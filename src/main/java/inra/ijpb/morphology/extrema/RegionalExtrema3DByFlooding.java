@@ -21,9 +21,10 @@
  */
 package inra.ijpb.morphology.extrema;
 
-import static java.lang.Math.max;
 import static java.lang.Math.min;
 import ij.ImageStack;
+import inra.ijpb.algo.AlgoMetrics;
+import inra.ijpb.data.NeighborhoodOffsets;
 import inra.ijpb.data.image.Image3D;
 import inra.ijpb.data.image.Images3D;
 import inra.ijpb.morphology.FloodFill3D;
@@ -54,7 +55,10 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 	@Override
 	public ImageStack applyTo(ImageStack image) 
 	{
-		return regionalExtremaFloat(image);
+		AlgoMetrics.Stage stage = startStage("Regional Extrema");
+		ImageStack result = regionalExtremaFloat(image);
+		stage.stop((long) image.getWidth() * image.getHeight() * image.getSize());
+		return result;
 	}
 	
 	/**
@@ -100,10 +104,18 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 		Image3D image2 = Images3D.createWrapper(image);
 		Image3D result2 = Images3D.createWrapper(result);
 		
+		// precompute neighbor shifts
+		NeighborhoodOffsets neigh = new NeighborhoodOffsets(6, sizeX, sizeY, sizeZ);
+		int[] dx = neigh.getShiftsX();
+		int[] dy = neigh.getShiftsY();
+		int[] dz = neigh.getShiftsZ();
+		
 		// iterate on image voxels
 		for (int z = 0; z < sizeZ; z++) 
 		{
 			fireProgressChanged(this, z, sizeZ);
+			if (isCancelled())
+				return null;
 			for (int y = 0; y < sizeY; y++) 
 			{
 				for (int x = 0; x < sizeX; x++) 
@@ -117,18 +129,10 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 					
 					// compute extremum value in 6-neighborhood
 					double value = currentValue;
-					if (x > 0) 
-						value = min(value, image2.getValue(x-1, y, z) * sign); 
-					if (x < sizeX - 1) 
-						value = min(value, image2.getValue(x+1, y, z) * sign); 
-					if (y > 0) 
-						value = min(value, image2.getValue(x, y-1, z) * sign); 
-					if (y < sizeY - 1) 
-						value = min(value, image2.getValue(x, y+1, z) * sign);
-					if (z > 0) 
-						value = min(value, image2.getValue(x, y, z-1) * sign); 
-					if (z < sizeZ - 1) 
-						value = min(value, image2.getValue(x, y, z+1) * sign); 
+					for (int n : neigh.getNeighbors(x, y, z))
+					{
+						value = min(value, image2.getValue(x + dx[n], y + dy[n], z + dz[n]) * sign);
+					}
 
 					// if one of the neighbors has lower value, the local pixel 
 					// is not a minima. All connected pixels with same value are 
@@ -167,10 +171,18 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 		Image3D image2 = Images3D.createWrapper(image);
 		Image3D result2 = Images3D.createWrapper(result);
 		
+		// precompute neighbor shifts
+		NeighborhoodOffsets neigh = new NeighborhoodOffsets(26, sizeX, sizeY, sizeZ);
+		int[] dx = neigh.getShiftsX();
+		int[] dy = neigh.getShiftsY();
+		int[] dz = neigh.getShiftsZ();
+		
 		// iterate on image voxels
 		for (int z = 0; z < sizeZ; z++) 
 		{
 			fireProgressChanged(this, z, sizeZ);
+			if (isCancelled())
+				return null;
 			
 			for (int y = 0; y < sizeY; y++) 
 			{
@@ -185,15 +197,9 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 					
 					// compute extremum value in 26-neighborhood
 					double value = currentValue;
-					for (int z2 = max(z-1, 0); z2 <= min(z+1, sizeZ-1); z2++) 
+					for (int n : neigh.getNeighbors(x, y, z))
 					{
-						for (int y2 = max(y-1, 0); y2 <= min(y+1, sizeY-1); y2++) 
-						{
-							for (int x2 = max(x-1, 0); x2 <= min(x+1, sizeX-1); x2++) 
-							{
-								value = min(value, image2.getValue(x2, y2, z2) * sign);
-							}
-						}
+						value = min(value, image2.getValue(x + dx[n], y + dy[n], z + dz[n]) * sign);
 					}
 					
 					// if one of the neighbors has lower value, the local voxel
@@ -234,7 +240,7 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 	 */
 	ImageStack regionalExtremaFloatC6(ImageStack image, ImageStack mask) 
 	{
-		if ( Thread.currentThread().isInterrupted() )					
+		if ( isCancelled() )					
 			return null;
 		
 		int sizeX = image.getWidth();
@@ -251,10 +257,18 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 		// initialize local data depending on extrema type
 		final int sign = this.extremaType == ExtremaType.MINIMA ? 1 : -1;
 
+		// precompute neighbor shifts
+		NeighborhoodOffsets neigh = new NeighborhoodOffsets(6, sizeX, sizeY, sizeZ);
+		int[] dx = neigh.getShiftsX();
+		int[] dy = neigh.getShiftsY();
+		int[] dz = neigh.getShiftsZ();
+
 		// iterate on image voxels
 		for (int z = 0; z < sizeZ; z++) 
 		{
 			fireProgressChanged(this, z, sizeZ);
+			if (isCancelled())
+				return null;
 			for (int y = 0; y < sizeY; y++) 
 			{
 				for (int x = 0; x < sizeX; x++) 
@@ -272,23 +286,12 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 					
 					// compute extremum value in 6-neighborhood
 					double value = currentValue;
-					if (x > 0 && mask.getVoxel(x - 1, y, z) != 0)
-						value = min(value, image.getVoxel(x - 1, y, z) * sign);
-					
-					if (x < sizeX - 1 && mask.getVoxel(x + 1, y, z) != 0)
-						value = min(value, image.getVoxel(x + 1, y, z) * sign);
-					
-					if (y > 0 && mask.getVoxel(x, y - 1, z) != 0)
-						value = min(value, image.getVoxel(x, y - 1, z) * sign);
-					
-					if (y < sizeY - 1 && mask.getVoxel(x, y + 1, z) != 0)
-						value = min(value, image.getVoxel(x, y + 1, z) * sign);
-					
-					if (z > 0 && mask.getVoxel(x, y, z - 1) != 0)
-						value = min(value, image.getVoxel(x, y, z - 1) * sign);
-					
-					if (z < sizeZ - 1 && mask.getVoxel(x, y, z + 1) != 0)
-						value = min(value, image.getVoxel(x, y, z + 1) * sign);
+					for (int n : neigh.getNeighbors(x, y, z))
+					{
+						int x2 = x + dx[n], y2 = y + dy[n], z2 = z + dz[n];
+						if (mask.getVoxel(x2, y2, z2) != 0)
+							value = min(value, image.getVoxel(x2, y2, z2) * sign);
+					}
 
 					// if one of the neighbors has lower value, the local pixel 
 					// is not a minima. All connected pixels with same value are 
@@ -311,7 +314,7 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 	 */
 	ImageStack regionalExtremaFloatC26(ImageStack image, ImageStack mask)
 	{
-		if ( Thread.currentThread().isInterrupted() )					
+		if ( isCancelled() )					
 			return null;
 		
 		int sizeX = image.getWidth();
@@ -328,10 +331,18 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 		// initialize local data depending on extrema type
 		final int sign = this.extremaType == ExtremaType.MINIMA ? 1 : -1;
 
+		// precompute neighbor shifts
+		NeighborhoodOffsets neigh = new NeighborhoodOffsets(26, sizeX, sizeY, sizeZ);
+		int[] dx = neigh.getShiftsX();
+		int[] dy = neigh.getShiftsY();
+		int[] dz = neigh.getShiftsZ();
+
 		// iterate on image voxels
 		for (int z = 0; z < sizeZ; z++) 
 		{
 			fireProgressChanged(this, z, sizeZ);
+			if (isCancelled())
+				return null;
 			for (int y = 0; y < sizeY; y++) 
 			{
 				for (int x = 0; x < sizeX; x++)
@@ -349,16 +360,11 @@ public class RegionalExtrema3DByFlooding extends RegionalExtrema3DAlgo
 					
 					// compute extremum value in 26-neighborhood
 					double value = currentValue * sign;
-					for (int z2 = max(z-1, 0); z2 <= min(z+1, sizeZ-1); z2++) 
+					for (int n : neigh.getNeighbors(x, y, z))
 					{
-						for (int y2 = max(y-1, 0); y2 <= min(y+1, sizeY-1); y2++) 
-						{
-							for (int x2 = max(x-1, 0); x2 <= min(x+1, sizeX-1); x2++)
-							{
-								if (mask.getVoxel(x2, y2, z2) != 0)
-									value = min(value, image.getVoxel(x2, y2, z2) * sign);
-							}
-						}
+						int x2 = x + dx[n], y2 = y + dy[n], z2 = z + dz[n];
+						if (mask.getVoxel(x2, y2, z2) != 0)
+							value = min(value, image.getVoxel(x2, y2, z2) * sign);
 					}
 					
 					// if one of the neighbors has lower value, the local pixel 
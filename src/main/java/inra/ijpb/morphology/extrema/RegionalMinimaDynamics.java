@@ -0,0 +1,635 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.morphology.extrema;
+
+import java.util.Arrays;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.algo.AlgoStub;
+
+/**
+ * <p>
+ * Computes the dynamic (or extinction value for the depth attribute) of each
+ * regional minimum of a grayscale image.
+ * </p>
+ *
+ * <p>
+ * The dynamic of a regional minimum is the height one has to climb from the
+ * minimum to reach a deeper minimum. It is computed by flooding the image by
+ * increasing gray levels, and by tracking the merges of the flooded
+ * components (min-tree) with a union-find structure: when two components
+ * merge, the one with the shallowest minimum dies, and its dynamic is the
+ * difference between the current level and the value of its minimum. The
+ * deepest minimum never dies and has an infinite dynamic.
+ * </p>
+ *
+ * <p>
+ * Once computed, the extended minima for any dynamic <code>h</code> are the
+ * (extended) regions of the minima whose dynamic is strictly greater than
+ * <code>h</code>. Selecting them only requires a threshold on the table of
+ * dynamics, without any new reconstruction. The merge tree (for each minimum,
+ * the minimum it merges into) is also kept, and can be used for building the
+ * hierarchy of watershed basins.
+ * </p>
+ *
+ * Example of use:
+ * <pre><code>
+ * ImageProcessor image = IJ.getImage().getProcessor();
+ * RegionalMinimaDynamics algo = new RegionalMinimaDynamics(4);
+ * algo.process(image);
+ * for (int h = 5; h &lt; 50; h += 5)
+ * {
+ *     ImageStack markers = algo.createMarkers(h, 32);
+ *     ...
+ * }
+ * </code></pre>
+ *
+ * @see inra.ijpb.morphology.MinimaAndMaxima#extendedMinima(ImageProcessor, double, int)
+ * @see inra.ijpb.watershed.WatershedHierarchy
+ */
+public class RegionalMinimaDynamics extends AlgoStub
+{
+	// ==============================================================
+	// class variables
+
+	/** The connectivity, 4 or 8 for planar images, 6 or 26 for 3D images */
+	int connectivity;
+
+	/** image size */
+	int sizeX;
+	int sizeY;
+	int sizeZ;
+
+	/** the values of the image, in linear index order */
+	float[] values;
+
+	/**
+	 * For each pixel, the label of the minimum whose component contained the
+	 * pixel when it was flooded.
+	 */
+	int[] pixelLabels;
+
+	/** The number of regional minima */
+	int nMinima;
+
+	/** For each minimum (index = label), the value of the minimum */
+	double[] minValues;
+
+	/** For each minimum (index = label), the dynamic of the minimum */
+	double[] dynamics;
+
+	/**
+	 * For each minimum (index = label), the label of the minimum it merges
+	 * into, or 0 for the deepest minimum.
+	 */
+	int[] mergeParents;
+
+	/**
+	 * For each minimum (index = label), the rank of the merge event within the
+	 * flooding, used to order the nodes of the merge tree.
+	 */
+	int[] mergeRanks;
+
+	/** Union-find parents, on minima labels */
+	int[] ufParents;
+
+	// neighborhood offsets
+	int[] dx;
+	int[] dy;
+	int[] dz;
+
+
+	// ==============================================================
+	// Constructor
+
+	/**
+	 * Creates a new algorithm for computing dynamics of regional minima.
+	 *
+	 * @param connectivity
+	 *            the connectivity, either 4 or 8 for planar images, or 6 or 26
+	 *            for 3D images
+	 */
+	public RegionalMinimaDynamics(int connectivity)
+	{
+		this.connectivity = connectivity;
+	}
+
+
+	// ==============================================================
+	// Processing
+
+	/**
+	 * Computes the dynamics of the regional minima of a planar image.
+	 *
+	 * @param image
+	 *            the image to process
+	 */
+	public void process(ImageProcessor image)
+	{
+		ImageStack stack = new ImageStack(image.getWidth(), image.getHeight());
+		stack.addSlice(image);
+		process(stack);
+	}
+
+	/**
+	 * Computes the dynamics of the regional minima of a 3D image.
+	 *
+	 * @param image
+	 *            the image to process
+	 */
+	public void process(ImageStack image)
+	{
+		this.sizeX = image.getWidth();
+		this.sizeY = image.getHeight();
+		this.sizeZ = image.getSize();
+		createOffsets();
+
+		// copy image values
+		int sizeXY = sizeX * sizeY;
+		int n = sizeXY * sizeZ;
+		this.values = new float[n];
+		for (int z = 0; z < sizeZ; z++)
+		{
+			ImageProcessor slice = image.getProcessor(z + 1);
+			for (int i = 0; i < sizeXY; i++)
+			{
+				values[z * sizeXY + i] = slice.getf(i);
+			}
+		}
+
+		// sort pixel indices by increasing values, using keys that combine
+		// the sortable representation of the value and the index
+		fireStatusChanged(this, "Sort pixels");
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++)
+		{
+			keys[i] = (((long) sortableInt(values[i])) << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		// allocate data for minima
+		int capacity = 256;
+		this.minValues = new double[capacity];
+		this.dynamics = new double[capacity];
+		this.mergeParents = new int[capacity];
+		this.mergeRanks = new int[capacity];
+		this.ufParents = new int[capacity];
+		this.nMinima = 0;
+		int rank = 0;
+
+		this.pixelLabels = new int[n];
+		int[] queue = new int[n];
+		int[] roots = new int[dx.length];
+
+		fireStatusChanged(this, "Flood image");
+		int i0 = 0;
+		while (i0 < n)
+		{
+			fireProgressChanged(this, i0, n);
+
+			// identify the range of pixels with the same value
+			float level = values[(int) keys[i0]];
+			int i1 = i0 + 1;
+			while (i1 < n && values[(int) keys[i1]] == level)
+				i1++;
+
+			// first pass: propagate components already flooded
+			for (int i = i0; i < i1; i++)
+			{
+				int index = (int) keys[i];
+				if (pixelLabels[index] != 0 || !hasLabeledNeighbor(index))
+					continue;
+
+				int head = 0, tail = 0;
+				queue[tail++] = index;
+				pixelLabels[index] = -1;
+				while (head < tail)
+				{
+					int current = queue[head++];
+
+					// merge the components adjacent to current pixel
+					int nRoots = 0;
+					int x = current % sizeX;
+					int y = (current / sizeX) % sizeY;
+					int z = current / sizeXY;
+					for (int k = 0; k < dx.length; k++)
+					{
+						int x2 = x + dx[k], y2 = y + dy[k], z2 = z + dz[k];
+						if (x2 < 0 || x2 >= sizeX || y2 < 0 || y2 >= sizeY || z2 < 0 || z2 >= sizeZ)
+							continue;
+						int index2 = (z2 * sizeY + y2) * sizeX + x2;
+						int label2 = pixelLabels[index2];
+						if (label2 > 0)
+						{
+							int root = findRoot(label2);
+							boolean found = false;
+							for (int r = 0; r < nRoots; r++)
+							{
+								if (roots[r] == root)
+								{
+									found = true;
+									break;
+								}
+							}
+							if (!found)
+								roots[nRoots++] = root;
+						}
+						else if (label2 == 0 && values[index2] == level)
+						{
+							// enqueue plateau neighbor
+							pixelLabels[index2] = -1;
+							queue[tail++] = index2;
+						}
+					}
+
+					// choose the deepest component (smallest label for ties)
+					int deepest = roots[0];
+					for (int r = 1; r < nRoots; r++)
+					{
+						int root = roots[r];
+						if (minValues[root] < minValues[deepest]
+								|| (minValues[root] == minValues[deepest] && root < deepest))
+							deepest = root;
+					}
+
+					// the other components die at current level
+					for (int r = 0; r < nRoots; r++)
+					{
+						int root = roots[r];
+						if (root == deepest)
+							continue;
+						dynamics[root] = level - minValues[root];
+						mergeParents[root] = deepest;
+						mergeRanks[root] = rank++;
+						ufParents[root] = deepest;
+					}
+
+					pixelLabels[current] = deepest;
+				}
+			}
+
+			// second pass: remaining pixels belong to new regional minima
+			for (int i = i0; i < i1; i++)
+			{
+				int index = (int) keys[i];
+				if (pixelLabels[index] != 0)
+					continue;
+
+				// create a new minimum
+				if (nMinima + 1 >= minValues.length)
+				{
+					growArrays();
+				}
+				int label = ++nMinima;
+				minValues[label] = level;
+				dynamics[label] = Double.POSITIVE_INFINITY;
+				mergeParents[label] = 0;
+				mergeRanks[label] = Integer.MAX_VALUE;
+				ufParents[label] = label;
+
+				// flood the plateau of the minimum
+				int head = 0, tail = 0;
+				queue[tail++] = index;
+				pixelLabels[index] = label;
+				while (head < tail)
+				{
+					int current = queue[head++];
+					int x = current % sizeX;
+					int y = (current / sizeX) % sizeY;
+					int z = current / sizeXY;
+					for (int k = 0; k < dx.length; k++)
+					{
+						int x2 = x + dx[k], y2 = y + dy[k], z2 = z + dz[k];
+						if (x2 < 0 || x2 >= sizeX || y2 < 0 || y2 >= sizeY || z2 < 0 || z2 >= sizeZ)
+							continue;
+						int index2 = (z2 * sizeY + y2) * sizeX + x2;
+						if (pixelLabels[index2] == 0 && values[index2] == level)
+						{
+							pixelLabels[index2] = label;
+							queue[tail++] = index2;
+						}
+					}
+				}
+			}
+
+			i0 = i1;
+		}
+
+		fireProgressChanged(this, 1, 1);
+		fireStatusChanged(this, "");
+	}
+
+	private void createOffsets()
+	{
+		switch (connectivity)
+		{
+		case 4:
+			dx = new int[] { 0, -1, 1, 0 };
+			dy = new int[] { -1, 0, 0, 1 };
+			dz = new int[4];
+			break;
+		case 8:
+			dx = new int[] { -1, 0, 1, -1, 1, -1, 0, 1 };
+			dy = new int[] { -1, -1, -1, 0, 0, 1, 1, 1 };
+			dz = new int[8];
+			break;
+		case 6:
+			dx = new int[] { 0, 0, -1, 1, 0, 0 };
+			dy = new int[] { 0, -1, 0, 0, 1, 0 };
+			dz = new int[] { -1, 0, 0, 0, 0, 1 };
+			break;
+		case 26:
+			dx = new int[26];
+			dy = new int[26];
+			dz = new int[26];
+			int k = 0;
+			for (int z = -1; z <= 1; z++)
+			{
+				for (int y = -1; y <= 1; y++)
+				{
+					for (int x = -1; x <= 1; x++)
+					{
+						if (x == 0 && y == 0 && z == 0)
+							continue;
+						dx[k] = x;
+						dy[k] = y;
+						dz[k] = z;
+						k++;
+					}
+				}
+			}
+			break;
+		default:
+			throw new IllegalArgumentException(
+					"Connectivity must be 4, 8, 6 or 26, not " + connectivity);
+		}
+	}
+
+	private boolean hasLabeledNeighbor(int index)
+	{
+		int x = index % sizeX;
+		int y = (index / sizeX) % sizeY;
+		int z = index / (sizeX * sizeY);
+		for (int k = 0; k < dx.length; k++)
+		{
+			int x2 = x + dx[k], y2 = y + dy[k], z2 = z + dz[k];
+			if (x2 < 0 || x2 >= sizeX || y2 < 0 || y2 >= sizeY || z2 < 0 || z2 >= sizeZ)
+				continue;
+			if (pixelLabels[(z2 * sizeY + y2) * sizeX + x2] > 0)
+				return true;
+		}
+		return false;
+	}
+
+	private int findRoot(int label)
+	{
+		int root = label;
+		while (ufParents[root] != root)
+			root = ufParents[root];
+
+		// path compression
+		while (ufParents[label] != root)
+		{
+			int next = ufParents[label];
+			ufParents[label] = root;
+			label = next;
+		}
+		return root;
+	}
+
+	private void growArrays()
+	{
+		int capacity = minValues.length * 2;
+		minValues = Arrays.copyOf(minValues, capacity);
+		dynamics = Arrays.copyOf(dynamics, capacity);
+		mergeParents = Arrays.copyOf(mergeParents, capacity);
+		mergeRanks = Arrays.copyOf(mergeRanks, capacity);
+		ufParents = Arrays.copyOf(ufParents, capacity);
+	}
+
+	/**
+	 * Converts a float value into an int whose natural order is the same as
+	 * the order of float values.
+	 */
+	private static final int sortableInt(float value)
+	{
+		int bits = Float.floatToIntBits(value);
+		return bits >= 0 ? bits : bits ^ 0x7FFFFFFF;
+	}
+
+
+	// ==============================================================
+	// Access to results
+
+	/**
+	 * @return the number of regional minima
+	 */
+	public int getMinimaNumber()
+	{
+		return nMinima;
+	}
+
+	/**
+	 * Returns the dynamic of each regional minimum. The deepest minimum has an
+	 * infinite dynamic.
+	 *
+	 * @return the array of dynamics, indexed by minimum label (index 0 is not
+	 *         used)
+	 */
+	public double[] getDynamics()
+	{
+		return Arrays.copyOf(dynamics, nMinima + 1);
+	}
+
+	/**
+	 * @return the value of each regional minimum, indexed by minimum label
+	 *         (index 0 is not used)
+	 */
+	public double[] getMinimaValues()
+	{
+		return Arrays.copyOf(minValues, nMinima + 1);
+	}
+
+	/**
+	 * Returns the merge tree of the minima: for each minimum, the label of the
+	 * minimum whose component absorbed it during flooding, or 0 for the deepest
+	 * minimum.
+	 *
+	 * @return the array of parent labels, indexed by minimum label (index 0 is
+	 *         not used)
+	 */
+	public int[] getMergeParents()
+	{
+		return Arrays.copyOf(mergeParents, nMinima + 1);
+	}
+
+	/**
+	 * Computes the look-up table that associates to each regional minimum the
+	 * new label of the minimum, if its dynamic is greater than
+	 * <code>h</code>, or 0 otherwise. New labels are consecutive and start at
+	 * 1. The cost is proportional to the number of minima.
+	 *
+	 * @param h
+	 *            the threshold on dynamic
+	 * @return the look-up table, indexed by minimum label
+	 */
+	public int[] selectMinima(double h)
+	{
+		checkDynamic(h);
+		int[] lut = new int[nMinima + 1];
+		int label = 0;
+		for (int i = 1; i <= nMinima; i++)
+		{
+			if (dynamics[i] > h)
+				lut[i] = ++label;
+		}
+		return lut;
+	}
+
+	/**
+	 * Computes the look-up table that associates to each regional minimum the
+	 * new label of the first minimum within its ancestors (including itself)
+	 * whose dynamic is greater than <code>h</code>. This corresponds to the
+	 * merging of the catchment basins of the minima with dynamic lower than or
+	 * equal to <code>h</code>.
+	 *
+	 * The minima at the root of the merge tree are always kept, even when
+	 * their dynamic is not greater than <code>h</code> (for example when
+	 * <code>h</code> is infinite). They receive labels after the labels of the
+	 * selected minima.
+	 *
+	 * @param h
+	 *            the threshold on dynamic
+	 * @return the look-up table, indexed by minimum label
+	 */
+	public int[] mergeMinima(double h)
+	{
+		int[] lut = selectMinima(h);
+		int nLabels = 0;
+		for (int label : lut)
+			nLabels = Math.max(nLabels, label);
+
+		for (int i = 1; i <= nMinima; i++)
+		{
+			// climb the merge tree until a selected minimum or the root
+			int label = i;
+			while (lut[label] == 0 && mergeParents[label] != 0)
+				label = mergeParents[label];
+			if (lut[label] == 0)
+				lut[label] = ++nLabels;
+			lut[i] = lut[label];
+		}
+		return lut;
+	}
+
+	private static final void checkDynamic(double h)
+	{
+		if (Double.isNaN(h))
+			throw new IllegalArgumentException("Dynamic threshold must be a number");
+	}
+
+	/**
+	 * Computes the smallest dynamic threshold for which the catchment basins
+	 * of the two minima are merged.
+	 *
+	 * @param label1
+	 *            the label of the first minimum
+	 * @param label2
+	 *            the label of the second minimum
+	 * @return the merge level of the two minima, or 0 if the labels are the
+	 *         same
+	 */
+	public double mergeLevel(int label1, int label2)
+	{
+		// climb the merge tree by increasing merge rank until common ancestor
+		double level = 0;
+		while (label1 != label2)
+		{
+			if (mergeRanks[label1] < mergeRanks[label2])
+			{
+				level = Math.max(level, dynamics[label1]);
+				label1 = mergeParents[label1];
+			}
+			else
+			{
+				level = Math.max(level, dynamics[label2]);
+				label2 = mergeParents[label2];
+			}
+		}
+		return level;
+	}
+
+	/**
+	 * Creates the label image of all regional minima. Labels correspond to the
+	 * indices used in the tables of dynamics.
+	 *
+	 * @return the label image of regional minima, as a 32-bit stack
+	 */
+	public ImageStack getMinimaLabels()
+	{
+		int[] lut = new int[nMinima + 1];
+		for (int i = 1; i <= nMinima; i++)
+			lut[i] = i;
+		return createLabelImage(lut, 32);
+	}
+
+	/**
+	 * Creates the label image of the regional minima whose dynamic is
+	 * greater than <code>h</code>. These minima can be used as markers for a
+	 * watershed. The cost of minima selection is proportional to the number
+	 * of minima.
+	 *
+	 * Note that the markers correspond to the regional minima of the original
+	 * image, whereas the extended minima computed by reconstruction also
+	 * contain the neighbor pixels located less than <code>h</code> above the
+	 * minimum. Both sets contain the same number of components.
+	 *
+	 * @param h
+	 *            the threshold on dynamic
+	 * @param bitDepth
+	 *            the bit depth of the result (8, 16 or 32)
+	 * @return the label image of the selected minima
+	 */
+	public ImageStack createMarkers(double h, int bitDepth)
+	{
+		return createLabelImage(selectMinima(h), bitDepth);
+	}
+
+	private ImageStack createLabelImage(int[] lut, int bitDepth)
+	{
+		ImageStack result = ImageStack.create(sizeX, sizeY, sizeZ, bitDepth);
+		int sizeXY = sizeX * sizeY;
+		for (int z = 0; z < sizeZ; z++)
+		{
+			ImageProcessor slice = result.getProcessor(z + 1);
+			for (int i = 0; i < sizeXY; i++)
+			{
+				int index = z * sizeXY + i;
+				int label = pixelLabels[index];
+				if (values[index] == minValues[label])
+					slice.setf(i, lut[label]);
+			}
+		}
+		return result;
+	}
+}
@@ -79,6 +79,13 @@ public class ExternalGradient extends MorphologicalFilter
             return this.processColor((ColorProcessor) image);
         }
 
+        // rectangular strels: compute dilation within one sweep
+        MinMaxSweep sweep = MinMaxSweep.create(strel, true, false);
+        if (sweep != null)
+        {
+            return processSweep(image, sweep);
+        }
+
         // First performs dilation and erosion
         ImageProcessor result = new Dilation(strel).process(image);
 
@@ -113,6 +120,13 @@ public class ExternalGradient extends MorphologicalFilter
     @Override
     public ImageStack process(ImageStack image)
     {
+        // rectangular strels: compute dilation within one sweep
+        MinMaxSweep sweep = MinMaxSweep.create(strel, true, false);
+        if (sweep != null)
+        {
+            return processSweep(image, sweep);
+        }
+        
         // First performs dilation and erosion
         ImageStack result = new Dilation(strel).process(image);
         
@@ -140,4 +154,76 @@ public class ExternalGradient extends MorphologicalFilter
         result.setColorModel(image.getColorModel());
         return result;
     }
+    
+    /**
+     * Computes the external gradient from the local maxima obtained within a single
+     * sweep, avoiding the allocation of the dilated image.
+     */
+    private ImageProcessor processSweep(final ImageProcessor image, MinMaxSweep sweep)
+    {
+        final ImageProcessor result = image.duplicate();
+        final boolean isByte = image instanceof ByteProcessor;
+        final int sizeX = image.getWidth();
+        
+        sweep.process(image, new MinMaxSweep.RowConsumer()
+        {
+            @Override
+            public void process(int y, int z, float[] maxValues, float[] minValues)
+            {
+                int offset = y * sizeX;
+                for (int x = 0; x < sizeX; x++)
+                {
+                    int i = offset + x;
+                    if (isByte)
+                    {
+                        int v1 = (int) maxValues[x];
+                        int v2 = image.get(i);
+                        result.set(i, clamp(v1 - v2, 0, 255));
+                    }
+                    else
+                    {
+                        float v1 = maxValues[x];
+                        float v2 = image.getf(i);
+                        result.setf(i, v1 - v2);
+                    }
+                }
+            }
+        });
+        
+        result.setColorModel(image.getColorModel());
+        return result;
+    }
+    
+    /**
+     * Computes the external gradient from the local maxima obtained within a single
+     * sweep, avoiding the allocation of the dilated image.
+     */
+    private ImageStack processSweep(final ImageStack image, MinMaxSweep sweep)
+    {
+        final ImageStack result = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        final double maxVal = getMaxPossibleValue(image);
+        final int sizeX = image.getWidth();
+        final float[] values = new float[sizeX];
+        final double[] row = new double[sizeX];
+        
+        sweep.process(image, new MinMaxSweep.RowConsumer()
+        {
+            @Override
+            public void process(int y, int z, float[] maxValues, float[] minValues)
+            {
+                int offset = y * sizeX;
+                MinMaxSweep.readRow(image.getPixels(z + 1), offset, values);
+                for (int x = 0; x < sizeX; x++)
+                {
+                    double v1 = maxValues[x];
+                    double v2 = values[x];
+                    row[x] = min(max(v1 - v2, 0), maxVal);
+                }
+                MinMaxSweep.writeRow(row, result.getPixels(z + 1), offset);
+            }
+        });
+        
+        result.setColorModel(image.getColorModel());
+        return result;
+    }
 }
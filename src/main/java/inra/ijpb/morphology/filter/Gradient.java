@@ -76,6 +76,13 @@ public class Gradient extends MorphologicalFilter
             return this.processColor((ColorProcessor) image);
         }
 
+        // rectangular strels: compute dilation and erosion within one sweep
+        MinMaxSweep sweep = MinMaxSweep.create(strel);
+        if (sweep != null)
+        {
+            return processSweep(image, sweep);
+        }
+
         // First performs dilation and erosion
         ImageProcessor result = new Dilation(strel).process(image);
         ImageProcessor eroded = new Erosion(strel).process(image);
@@ -113,6 +120,13 @@ public class Gradient extends MorphologicalFilter
     @Override
     public ImageStack process(ImageStack image)
     {
+        // rectangular strels: compute dilation and erosion within one sweep
+        MinMaxSweep sweep = MinMaxSweep.create(strel);
+        if (sweep != null)
+        {
+            return processSweep(image, sweep);
+        }
+        
         // First performs dilation and erosion
         ImageStack result = new Dilation(strel).process(image);
         ImageStack eroded = new Erosion(strel).process(image);
@@ -144,5 +158,72 @@ public class Gradient extends MorphologicalFilter
         result.setColorModel(image.getColorModel());
         return result;
     }
-
+    
+    /**
+     * Computes the gradient from the local maxima and minima obtained within
+     * a single sweep, avoiding the allocation of the dilated and eroded
+     * images.
+     */
+    private ImageProcessor processSweep(ImageProcessor image, MinMaxSweep sweep)
+    {
+        final ImageProcessor result = image.duplicate();
+        final boolean isByte = image instanceof ByteProcessor;
+        final int sizeX = image.getWidth();
+        
+        sweep.process(image, new MinMaxSweep.RowConsumer()
+        {
+            @Override
+            public void process(int y, int z, float[] maxValues, float[] minValues)
+            {
+                int offset = y * sizeX;
+                for (int x = 0; x < sizeX; x++)
+                {
+                    if (isByte)
+                    {
+                        int v1 = (int) maxValues[x];
+                        int v2 = (int) minValues[x];
+                        result.set(offset + x, clamp(v1 - v2, 0, 255));
+                    }
+                    else
+                    {
+                        result.setf(offset + x, maxValues[x] - minValues[x]);
+                    }
+                }
+            }
+        });
+        
+        result.setColorModel(image.getColorModel());
+        return result;
+    }
+    
+    /**
+     * Computes the gradient from the local maxima and minima obtained within
+     * a single sweep, avoiding the allocation of the dilated and eroded
+     * images.
+     */
+    private ImageStack processSweep(ImageStack image, MinMaxSweep sweep)
+    {
+        final ImageStack result = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        final double maxVal = getMaxPossibleValue(image);
+        final int sizeX = image.getWidth();
+        final double[] row = new double[sizeX];
+        
+        sweep.process(image, new MinMaxSweep.RowConsumer()
+        {
+            @Override
+            public void process(int y, int z, float[] maxValues, float[] minValues)
+            {
+                for (int x = 0; x < sizeX; x++)
+                {
+                    double v1 = maxValues[x];
+                    double v2 = minValues[x];
+                    row[x] = min(max(v1 - v2, 0), maxVal);
+                }
+                MinMaxSweep.writeRow(row, result.getPixels(z + 1), y * sizeX);
+            }
+        });
+        
+        result.setColorModel(image.getColorModel());
+        return result;
+    }
 }
@@ -78,6 +78,13 @@ public class InternalGradient extends MorphologicalFilter
             return this.processColor((ColorProcessor) image);
         }
 
+        // rectangular strels: compute erosion within one sweep
+        MinMaxSweep sweep = MinMaxSweep.create(strel, false, true);
+        if (sweep != null)
+        {
+            return processSweep(image, sweep);
+        }
+
         // First performs dilation and erosion
         ImageProcessor result = new Erosion(strel).process(image);
 
@@ -112,6 +119,13 @@ public class InternalGradient extends MorphologicalFilter
     @Override
     public ImageStack process(ImageStack image)
     {
+        // rectangular strels: compute erosion within one sweep
+        MinMaxSweep sweep = MinMaxSweep.create(strel, false, true);
+        if (sweep != null)
+        {
+            return processSweep(image, sweep);
+        }
+        
         // First performs dilation and erosion
         ImageStack result = new Erosion(strel).process(image);
         
@@ -139,4 +153,76 @@ public class InternalGradient extends MorphologicalFilter
         result.setColorModel(image.getColorModel());
         return result;
     }
+    
+    /**
+     * Computes the internal gradient from the local minima obtained within a single
+     * sweep, avoiding the allocation of the eroded image.
+     */
+    private ImageProcessor processSweep(final ImageProcessor image, MinMaxSweep sweep)
+    {
+        final ImageProcessor result = image.duplicate();
+        final boolean isByte = image instanceof ByteProcessor;
+        final int sizeX = image.getWidth();
+        
+        sweep.process(image, new MinMaxSweep.RowConsumer()
+        {
+            @Override
+            public void process(int y, int z, float[] maxValues, float[] minValues)
+            {
+                int offset = y * sizeX;
+                for (int x = 0; x < sizeX; x++)
+                {
+                    int i = offset + x;
+                    if (isByte)
+                    {
+                        int v1 = image.get(i);
+                        int v2 = (int) minValues[x];
+                        result.set(i, clamp(v1 - v2, 0, 255));
+                    }
+                    else
+                    {
+                        float v1 = image.getf(i);
+                        float v2 = minValues[x];
+                        result.setf(i, v1 - v2);
+                    }
+                }
+            }
+        });
+        
+        result.setColorModel(image.getColorModel());
+        return result;
+    }
+    
+    /**
+     * Computes the internal gradient from the local minima obtained within a single
+     * sweep, avoiding the allocation of the eroded image.
+     */
+    private ImageStack processSweep(final ImageStack image, MinMaxSweep sweep)
+    {
+        final ImageStack result = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        final double maxVal = getMaxPossibleValue(image);
+        final int sizeX = image.getWidth();
+        final float[] values = new float[sizeX];
+        final double[] row = new double[sizeX];
+        
+        sweep.process(image, new MinMaxSweep.RowConsumer()
+        {
+            @Override
+            public void process(int y, int z, float[] maxValues, float[] minValues)
+            {
+                int offset = y * sizeX;
+                MinMaxSweep.readRow(image.getPixels(z + 1), offset, values);
+                for (int x = 0; x < sizeX; x++)
+                {
+                    double v1 = values[x];
+                    double v2 = minValues[x];
+                    row[x] = min(max(v1 - v2, 0), maxVal);
+                }
+                MinMaxSweep.writeRow(row, result.getPixels(z + 1), offset);
+            }
+        });
+        
+        result.setColorModel(image.getColorModel());
+        return result;
+    }
 }
@@ -80,6 +80,13 @@ public class Laplacian extends MorphologicalFilter
             return this.processColor((ColorProcessor) image);
         }
 
+        // rectangular strels: compute dilation and erosion within one sweep
+        MinMaxSweep sweep = MinMaxSweep.create(strel);
+        if (sweep != null)
+        {
+            return processSweep(image, sweep);
+        }
+
         // First performs dilation and erosion
         ImageProcessor outer = new ExternalGradient(strel).process(image);
         ImageProcessor inner = new InternalGradient(strel).process(image);
@@ -118,6 +125,13 @@ public class Laplacian extends MorphologicalFilter
     @Override
     public ImageStack process(ImageStack image)
     {
+        // rectangular strels: compute dilation and erosion within one sweep
+        MinMaxSweep sweep = MinMaxSweep.create(strel);
+        if (sweep != null)
+        {
+            return processSweep(image, sweep);
+        }
+        
         // First performs dilation and erosion
         ImageStack outer = new ExternalGradient(strel).process(image);
         ImageStack inner = new InternalGradient(strel).process(image);
@@ -154,4 +168,89 @@ public class Laplacian extends MorphologicalFilter
         outer.setColorModel(image.getColorModel());
         return outer;
     }
+    
+    /**
+     * Computes the laplacian from the local maxima and minima obtained within
+     * a single sweep, avoiding the allocation of the intermediate gradient
+     * images.
+     */
+    private ImageProcessor processSweep(final ImageProcessor image, MinMaxSweep sweep)
+    {
+        final ImageProcessor result = image.duplicate();
+        final boolean isByte = image instanceof ByteProcessor;
+        final int sizeX = image.getWidth();
+        
+        sweep.process(image, new MinMaxSweep.RowConsumer()
+        {
+            @Override
+            public void process(int y, int z, float[] maxValues, float[] minValues)
+            {
+                int offset = y * sizeX;
+                for (int x = 0; x < sizeX; x++)
+                {
+                    int i = offset + x;
+                    if (isByte)
+                    {
+                        int v = image.get(i);
+                        int v1 = clamp((int) maxValues[x] - v, 0, 255);
+                        int v2 = clamp(v - (int) minValues[x], 0, 255);
+                        result.set(i, clamp(v1 - v2 + 128, 0, 255));
+                    }
+                    else
+                    {
+                        float v = image.getf(i);
+                        float v1 = maxValues[x] - v;
+                        float v2 = v - minValues[x];
+                        result.setf(i, v1 - v2);
+                    }
+                }
+            }
+        });
+        
+        result.setColorModel(image.getColorModel());
+        return result;
+    }
+    
+    /**
+     * Computes the laplacian from the local maxima and minima obtained within
+     * a single sweep, avoiding the allocation of the intermediate gradient
+     * images.
+     */
+    private ImageStack processSweep(final ImageStack image, MinMaxSweep sweep)
+    {
+        final ImageStack result = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        final double maxVal = getMaxPossibleValue(image);
+        final boolean isFloat = image.getBitDepth() == 32;
+        final double midVal = isFloat ? 0.0 : maxVal / 2;
+        final int sizeX = image.getWidth();
+        final float[] values = new float[sizeX];
+        final double[] row = new double[sizeX];
+        
+        sweep.process(image, new MinMaxSweep.RowConsumer()
+        {
+            @Override
+            public void process(int y, int z, float[] maxValues, float[] minValues)
+            {
+                int offset = y * sizeX;
+                MinMaxSweep.readRow(image.getPixels(z + 1), offset, values);
+                for (int x = 0; x < sizeX; x++)
+                {
+                    double v = values[x];
+                    double v1 = min(max(maxValues[x] - v, 0), maxVal);
+                    double v2 = min(max(v - minValues[x], 0), maxVal);
+                    if (isFloat)
+                    {
+                        // gradients are stored as floats by the generic computation
+                        v1 = (float) v1;
+                        v2 = (float) v2;
+                    }
+                    row[x] = min(max(v1 - v2 + midVal, 0), maxVal);
+                }
+                MinMaxSweep.writeRow(row, result.getPixels(z + 1), offset);
+            }
+        });
+        
+        result.setColorModel(image.getColorModel());
+        return result;
+    }
 }
@@ -0,0 +1,765 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.morphology.filter;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel3D;
+import inra.ijpb.morphology.strel.LinearDepthStrel3D;
+import inra.ijpb.morphology.strel.LinearHorizontalStrel;
+import inra.ijpb.morphology.strel.LinearVerticalStrel;
+import inra.ijpb.morphology.strel.SeparableStrel;
+import inra.ijpb.morphology.strel.SeparableStrel3D;
+
+/**
+ * Computes the dilation and/or the erosion of an image by a rectangular
+ * structuring element within the same sweep over the image, without
+ * allocating the dilated and eroded images.
+ * 
+ * The local maxima and minima are computed along each direction with the
+ * van Herk/Gil-Werman algorithm: the values are split into blocks with the
+ * size of the structuring element, and the extremum over a neighborhood is
+ * obtained from the running extrema computed forward and backward within
+ * the blocks. This requires three comparisons per value and per direction,
+ * whatever the size of the structuring element. Along the y and z
+ * directions, only the rows (or slices) of the current block are kept
+ * within ring buffers. The maxima and minima of each output row are then
+ * passed to a RowConsumer, that can combine them with the input image to
+ * write the result of a composite operator directly.
+ * 
+ * As for the linear structuring elements, the neighborhood of the pixels
+ * close to the image borders is restricted to the pixels within the image.
+ * 
+ * @see Gradient
+ * @see Laplacian
+ * @see InternalGradient
+ * @see ExternalGradient
+ * 
+ * @author dlegland
+ */
+class MinMaxSweep
+{
+    // =======================================================================
+    // Static methods
+    
+    /**
+     * Creates a new sweep computing both the maxima and the minima for the
+     * specified structuring element, if it is a rectangular structuring
+     * element.
+     * 
+     * @see #create(Strel3D, boolean, boolean)
+     * 
+     * @param strel
+     *            the structuring element
+     * @return a new sweep with same size and offset as the structuring
+     *         element, or null if the structuring element is not rectangular.
+     */
+    static MinMaxSweep create(Strel3D strel)
+    {
+        return create(strel, true, true);
+    }
+    
+    /**
+     * Creates a new sweep for the specified structuring element, if it is a
+     * rectangular structuring element, that is either a linear structuring
+     * element along one of the image axes, or a separable structuring element
+     * that decomposes into such linear structuring elements.
+     * 
+     * @param strel
+     *            the structuring element
+     * @param maxima
+     *            true if the local maxima (dilation) must be computed
+     * @param minima
+     *            true if the local minima (erosion) must be computed
+     * @return a new sweep with same size and offset as the structuring
+     *         element, or null if the structuring element is not rectangular.
+     */
+    static MinMaxSweep create(Strel3D strel, boolean maxima, boolean minima)
+    {
+        Collection<?> strels;
+        if (strel instanceof SeparableStrel)
+        {
+            strels = ((SeparableStrel) strel).decompose();
+        }
+        else if (strel instanceof SeparableStrel3D)
+        {
+            strels = ((SeparableStrel3D) strel).decompose();
+        }
+        else
+        {
+            strels = Collections.singleton(strel);
+        }
+        
+        int[] sizes = new int[] {1, 1, 1};
+        int[] offsets = new int[] {0, 0, 0};
+        boolean[] found = new boolean[3];
+        for (Object item : strels)
+        {
+            int dim;
+            if (item instanceof LinearHorizontalStrel)
+            {
+                dim = 0;
+            }
+            else if (item instanceof LinearVerticalStrel)
+            {
+                dim = 1;
+            }
+            else if (item instanceof LinearDepthStrel3D)
+            {
+                dim = 2;
+            }
+            else
+            {
+                return null;
+            }
+            
+            if (found[dim])
+            {
+                return null;
+            }
+            found[dim] = true;
+            
+            // linear strels have a size and an offset along their direction
+            Strel3D linear = (Strel3D) item;
+            int[] size = linear.getSize();
+            int[] offset = linear.getOffset();
+            sizes[dim] = size[dim];
+            offsets[dim] = offset[dim];
+        }
+        
+        return new MinMaxSweep(sizes, offsets, maxima, minima);
+    }
+    
+    /**
+     * Copies the values of a row of a stack slice into an array, converting
+     * them as the <code>getVoxel</code> method of ImageStack.
+     * 
+     * @param pixels
+     *            the pixel array of the slice
+     * @param offset
+     *            the index of the first value of the row within the slice
+     * @param values
+     *            the array to fill with the values of the row
+     */
+    static void readRow(Object pixels, int offset, float[] values)
+    {
+        if (pixels instanceof byte[])
+        {
+            byte[] array = (byte[]) pixels;
+            for (int x = 0; x < values.length; x++)
+            {
+                values[x] = array[offset + x] & 0x00FF;
+            }
+        }
+        else if (pixels instanceof short[])
+        {
+            short[] array = (short[]) pixels;
+            for (int x = 0; x < values.length; x++)
+            {
+                values[x] = array[offset + x] & 0x00FFFF;
+            }
+        }
+        else if (pixels instanceof float[])
+        {
+            System.arraycopy((float[]) pixels, offset, values, 0, values.length);
+        }
+        else if (pixels instanceof int[])
+        {
+            int[] array = (int[]) pixels;
+            for (int x = 0; x < values.length; x++)
+            {
+                values[x] = array[offset + x];
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("Can not process pixel arrays with class: " + pixels.getClass().getName());
+        }
+    }
+    
+    /**
+     * Copies the values of an array into a row of a stack slice, converting
+     * them as the <code>setVoxel</code> method of ImageStack: the values are
+     * clamped and rounded for integer images.
+     * 
+     * @param values
+     *            the values of the row
+     * @param pixels
+     *            the pixel array of the slice
+     * @param offset
+     *            the index of the first value of the row within the slice
+     */
+    static void writeRow(double[] values, Object pixels, int offset)
+    {
+        if (pixels instanceof byte[])
+        {
+            byte[] array = (byte[]) pixels;
+            for (int x = 0; x < values.length; x++)
+            {
+                double v = values[x];
+                v = v > 255.0 ? 255.0 : (v < 0.0 ? 0.0 : v);
+                array[offset + x] = (byte) (v + 0.5);
+            }
+        }
+        else if (pixels instanceof short[])
+        {
+            short[] array = (short[]) pixels;
+            for (int x = 0; x < values.length; x++)
+            {
+                double v = values[x];
+                v = v > 65535.0 ? 65535.0 : (v < 0.0 ? 0.0 : v);
+                array[offset + x] = (short) (v + 0.5);
+            }
+        }
+        else if (pixels instanceof float[])
+        {
+            float[] array = (float[]) pixels;
+            for (int x = 0; x < values.length; x++)
+            {
+                array[offset + x] = (float) values[x];
+            }
+        }
+        else if (pixels instanceof int[])
+        {
+            int[] array = (int[]) pixels;
+            for (int x = 0; x < values.length; x++)
+            {
+                array[offset + x] = (int) values[x];
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("Can not process pixel arrays with class: " + pixels.getClass().getName());
+        }
+    }
+    
+    
+    // =======================================================================
+    // Class members
+    
+    /**
+     * The size of the structuring element in each dimension.
+     */
+    final int[] sizes;
+    
+    /**
+     * The position of the reference pixel within the structuring element, in
+     * each dimension.
+     */
+    final int[] offsets;
+    
+    /**
+     * Whether the local maxima are computed.
+     */
+    final boolean maxima;
+    
+    /**
+     * Whether the local minima are computed.
+     */
+    final boolean minima;
+    
+    
+    // =======================================================================
+    // Constructor
+    
+    private MinMaxSweep(int[] sizes, int[] offsets, boolean maxima, boolean minima)
+    {
+        this.sizes = sizes;
+        this.offsets = offsets;
+        this.maxima = maxima;
+        this.minima = minima;
+    }
+    
+    
+    // =======================================================================
+    // Methods
+    
+    /**
+     * Computes the local maxima and/or minima of the rows of a planar image,
+     * and sends them to the consumer in increasing row order.
+     * 
+     * @param image
+     *            the (grayscale) image to process
+     * @param consumer
+     *            the consumer of the local extrema of each row
+     */
+    public void process(ImageProcessor image, RowConsumer consumer)
+    {
+        if (sizes[2] != 1)
+        {
+            throw new IllegalArgumentException("Processing 2D image requires a 2D structuring element");
+        }
+        new PlaneSweep(image.getWidth(), image.getHeight()).process(image, 0, consumer);
+    }
+    
+    /**
+     * Computes the local maxima and/or minima of the rows of a 3D image, and
+     * sends them to the consumer in increasing slice and row order.
+     * 
+     * @param image
+     *            the (grayscale) image to process
+     * @param consumer
+     *            the consumer of the local extrema of each row
+     */
+    public void process(ImageStack image, RowConsumer consumer)
+    {
+        final int sizeX = image.getWidth();
+        int sizeY = image.getHeight();
+        int sizeZ = image.getSize();
+        PlaneSweep planeSweep = new PlaneSweep(sizeX, sizeY);
+        
+        // planar structuring element: process each slice independently
+        if (sizes[2] == 1)
+        {
+            for (int z = 0; z < sizeZ; z++)
+            {
+                planeSweep.process(image.getProcessor(z + 1), z, consumer);
+            }
+            return;
+        }
+        
+        // streams of the planar extrema of the slices
+        final BlockStream maxStream = maxima ? new BlockStream(sizes[2], sizeZ, sizeX * sizeY, true) : null;
+        final BlockStream minStream = minima ? new BlockStream(sizes[2], sizeZ, sizeX * sizeY, false) : null;
+        float[] maxValues = maxima ? new float[sizeX] : null;
+        float[] minValues = minima ? new float[sizeX] : null;
+        
+        for (int z = 0; z < sizeZ; z++)
+        {
+            // compute the planar extrema of the slice entering the neighborhood
+            final float[] maxSlice = maxima ? maxStream.input(z) : null;
+            final float[] minSlice = minima ? minStream.input(z) : null;
+            planeSweep.process(image.getProcessor(z + 1), z, new RowConsumer()
+            {
+                @Override
+                public void process(int y, int slice, float[] rowMax, float[] rowMin)
+                {
+                    if (rowMax != null)
+                    {
+                        System.arraycopy(rowMax, 0, maxSlice, y * sizeX, sizeX);
+                    }
+                    if (rowMin != null)
+                    {
+                        System.arraycopy(rowMin, 0, minSlice, y * sizeX, sizeX);
+                    }
+                }
+            });
+            if (maxima)
+            {
+                maxStream.push(z);
+            }
+            if (minima)
+            {
+                minStream.push(z);
+            }
+            
+            // process the slices whose neighborhood ends with current slice
+            int[] range = outputRange(z, sizeZ, 2);
+            for (int z2 = range[0]; z2 <= range[1]; z2++)
+            {
+                int first = Math.max(z2 - offsets[2], 0);
+                for (int y = 0; y < sizeY; y++)
+                {
+                    if (maxima)
+                    {
+                        maxStream.extrema(first, y * sizeX, maxValues);
+                    }
+                    if (minima)
+                    {
+                        minStream.extrema(first, y * sizeX, minValues);
+                    }
+                    consumer.process(y, z2, maxValues, minValues);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the first and last positions whose neighborhood along the
+     * specified dimension ends with the specified position, that is the
+     * positions whose extrema can be computed once the values at the
+     * specified position are known.
+     */
+    private int[] outputRange(int index, int count, int dim)
+    {
+        // shift between reference position and last position
+        int shift = sizes[dim] - offsets[dim] - 1;
+        int first = Math.max(index - shift, 0);
+        int last = index < count - 1 ? index - shift : count - 1;
+        return new int[] {first, last};
+    }
+    
+    /**
+     * Computes the local maxima of an array of values, using the van
+     * Herk/Gil-Werman algorithm.
+     * 
+     * @param values
+     *            the input values
+     * @param size
+     *            the size of the neighborhood
+     * @param offset
+     *            the position of the reference value within the neighborhood
+     * @param forward
+     *            the buffer for the running maxima from the beginning of
+     *            each block
+     * @param backward
+     *            the buffer for the running maxima from the end of each
+     *            block
+     * @param result
+     *            the array to fill with the local maxima
+     */
+    private static final void runningMax(float[] values, int size, int offset, float[] forward, float[] backward, float[] result)
+    {
+        int n = values.length;
+        for (int start = 0; start < n; start += size)
+        {
+            int end = Math.min(start + size, n) - 1;
+            forward[start] = values[start];
+            for (int i = start + 1; i <= end; i++)
+            {
+                float v = values[i];
+                forward[i] = v > forward[i - 1] ? v : forward[i - 1];
+            }
+            backward[end] = values[end];
+            for (int i = end - 1; i >= start; i--)
+            {
+                float v = values[i];
+                backward[i] = v > backward[i + 1] ? v : backward[i + 1];
+            }
+        }
+        
+        int shift = size - offset - 1;
+        for (int i = 0; i < n; i++)
+        {
+            int first = Math.max(i - offset, 0);
+            int last = Math.min(i + shift, n - 1);
+            int blockStart = last - last % size;
+            if (first < blockStart)
+            {
+                float v1 = backward[first];
+                float v2 = forward[last];
+                result[i] = v1 > v2 ? v1 : v2;
+            }
+            else
+            {
+                // neighborhood within a single block, truncated by image border
+                result[i] = first == blockStart ? forward[last] : backward[first];
+            }
+        }
+    }
+    
+    /**
+     * Computes the local minima of an array of values, using the van
+     * Herk/Gil-Werman algorithm.
+     * 
+     * @see #runningMax(float[], int, int, float[], float[], float[])
+     */
+    private static final void runningMin(float[] values, int size, int offset, float[] forward, float[] backward, float[] result)
+    {
+        int n = values.length;
+        for (int start = 0; start < n; start += size)
+        {
+            int end = Math.min(start + size, n) - 1;
+            forward[start] = values[start];
+            for (int i = start + 1; i <= end; i++)
+            {
+                float v = values[i];
+                forward[i] = v < forward[i - 1] ? v : forward[i - 1];
+            }
+            backward[end] = values[end];
+            for (int i = end - 1; i >= start; i--)
+            {
+                float v = values[i];
+                backward[i] = v < backward[i + 1] ? v : backward[i + 1];
+            }
+        }
+        
+        int shift = size - offset - 1;
+        for (int i = 0; i < n; i++)
+        {
+            int first = Math.max(i - offset, 0);
+            int last = Math.min(i + shift, n - 1);
+            int blockStart = last - last % size;
+            if (first < blockStart)
+            {
+                float v1 = backward[first];
+                float v2 = forward[last];
+                result[i] = v1 < v2 ? v1 : v2;
+            }
+            else
+            {
+                // neighborhood within a single block, truncated by image border
+                result[i] = first == blockStart ? forward[last] : backward[first];
+            }
+        }
+    }
+    
+    
+    // =======================================================================
+    // Inner classes
+    
+    /**
+     * Processes the local extrema computed for each row of the image.
+     */
+    interface RowConsumer
+    {
+        /**
+         * Processes the local extrema of a row. The arrays are reused for the
+         * next rows, and should not be kept by the consumer.
+         * 
+         * @param y
+         *            the index of the row
+         * @param z
+         *            the index of the slice containing the row (0 for planar
+         *            images)
+         * @param maxValues
+         *            the local maxima of the row, corresponding to the
+         *            dilation, or null if the maxima are not computed
+         * @param minValues
+         *            the local minima of the row, corresponding to the
+         *            erosion, or null if the minima are not computed
+         */
+        public void process(int y, int z, float[] maxValues, float[] minValues);
+    }
+    
+    /**
+     * Combines the successive arrays of a stream (the rows of a plane, or the
+     * slices of a stack) with the van Herk/Gil-Werman algorithm.
+     * 
+     * The arrays of the current block are stored within a ring buffer,
+     * together with the running extremum from the beginning of the block.
+     * When a block is complete, its arrays are replaced by the running
+     * extrema from the end of the block. As a neighborhood can not be larger
+     * than a block, the arrays of the previous block that are overwritten by
+     * the current block are not needed anymore.
+     */
+    private static class BlockStream
+    {
+        /** the size of the blocks */
+        final int size;
+        
+        /** the number of arrays within the stream */
+        final int count;
+        
+        /** true for computing maxima, false for computing minima */
+        final boolean max;
+        
+        /** the ring buffer containing the arrays of the block */
+        final float[][] buffers;
+        
+        /** the running extremum from the beginning of the current block */
+        final float[] forward;
+        
+        /** the index of the last array pushed into the stream */
+        int current = -1;
+        
+        BlockStream(int size, int count, int length, boolean max)
+        {
+            this.size = size;
+            this.count = count;
+            this.max = max;
+            this.buffers = new float[size][length];
+            this.forward = new float[length];
+        }
+        
+        /**
+         * Returns the array that must be filled with the values at the
+         * specified position before calling the push method.
+         */
+        float[] input(int index)
+        {
+            return buffers[index % size];
+        }
+        
+        /**
+         * Updates the running extrema with the array at the specified
+         * position, that must be the position following the last one.
+         */
+        void push(int index)
+        {
+            int pos = index % size;
+            float[] array = buffers[pos];
+            if (pos == 0)
+            {
+                System.arraycopy(array, 0, forward, 0, forward.length);
+            }
+            else
+            {
+                combine(forward, array, 0, forward);
+            }
+            
+            // once the block is complete, compute backward running extrema
+            if (pos == size - 1 || index == count - 1)
+            {
+                for (int i = pos - 1; i >= 0; i--)
+                {
+                    combine(buffers[i], buffers[i + 1], 0, buffers[i]);
+                }
+            }
+            current = index;
+        }
+        
+        /**
+         * Computes the extrema over the neighborhood from the specified
+         * position to the last pushed position, for the values starting at
+         * the specified offset within the arrays.
+         */
+        void extrema(int first, int offset, float[] result)
+        {
+            int blockStart = current - current % size;
+            if (first < blockStart)
+            {
+                combine(buffers[first % size], forward, offset, result);
+            }
+            else if (first == blockStart)
+            {
+                System.arraycopy(forward, offset, result, 0, result.length);
+            }
+            else
+            {
+                // neighborhood within a single block, truncated by image border
+                System.arraycopy(buffers[first % size], offset, result, 0, result.length);
+            }
+        }
+        
+        /**
+         * Computes the extrema of the two arrays, starting at the specified
+         * offset, and stores them within the result array starting at
+         * index 0.
+         */
+        private void combine(float[] array1, float[] array2, int offset, float[] result)
+        {
+            int n = result.length;
+            if (max)
+            {
+                for (int i = 0; i < n; i++)
+                {
+                    float v1 = array1[offset + i];
+                    float v2 = array2[offset + i];
+                    result[i] = v1 > v2 ? v1 : v2;
+                }
+            }
+            else
+            {
+                for (int i = 0; i < n; i++)
+                {
+                    float v1 = array1[offset + i];
+                    float v2 = array2[offset + i];
+                    result[i] = v1 < v2 ? v1 : v2;
+                }
+            }
+        }
+    }
+    
+    /**
+     * The buffers used to compute the local extrema within a plane.
+     */
+    private class PlaneSweep
+    {
+        /** the streams of the local extrema of the rows */
+        final BlockStream maxStream;
+        final BlockStream minStream;
+        
+        /** the values of the current input row */
+        final float[] values;
+        
+        /** the running extrema within the blocks of the current row */
+        final float[] forward;
+        final float[] backward;
+        
+        /** the local extrema of the current output row */
+        final float[] maxValues;
+        final float[] minValues;
+        
+        PlaneSweep(int sizeX, int sizeY)
+        {
+            this.maxStream = maxima ? new BlockStream(sizes[1], sizeY, sizeX, true) : null;
+            this.minStream = minima ? new BlockStream(sizes[1], sizeY, sizeX, false) : null;
+            this.values = new float[sizeX];
+            this.forward = new float[sizeX];
+            this.backward = new float[sizeX];
+            this.maxValues = maxima ? new float[sizeX] : null;
+            this.minValues = minima ? new float[sizeX] : null;
+        }
+        
+        void process(ImageProcessor image, int z, RowConsumer consumer)
+        {
+            int sizeX = image.getWidth();
+            int sizeY = image.getHeight();
+            
+            for (int y = 0; y < sizeY; y++)
+            {
+                // compute the extrema of the row entering the neighborhood
+                readRow(image, y * sizeX);
+                if (maxima)
+                {
+                    runningMax(values, sizes[0], offsets[0], forward, backward, maxStream.input(y));
+                    maxStream.push(y);
+                }
+                if (minima)
+                {
+                    runningMin(values, sizes[0], offsets[0], forward, backward, minStream.input(y));
+                    minStream.push(y);
+                }
+                
+                // process the rows whose neighborhood ends with current row
+                int[] range = outputRange(y, sizeY, 1);
+                for (int y2 = range[0]; y2 <= range[1]; y2++)
+                {
+                    int first = Math.max(y2 - offsets[1], 0);
+                    if (maxima)
+                    {
+                        maxStream.extrema(first, 0, maxValues);
+                    }
+                    if (minima)
+                    {
+                        minStream.extrema(first, 0, minValues);
+                    }
+                    consumer.process(y2, z, maxValues, minValues);
+                }
+            }
+        }
+        
+        /**
+         * Copies the values of the row starting at the specified offset into
+         * the array of values of the current row.
+         */
+        private void readRow(ImageProcessor image, int offset)
+        {
+            Object pixels = image.getPixels();
+            if (pixels instanceof byte[] || pixels instanceof short[] || pixels instanceof float[])
+            {
+                MinMaxSweep.readRow(pixels, offset, values);
+            }
+            else
+            {
+                for (int x = 0; x < values.length; x++)
+                {
+                    values[x] = image.getf(offset + x);
+                }
+            }
+        }
+    }
+}
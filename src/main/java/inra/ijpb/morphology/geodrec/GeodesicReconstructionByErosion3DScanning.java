@@ -100,7 +100,7 @@ public class GeodesicReconstructionByErosion3DScanning extends GeodesicReconstru
 	 */
 	public ImageStack applyTo(ImageStack marker, ImageStack mask)
 	{
-		if ( Thread.currentThread().isInterrupted() )					
+		if ( isCancelled() )					
 			return null;
 		
 		// Keep references to input images
@@ -80,7 +80,7 @@ public class GeodesicReconstructionByErosion3DScanningGray8 extends GeodesicReco
 	public ImageStack applyTo(ImageStack marker, ImageStack mask) 
 	{
 		
-		if ( Thread.currentThread().isInterrupted() )					
+		if ( isCancelled() )					
 			return null;
 		
 		// Keep references to input images
@@ -123,7 +123,7 @@ public class GeodesicReconstructionByErosion3DScanningGray8 extends GeodesicReco
 		// Iterate forward and backward propagations until no more pixel have been modified
 		do
 		{
-			if ( Thread.currentThread().isInterrupted() )					
+			if ( isCancelled() )					
 				return null;
 			
 			modif = false;
@@ -172,12 +172,14 @@ public abstract class AbstractStrel extends AbstractStrel3D implements Strel
     // Default implementation of Strel methods
 	
 	/**
-     * Implements a default algorithm for dilation, that consists in iterating
-     * over the neighbors of each pixel to compute the maximum value.
-     * The neighbors are obtained via the <code>getShifts()</code> method.
+     * Implements a default algorithm for dilation, that decomposes the mask of
+     * the structuring element into horizontal chords, and computes the maximum
+     * value over each chord using precomputed tables of running maxima. The
+     * mask is obtained via the <code>getMask()</code> method.
      * 
-     * @see #getShifts()
+     * @see #getMask()
      * @see #erosion(ImageProcessor)
+     * @see ChordDecomposition
      * 
      * @param image
      *            the input image
@@ -186,46 +188,18 @@ public abstract class AbstractStrel extends AbstractStrel3D implements Strel
     @Override
     public ImageProcessor dilation(ImageProcessor image)
     {
-        // retrieve image size
-        int sizeX = image.getWidth();
-        int sizeY = image.getHeight();
-        
-        // allocate result
-        ImageProcessor res = image.duplicate();
-        
-        // iterate over pixels
-        int[][] shifts = getShifts();
-        for (int y = 0; y < sizeY; y++)
-        {
-            for (int x = 0; x < sizeX; x++)
-            {
-                float value = image.getf(x, y);
-                
-                // iterate over neighbors
-                for (int[] shift : shifts)
-                {
-                    int x2 = x + shift[0];
-                    int y2 = y + shift[1];
-                    if (x2 < 0 || x2 >= sizeX) continue;
-                    if (y2 < 0 || y2 >= sizeY) continue;
-                    
-                    value = Math.max(value, image.getf(x2, y2));
-                }
-                
-                res.setf(x, y, value);
-            }
-        }
-        
-        return res;
+        return new ChordDecomposition(getMask(), getOffset()).dilation(image);
     }
 
     /**
-     * Implements a default algorithm for erosion, that consists in iterating
-     * over the neighbors of each pixel to compute the minimum value.
-     * The neighbors are obtained via the <code>getShifts()</code> method.
+     * Implements a default algorithm for erosion, that decomposes the mask of
+     * the structuring element into horizontal chords, and computes the minimum
+     * value over each chord using precomputed tables of running minima. The
+     * mask is obtained via the <code>getMask()</code> method.
      * 
-     * @see #getShifts()
+     * @see #getMask()
      * @see #dilation(ImageProcessor)
+     * @see ChordDecomposition
      * 
      * @param image
      *            the input image
@@ -234,37 +208,7 @@ public abstract class AbstractStrel extends AbstractStrel3D implements Strel
     @Override
     public ImageProcessor erosion(ImageProcessor image)
     {
-        // retrieve image size
-        int sizeX = image.getWidth();
-        int sizeY = image.getHeight();
-        
-        // allocate result
-        ImageProcessor res = image.duplicate();
-        
-        // iterate over pixels
-        int[][] shifts = getShifts();
-        for (int y = 0; y < sizeY; y++)
-        {
-            for (int x = 0; x < sizeX; x++)
-            {
-                float value = image.getf(x, y);
-                
-                // iterate over neighbors
-                for (int[] shift : shifts)
-                {
-                    int x2 = x + shift[0];
-                    int y2 = y + shift[1];
-                    if (x2 < 0 || x2 >= sizeX) continue;
-                    if (y2 < 0 || y2 >= sizeY) continue;
-                    
-                    value = Math.min(value, image.getf(x2, y2));
-                }
-                
-                res.setf(x, y, value);
-            }
-        }
-        
-        return res;
+        return new ChordDecomposition(getMask(), getOffset()).erosion(image);
     }
 
     /**
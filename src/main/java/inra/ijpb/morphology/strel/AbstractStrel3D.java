@@ -24,6 +24,9 @@ package inra.ijpb.morphology.strel;
 import ij.ImageStack;
 import inra.ijpb.algo.AlgoEvent;
 import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.data.border.BorderManager3D;
+import inra.ijpb.data.image.Image3D;
+import inra.ijpb.data.image.Images3D;
 import inra.ijpb.morphology.Strel3D;
 import inra.ijpb.shape.ImageShape;
 
@@ -195,12 +198,14 @@ public abstract class AbstractStrel3D extends AlgoStub implements Strel3D
 	// Default implementation of some methods
 	
     /**
-     * Implements a default algorithm for dilation, that consists in iterating
-     * over the neighbors of each pixel to compute the maximum value.
-     * The neighbors are obtained via the <code>getShifts()</code> method.
+     * Implements a default algorithm for dilation, that decomposes the mask of
+     * the structuring element into horizontal chords, and computes the maximum
+     * value over each chord using precomputed tables of running maxima. The
+     * mask is obtained via the <code>getMask3D()</code> method.
      * 
-     * @see #getShifts3D()
+     * @see #getMask3D()
      * @see #erosion(ImageStack)
+     * @see ChordDecomposition
      * 
      * @param image
      *            the input image
@@ -209,52 +214,18 @@ public abstract class AbstractStrel3D extends AlgoStub implements Strel3D
 	@Override
 	public ImageStack dilation(ImageStack image)
 	{
-	    // retrieve image size
-	    int sizeX = image.getWidth();
-	    int sizeY = image.getHeight();
-	    int sizeZ = image.getSize();
-
-	    // allocate result
-	    ImageStack res = ImageStack.create(sizeX, sizeY, sizeZ, image.getBitDepth());
-
-	    // iterate over pixels
-	    int[][] shifts = getShifts3D();
-	    for (int z = 0; z < sizeZ; z++)
-	    {
-	        for (int y = 0; y < sizeY; y++)
-	        {
-	            for (int x = 0; x < sizeX; x++)
-	            {
-	                double value = image.getVoxel(x, y, z);
-
-	                // iterate over neighbors
-	                for (int[] shift : shifts)
-	                {
-	                    int x2 = x + shift[0];
-	                    int y2 = y + shift[1];
-	                    int z2 = z + shift[2];
-	                    if (x2 < 0 || x2 >= sizeX) continue;
-	                    if (y2 < 0 || y2 >= sizeY) continue;
-	                    if (z2 < 0 || z2 >= sizeZ) continue;
-
-	                    value = Math.max(value, image.getVoxel(x2, y2, z2));
-	                }
-
-	                res.setVoxel(x, y, z, value);
-	            }
-	        }
-	    }
-
-	    return res;
+	    return new ChordDecomposition(getMask3D(), getOffset()).dilation(image);
 	}
 
     /**
-     * Implements a default algorithm for erosion, that consists in iterating
-     * over the neighbors of each pixel to compute the minimum value.
-     * The neighbors are obtained via the <code>getShifts()</code> method.
+     * Implements a default algorithm for erosion, that decomposes the mask of
+     * the structuring element into horizontal chords, and computes the minimum
+     * value over each chord using precomputed tables of running minima. The
+     * mask is obtained via the <code>getMask3D()</code> method.
      * 
-     * @see #getShifts3D()
+     * @see #getMask3D()
      * @see #dilation(ImageStack)
+     * @see ChordDecomposition
      * 
      * @param image
      *            the input image
@@ -263,44 +234,71 @@ public abstract class AbstractStrel3D extends AlgoStub implements Strel3D
 	@Override
 	public ImageStack erosion(ImageStack image)
 	{
-	    // retrieve image size
-	    int sizeX = image.getWidth();
-	    int sizeY = image.getHeight();
-	    int sizeZ = image.getSize();
-
-	    // allocate result
-	    ImageStack res = ImageStack.create(sizeX, sizeY, sizeZ, image.getBitDepth());
-
-	    // iterate over pixels
-	    int[][] shifts = getShifts3D();
-	    for (int z = 0; z < sizeZ; z++)
-	    {
-	        for (int y = 0; y < sizeY; y++)
-	        {
-	            for (int x = 0; x < sizeX; x++)
-	            {
-	                double value = image.getVoxel(x, y, z);
-
-	                // iterate over neighbors
-	                for (int[] shift : shifts)
-	                {
-	                    int x2 = x + shift[0];
-	                    int y2 = y + shift[1];
-	                    int z2 = z + shift[2];
-	                    if (x2 < 0 || x2 >= sizeX) continue;
-	                    if (y2 < 0 || y2 >= sizeY) continue;
-	                    if (z2 < 0 || z2 >= sizeZ) continue;
+	    return new ChordDecomposition(getMask3D(), getOffset()).erosion(image);
+	}
 
-	                    value = Math.min(value, image.getVoxel(x2, y2, z2));
-	                }
+    /**
+     * Computes the dilation of an image given as an Image3D. This method is
+     * used by the default implementations of closing and opening, to process
+     * a padded view of the input stack without copying it.
+     * 
+     * The default implementation reads the values of the view using the chord
+     * decomposition of the mask, as the default dilation does. Sub-classes
+     * overriding {@link #dilation(ImageStack)} should also override this
+     * method, for example by converting the view into a stack.
+     * 
+     * @param image
+     *            the input image
+     * @param bitDepth
+     *            the bit depth of the result
+     * @return the result of dilation with this structuring element
+     */
+    protected ImageStack dilation(Image3D image, int bitDepth)
+    {
+        return new ChordDecomposition(getMask3D(), getOffset()).dilation(image, bitDepth);
+    }
 
-	                res.setVoxel(x, y, z, value);
-	            }
-	        }
-	    }
+    /**
+     * Computes the erosion of an image given as an Image3D. This method is
+     * used by the default implementations of closing and opening, to process
+     * a padded view of the input stack without copying it.
+     * 
+     * The default implementation reads the values of the view using the chord
+     * decomposition of the mask, as the default erosion does. Sub-classes
+     * overriding {@link #erosion(ImageStack)} should also override this
+     * method, for example by converting the view into a stack.
+     * 
+     * @param image
+     *            the input image
+     * @param bitDepth
+     *            the bit depth of the result
+     * @return the result of erosion with this structuring element
+     */
+    protected ImageStack erosion(Image3D image, int bitDepth)
+    {
+        return new ChordDecomposition(getMask3D(), getOffset()).erosion(image, bitDepth);
+    }
 
-	    return res;
-	}
+    /**
+     * Pads the image with replicated borders, and applies the first operation
+     * of a closing (dilation) or of an opening (erosion). For gray level
+     * images, the first operation reads a padded view of the image, avoiding
+     * the copy of the input stack.
+     */
+    private ImageStack paddedFirstOperation(ImageStack image, int padX0, int padX1, int padY0, int padY1,
+            int padZ0, int padZ1, boolean dilation)
+    {
+        if (image.getBitDepth() == 24)
+        {
+            image = ImageShape.addBorders(image, padX0, padX1, padY0, padY1, padZ0, padZ1);
+            return dilation ? this.dilation(image) : this.erosion(image);
+        }
+        
+        Image3D view = Images3D.paddedView(image, padX0, padX1, padY0, padY1, padZ0, padZ1,
+                BorderManager3D.Type.REPLICATED);
+        int bitDepth = image.getBitDepth();
+        return dilation ? this.dilation(view, bitDepth) : this.erosion(view, bitDepth);
+    }
 
     /**
      * Performs a morphological closing on the input stack, by applying first a
@@ -331,11 +329,9 @@ public abstract class AbstractStrel3D extends AlgoStub implements Strel3D
         int padY1 = strelSize[1] - strelOffset[1];
         int padZ1 = strelSize[2] - strelOffset[2];
         
-        // pad image
-        image = ImageShape.addBorders(image, padX0, padX1, padY0, padY1, padZ0, padZ1);
-        
         // compute morphological closing on padded image
-        image = this.reverse().erosion(this.dilation(image));
+        image = paddedFirstOperation(image, padX0, padX1, padY0, padY1, padZ0, padZ1, true);
+        image = this.reverse().erosion(image);
         
         // crop result
         image = ImageShape.cropRect(image, padX0, padY0, padZ0, sizeX, sizeY, sizeZ);
@@ -372,11 +368,9 @@ public abstract class AbstractStrel3D extends AlgoStub implements Strel3D
         int padY1 = strelSize[1] - strelOffset[1];
         int padZ1 = strelSize[2] - strelOffset[2];
         
-        // pad image
-        image = ImageShape.addBorders(image, padX0, padX1, padY0, padY1, padZ0, padZ1);
-        
-        // compute morphological closing on padded image
-        image = this.reverse().dilation(this.erosion(image));
+        // compute morphological opening on padded image
+        image = paddedFirstOperation(image, padX0, padX1, padY0, padY1, padZ0, padZ1, false);
+        image = this.reverse().dilation(image);
         
         // crop result
         image = ImageShape.cropRect(image, padX0, padY0, padZ0, sizeX, sizeY, sizeZ);
@@ -23,6 +23,8 @@ package inra.ijpb.morphology.strel;
 
 import ij.ImageStack;
 import ij.plugin.Filters3D;
+import inra.ijpb.data.image.Image3D;
+import inra.ijpb.data.image.Images3D;
 import inra.ijpb.morphology.Strel3D;
 
 /**
@@ -203,4 +205,22 @@ public class BallStrel extends AbstractStrel3D
 		result.setColorModel( image.getColorModel() );
 		return result;
 	}
+
+	/**
+	 * Converts the view into a stack, and computes the dilation of the stack.
+	 */
+	@Override
+	protected ImageStack dilation(Image3D image, int bitDepth)
+	{
+		return dilation(Images3D.toStack(image, bitDepth));
+	}
+
+	/**
+	 * Converts the view into a stack, and computes the erosion of the stack.
+	 */
+	@Override
+	protected ImageStack erosion(Image3D image, int bitDepth)
+	{
+		return erosion(Images3D.toStack(image, bitDepth));
+	}
 }
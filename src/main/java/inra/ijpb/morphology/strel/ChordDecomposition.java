@@ -0,0 +1,492 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.morphology.strel;
+
+import java.util.Arrays;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.data.image.Image3D;
+
+/**
+ * <p>
+ * Decomposition of an arbitrary binary structuring element into horizontal
+ * chords, used for computing flat dilations and erosions with arbitrary
+ * shapes.
+ * </p>
+ * 
+ * <p>
+ * Each row of the mask is split into maximal runs of consecutive non-zero
+ * elements ("chords"). For each row of the input image, a table of running
+ * extrema is computed for each distinct chord length, using the
+ * Urbach-Wilkinson doubling scheme. The extremum over a chord is then obtained
+ * with a single table lookup, making the cost of the operation proportional
+ * to the number of chords rather than to the number of elements of the mask.
+ * Tables are cached for the rows that are used by consecutive image rows.
+ * </p>
+ * 
+ * <p>
+ * As for the default implementations of {@link AbstractStrel} and
+ * {@link AbstractStrel3D}, the neighbors located outside of the image are
+ * ignored, and the value of the central pixel is always taken into account.
+ * </p>
+ * 
+ * <p>
+ * Reference: Urbach, E. R. and Wilkinson, M. H. F. (2008). Efficient 2-D
+ * grayscale morphological transformations with arbitrary flat structuring
+ * elements. IEEE Transactions on Image Processing, 17(1), 1-8.
+ * </p>
+ * 
+ * @see AbstractStrel#dilation(ImageProcessor)
+ * @see AbstractStrel3D#dilation(ImageStack)
+ * 
+ * @author David Legland
+ *
+ */
+public class ChordDecomposition
+{
+	// ==================================================
+	// Class variables
+	
+	/** Shift of the first element of each chord with respect to the offset */
+	int[] chordX;
+	int[] chordY;
+	int[] chordZ;
+	
+	/** Index of the length of each chord within the array of lengths */
+	int[] chordLengthIndex;
+	
+	/** The distinct chord lengths, in increasing order */
+	int[] lengths;
+
+	/** Extent of chords with respect to the offset */
+	int minX = 0, maxX = 0;
+	int minY = 0, maxY = 0;
+	int minZ = 0, maxZ = 0;
+	
+	
+	// ==================================================
+	// Constructors
+	
+	/**
+	 * Creates the chord decomposition of a planar structuring element.
+	 * 
+	 * @param mask
+	 *            the binary mask of the structuring element (first index is y,
+	 *            second is x)
+	 * @param offset
+	 *            the position of the reference element within the mask
+	 */
+	public ChordDecomposition(int[][] mask, int[] offset)
+	{
+		this(new int[][][] { mask }, new int[] { offset[0], offset[1], 0 });
+	}
+	
+	/**
+	 * Creates the chord decomposition of a 3D structuring element.
+	 * 
+	 * @param mask
+	 *            the binary mask of the structuring element (first index is z,
+	 *            second is y, last one is x)
+	 * @param offset
+	 *            the position of the reference element within the mask
+	 */
+	public ChordDecomposition(int[][][] mask, int[] offset)
+	{
+		// count chords
+		int nChords = 0;
+		for (int z = 0; z < mask.length; z++)
+		{
+			for (int y = 0; y < mask[z].length; y++)
+			{
+				int[] row = mask[z][y];
+				for (int x = 0; x < row.length; x++)
+				{
+					if (row[x] > 0 && (x == 0 || row[x - 1] <= 0))
+						nChords++;
+				}
+			}
+		}
+		
+		this.chordX = new int[nChords];
+		this.chordY = new int[nChords];
+		this.chordZ = new int[nChords];
+		int[] chordLengths = new int[nChords];
+		
+		// extract chords, and their extent
+		int c = 0;
+		for (int z = 0; z < mask.length; z++)
+		{
+			for (int y = 0; y < mask[z].length; y++)
+			{
+				int[] row = mask[z][y];
+				int x = 0;
+				while (x < row.length)
+				{
+					if (row[x] <= 0)
+					{
+						x++;
+						continue;
+					}
+					int x0 = x;
+					while (x < row.length && row[x] > 0)
+						x++;
+					
+					chordX[c] = x0 - offset[0];
+					chordY[c] = y - offset[1];
+					chordZ[c] = z - offset[2];
+					chordLengths[c] = x - x0;
+					
+					minX = Math.min(minX, chordX[c]);
+					maxX = Math.max(maxX, chordX[c] + chordLengths[c] - 1);
+					minY = Math.min(minY, chordY[c]);
+					maxY = Math.max(maxY, chordY[c]);
+					minZ = Math.min(minZ, chordZ[c]);
+					maxZ = Math.max(maxZ, chordZ[c]);
+					c++;
+				}
+			}
+		}
+		
+		// identify distinct lengths
+		int[] sorted = chordLengths.clone();
+		Arrays.sort(sorted);
+		int nLengths = 0;
+		for (int i = 0; i < nChords; i++)
+		{
+			if (i == 0 || sorted[i] != sorted[i - 1])
+				sorted[nLengths++] = sorted[i];
+		}
+		this.lengths = Arrays.copyOf(sorted, nLengths);
+		
+		this.chordLengthIndex = new int[nChords];
+		for (int i = 0; i < nChords; i++)
+		{
+			chordLengthIndex[i] = Arrays.binarySearch(lengths, chordLengths[i]);
+		}
+	}
+	
+	
+	// ==================================================
+	// Accessors
+	
+	/**
+	 * @return the number of chords of the structuring element
+	 */
+	public int chordNumber()
+	{
+		return this.chordX.length;
+	}
+	
+	
+	// ==================================================
+	// Morphological operations
+	
+	/**
+	 * Computes the dilation of a planar image.
+	 * 
+	 * @param image
+	 *            the input image
+	 * @return the result of dilation
+	 */
+	public ImageProcessor dilation(ImageProcessor image)
+	{
+		ImageProcessor res = image.duplicate();
+		process(wrap(image), wrap(res), true);
+		return res;
+	}
+	
+	/**
+	 * Computes the erosion of a planar image.
+	 * 
+	 * @param image
+	 *            the input image
+	 * @return the result of erosion
+	 */
+	public ImageProcessor erosion(ImageProcessor image)
+	{
+		ImageProcessor res = image.duplicate();
+		process(wrap(image), wrap(res), false);
+		return res;
+	}
+	
+	/**
+	 * Computes the dilation of a 3D image.
+	 * 
+	 * @param image
+	 *            the input image
+	 * @return the result of dilation
+	 */
+	public ImageStack dilation(ImageStack image)
+	{
+		ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+		process(image, res, true);
+		return res;
+	}
+	
+	/**
+	 * Computes the erosion of a 3D image.
+	 * 
+	 * @param image
+	 *            the input image
+	 * @return the result of erosion
+	 */
+	public ImageStack erosion(ImageStack image)
+	{
+		ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+		process(image, res, false);
+		return res;
+	}
+	
+	/**
+	 * Computes the dilation of a 3D image given as an Image3D, for example a
+	 * padded view on a stack. The values are read directly from the image,
+	 * without copying it into a stack.
+	 * 
+	 * @param image
+	 *            the input image
+	 * @param bitDepth
+	 *            the bit depth of the result, one of 8, 16 or 32
+	 * @return the result of dilation
+	 */
+	public ImageStack dilation(Image3D image, int bitDepth)
+	{
+		ImageStack res = ImageStack.create(image.getSize(0), image.getSize(1), image.getSize(2), bitDepth);
+		process(image, null, res, true);
+		return res;
+	}
+	
+	/**
+	 * Computes the erosion of a 3D image given as an Image3D, for example a
+	 * padded view on a stack. The values are read directly from the image,
+	 * without copying it into a stack.
+	 * 
+	 * @param image
+	 *            the input image
+	 * @param bitDepth
+	 *            the bit depth of the result, one of 8, 16 or 32
+	 * @return the result of erosion
+	 */
+	public ImageStack erosion(Image3D image, int bitDepth)
+	{
+		ImageStack res = ImageStack.create(image.getSize(0), image.getSize(1), image.getSize(2), bitDepth);
+		process(image, null, res, false);
+		return res;
+	}
+	
+	private static final ImageStack wrap(ImageProcessor image)
+	{
+		ImageStack stack = new ImageStack(image.getWidth(), image.getHeight());
+		stack.addSlice(image);
+		return stack;
+	}
+	
+	/**
+	 * Computes the dilation (if max is true) or the erosion (if max is false)
+	 * of the input stack, and stores the result in the target image.
+	 */
+	private void process(ImageStack image, ImageStack target, boolean max)
+	{
+		// the processors of each slice
+		ImageProcessor[] slices = new ImageProcessor[image.getSize()];
+		for (int z = 0; z < slices.length; z++)
+		{
+			slices[z] = image.getProcessor(z + 1);
+		}
+		process(null, slices, target, max);
+	}
+	
+	/**
+	 * Computes the dilation (if max is true) or the erosion (if max is false)
+	 * of the input image, and stores the result in the target image. Values
+	 * are read from the slice processors if they are specified, or from the
+	 * Image3D otherwise.
+	 */
+	private void process(Image3D image, ImageProcessor[] slices, ImageStack target, boolean max)
+	{
+		// retrieve image size
+		int sizeX = target.getWidth();
+		int sizeY = target.getHeight();
+		int sizeZ = target.getSize();
+		
+		// rows are padded such that chords never read outside of the tables
+		int padX0 = -minX;
+		int padX1 = maxX;
+		int rowLength = sizeX + padX0 + padX1;
+		float identity = max ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+		
+		// cache of running extremum tables, indexed by z and y modulo the
+		// extent of the strel, then by chord length
+		int cacheSizeY = maxY - minY + 1;
+		int cacheSizeZ = maxZ - minZ + 1;
+		int nLengths = lengths.length;
+		float[][][][] tables = new float[cacheSizeZ][cacheSizeY][nLengths][rowLength];
+		int[][] cachedRows = new int[cacheSizeZ][cacheSizeY];
+		int[][] cachedSlices = new int[cacheSizeZ][cacheSizeY];
+		for (int i = 0; i < cacheSizeZ; i++)
+		{
+			Arrays.fill(cachedSlices[i], -1);
+		}
+		
+		// working buffers
+		float[] row = new float[rowLength];
+		float[][] buffers = new float[][] { new float[rowLength], new float[rowLength] };
+		float[] values = new float[sizeX];
+		Arrays.fill(row, identity);
+		
+		int nChords = chordX.length;
+		for (int z = 0; z < sizeZ; z++)
+		{
+			ImageProcessor resSlice = target.getProcessor(z + 1);
+			
+			for (int y = 0; y < sizeY; y++)
+			{
+				// initialize with values of current row
+				int offset = y * sizeX;
+				readRow(image, slices, y, z, values, 0, sizeX);
+				
+				for (int c = 0; c < nChords; c++)
+				{
+					int y2 = y + chordY[c];
+					int z2 = z + chordZ[c];
+					if (y2 < 0 || y2 >= sizeY || z2 < 0 || z2 >= sizeZ)
+						continue;
+					
+					// retrieve tables of the row, computing them if necessary
+					int iz = Math.floorMod(z2, cacheSizeZ);
+					int iy = Math.floorMod(y2, cacheSizeY);
+					float[][] rowTables = tables[iz][iy];
+					if (cachedSlices[iz][iy] != z2 || cachedRows[iz][iy] != y2)
+					{
+						readRow(image, slices, y2, z2, row, padX0, sizeX);
+						computeTables(row, rowTables, buffers, max);
+						cachedSlices[iz][iy] = z2;
+						cachedRows[iz][iy] = y2;
+					}
+					
+					// combine extremum over the chord with current values
+					float[] table = rowTables[chordLengthIndex[c]];
+					int shift = chordX[c] + padX0;
+					if (max)
+					{
+						for (int x = 0; x < sizeX; x++)
+						{
+							float v = table[x + shift];
+							if (v > values[x]) values[x] = v;
+						}
+					}
+					else
+					{
+						for (int x = 0; x < sizeX; x++)
+						{
+							float v = table[x + shift];
+							if (v < values[x]) values[x] = v;
+						}
+					}
+				}
+				
+				for (int x = 0; x < sizeX; x++)
+				{
+					resSlice.setf(offset + x, values[x]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Copies the values of a row of the input image into an array, starting
+	 * at the specified position.
+	 */
+	private static final void readRow(Image3D image, ImageProcessor[] slices, int y, int z, float[] row, int start, int sizeX)
+	{
+		if (slices != null)
+		{
+			ImageProcessor slice = slices[z];
+			int offset = y * sizeX;
+			for (int x = 0; x < sizeX; x++)
+			{
+				row[start + x] = slice.getf(offset + x);
+			}
+		}
+		else
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				row[start + x] = (float) image.getValue(x, y, z);
+			}
+		}
+	}
+	
+	/**
+	 * Computes the running extremum tables of a row for each chord length.
+	 * Each table associates to each position the extremum over the window
+	 * starting at this position. Windows are obtained by combining two
+	 * overlapping windows of a smaller length, inserting intermediate lengths
+	 * when two successive lengths are more than a factor two apart.
+	 */
+	private void computeTables(float[] row, float[][] rowTables, float[][] buffers, boolean max)
+	{
+		int n = row.length;
+		float[] current = row;
+		int currentLength = 1;
+		
+		for (int i = 0; i < lengths.length; i++)
+		{
+			int length = lengths[i];
+			if (length == 1)
+			{
+				System.arraycopy(row, 0, rowTables[i], 0, n);
+				continue;
+			}
+			
+			while (currentLength < length)
+			{
+				int nextLength = Math.min(length, 2 * currentLength);
+				float[] next = nextLength == length ? rowTables[i] : (current == buffers[0] ? buffers[1] : buffers[0]);
+				
+				int d = nextLength - currentLength;
+				int n2 = n - d;
+				if (max)
+				{
+					for (int x = 0; x < n2; x++)
+					{
+						next[x] = Math.max(current[x], current[x + d]);
+					}
+				}
+				else
+				{
+					for (int x = 0; x < n2; x++)
+					{
+						next[x] = Math.min(current[x], current[x + d]);
+					}
+				}
+				for (int x = Math.max(n2, 0); x < n; x++)
+				{
+					next[x] = current[x];
+				}
+				
+				current = next;
+				currentLength = nextLength;
+			}
+		}
+	}
+}
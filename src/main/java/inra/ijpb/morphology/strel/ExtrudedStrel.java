@@ -22,6 +22,8 @@
 package inra.ijpb.morphology.strel;
 
 import ij.ImageStack;
+import inra.ijpb.data.image.Image3D;
+import inra.ijpb.data.image.Images3D;
 import inra.ijpb.morphology.Strel;
 import inra.ijpb.morphology.Strel3D;
 
@@ -191,6 +193,24 @@ public class ExtrudedStrel extends AbstractStrel3D
 		return result;
 	}
 
+	/**
+	 * Converts the view into a stack, and computes the dilation of the stack.
+	 */
+	@Override
+	protected ImageStack dilation(Image3D image, int bitDepth)
+	{
+		return dilation(Images3D.toStack(image, bitDepth));
+	}
+
+	/**
+	 * Converts the view into a stack, and computes the erosion of the stack.
+	 */
+	@Override
+	protected ImageStack erosion(Image3D image, int bitDepth)
+	{
+		return erosion(Images3D.toStack(image, bitDepth));
+	}
+
 	/* (non-Javadoc)
 	 * @see inra.ijpb.morphology.Strel3D#reverse()
 	 */
@@ -430,7 +430,9 @@ public class LinearDiagDownStrel extends AbstractInPlaceStrel {
 	 */
 	@Override
 	public int[] getOffset() {
-		return new int[]{this.offset, this.offset};
+		// the filtering window ends at the offset along the line
+		int k = this.size - 1 - this.offset;
+		return new int[]{k, k};
 	}
 
 	/* (non-Javadoc)
@@ -440,8 +442,8 @@ public class LinearDiagDownStrel extends AbstractInPlaceStrel {
 	public int[][] getShifts() {
 		int[][] shifts = new int[this.size][2];
 		for (int i = 0; i < this.size; i++) {
-			shifts[i][0] = i - this.offset;
-			shifts[i][1] = i - this.offset;
+			shifts[i][0] = i + this.offset + 1 - this.size;
+			shifts[i][1] = i + this.offset + 1 - this.size;
 		}
 		return shifts;
 	}
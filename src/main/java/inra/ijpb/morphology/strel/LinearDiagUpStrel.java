@@ -436,9 +436,10 @@ public class LinearDiagUpStrel extends AbstractInPlaceStrel {
 	 */
 	@Override
 	public int[][] getMask() {
+		// the line goes from the lower-left corner to the upper-right corner
 		int[][] mask = new int[this.size][this.size];
 		for (int i = 0; i < this.size; i++) {
-			mask[i][i] = 255;
+			mask[this.size - 1 - i][i] = 255;
 		}
 		
 		return mask;
@@ -449,7 +450,8 @@ public class LinearDiagUpStrel extends AbstractInPlaceStrel {
 	 */
 	@Override
 	public int[] getOffset() {
-		return new int[]{this.offset, this.offset};
+		// the filtering window ends at the offset along the line
+		return new int[]{this.size - 1 - this.offset, this.offset};
 	}
 
 	/* (non-Javadoc)
@@ -459,8 +461,8 @@ public class LinearDiagUpStrel extends AbstractInPlaceStrel {
 	public int[][] getShifts() {
 		int[][] shifts = new int[this.size][2];
 		for (int i = 0; i < this.size; i++) {
-			shifts[i][0] = i - this.offset;
-			shifts[i][1] = i - this.offset;
+			shifts[i][0] = i + this.offset + 1 - this.size;
+			shifts[i][1] = this.size - 1 - this.offset - i;
 		}
 		return shifts;
 	}
@@ -26,6 +26,7 @@ package inra.ijpb.plugins;
 
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.TreeMap;
 
 import ij.IJ;
 import ij.ImagePlus;
@@ -34,8 +35,8 @@ import ij.gui.PolygonRoi;
 import ij.plugin.PlugIn;
 import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
-import inra.ijpb.geometry.Polygon2D;
 import inra.ijpb.label.LabelMapToPolygons;
+import inra.ijpb.label.PolygonStore;
 
 /**
  * Convert to outer boundary of the binary region present within the current
@@ -74,7 +75,21 @@ public class LabelMapToPolygonRois implements PlugIn
 
 		// compute boundaries
 		LabelMapToPolygons tracker = new LabelMapToPolygons(conn, loc);
-		Map<Integer, ArrayList<Polygon2D>> boundaries = tracker.process(image);
+		PolygonStore boundaries = tracker.computePolygons(image);
+
+		// group the polygons of each region
+		Map<Integer, ArrayList<Integer>> regionPolygons = new TreeMap<>();
+		for (int i = 0; i < boundaries.size(); i++)
+		{
+			int label = boundaries.getLabel(i);
+			ArrayList<Integer> indices = regionPolygons.get(label);
+			if (indices == null)
+			{
+				indices = new ArrayList<Integer>(4);
+				regionPolygons.put(label, indices);
+			}
+			indices.add(i);
+		}
 
 		// retrieve RoiManager
 		RoiManager rm = RoiManager.getInstance();
@@ -84,23 +99,23 @@ public class LabelMapToPolygonRois implements PlugIn
 		}
 
 		// populate RoiManager with PolygonRoi
-		for (int label : boundaries.keySet())
+		for (int label : regionPolygons.keySet())
 		{
-			ArrayList<Polygon2D> polygons = boundaries.get(label);
+			ArrayList<Integer> indices = regionPolygons.get(label);
 			String name = String.format(pattern, label);
 
-			if (polygons.size() == 1)
+			if (indices.size() == 1)
 			{
-				PolygonRoi roi = polygons.get(0).createRoi();
+				PolygonRoi roi = boundaries.createRoi(indices.get(0));
 				roi.setName(name);
 				rm.addRoi(roi);
 			}
 			else
 			{
 				int index = 0;
-				for (Polygon2D poly : polygons)
+				for (int i : indices)
 				{
-					PolygonRoi roi = poly.createRoi();
+					PolygonRoi roi = boundaries.createRoi(i);
 					roi.setName(name + "-" + (index++));
 					rm.addRoi(roi);
 				}
@@ -42,12 +42,8 @@ import inra.ijpb.color.ColorMaps.CommonLabelMaps;
 import inra.ijpb.data.image.ColorImages;
 import inra.ijpb.data.image.Images3D;
 import inra.ijpb.label.LabelImages;
-import inra.ijpb.morphology.MinimaAndMaxima;
-import inra.ijpb.morphology.MinimaAndMaxima3D;
 import inra.ijpb.morphology.Morphology;
-import inra.ijpb.morphology.Strel;
-import inra.ijpb.morphology.Strel3D;
-import inra.ijpb.watershed.Watershed;
+import inra.ijpb.watershed.ExtendedMinimaWatershedPipeline;
 
 import java.awt.Color;
 import java.awt.Dimension;
@@ -112,6 +108,9 @@ public class MorphologicalSegmentation implements PlugIn {
 	/** gradient image stack */
 	ImageStack gradientStack = null;
 
+	/** staged segmentation, keeping the results of unchanged stages */
+	ExtendedMinimaWatershedPipeline pipeline = null;
+
 	/** image containing the final results of the watershed segmentation (basins with or without dams) */
 	ImagePlus resultImage = null;		
 
@@ -1069,7 +1068,9 @@ public class MorphologicalSegmentation implements PlugIn {
 						setParamsEnabled( false );
 
 						// get original image info
-						ImageStack image = inputStackCopy;
+						if( null == pipeline )
+							pipeline = new ExtendedMinimaWatershedPipeline(
+									inputStackCopy, connectivity );
 
 						final long start = System.currentTimeMillis();
 
@@ -1090,44 +1091,13 @@ public class MorphologicalSegmentation implements PlugIn {
 								return;
 							}
 
-							final long t1 = System.currentTimeMillis();
-							String extra = "";
+							Morphology.Operation gradientOperation = Morphology.Operation.GRADIENT;
 							if( gradientList.getSelectedItem().equals("Internal") )
-								extra = " internal";
+								gradientOperation = Morphology.Operation.INTERNAL_GRADIENT;
 							else if( gradientList.getSelectedItem().equals("External") )
-								extra = " external";
-							IJ.log( "Applying morphological"+ extra +" gradient to input image..." );
-
-							if ( !inputIs2D ) // 3D processing
-							{
-								Strel3D strel = Strel3D.Shape.CUBE.fromRadius( gradientRadius );
-								if( gradientList.getSelectedItem().equals("Internal") )
-									image = Morphology.internalGradient( image, strel );
-								else if( gradientList.getSelectedItem().equals("External") )
-									image = Morphology.externalGradient( image, strel );
-								else
-									image = Morphology.gradient( image, strel );
-							}
-							else // 2D processing
-							{
-								Strel strel = Strel.Shape.SQUARE.fromRadius( gradientRadius );
-								ImageProcessor gradient = null;
-								if( gradientList.getSelectedItem().equals("Internal") )
-									gradient = Morphology.internalGradient( image.getProcessor( 1 ), strel );
-								else if( gradientList.getSelectedItem().equals("External") )
-									gradient = Morphology.externalGradient( image.getProcessor( 1 ), strel );
-								else
-									gradient = Morphology.gradient( image.getProcessor( 1 ), strel );
-								image = new ImageStack(image.getWidth(), image.getHeight());
-								image.addSlice(gradient);
-							}
+								gradientOperation = Morphology.Operation.EXTERNAL_GRADIENT;
+							pipeline.setGradient( gradientOperation, gradientRadius );
 
-							// store gradient image
-							gradientStack = image;
-
-							final long t2 = System.currentTimeMillis();
-							IJ.log( "Morphological" + extra + " gradient took " + (t2-t1) + " ms.");
-							
 							// macro recording
 							String[] arg = new String[] { gradientRadiusSizeText.getText() };
 							record( SET_RADIUS, arg );
@@ -1135,108 +1105,22 @@ public class MorphologicalSegmentation implements PlugIn {
 							arg = new String[] { (String) gradientList.getSelectedItem() };
 							record( SET_GRADIENT_TYPE, arg );
 						}
+						else
+							pipeline.setGradient( null, gradientRadius );
 
-						IJ.log( "Running extended minima with dynamic value " + dynamic + "..." );
-						final long step0 = System.currentTimeMillis();				
-
-						// Run extended minima
-						final ImageStack regionalMinimaStack;
-						if( !inputIs2D ) // 3D processing
-							regionalMinimaStack = MinimaAndMaxima3D.extendedMinima( image, dynamic, connectivity );
-						else // 2D processing
-						{
-							ImageProcessor regionalMinimaProcessor =
-									MinimaAndMaxima.extendedMinima(
-											image.getProcessor(1), dynamic, connectivity );
-							regionalMinimaStack = new ImageStack(image.getWidth(), image.getHeight());
-							regionalMinimaStack.addSlice( regionalMinimaProcessor );
-						}
-
-						if( null == regionalMinimaStack )
-						{
-							IJ.log( "The segmentation was interrupted!" );
-							IJ.showStatus( "The segmentation was interrupted!" );
-							IJ.showProgress( 1.0 );
-							return;
-						}
+						pipeline.setConnectivity( connectivity );
+						pipeline.setDynamic( dynamic );
+						pipeline.setCalculateDams( calculateDams );
+						pipeline.setVerbose( true );
 
-						final long step1 = System.currentTimeMillis();		
-						IJ.log( "Regional minima took " + (step1-step0) + " ms.");
-
-						IJ.log( "Imposing regional minima on original image (connectivity = " + readConn + ")..." );
-
-						// Impose regional minima over the original image
-						final ImageStack imposedMinimaStack;
-						if( !inputIs2D ) // 3D processing
-							imposedMinimaStack = MinimaAndMaxima3D.imposeMinima(
-									image, regionalMinimaStack, connectivity );
-						else // 2D processing
-						{
-							ImageProcessor imposedMinimaProcesor =
-									MinimaAndMaxima.imposeMinima(
-											image.getProcessor(1),
-											regionalMinimaStack.getProcessor(1),
-											connectivity );
-							imposedMinimaStack = new ImageStack(image.getWidth(), image.getHeight());
-							imposedMinimaStack.addSlice( imposedMinimaProcesor );
-						}
-
-						if( null == imposedMinimaStack )
-						{
-							IJ.log( "The segmentation was interrupted!" );
-							IJ.showStatus( "The segmentation was interrupted!" );
-							IJ.showProgress( 1.0 );
-							return;
-						}
-
-						final long step2 = System.currentTimeMillis();
-						IJ.log( "Imposition took " + (step2-step1) + " ms." );
-
-						IJ.log( "Labeling regional minima..." );
-
-						// Label regional minima
-						final ImageStack labeledMinimaStack;
-						if( !inputIs2D ) // 3D processing
-							labeledMinimaStack = BinaryImages.componentsLabeling( regionalMinimaStack, connectivity, 32 );
-						else // 2D processing
-						{
-							ImageProcessor labeledMinimaProcessor =
-									BinaryImages.componentsLabeling(
-											regionalMinimaStack.getProcessor(1),connectivity, 32 );
-							labeledMinimaStack = new ImageStack( image.getWidth(), image.getHeight() );
-							labeledMinimaStack.addSlice( labeledMinimaProcessor );
-						}
-						if( null == labeledMinimaStack )
-						{
-							IJ.log( "The segmentation was interrupted!" );
-							IJ.showStatus( "The segmentation was interrupted!" );
-							IJ.showProgress( 1.0 );
-							return;
-						}
-
-						final long step3 = System.currentTimeMillis();
-						IJ.log( "Connected components took " + (step3-step2) + " ms." );
-
-						// Apply watershed		
-						IJ.log("Running watershed...");
+						IJ.log( "Running extended minima watershed with dynamic value " + dynamic
+								+ " (connectivity = " + readConn + ")..." );
 
+						// Apply watershed, reusing the stages that are still valid
 						ImageStack resultStack = null;
 						
 						try{
-							if( !inputIs2D ) // 3D processing
-								resultStack = Watershed.computeWatershed(
-										imposedMinimaStack, labeledMinimaStack, 
-										connectivity, calculateDams );
-							else // 2D processing
-							{
-								ImageProcessor resultProcessor =
-										Watershed.computeWatershed(
-												imposedMinimaStack.getProcessor(1),
-												labeledMinimaStack.getProcessor(1), 
-												connectivity, calculateDams );
-								resultStack = new ImageStack( image.getWidth(), image.getHeight() );
-								resultStack.addSlice( resultProcessor );
-							}
+							resultStack = pipeline.run();
 						}
 						catch( Exception ex )
 						{							
@@ -1248,6 +1132,11 @@ public class MorphologicalSegmentation implements PlugIn {
 							err.printStackTrace();
 							IJ.log( "Error: the plugin run out of memory. Please use a smaller input image." );
 						}
+
+						// store gradient image
+						if( applyGradient )
+							gradientStack = pipeline.getGradient();
+
 						if( null == resultStack )
 						{
 							IJ.log( "The segmentation was interrupted!" );
@@ -1263,7 +1152,6 @@ public class MorphologicalSegmentation implements PlugIn {
 						resultImage.setCalibration( inputImage.getCalibration() );
 
 						final long end = System.currentTimeMillis();
-						IJ.log( "Watershed 3d took " + (end-step3) + " ms.");
 						IJ.log( "Whole plugin took " + (end-start) + " ms.");
 
 						// Adjust min and max values to display
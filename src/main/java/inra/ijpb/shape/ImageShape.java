@@ -30,6 +30,8 @@ import inra.ijpb.data.border.BorderManager;
 import inra.ijpb.data.border.BorderManager3D;
 import inra.ijpb.data.border.ReplicatedBorder;
 import inra.ijpb.data.border.ReplicatedBorder3D;
+import inra.ijpb.data.image.Image3D;
+import inra.ijpb.data.image.Images3D;
 
 /**
  * A collection of utility method for processing global shape of images: crop, add borders...
@@ -115,6 +117,15 @@ public class ImageShape
         int sizeX2 = sizeX + left + right;
         int sizeY2 = sizeY + top + bottom;
         int sizeZ2 = sizeZ + front + back;
+        
+        // for gray level images, materialize a padded view
+        if (image.getBitDepth() != 24)
+        {
+            Image3D view = Images3D.paddedView(image, left, right, top, bottom, front, back,
+                    BorderManager3D.Type.REPLICATED);
+            return Images3D.toStack(view, image.getBitDepth());
+        }
+        
         ImageStack result = ImageStack.create(sizeX2, sizeY2, sizeZ2, image.getBitDepth());
         
         // create border manager
@@ -208,6 +219,12 @@ public class ImageShape
             throw new IllegalArgumentException("Crop bounds exceed image bounds");
         }
         
+        // for gray level images, materialize a view on the crop region
+        if (image.getBitDepth() != 24)
+        {
+            return Images3D.toStack(Images3D.cropView(image, x0, y0, z0, width, height, depth), image.getBitDepth());
+        }
+        
         // allocate
         ImageStack res = ImageStack.create(width, height, depth, image.getBitDepth());
         
@@ -316,6 +333,13 @@ public class ImageShape
         int sizeX2 = Math.floorDiv(sizeX, kx);
         int sizeY2 = Math.floorDiv(sizeY, ky);
         int sizeZ2 = Math.floorDiv(sizeZ, kz);
+        
+        // for gray level images, materialize a sub-sampled view
+        if (image.getBitDepth() != 24)
+        {
+            return Images3D.toStack(Images3D.subsampledView(image, kx, ky, kz), image.getBitDepth());
+        }
+        
         ImageStack result = ImageStack.create(sizeX2, sizeY2, sizeZ2, image.getBitDepth());
         
         // fill result image
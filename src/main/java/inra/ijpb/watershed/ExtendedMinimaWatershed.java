@@ -44,6 +44,7 @@ import inra.ijpb.morphology.MinimaAndMaxima3D;
  *  resPlus.show();
  * </code></pre>
  * 
+ * @see ExtendedMinimaWatershedPipeline
  */
 public class ExtendedMinimaWatershed 
 {
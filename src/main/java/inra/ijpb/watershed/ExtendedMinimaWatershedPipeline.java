@@ -0,0 +1,557 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.watershed;
+
+import ij.IJ;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.binary.BinaryImages;
+import inra.ijpb.data.image.Image3D;
+import inra.ijpb.data.image.Images3D;
+import inra.ijpb.morphology.MinimaAndMaxima;
+import inra.ijpb.morphology.MinimaAndMaxima3D;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Reconstruction;
+import inra.ijpb.morphology.Reconstruction3D;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+import inra.ijpb.morphology.geodrec.GeodesicReconstructionAlgo;
+import inra.ijpb.morphology.geodrec.GeodesicReconstructionHybrid;
+import inra.ijpb.morphology.geodrec.GeodesicReconstructionType;
+
+/**
+ * <p>
+ * Staged version of the extended minima watershed, that keeps the
+ * intermediate results of each stage and recomputes only the stages located
+ * downstream of a modified parameter.
+ * </p>
+ *
+ * <p>
+ * The pipeline is composed of the following stages:
+ * <ol>
+ * <li>(optional) morphological gradient of the input image</li>
+ * <li>extended minima computation (h-minima reconstruction followed by
+ * regional minima), and imposition of the extended minima</li>
+ * <li>connected components labeling of the extended minima</li>
+ * <li>marker-controlled watershed on the image with imposed minima</li>
+ * </ol>
+ * Changing the dynamic therefore reuses the gradient, changing the dams or
+ * mask options reuses the gradient, the minima and the markers. The buffers
+ * used for the h-minima marker and for the minima imposition are allocated
+ * once and reused between runs.
+ * </p>
+ *
+ * <p>
+ * Single-slice stacks are processed with 2D algorithms when the connectivity
+ * is 4 or 8, and with 3D algorithms otherwise.
+ * </p>
+ *
+ * Example of use:
+ * <pre><code>
+ *  ImageStack image = IJ.getImage().getStack();
+ *  ExtendedMinimaWatershedPipeline pipeline = new ExtendedMinimaWatershedPipeline(image, 6);
+ *  pipeline.setGradient(Morphology.Operation.GRADIENT, 1);
+ *  pipeline.setDynamic(10);
+ *  ImageStack basins = pipeline.run();
+ *  // only minima, markers and watershed are recomputed
+ *  pipeline.setDynamic(20);
+ *  basins = pipeline.run();
+ * </code></pre>
+ *
+ * @see ExtendedMinimaWatershed
+ */
+public class ExtendedMinimaWatershedPipeline extends AlgoStub
+{
+	// ====================================================
+	// Parameters
+
+	/** The input image */
+	ImageStack image;
+
+	/** The gradient operation, or null if the input is used directly */
+	Morphology.Operation gradientOperation = null;
+
+	/** The radius of the structuring element used for gradient */
+	int gradientRadius = 1;
+
+	/** The dynamic of the extended minima */
+	double dynamic = 10;
+
+	/** The connectivity, 4 or 8 in 2D, 6 or 26 in 3D */
+	int connectivity;
+
+	/** The bit depth of the label images (8, 16 or 32) */
+	int outputType = 32;
+
+	/** The binary mask restricting the watershed, or null */
+	ImageStack mask = null;
+
+	/** Flag for computing watershed lines */
+	boolean calculateDams = true;
+
+	/** Flag for displaying log messages */
+	boolean verbose = false;
+
+	// ====================================================
+	// Cached results
+
+	ImageStack gradient = null;
+	ImageStack hMinima = null;
+	ImageStack extendedMinima = null;
+	ImageStack imposedMinima = null;
+	ImageStack labeledMinima = null;
+	ImageStack basins = null;
+
+	// ====================================================
+	// Reusable buffers
+
+	/** The marker used for h-minima reconstruction (input + dynamic) */
+	ImageStack hMinimaMarker = null;
+	/** The marker used for minima imposition */
+	ImageStack imposeMarker = null;
+	/** The mask used for minima imposition */
+	ImageStack imposeMask = null;
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new pipeline for the specified image.
+	 *
+	 * @param image
+	 *            the input image (grayscale)
+	 * @param connectivity
+	 *            the connectivity to use, either 4 or 8 for single-slice
+	 *            images, or 6 or 26 for 3D images
+	 */
+	public ExtendedMinimaWatershedPipeline(ImageStack image, int connectivity)
+	{
+		this.image = image;
+		this.connectivity = connectivity;
+	}
+
+	// ====================================================
+	// Setters, that invalidate the downstream stages
+
+	/**
+	 * Changes the input image. All the stages will be recomputed.
+	 *
+	 * @param image
+	 *            the new input image
+	 */
+	public void setImage(ImageStack image)
+	{
+		if (image == this.image)
+			return;
+		this.image = image;
+		this.hMinimaMarker = null;
+		this.imposeMarker = null;
+		this.imposeMask = null;
+		invalidateGradient();
+	}
+
+	/**
+	 * Sets up the gradient stage.
+	 *
+	 * @param operation
+	 *            the gradient operation (GRADIENT, INTERNAL_GRADIENT or
+	 *            EXTERNAL_GRADIENT), or null to apply the watershed directly
+	 *            on the input image
+	 * @param radius
+	 *            the radius of the square (2D) or cube (3D) structuring
+	 *            element
+	 */
+	public void setGradient(Morphology.Operation operation, int radius)
+	{
+		if (operation == this.gradientOperation
+				&& (operation == null || radius == this.gradientRadius))
+			return;
+		this.gradientOperation = operation;
+		this.gradientRadius = radius;
+		invalidateGradient();
+	}
+
+	/**
+	 * @param dynamic
+	 *            the maximum difference between the minima and the boundary
+	 *            of a basin
+	 */
+	public void setDynamic(double dynamic)
+	{
+		if (dynamic == this.dynamic)
+			return;
+		this.dynamic = dynamic;
+		invalidateMinima();
+	}
+
+	/**
+	 * @param connectivity
+	 *            the connectivity to use, either 4 or 8 for single-slice
+	 *            images, or 6 or 26 for 3D images
+	 */
+	public void setConnectivity(int connectivity)
+	{
+		if (connectivity == this.connectivity)
+			return;
+		this.connectivity = connectivity;
+		invalidateMinima();
+	}
+
+	/**
+	 * @param outputType
+	 *            the bit depth of the marker and basin images (8, 16 or 32)
+	 */
+	public void setOutputType(int outputType)
+	{
+		if (outputType == this.outputType)
+			return;
+		this.outputType = outputType;
+		invalidateLabels();
+	}
+
+	/**
+	 * @param mask
+	 *            binary mask to constraint segmentation, or null
+	 */
+	public void setMask(ImageStack mask)
+	{
+		if (mask == this.mask)
+			return;
+		this.mask = mask;
+		invalidateWatershed();
+	}
+
+	/**
+	 * @param calculateDams
+	 *            select/deselect the calculation of dams
+	 */
+	public void setCalculateDams(boolean calculateDams)
+	{
+		if (calculateDams == this.calculateDams)
+			return;
+		this.calculateDams = calculateDams;
+		invalidateWatershed();
+	}
+
+	/**
+	 * @param verbose
+	 *            flag to display log messages
+	 */
+	public void setVerbose(boolean verbose)
+	{
+		this.verbose = verbose;
+	}
+
+	private void invalidateGradient()
+	{
+		this.gradient = null;
+		invalidateMinima();
+	}
+
+	private void invalidateMinima()
+	{
+		this.hMinima = null;
+		this.extendedMinima = null;
+		this.imposedMinima = null;
+		invalidateLabels();
+	}
+
+	private void invalidateLabels()
+	{
+		this.labeledMinima = null;
+		invalidateWatershed();
+	}
+
+	private void invalidateWatershed()
+	{
+		this.basins = null;
+	}
+
+	// ====================================================
+	// Getters for cached results
+
+	/**
+	 * @return the image the watershed is computed on (the gradient image if a
+	 *         gradient operation was specified, the input image otherwise),
+	 *         or null if not computed yet
+	 */
+	public ImageStack getGradient()
+	{
+		return gradient;
+	}
+
+	/**
+	 * @return the result of the h-minima reconstruction, or null if not
+	 *         computed yet
+	 */
+	public ImageStack getHMinima()
+	{
+		return hMinima;
+	}
+
+	/**
+	 * @return the binary image of extended minima, or null if not computed
+	 *         yet
+	 */
+	public ImageStack getExtendedMinima()
+	{
+		return extendedMinima;
+	}
+
+	/**
+	 * @return the image with imposed minima, or null if not computed yet
+	 */
+	public ImageStack getImposedMinima()
+	{
+		return imposedMinima;
+	}
+
+	/**
+	 * @return the label image of the extended minima, or null if not computed
+	 *         yet
+	 */
+	public ImageStack getLabeledMinima()
+	{
+		return labeledMinima;
+	}
+
+	/**
+	 * @return the last computed basins image, or null if some parameter
+	 *         changed since the last run
+	 */
+	public ImageStack getBasins()
+	{
+		return basins;
+	}
+
+	// ====================================================
+	// Processing
+
+	/**
+	 * Runs the stages that are not up to date, and returns the image of
+	 * watershed basins.
+	 *
+	 * @return the image of watershed basins computed on original image, as a
+	 *         label image, or null if the computation was interrupted
+	 */
+	public ImageStack run()
+	{
+		if (this.gradient == null)
+		{
+			long t0 = System.currentTimeMillis();
+			this.fireStatusChanged(this, "Compute gradient");
+			this.gradient = computeGradient();
+			if (verbose && gradientOperation != null)
+				IJ.log("Gradient took " + (System.currentTimeMillis() - t0) + " ms.");
+		}
+
+		if (this.imposedMinima == null)
+		{
+			long t0 = System.currentTimeMillis();
+			this.fireStatusChanged(this, "Compute extended minima");
+			if (!computeMinima())
+				return null;
+			if (verbose)
+				IJ.log("Extended minima and imposition took " + (System.currentTimeMillis() - t0) + " ms.");
+		}
+
+		if (this.labeledMinima == null)
+		{
+			long t0 = System.currentTimeMillis();
+			this.fireStatusChanged(this, "Label minima");
+			this.labeledMinima = computeLabels();
+			if (this.labeledMinima == null)
+				return null;
+			if (verbose)
+				IJ.log("Connected components took " + (System.currentTimeMillis() - t0) + " ms.");
+		}
+
+		if (this.basins == null)
+		{
+			long t0 = System.currentTimeMillis();
+			this.fireStatusChanged(this, "Compute watershed");
+			this.basins = computeBasins();
+			if (verbose)
+				IJ.log("Watershed took " + (System.currentTimeMillis() - t0) + " ms.");
+		}
+
+		this.fireStatusChanged(this, "");
+		return this.basins;
+	}
+
+	private boolean is2D()
+	{
+		return image.getSize() == 1 && (connectivity == 4 || connectivity == 8);
+	}
+
+	private ImageStack computeGradient()
+	{
+		if (gradientOperation == null)
+			return image;
+
+		if (is2D())
+		{
+			Strel strel = Strel.Shape.SQUARE.fromRadius(gradientRadius);
+			return wrap(gradientOperation.apply(image.getProcessor(1), strel));
+		}
+
+		Strel3D strel = Strel3D.Shape.CUBE.fromRadius(gradientRadius);
+		return gradientOperation.apply(image, strel);
+	}
+
+	/**
+	 * Computes the h-minima reconstruction, the extended minima, and the
+	 * imposition of the extended minima on the gradient image. Gives the same
+	 * results as the MinimaAndMaxima(3D) methods, but reuses the
+	 * reconstruction and imposition buffers.
+	 */
+	private boolean computeMinima()
+	{
+		int sizeX = gradient.getWidth();
+		int sizeY = gradient.getHeight();
+		int sizeZ = gradient.getSize();
+
+		if (hMinimaMarker == null || hMinimaMarker.getBitDepth() != gradient.getBitDepth())
+		{
+			hMinimaMarker = ImageStack.create(sizeX, sizeY, sizeZ, gradient.getBitDepth());
+			imposeMarker = ImageStack.create(sizeX, sizeY, sizeZ, gradient.getBitDepth());
+			imposeMask = ImageStack.create(sizeX, sizeY, sizeZ, gradient.getBitDepth());
+		}
+
+		if (is2D())
+		{
+			ImageProcessor grad = gradient.getProcessor(1);
+
+			// h-minima reconstruction
+			ImageProcessor marker = hMinimaMarker.getProcessor(1);
+			marker.insert(grad, 0, 0);
+			marker.add(dynamic);
+			GeodesicReconstructionAlgo algo = new GeodesicReconstructionHybrid(
+					GeodesicReconstructionType.BY_EROSION, connectivity);
+			ImageProcessor rec = algo.applyTo(marker, grad);
+			this.hMinima = wrap(rec);
+
+			ImageProcessor minima = MinimaAndMaxima.regionalMinima(rec, connectivity);
+			this.extendedMinima = wrap(minima);
+
+			// minima imposition
+			ImageProcessor impMarker = imposeMarker.getProcessor(1);
+			ImageProcessor impMask = imposeMask.getProcessor(1);
+			for (int y = 0; y < sizeY; y++)
+			{
+				for (int x = 0; x < sizeX; x++)
+				{
+					if (minima.get(x, y) > 0)
+					{
+						impMarker.set(x, y, 0);
+						impMask.set(x, y, 0);
+					}
+					else
+					{
+						impMarker.set(x, y, 255);
+						impMask.set(x, y, grad.get(x, y) + 1);
+					}
+				}
+			}
+			this.imposedMinima = wrap(Reconstruction.reconstructByErosion(impMarker, impMask, connectivity));
+			return true;
+		}
+
+		// h-minima reconstruction
+		Image3D grad = Images3D.createWrapper(gradient);
+		Image3D marker = Images3D.createWrapper(hMinimaMarker);
+		for (int z = 0; z < sizeZ; z++)
+		{
+			for (int y = 0; y < sizeY; y++)
+			{
+				for (int x = 0; x < sizeX; x++)
+				{
+					marker.setValue(x, y, z, grad.getValue(x, y, z) + dynamic);
+				}
+			}
+		}
+		ImageStack rec = Reconstruction3D.reconstructByErosion(hMinimaMarker, gradient, connectivity);
+		if (rec == null)
+			return false;
+		this.hMinima = rec;
+
+		ImageStack minima = MinimaAndMaxima3D.regionalMinima(rec, connectivity);
+		if (minima == null)
+			return false;
+		this.extendedMinima = minima;
+
+		// minima imposition
+		for (int z = 0; z < sizeZ; z++)
+		{
+			for (int y = 0; y < sizeY; y++)
+			{
+				for (int x = 0; x < sizeX; x++)
+				{
+					if (minima.getVoxel(x, y, z) > 0)
+					{
+						imposeMarker.setVoxel(x, y, z, 0);
+						imposeMask.setVoxel(x, y, z, 0);
+					}
+					else
+					{
+						imposeMarker.setVoxel(x, y, z, 255);
+						imposeMask.setVoxel(x, y, z, gradient.getVoxel(x, y, z) + 1);
+					}
+				}
+			}
+		}
+		ImageStack imposed = Reconstruction3D.reconstructByErosion(imposeMarker, imposeMask, connectivity);
+		if (imposed == null)
+			return false;
+		this.imposedMinima = imposed;
+		return true;
+	}
+
+	private ImageStack computeLabels()
+	{
+		if (is2D())
+			return wrap(BinaryImages.componentsLabeling(extendedMinima.getProcessor(1), connectivity, outputType));
+		return BinaryImages.componentsLabeling(extendedMinima, connectivity, outputType);
+	}
+
+	private ImageStack computeBasins()
+	{
+		if (is2D())
+		{
+			ImageProcessor res = Watershed.computeWatershed(
+					imposedMinima.getProcessor(1), labeledMinima.getProcessor(1),
+					mask != null ? mask.getProcessor(1) : null,
+					connectivity, calculateDams, verbose);
+			return res != null ? wrap(res) : null;
+		}
+		return Watershed.computeWatershed(imposedMinima, labeledMinima, mask,
+				connectivity, calculateDams, verbose);
+	}
+
+	private static final ImageStack wrap(ImageProcessor image)
+	{
+		ImageStack stack = new ImageStack(image.getWidth(), image.getHeight());
+		stack.addSlice(image);
+		return stack;
+	}
+}
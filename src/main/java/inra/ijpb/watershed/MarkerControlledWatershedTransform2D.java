@@ -23,8 +23,6 @@ package inra.ijpb.watershed;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.PriorityQueue;
 
 import ij.IJ;
@@ -37,6 +35,7 @@ import inra.ijpb.data.Neighborhood2D;
 import inra.ijpb.data.Neighborhood2DC8;
 import inra.ijpb.data.Neighborhood2DC4;
 import inra.ijpb.data.PixelRecord;
+import inra.ijpb.data.image.Images3D;
 
 /**
  * Marker-controlled version of the watershed transform in 2D.
@@ -57,6 +56,10 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 	ImageProcessor markerImage = null;
 	/** compactness constraint, parameter c in Compact Watershed algorithm [2] */
 	double compactness = 0.0;
+	/** number of levels used to quantize input values (0 to use exact values) */
+	int quantizationLevels = 0;
+	/** maximum difference between input values and their quantized values */
+	double maxRoundingError = 0;
 
 	/**
 	 * Initialize a marker-controlled watershed transform
@@ -141,6 +144,52 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 		this.compactness = compactness;
 	}
 
+	/**
+	 * Sets the number of levels used to quantize the input values in the
+	 * priority-queue flooding modes. When larger than 0 (and without
+	 * compactness constraint), input values are linearly mapped to integer
+	 * levels between the minimum and maximum of the input image, and the
+	 * flooding uses a bucket queue with constant-time operations instead of
+	 * a priority queue. Pixels with values that differ by less than the
+	 * rounding error (see {@link #getMaxRoundingError()}) may then be
+	 * processed in a different order than with exact values. The default value 0 uses exact values.
+	 * 
+	 * @param nLevels
+	 *            the number of quantization levels (e.g. 65536), or 0 to use
+	 *            exact values
+	 */
+	public void setQuantizationLevels( int nLevels )
+	{
+		if ( nLevels == 1 || nLevels < 0 )
+			throw new IllegalArgumentException( "Number of levels must be 0 or at least 2, not " + nLevels );
+		this.quantizationLevels = nLevels;
+	}
+
+	/**
+	 * @return the number of levels used to quantize the input values, or 0
+	 *         if exact values are used
+	 */
+	public int getQuantizationLevels()
+	{
+		return this.quantizationLevels;
+	}
+
+	/**
+	 * Returns the maximum rounding error of the input values, computed
+	 * during the last flooding with quantized values: the largest absolute
+	 * difference between an input value and the value of its quantization
+	 * level. This error concerns the values only. It does not bound the
+	 * number of pixels whose label differs from the exact flooding, as a
+	 * change in processing order may propagate along the flooding.
+	 * 
+	 * @return the maximum rounding error of the input values during the last
+	 *         quantized flooding (0 if values were not quantized)
+	 */
+	public double getMaxRoundingError()
+	{
+		return this.maxRoundingError;
+	}
+
 	/**
 	 * Apply watershed transform on inputImage, using the labeled 
 	 * markers from markerImage and restricted to the white areas 
@@ -171,9 +220,6 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 							+ connectivity);
 		}
 	    
-		// list of original pixels values and corresponding coordinates
-		LinkedList<PixelRecord> pixelList = null;
-		
 		final int[][] tabLabels = new int[ size1 ][ size2 ]; 
 		
 		// Make list of pixels and sort it in ascending order
@@ -181,17 +227,11 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 		if( verbose ) IJ.log("  Extracting pixel values..." );
 		final long t0 = System.currentTimeMillis();
 		
-		pixelList = extractPixelValues( inputImage, markerImage, tabLabels );		
-		if ( null == pixelList )
-			return null;
+		// linear indices of original pixels, sorted by value
+		final int[] sortedIndices = extractSortedPixelIndices( inputImage, markerImage, tabLabels );
 								
 		final long t1 = System.currentTimeMillis();		
-		if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-		if( verbose ) IJ.log("  Sorting pixels by value..." );
-		IJ.showStatus("Sorting pixels by value...");
-		Collections.sort( pixelList );
-		final long t2 = System.currentTimeMillis();
-		if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+		if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 			    
 		// Watershed
 	    boolean found = false;	    
@@ -206,21 +246,23 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
        			new Neighborhood2DC8() : new Neighborhood2DC4();
 	    
 	    boolean change = true;
-	    while ( pixelList.isEmpty() == false && change )
+	    int remaining = sortedIndices.length;
+	    while ( remaining > 0 && change )
 	    {
 	    	if ( Thread.currentThread().isInterrupted() )
 				return null;	
 	    	
 	    	change = false;
-			final int count = pixelList.size();
+			final int count = remaining;
+			remaining = 0;
 	      	IJ.log( "  Flooding " + count + " pixels..." );
 	      	IJ.showStatus("Flooding " + count + " pixels...");	      		      	
 	      	
 			for (int p = 0; p < count; ++p)
 	      	{
 				IJ.showProgress(p, count);
-	       		final PixelRecord pixelRecord = pixelList.removeFirst();
-	       		final Cursor2D p2 = pixelRecord.getCursor();
+	       		final int index = sortedIndices[ p ];
+	       		final Cursor2D p2 = new Cursor2D( index % size1, index / size1 );
 	    		final int i = p2.getX();
 	    		final int j = p2.getY();
 	       		
@@ -228,7 +270,7 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 				if( tabLabels[ i ][ j ] == 0 )
 	       		{
 			       	found = false;
-			       	double pixelValue = pixelRecord.getValue();
+			       	double pixelValue = inputImage.getf( i, j );
 			       	
 			       	// Read neighbor coordinates
 			       	cursor.set(  i, j );
@@ -253,7 +295,7 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 			       	}
 			       
 					if ( found == false )    
-						pixelList.addLast( pixelRecord );
+						sortedIndices[ remaining++ ] = index;
 					else
 						change = true;
 	      		}
@@ -301,9 +343,6 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 		// create stack to store animation
 		ImageStack animation = new ImageStack( size1, size2 );
 		
-		// list of original pixels values and corresponding coordinates
-		LinkedList<PixelRecord> pixelList = null;
-		
 		final int[][] tabLabels = new int[ size1 ][ size2 ]; 
 		
 		// Make list of pixels and sort it in ascending order
@@ -311,17 +350,11 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 		if( verbose ) IJ.log("  Extracting pixel values..." );
 		final long t0 = System.currentTimeMillis();
 		
-		pixelList = extractPixelValues( inputImage, markerImage, tabLabels );		
-		if ( null == pixelList )
-			return null;
+		// linear indices of original pixels, sorted by value
+		final int[] sortedIndices = extractSortedPixelIndices( inputImage, markerImage, tabLabels );
 											
 		final long t1 = System.currentTimeMillis();		
-		if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-		if( verbose ) IJ.log("  Sorting pixels by value..." );
-		IJ.showStatus("Sorting pixels by value...");
-		Collections.sort( pixelList );
-		final long t2 = System.currentTimeMillis();
-		if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+		if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 			    
 		// current height
 		double h = 0;
@@ -342,21 +375,23 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
        			new Neighborhood2DC8() : new Neighborhood2DC4();
 	    
 	    boolean change = true;
-	    while ( pixelList.isEmpty() == false && change )
+	    int remaining = sortedIndices.length;
+	    while ( remaining > 0 && change )
 	    {
 	    	if ( Thread.currentThread().isInterrupted() )
 				return null;	
 	    	
 	    	change = false;
-			final int count = pixelList.size();
+			final int count = remaining;
+			remaining = 0;
 			if( verbose )  IJ.log( "  Flooding " + count + " pixels..." );
 	      	IJ.showStatus("Flooding " + count + " pixels...");	      		      	
 	      	
 			for (int p = 0; p < count; ++p)
 	      	{
 				IJ.showProgress(p, count);
-	       		final PixelRecord pixelRecord = pixelList.removeFirst();
-	       		final Cursor2D p2 = pixelRecord.getCursor();
+	       		final int index = sortedIndices[ p ];
+	       		final Cursor2D p2 = new Cursor2D( index % size1, index / size1 );
 	    		final int i = p2.getX();
 	    		final int j = p2.getY();
 	       		
@@ -364,7 +399,7 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 				if( tabLabels[ i ][ j ] == 0 )
 	       		{
 			       	found = false;
-			       	double pixelValue = pixelRecord.getValue();
+			       	double pixelValue = inputImage.getf( i, j );
 			       	
 			       	// Read neighbor coordinates
 			       	cursor.set( i, j );
@@ -389,7 +424,7 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 			       	}
 			       
 					if ( found == false )    
-						pixelList.addLast( pixelRecord );
+						sortedIndices[ remaining++ ] = index;
 					else
 						change = true;
 					
@@ -463,19 +498,12 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 		if( verbose ) IJ.log("  Extracting pixel values..." );
 		final long t0 = System.currentTimeMillis();
 		
-		// extract list of original pixels values and corresponding coordinates
+		// extract linear indices of original pixels sorted by value,
 		// and at the same time, fill the label image
-		LinkedList<PixelRecord> pixelList = extractPixelValues( inputImage, markerImage, tabLabels );
-		if ( null == pixelList )
-			return null;
+		final int[] sortedIndices = extractSortedPixelIndices( inputImage, markerImage, tabLabels );
 						
 		final long t1 = System.currentTimeMillis();		
-		if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-		if( verbose ) IJ.log("  Sorting pixels by value..." );
-		IJ.showStatus("Sorting pixels by value...");
-		Collections.sort( pixelList );
-		final long t2 = System.currentTimeMillis();
-		if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+		if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 			    
 		// Watershed
 	    boolean found = false;	    
@@ -490,21 +518,23 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
        	final ArrayList <Integer> neighborLabels = new ArrayList<Integer>();
        			
 	    boolean change = true;
-	    while ( pixelList.isEmpty() == false && change )
+	    int remaining = sortedIndices.length;
+	    while ( remaining > 0 && change )
 	    {
 	    	if ( Thread.currentThread().isInterrupted() )
 				return null;	
 	    	
 	    	change = false;
-			final int count = pixelList.size();
+			final int count = remaining;
+			remaining = 0;
 			if( verbose )  IJ.log( "  Flooding " + count + " pixels..." );
 	      	IJ.showStatus("Flooding " + count + " pixels...");	      		      	
 	      	
 			for (int p = 0; p < count; ++p)
 	      	{
 				IJ.showProgress(p, count);
-	       		final PixelRecord pixelRecord = pixelList.removeFirst();
-	       		final Cursor2D p2 = pixelRecord.getCursor();
+	       		final int index = sortedIndices[ p ];
+	       		final Cursor2D p2 = new Cursor2D( index % size1, index / size1 );
 	    		final int i = p2.getX();
 	    		final int j = p2.getY();
 	       		
@@ -538,7 +568,7 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 			       	}
 			       				       
 					if ( found == false )    
-						pixelList.addLast( pixelRecord );
+						sortedIndices[ remaining++ ] = index;
 					else
 					{
 						change = true;
@@ -600,19 +630,12 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 		if( verbose ) IJ.log("  Extracting pixel values..." );
 		final long t0 = System.currentTimeMillis();
 		
-		// extract list of original pixels values and corresponding coordinates
+		// extract linear indices of original pixels sorted by value,
 		// and at the same time, fill the label image
-		LinkedList<PixelRecord> pixelList = extractPixelValues( inputImage, markerImage, tabLabels );
-		if ( null == pixelList )
-			return null;
+		final int[] sortedIndices = extractSortedPixelIndices( inputImage, markerImage, tabLabels );
 						
 		final long t1 = System.currentTimeMillis();		
-		if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-		if( verbose ) IJ.log("  Sorting pixels by value..." );
-		IJ.showStatus("Sorting pixels by value...");
-		Collections.sort( pixelList );
-		final long t2 = System.currentTimeMillis();
-		if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+		if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 		
 		// current height
 		double h = 0;
@@ -633,21 +656,23 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
        	final ArrayList <Integer> neighborLabels = new ArrayList<Integer>();
        			
 	    boolean change = true;
-	    while ( pixelList.isEmpty() == false && change )
+	    int remaining = sortedIndices.length;
+	    while ( remaining > 0 && change )
 	    {
 	    	if ( Thread.currentThread().isInterrupted() )
 				return null;	
 	    	
 	    	change = false;
-			final int count = pixelList.size();
+			final int count = remaining;
+			remaining = 0;
 	      	IJ.log( "  Flooding " + count + " pixels..." );
 	      	IJ.showStatus("Flooding " + count + " pixels...");	      		      	
 	      	
 			for (int p = 0; p < count; ++p)
 	      	{
 				IJ.showProgress( p, count );
-	       		final PixelRecord pixelRecord = pixelList.removeFirst();
-	       		final Cursor2D p2 = pixelRecord.getCursor();
+	       		final int index = sortedIndices[ p ];
+	       		final Cursor2D p2 = new Cursor2D( index % size1, index / size1 );
 	    		final int i = p2.getX();
 	    		final int j = p2.getY();
 	       		
@@ -681,7 +706,7 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 			       	}
 			       				       
 					if ( found == false )    
-						pixelList.addLast( pixelRecord );
+						sortedIndices[ remaining++ ] = index;
 					else
 					{
 						change = true;
@@ -693,9 +718,9 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 					}
 					
 					// update animation
-					if( pixelRecord.getValue() > h )
+					if( inputImage.getf( i, j ) > h )
 					{
-						h = pixelRecord.getValue();
+						h = inputImage.getf( i, j );
 						animation.addSlice( "h=" + h, new FloatProcessor( tabLabels ));
 					}
 	      		}
@@ -750,7 +775,10 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 			throw new RuntimeException(
 					"Connectivity for 2D images must be either 4 or 8, not "
 							+ connectivity);
-		}	    
+		}
+
+		if ( quantizationLevels > 0 && compactness == 0 )
+			return applyWithQuantizedValues( false );	    
 
 		// list of original pixels values and corresponding coordinates
 		PriorityQueue<PixelRecord> pixelList = null;
@@ -1046,7 +1074,7 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 
-      			double pixelValue = pixelRecord.getValue();
+      			double pixelValue = inputImage.getf( i, j );
 
       			// Read neighbor coordinates		       	
 		       	neigh.setCursor( p );
@@ -1097,7 +1125,7 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 
-      			double pixelValue = pixelRecord.getValue(); 
+      			double pixelValue = inputImage.getf( i, j ); 
 
       			// Read neighbor coordinates
       			neigh.setCursor( p );
@@ -1461,7 +1489,10 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 			throw new RuntimeException(
 					"Connectivity for 2D images must be either 4 or 8, not "
 							+ connectivity);
-		}	    
+		}
+
+		if ( quantizationLevels > 0 && compactness == 0 )
+			return applyWithQuantizedValues( true );	    
 
 		// list of original pixels values and corresponding coordinates
 		PriorityQueue<PixelRecord> pixelList = null;
@@ -1697,6 +1728,71 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 	}
 	
 	
+	/**
+	 * Apply watershed transform on inputImage after quantization of its
+	 * values, using a bucket queue.
+	 * 
+	 * @param getDams select/deselect the calculation of dams
+	 * @return watershed domains image
+	 */
+	private ImageProcessor applyWithQuantizedValues( boolean getDams )
+	{
+		final int size1 = inputImage.getWidth();
+		final int size2 = inputImage.getHeight();
+		final int n = size1 * size2;
+
+		IJ.showStatus( "Quantizing pixel values..." );
+		final long t0 = System.currentTimeMillis();
+
+		final float[] values = new float[ n ];
+		final int[] seeds = new int[ n ];
+		final boolean[] inMask = null != maskImage ? new boolean[ n ] : null;
+		for( int i = 0; i < n; i++ )
+		{
+			values[ i ] = inputImage.getf( i );
+			seeds[ i ] = (int) markerImage.getf( i );
+			if( null != inMask )
+				inMask[ i ] = maskImage.getf( i ) > 0;
+		}
+
+		final ImageStack stack = new ImageStack( size1, size2 );
+		stack.addSlice( inputImage );
+		final double[] minMax = Images3D.findMinAndMax( stack );
+		final int[] levels = new int[ n ];
+		maxRoundingError = QuantizedWatershedFlooding.quantize(
+				values, minMax[ 0 ], minMax[ 1 ], quantizationLevels, levels );
+
+		final long t1 = System.currentTimeMillis();
+		if( verbose ) IJ.log( "  Quantization into " + quantizationLevels
+				+ " levels took " + (t1-t0) + " ms (max. rounding error: " + maxRoundingError + ")." );
+
+		// neighbor offsets, in the order of the 2D neighborhoods
+		final int[] dx = connectivity == 8 ?
+				new int[]{ -1, -1, -1, 0, 0, 1, 1, 1 } : new int[]{ -1, 0, 1, 0 };
+		final int[] dy = connectivity == 8 ?
+				new int[]{ -1, 0, 1, -1, 1, -1, 0, 1 } : new int[]{ 0, -1, 0, 1 };
+		final int[] dz = new int[ dx.length ];
+
+		IJ.showStatus( "Flooding..." );
+		QuantizedWatershedFlooding flooding =
+				new QuantizedWatershedFlooding( size1, size2, 1, dx, dy, dz );
+		final int[] labels = flooding.flood( levels, quantizationLevels, seeds, inMask, getDams );
+		if ( null == labels )
+			return null;
+
+		final long t2 = System.currentTimeMillis();
+		if( verbose ) IJ.log( "  Flooding took: " + (t2-t1) + " ms" );
+		IJ.showStatus( "" );
+
+		// Create result label image, setting unlabeled pixels to 0
+		final ImageProcessor labelProcessor = getDams ?
+				markerImage.duplicate() : new FloatProcessor( size1, size2 );
+		for( int i = 0; i < n; i++ )
+			labelProcessor.setf( i, Math.max( labels[ i ], 0 ) );
+
+		return labelProcessor;
+	}
+
 	/**
 	 * Extract pixel values from input and seed images
 	 * 
@@ -1807,48 +1903,30 @@ public class MarkerControlledWatershedTransform2D extends WatershedTransform2D
 	}
 
 	/**
-	 * Extract pixel values from input and labeled marker images. The
-	 * input grayscale values will be return in a list of PixelRecord 
-	 * and the markers will be stored in <code>tabLabels</code>.
+	 * Fill <code>tabLabels</code> with the labeled markers, and compute the
+	 * linear indices of the pixels of the input image (restricted to the mask
+	 * if it exists), sorted by ascending value.
 	 * 
+	 * @see #sortPixelIndices(ImageProcessor, double, double)
 	 * @param inputImage input grayscale image (usually a gradient image)
 	 * @param markerImage labeled marker image
 	 * @param tabLabels output label array
-	 * @return list of input pixel values
+	 * @return the indices of the pixels, sorted by pixel value
 	 */
-	public LinkedList<PixelRecord> extractPixelValues(
+	private int[] extractSortedPixelIndices(
 			final ImageProcessor inputImage,
 			final ImageProcessor markerImage,
-			final int[][] tabLabels) 
+			final int[][] tabLabels ) 
 	{
-		
 		final int size1 = inputImage.getWidth();
-	    final int size2 = inputImage.getHeight();
-			           
-        final LinkedList<PixelRecord> list = new LinkedList<PixelRecord>();
-	    
-		if( null != maskImage )
-		{
-			for( int x = 0; x < size1; ++x )
-				for( int y = 0; y < size2; ++y )
-					if( maskImage.getf( x, y ) > 0 )
-					{
-						list.addLast( new PixelRecord( x, y, inputImage.getf( x, y )));
-						tabLabels[ x ][ y ] = (int) markerImage.getf( x, y );
-					}														
-		}
-		else
-		{										       					
-			for( int x = 0; x < size1; ++x )
-				for( int y = 0; y < size2; ++y )					
-				{
-					list.addLast( new PixelRecord( x, y, inputImage.getf( x, y )));
+		final int size2 = inputImage.getHeight();
+
+		for( int x = 0; x < size1; ++x )
+			for( int y = 0; y < size2; ++y )
+				if( null == maskImage || maskImage.getf( x, y ) > 0 )
 					tabLabels[ x ][ y ] = (int) markerImage.getf( x, y );
-				}										
-			
-		}// end else
-				
-		return list;
+
+		return sortPixelIndices( inputImage, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY );
 	}
 
 }// end class MarkerControlledWatershedTransform2D
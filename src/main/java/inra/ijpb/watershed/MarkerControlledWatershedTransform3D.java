@@ -23,21 +23,14 @@ package inra.ijpb.watershed;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.PriorityQueue;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
-import ij.Prefs;
 import ij.process.ImageProcessor;
-import ij.util.ThreadUtil;
 import inra.ijpb.data.Cursor3D;
-import inra.ijpb.data.Neighborhood3D;
-import inra.ijpb.data.Neighborhood3DC26;
-import inra.ijpb.data.Neighborhood3DC6;
+import inra.ijpb.data.NeighborhoodOffsets;
 import inra.ijpb.data.VoxelRecord;
 import inra.ijpb.data.image.Images3D;
 
@@ -60,6 +53,10 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 	ImagePlus markerImage = null;
 	/** compactness constraint, parameter c in Compact Watershed algorithm [2] */
 	double compactness = 0.0;
+	/** number of levels used to quantize input values (0 to use exact values) */
+	int quantizationLevels = 0;
+	/** maximum difference between input values and their quantized values */
+	double maxRoundingError = 0;
 
 	/**
 	 * Initialize a marker-controlled watershed transform
@@ -114,6 +111,52 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 		this.markerImage = marker;
 		this.compactness = compactness;
 	}
+	/**
+	 * Sets the number of levels used to quantize the input values in the
+	 * priority-queue flooding modes. When larger than 0 (and without
+	 * compactness constraint), input values are linearly mapped to integer
+	 * levels between the minimum and maximum of the input image, and the
+	 * flooding uses a bucket queue with constant-time operations instead of
+	 * a priority queue. Voxels with values that differ by less than the
+	 * rounding error (see {@link #getMaxRoundingError()}) may then be
+	 * processed in a different order than with exact values. The default value 0 uses exact values.
+	 * 
+	 * @param nLevels
+	 *            the number of quantization levels (e.g. 65536), or 0 to use
+	 *            exact values
+	 */
+	public void setQuantizationLevels( int nLevels )
+	{
+		if ( nLevels == 1 || nLevels < 0 )
+			throw new IllegalArgumentException( "Number of levels must be 0 or at least 2, not " + nLevels );
+		this.quantizationLevels = nLevels;
+	}
+
+	/**
+	 * @return the number of levels used to quantize the input values, or 0
+	 *         if exact values are used
+	 */
+	public int getQuantizationLevels()
+	{
+		return this.quantizationLevels;
+	}
+
+	/**
+	 * Returns the maximum rounding error of the input values, computed
+	 * during the last flooding with quantized values: the largest absolute
+	 * difference between an input value and the value of its quantization
+	 * level. This error concerns the values only. It does not bound the
+	 * number of voxels whose label differs from the exact flooding, as a
+	 * change in processing order may propagate along the flooding.
+	 * 
+	 * @return the maximum rounding error of the input values during the last
+	 *         quantized flooding (0 if values were not quantized)
+	 */
+	public double getMaxRoundingError()
+	{
+		return this.maxRoundingError;
+	}
+
 	/**
 	 * Apply watershed transform on inputImage, using the labeled 
 	 * markers from markerImage and restricted to the white areas 
@@ -146,9 +189,6 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 							+ connectivity);
 		}
 	    
-		// list of original voxels values and corresponding coordinates
-		LinkedList<VoxelRecord> voxelList = null;
-		
 		final int[][][] tabLabels = new int[ size1 ][ size2 ][ size3 ]; 
 		
 		// Make list of voxels and sort it in ascending order
@@ -156,81 +196,72 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 		if( verbose ) IJ.log("  Extracting voxel values..." );
 		final long t0 = System.currentTimeMillis();
 		
-		voxelList = extractVoxelValues( inputStack, markerImage.getStack(), tabLabels );		
-		if ( null == voxelList )
-			return null;
+		// extract linear indices of original voxels sorted by value,
+		// and at the same time, fill the label image
+		final int[] sortedIndices = extractSortedVoxelIndices( inputStack, markerImage.getStack(), tabLabels );
+		final int sizeXY = size1 * size2;
 						
 		final long t1 = System.currentTimeMillis();		
-		if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-		if( verbose ) IJ.log("  Sorting voxels by value..." );
-		IJ.showStatus("Sorting voxels by value...");
-		Collections.sort( voxelList );
-		final long t2 = System.currentTimeMillis();
-		if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+		if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 			    
 		// Watershed
 	    boolean found = false;	    
 
 	    final long start = System.currentTimeMillis();
 
-	    // Auxiliary cursor to visit neighbors
-	    final Cursor3D cursor = new Cursor3D(0, 0, 0);
-      	
-      	// Check connectivity
-       	final Neighborhood3D neigh = connectivity == 26 ? 
-       			new Neighborhood3DC26() : new Neighborhood3DC6();
+      	// Check connectivity, and precompute neighbor offsets
+       	final NeighborhoodOffsets neigh = new NeighborhoodOffsets(
+       			connectivity == 26 ? 26 : 6, size1, size2, size3 );
+       	final int[] dx = neigh.getShiftsX();
+       	final int[] dy = neigh.getShiftsY();
+       	final int[] dz = neigh.getShiftsZ();
 	    
 	    boolean change = true;
-	    while ( voxelList.isEmpty() == false && change )
+	    int remaining = sortedIndices.length;
+	    while ( remaining > 0 && change )
 	    {
 	    	if ( Thread.currentThread().isInterrupted() )
 				return null;	
 	    	
 	    	change = false;
-			final int count = voxelList.size();
+			final int count = remaining;
+			remaining = 0;
 			if( verbose ) IJ.log( "  Flooding " + count + " voxels..." );
 	      	IJ.showStatus("Flooding " + count + " voxels...");	      		      	
 	      	
 			for (int p = 0; p < count; ++p)
 	      	{
 				IJ.showProgress(p, count);
-	       		final VoxelRecord voxelRecord = voxelList.removeFirst();
-	       		final Cursor3D p2 = voxelRecord.getCursor();
-	    		final int i = p2.getX();
-	    		final int j = p2.getY();
-	    		final int k = p2.getZ();
+	       		final int index = sortedIndices[ p ];
+	    		final int i = index % size1;
+	    		final int j = ( index % sizeXY ) / size1;
+	    		final int k = index / sizeXY;
 	       		
 	       		// If the voxel is unlabeled
 				if( tabLabels[ i ][ j ][ k ] == 0 )
 	       		{
 			       	found = false;
-			       	double voxelValue = voxelRecord.getValue();
+			       	double voxelValue = inputStack.getVoxel( i, j, k );
 			       	
-			       	// Read neighbor coordinates
-			       	cursor.set( i, j, k );
-			       	neigh.setCursor( cursor );
-			       		
-			       	for( Cursor3D c : neigh.getNeighbors() )			       		
+			       	// Iterate over neighbors within image
+			       	for( int n : neigh.getNeighbors( i, j, k ) )
 			       	{
 			       		// Look in neighborhood for labeled voxels with
 			       		// smaller or equal original value
-			       		int u = c.getX();
-			       		int v = c.getY();
-			       		int w = c.getZ();
-			       					       		
-			       		if ( u >= 0 && u < size1 && v >= 0 && v < size2 && w >= 0 && w < size3 )
+			       		int u = i + dx[ n ];
+			       		int v = j + dy[ n ];
+			       		int w = k + dz[ n ];
+			       		
+			       		if ( tabLabels[u][v][w] != 0 && inputStack.getVoxel(u,v,w) <= voxelValue )
 			       		{
-			       			if ( tabLabels[u][v][w] != 0 && inputStack.getVoxel(u,v,w) <= voxelValue )
-			       			{
-			       				tabLabels[i][j][k] = tabLabels[u][v][w];
-			       				voxelValue = inputStack.getVoxel(u,v,w);
-			       				found = true;
-			       			}
-			       		}			       		
+			       			tabLabels[i][j][k] = tabLabels[u][v][w];
+			       			voxelValue = inputStack.getVoxel(u,v,w);
+			       			found = true;
+			       		}
 			       	}
 			       
 					if ( found == false )    
-						voxelList.addLast( voxelRecord );
+						sortedIndices[ remaining++ ] = index;
 					else
 						change = true;
 	      		}
@@ -304,92 +335,84 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 		if( verbose ) IJ.log("  Extracting voxel values..." );
 		final long t0 = System.currentTimeMillis();
 		
-		// extract list of original voxels values and corresponding coordinates
+		// extract linear indices of original voxels sorted by value,
 		// and at the same time, fill the label image
-		LinkedList<VoxelRecord> voxelList = extractVoxelValues( inputStack, markerImage.getStack(), tabLabels );
-		if ( null == voxelList )
-			return null;
+		final int[] sortedIndices = extractSortedVoxelIndices( inputStack, markerImage.getStack(), tabLabels );
+		final int sizeXY = size1 * size2;
 						
 		final long t1 = System.currentTimeMillis();		
-		if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-		if( verbose ) IJ.log("  Sorting voxels by value..." );
-		IJ.showStatus("Sorting voxels by value...");
-		Collections.sort( voxelList );
-		final long t2 = System.currentTimeMillis();
-		if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+		if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 			    
 		// Watershed
 	    boolean found = false;	    
 
 	    final long start = System.currentTimeMillis();
 	          	
-      	// Check connectivity
-       	final Neighborhood3D neigh = connectivity == 26 ? 
-       			new Neighborhood3DC26() : new Neighborhood3DC6();
-
-       	// list to store neighbor labels
-       	final ArrayList <Integer> neighborLabels = new ArrayList<Integer>();
+      	// Check connectivity, and precompute neighbor offsets
+       	final NeighborhoodOffsets neigh = new NeighborhoodOffsets(
+       			connectivity == 26 ? 26 : 6, size1, size2, size3 );
+       	final int[] dx = neigh.getShiftsX();
+       	final int[] dy = neigh.getShiftsY();
+       	final int[] dz = neigh.getShiftsZ();
+
+       	// array to store neighbor labels
+       	// array to store neighbor labels
+      	final int[] neighborLabels = new int[ neigh.size() ];
+       	int nLabels = 0;
        			
 	    boolean change = true;
-	    while ( voxelList.isEmpty() == false && change )
+	    int remaining = sortedIndices.length;
+	    while ( remaining > 0 && change )
 	    {
 	    	if ( Thread.currentThread().isInterrupted() )
 				return null;	
 	    	
 	    	change = false;
-			final int count = voxelList.size();
+			final int count = remaining;
+			remaining = 0;
 			if( verbose ) IJ.log( "  Flooding " + count + " voxels..." );
 	      	IJ.showStatus("Flooding " + count + " voxels...");	      		      	
 	      	
 			for (int p = 0; p < count; ++p)
 	      	{
 				IJ.showProgress(p, count);
-	       		final VoxelRecord voxelRecord = voxelList.removeFirst();
-	       		final Cursor3D p2 = voxelRecord.getCursor();
-	    		final int i = p2.getX();
-	    		final int j = p2.getY();
-	    		final int k = p2.getZ();
+	       		final int index = sortedIndices[ p ];
+	    		final int i = index % size1;
+	    		final int j = ( index % sizeXY ) / size1;
+	    		final int k = index / sizeXY;
 	       		
 	       		// If the voxel is unlabeled
 				if( tabLabels[ i ][ j ][ k ] == 0 )
 	       		{
 			       	found = false;
 			       	
-			       	// Read neighbor coordinates
-			       	neigh.setCursor( p2 );
-			       	
 			       	// reset list of neighbor labels
-			       	neighborLabels.clear();
+			       	nLabels = 0;
 			       		
-			       	for( Cursor3D c : neigh.getNeighbors() )			       		
+			       	// Iterate over neighbors within image
+			       	for( int n : neigh.getNeighbors( i, j, k ) )
 			       	{
 			       		// Look in neighborhood for labeled voxels
-			       		int u = c.getX();
-			       		int v = c.getY();
-			       		int w = c.getZ();
-			       					       		
-			       		if ( u >= 0 && u < size1 && v >= 0 && v < size2 && w >= 0 && w < size3 )
+			       		int label = tabLabels[ i + dx[ n ] ][ j + dy[ n ] ][ k + dz[ n ] ];
+			       		if ( label > 0 )
 			       		{
-			       			if ( tabLabels[ u ][ v ] [ w ] > 0 )
-			       			{
-			       				// store unique labels of neighbors in a list
-	      						if( neighborLabels.contains( tabLabels[ u ][ v ][ w ] ) == false ) 
-	      								neighborLabels.add( tabLabels[ u ][ v ][ w ] );
-			       				found = true;
-			       			}
-			       		}			       		
+			       			// store unique labels of neighbors in a list
+			       			if( contains( neighborLabels, nLabels, label ) == false ) 
+			       				neighborLabels[ nLabels++ ] = label;
+			       			found = true;
+			       		}
 			       	}
 			       				       
 					if ( found == false )    
-						voxelList.addLast( voxelRecord );
+						sortedIndices[ remaining++ ] = index;
 					else
 					{
 						change = true;
 						// if the neighbors of the extracted voxel that have already been labeled 
 						// all have the same label, then the voxel is labeled with their label.
 						// Otherwise is left as 0 to create a dam.
-						if( neighborLabels.size() == 1 )
-							tabLabels[ i ][ j ][ k ] = neighborLabels.get( 0 );
+						if( nLabels == 1 )
+							tabLabels[ i ][ j ][ k ] = neighborLabels[ 0 ];
 					}
 	      		}
 	        }
@@ -448,7 +471,10 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 			throw new RuntimeException(
 					"Connectivity for stacks must be either 6 or 26, not "
 							+ connectivity);
-		}	    
+		}
+
+		if ( quantizationLevels > 0 && compactness == 0 )
+			return applyWithQuantizedValues( false );	    
 
 		// list of voxels to process (initially the voxels adjacent to the
 		// markers)
@@ -478,9 +504,13 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 		// Watershed
 		final long start = System.currentTimeMillis();
 
-		// Check connectivity
-		final Neighborhood3D neigh = connectivity == 26 ?
-				new Neighborhood3DC26() : new Neighborhood3DC6();
+		// Check connectivity, and precompute neighbor offsets
+		final NeighborhoodOffsets neigh = new NeighborhoodOffsets(
+				connectivity == 26 ? 26 : 6, size1, size2, size3 );
+		final int[] dx = neigh.getShiftsX();
+		final int[] dy = neigh.getShiftsY();
+		final int[] dz = neigh.getShiftsZ();
+		final double[] distances = neigh.getDistances();
 
 		final int count = voxelList.size();
 		if( verbose ) IJ.log( "  Flooding from " + count + " voxels..." );
@@ -489,8 +519,9 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 		final double[] extent = Images3D.findMinAndMax(inputImage);
 		double maxValue = extent[ 1 ];
 
-		// list to store neighbor labels
-		final ArrayList <Integer> neighborLabels = new ArrayList<Integer>();
+		// array to store neighbor labels
+		final int[] neighborLabels = new int[ neigh.size() ];
+		int nLabels = 0;
 		// list to store neighbor voxels
 		final ArrayList <VoxelRecord> neighborVoxels =
 				new ArrayList<VoxelRecord>();
@@ -517,58 +548,51 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 				final int j = p.getY();
 				final int k = p.getZ();
 
-				// Set cursor of neighborhood in voxel of interest
-				neigh.setCursor( p );
-
 				// reset list of neighbor labels
-				neighborLabels.clear();
+				nLabels = 0;
 
 				// reset list of neighbor voxels
 				neighborVoxels.clear();
 
 				// Read neighbor coordinates
-				for( Cursor3D cur : neigh.getNeighbors() )
+				for( int n : neigh.getNeighbors( i, j, k ) )
 				{
 					// Look in neighborhood
-					int u = cur.getX();
-					int v = cur.getY();
-					int w = cur.getZ();
-
-					if ( u >= 0 && u < size1 && v >= 0 && v < size2 && w >= 0 && w < size3 )
+					int u = i + dx[ n ];
+					int v = j + dy[ n ];
+					int w = k + dz[ n ];
+
+					// Unlabeled neighbors go into the queue if they are not
+					// there yet
+					if ( tabLabels[u][v][w] == INIT &&
+							maskStack.getVoxel( u, v, w ) > 0 )
 					{
-						// Unlabeled neighbors go into the queue if they are not
-						// there yet
-						if ( tabLabels[u][v][w] == INIT &&
-								maskStack.getVoxel( u, v, w ) > 0 )
-						{
-							if( c == 0 ) // regular watershed
-      							neighborVoxels.add( new VoxelRecord( cur, inputStack.getVoxel( u, v, w ) ) );
-      						else // compact watershed
-      						{
-      							// update distance from seed
-								final double cDist2p = voxelRecord.getValue() - inputStack.getVoxel( i, j, k );
-								final double cDist2cur = cDist2p + c * p.euclideanDistance( cur );
-								neighborVoxels.add(
-										new VoxelRecord(
-												cur,
-												inputStack.getVoxel( u, v, w )
-												+ cDist2cur ) );
-      						}
-						}
-						else if ( tabLabels[u][v][w] > 0 &&
-								! neighborLabels.contains(
-										tabLabels[ u ][ v ][ w ] ) )
-						{
-							// store labels of neighbors in a list
-							neighborLabels.add( tabLabels[ u ][ v ][ w ] );
-						}
+						if( c == 0 ) // regular watershed
+      						neighborVoxels.add( new VoxelRecord( u, v, w, inputStack.getVoxel( u, v, w ) ) );
+      					else // compact watershed
+      					{
+      						// update distance from seed
+							final double cDist2p = voxelRecord.getValue() - inputStack.getVoxel( i, j, k );
+							final double cDist2cur = cDist2p + c * distances[ n ];
+							neighborVoxels.add(
+									new VoxelRecord(
+											u, v, w,
+											inputStack.getVoxel( u, v, w )
+											+ cDist2cur ) );
+      					}
+					}
+					else if ( tabLabels[u][v][w] > 0 &&
+							! contains( neighborLabels, nLabels, tabLabels[ u ][ v ][ w ] ) )
+					{
+						// store labels of neighbors in a list
+						neighborLabels[ nLabels++ ] = tabLabels[ u ][ v ][ w ];
 					}
 				}
 				// if it has any labeled neighbor
-				if( neighborLabels.size() > 0 )
+				if( nLabels > 0 )
 				{
 					// assign that label to the current voxel
-					tabLabels[ i ][ j ][ k ] = neighborLabels.get( 0 );
+					tabLabels[ i ][ j ][ k ] = neighborLabels[ 0 ];
 					// now that we know the voxel is labeled, add neighbors to list
 					for( VoxelRecord v : neighborVoxels )
 					{
@@ -594,56 +618,50 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 				final int j = p.getY();
 				final int k = p.getZ();
 
-				// Set cursor of neighborhood in voxel of interest
-				neigh.setCursor( p );
-
 				// reset list of neighbor labels
-				neighborLabels.clear();
+				nLabels = 0;
 
 				// reset list of neighbor voxels
 				neighborVoxels.clear();
 
 				// Read neighbor coordinates
-				for( Cursor3D cur : neigh.getNeighbors() )
+				for( int n : neigh.getNeighbors( i, j, k ) )
 				{
 					// Look in neighborhood for labeled voxels with
 					// smaller or equal original value
-					int u = cur.getX();
-					int v = cur.getY();
-					int w = cur.getZ();
-					if ( u >= 0 && u < size1 && v >= 0 && v < size2 && w >= 0 && w < size3 )
+					int u = i + dx[ n ];
+					int v = j + dy[ n ];
+					int w = k + dz[ n ];
+					// Unlabeled neighbors go into the queue if they are not there yet
+					if (tabLabels[ u ][ v ][ w ] == INIT )
 					{
-						// Unlabeled neighbors go into the queue if they are not there yet
-						if (tabLabels[ u ][ v ][ w ] == INIT )
-						{
-							if( c == 0 ) // regular watershed
-      							neighborVoxels.add( new VoxelRecord( cur, inputStack.getVoxel( u, v, w ) ) );
-      						else // compact watershed
-      						{
-      							// update distance from seed
-								final double cDist2p = voxelRecord.getValue() - inputStack.getVoxel( i, j, k );
-								final double cDist2cur = cDist2p + c * p.euclideanDistance( cur );
-								neighborVoxels.add(
-										new VoxelRecord(
-												cur,
-												inputStack.getVoxel( u, v, w )
-												+ cDist2cur ) );
-      						}
-						}
-						else if (  tabLabels[ u ][ v ][ w ] > 0 &&
-								! neighborLabels.contains(tabLabels[ u ][ v ][ w ]) )
-						{
-							// store labels of neighbors in a list without
-							// repetitions
-							neighborLabels.add( tabLabels[ u ][ v ][ w ] );
-						}
+						if( c == 0 ) // regular watershed
+      						neighborVoxels.add( new VoxelRecord( u, v, w, inputStack.getVoxel( u, v, w ) ) );
+      					else // compact watershed
+      					{
+      						// update distance from seed
+							final double cDist2p = voxelRecord.getValue() - inputStack.getVoxel( i, j, k );
+							final double cDist2cur = cDist2p + c * distances[ n ];
+							neighborVoxels.add(
+									new VoxelRecord(
+											u, v, w,
+											inputStack.getVoxel( u, v, w )
+											+ cDist2cur ) );
+      					}
+					}
+					else if (  tabLabels[ u ][ v ][ w ] > 0 &&
+							! contains( neighborLabels, nLabels, tabLabels[ u ][ v ][ w ] ) )
+					{
+						// store labels of neighbors in a list without
+						// repetitions
+						neighborLabels[ nLabels++ ] = tabLabels[ u ][ v ][ w ];
 					}
 				}
 				// if it has any labeled neighbor
-				if( neighborLabels.size() > 0 )
+				if( nLabels > 0 )
 				{
 					// assign the label of the first neighbor to this voxel
-					tabLabels[ i ][ j ][ k ] = neighborLabels.get( 0 );
+					tabLabels[ i ][ j ][ k ] = neighborLabels[ 0 ];
 					// now that we know the voxel is labeled, add neighbors to
 					// list
 					for( VoxelRecord v : neighborVoxels )
@@ -732,7 +750,10 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 			throw new RuntimeException(
 					"Connectivity for stacks must be either 6 or 26, not "
 							+ connectivity);
-		}	    
+		}
+
+		if ( quantizationLevels > 0 && compactness == 0 )
+			return applyWithQuantizedValues( true );	    
 
 		// list of original voxels values and corresponding coordinates
 		PriorityQueue<VoxelRecord> voxelList = null;
@@ -760,9 +781,13 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 		// Watershed
 	    final long start = System.currentTimeMillis();
 	         	
-      	// Check connectivity
-       	final Neighborhood3D neigh = connectivity == 26 ? 
-       			new Neighborhood3DC26() : new Neighborhood3DC6();
+      	// Check connectivity, and precompute neighbor offsets
+       	final NeighborhoodOffsets neigh = new NeighborhoodOffsets(
+       			connectivity == 26 ? 26 : 6, size1, size2, size3 );
+       	final int[] dx = neigh.getShiftsX();
+       	final int[] dy = neigh.getShiftsY();
+       	final int[] dz = neigh.getShiftsZ();
+       	final double[] distances = neigh.getDistances();
 
 	    final int count = voxelList.size();
 	    if( verbose ) IJ.log( "  Flooding from " + count + " voxels..." );
@@ -771,8 +796,9 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
       	final double[] extent = Images3D.findMinAndMax(inputImage);
       	double maxValue = extent[1];
       	
-      	// list to store neighbor labels
-      	final ArrayList <Integer> neighborLabels = new ArrayList<Integer>();
+      	// array to store neighbor labels
+      	final int[] neighborLabels = new int[ neigh.size() ];
+      	int nLabels = 0;
       	
       	final ArrayList <VoxelRecord> neighborVoxels = new ArrayList<VoxelRecord>();
 
@@ -799,59 +825,52 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    		final int k = p.getZ();
-      			
 
-      			// Read neighbor coordinates		       	
-		       	neigh.setCursor( p );
-		       	 
 		       	// reset list of neighbor labels
-		       	neighborLabels.clear();
+		       	nLabels = 0;
 		       	
 		       	// reset list of neighbor voxels
 		       	neighborVoxels.clear();
 		       	
-		       	for( Cursor3D cur : neigh.getNeighbors() )
+		       	for( int n : neigh.getNeighbors( i, j, k ) )
 		       	{
 		       		// Look in neighborhood for labeled voxels with
 		       		// smaller or equal original value
-		       		int u = cur.getX();
-		       		int v = cur.getY();
-		       		int w = cur.getZ();
+		       		int u = i + dx[ n ];
+		       		int v = j + dy[ n ];
+		       		int w = k + dz[ n ];
 		       		
-		       		if ( u >= 0 && u < size1 && v >= 0 && v < size2 && w >= 0 && w < size3 )
-		       		{
-		       			// Unlabeled neighbors go into the queue if they are not
-		       			// there yet
-		       			if ( tabLabels[u][v][w] == INIT
-		       					&& maskStack.getVoxel(u, v, w) > 0 )
-		       			{
-      						if( c == 0 ) // regular watershed
-      							neighborVoxels.add( new VoxelRecord( cur, inputStack.getVoxel( u, v, w ) ) );
-      						else // compact watershed
-      						{
-      							// update distance from seed
-								final double cDist2p = voxelRecord.getValue() - inputStack.getVoxel( i, j, k );
-								final double cDist2cur = cDist2p + c * p.euclideanDistance( cur );
-								neighborVoxels.add(
-										new VoxelRecord(
-												cur,
-												inputStack.getVoxel( u, v, w )
-												+ cDist2cur ) );
-      						}
-      					}
-      					else if ( tabLabels[ u ][ v ][ w ] > 0 
-      							&& neighborLabels.contains(tabLabels[ u ][ v ][ w ]) == false)
+	       			// Unlabeled neighbors go into the queue if they are not
+	       			// there yet
+	       			if ( tabLabels[u][v][w] == INIT
+	       					&& maskStack.getVoxel(u, v, w) > 0 )
+	       			{
+      					if( c == 0 ) // regular watershed
+      						neighborVoxels.add( new VoxelRecord( u, v, w, inputStack.getVoxel( u, v, w ) ) );
+      					else // compact watershed
       					{
-      						// store labels of neighbors in a list
-      						neighborLabels.add( tabLabels[ u ][ v ][ w ] );
+      						// update distance from seed
+							final double cDist2p = voxelRecord.getValue() - inputStack.getVoxel( i, j, k );
+							final double cDist2cur = cDist2p + c * distances[ n ];
+							neighborVoxels.add(
+									new VoxelRecord(
+											u, v, w,
+											inputStack.getVoxel( u, v, w )
+											+ cDist2cur ) );
       					}
       				}
+      				else if ( tabLabels[ u ][ v ][ w ] > 0 
+      						&& contains( neighborLabels, nLabels, tabLabels[ u ][ v ][ w ] ) == false)
+      				{
+      					// store labels of neighbors in a list
+      					neighborLabels[ nLabels++ ] = tabLabels[ u ][ v ][ w ];
+      				}
       			}
 		       	// if the neighbors of the extracted voxel that have already been labeled 
 		       	// all have the same label, then the voxel is labeled with their label.
-      			if( neighborLabels.size() == 1 )
+      			if( nLabels == 1 )
       			{
-      				tabLabels[ i ][ j ][ k ] = neighborLabels.get( 0 );
+      				tabLabels[ i ][ j ][ k ] = neighborLabels[ 0 ];
       				// now that we know the voxel is labeled, add neighbors to list
       				for( VoxelRecord v : neighborVoxels )
       				{      					
@@ -859,7 +878,7 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
       					voxelList.add( v );
       				}
       			}
-      			else if( neighborLabels.size() > 1 )
+      			else if( nLabels > 1 )
       				tabLabels[ i ][ j ][ k ] = WSHED;
       		}
       	}
@@ -879,55 +898,49 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 	    		final int j = p.getY();
 	    		final int k = p.getZ();
 
-      			// Set cursor of neighborhood in voxel of interest
-      			neigh.setCursor( p );
-      			
       			// reset list of neighbor labels
-		       	neighborLabels.clear();      
+		       	nLabels = 0;      
 		       	
 		       	// reset list of neighbor voxels
 		       	neighborVoxels.clear();
       			
 		       	// Read neighbor coordinates
-      			for( Cursor3D cur : neigh.getNeighbors() )
+      			for( int n : neigh.getNeighbors( i, j, k ) )
       			{      				      				
       				// Look in neighborhood for labeled voxels with
       				// smaller or equal original value
-      				int u = cur.getX();
-      				int v = cur.getY();
-      				int w = cur.getZ();
-      				if ( u >= 0 && u < size1 && v >= 0 && v < size2 && w >= 0 && w < size3 )
+      				int u = i + dx[ n ];
+      				int v = j + dy[ n ];
+      				int w = k + dz[ n ];
+      				// Unlabeled neighbors go into the queue if they are not there yet
+      				if ( tabLabels[ u ][ v ][ w ] == INIT )
       				{
-      					// Unlabeled neighbors go into the queue if they are not there yet
-      					if ( tabLabels[ u ][ v ][ w ] == INIT )
+      					if( c == 0 ) // regular watershed
+      						neighborVoxels.add( new VoxelRecord( u, v, w, inputStack.getVoxel( u, v, w ) ) );
+      					else // compact watershed
       					{
-      						if( c == 0 ) // regular watershed
-      							neighborVoxels.add( new VoxelRecord( cur, inputStack.getVoxel( u, v, w ) ) );
-      						else // compact watershed
-      						{
-      							// update distance from seed
-								final double cDist2p = voxelRecord.getValue() - inputStack.getVoxel( i, j, k );
-								final double cDist2cur = cDist2p + c * p.euclideanDistance( cur );
-								neighborVoxels.add(
-										new VoxelRecord(
-												cur,
-												inputStack.getVoxel( u, v, w )
-												+ cDist2cur ) );
-      						}
-      					}
-      					else if ( tabLabels[ u ][ v ][ w ] > 0 
-      							&& neighborLabels.contains(tabLabels[ u ][ v ][ w ]) == false)
-      					{
-      						// store labels of neighbors in a list without repetitions
-      						neighborLabels.add( tabLabels[ u ][ v ][ w ] );
+      						// update distance from seed
+							final double cDist2p = voxelRecord.getValue() - inputStack.getVoxel( i, j, k );
+							final double cDist2cur = cDist2p + c * distances[ n ];
+							neighborVoxels.add(
+									new VoxelRecord(
+											u, v, w,
+											inputStack.getVoxel( u, v, w )
+											+ cDist2cur ) );
       					}
       				}
+      				else if ( tabLabels[ u ][ v ][ w ] > 0 
+      						&& contains( neighborLabels, nLabels, tabLabels[ u ][ v ][ w ] ) == false)
+      				{
+      					// store labels of neighbors in a list without repetitions
+      					neighborLabels[ nLabels++ ] = tabLabels[ u ][ v ][ w ];
+      				}
       			}
       			// if the neighbors of the extracted voxel that have already been labeled 
       			// all have the same label, then the voxel is labeled with their label
-      			if( neighborLabels.size() == 1 )
+      			if( nLabels == 1 )
       			{
-      				tabLabels[ i ][ j ][ k ] = neighborLabels.get( 0 );
+      				tabLabels[ i ][ j ][ k ] = neighborLabels[ 0 ];
       				// now that we know the voxel is labeled, add unlabeled neighbors to list
       				for( VoxelRecord v : neighborVoxels )
       				{      					
@@ -935,7 +948,7 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
       					voxelList.add( v );
       				}
       			}
-      			else if( neighborLabels.size() > 1 )
+      			else if( nLabels > 1 )
       				tabLabels[ i ][ j ][ k ] = WSHED;
       				
       		}
@@ -981,6 +994,114 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 	}
 	
 	
+	/**
+	 * Apply watershed transform on inputImage after quantization of its
+	 * values, using a bucket queue.
+	 * 
+	 * @param getDams select/deselect the calculation of dams
+	 * @return watershed domains image
+	 */
+	private ImagePlus applyWithQuantizedValues( boolean getDams )
+	{
+		final ImageStack inputStack = inputImage.getStack();
+		final ImageStack markerStack = markerImage.getStack();
+		final ImageStack maskStack = null != maskImage ? maskImage.getStack() : null;
+		final int size1 = inputStack.getWidth();
+		final int size2 = inputStack.getHeight();
+		final int size3 = inputStack.getSize();
+		final int sizeXY = size1 * size2;
+		final int n = sizeXY * size3;
+
+		IJ.showStatus( "Quantizing voxel values..." );
+		final long t0 = System.currentTimeMillis();
+
+		final float[] values = new float[ n ];
+		final int[] seeds = new int[ n ];
+		final boolean[] inMask = null != maskStack ? new boolean[ n ] : null;
+		for( int z = 0; z < size3; z++ )
+		{
+			final ImageProcessor input = inputStack.getProcessor( z+1 );
+			final ImageProcessor marker = markerStack.getProcessor( z+1 );
+			final ImageProcessor mask = null != maskStack ? maskStack.getProcessor( z+1 ) : null;
+			for( int i = 0; i < sizeXY; i++ )
+			{
+				values[ z * sizeXY + i ] = input.getf( i );
+				seeds[ z * sizeXY + i ] = (int) marker.getf( i );
+				if( null != mask )
+					inMask[ z * sizeXY + i ] = mask.getf( i ) > 0;
+			}
+		}
+
+		final double[] minMax = Images3D.findMinAndMax( inputStack );
+		final int[] levels = new int[ n ];
+		maxRoundingError = QuantizedWatershedFlooding.quantize(
+				values, minMax[ 0 ], minMax[ 1 ], quantizationLevels, levels );
+
+		final long t1 = System.currentTimeMillis();
+		if( verbose ) IJ.log( "  Quantization into " + quantizationLevels
+				+ " levels took " + (t1-t0) + " ms (max. rounding error: " + maxRoundingError + ")." );
+
+		// neighbor offsets, in the order of the 3D neighborhoods
+		final int[] dx, dy, dz;
+		if( connectivity == 6 )
+		{
+			dx = new int[]{ 0, -1, 0, 0, 1, 0 };
+			dy = new int[]{ 0, 0, -1, 1, 0, 0 };
+			dz = new int[]{ -1, 0, 0, 0, 0, 1 };
+		}
+		else
+		{
+			dx = new int[ 26 ];
+			dy = new int[ 26 ];
+			dz = new int[ 26 ];
+			int k = 0;
+			for( int z = -1; z <= 1; z++ )
+				for( int x = -1; x <= 1; x++ )
+					for( int y = -1; y <= 1; y++ )
+					{
+						if( x == 0 && y == 0 && z == 0 )
+							continue;
+						dx[ k ] = x;
+						dy[ k ] = y;
+						dz[ k ] = z;
+						k++;
+					}
+		}
+
+		IJ.showStatus( "Flooding..." );
+		QuantizedWatershedFlooding flooding =
+				new QuantizedWatershedFlooding( size1, size2, size3, dx, dy, dz );
+		final int[] labels = flooding.flood( levels, quantizationLevels, seeds, inMask, getDams );
+		if ( null == labels )
+			return null;
+
+		final long t2 = System.currentTimeMillis();
+		if( verbose ) IJ.log( "  Flooding took: " + (t2-t1) + " ms" );
+		IJ.showStatus( "" );
+
+		// Create result label image, setting unlabeled voxels to 0
+		final ImageStack labelStack = markerImage.duplicate().getStack();
+		for( int z = 0; z < size3; z++ )
+		{
+			final ImageProcessor labelProcessor = labelStack.getProcessor( z+1 );
+			for( int i = 0; i < sizeXY; i++ )
+				labelProcessor.setf( i, Math.max( labels[ z * sizeXY + i ], 0 ) );
+		}
+
+		String title = inputImage.getTitle();
+		String ext = "";
+		int index = title.lastIndexOf( "." );
+		if( index != -1 )
+		{
+			ext = title.substring( index );
+			title = title.substring( 0, index );
+		}
+
+		final ImagePlus ws = new ImagePlus( title + "-watershed" + ext, labelStack );
+		ws.setCalibration( inputImage.getCalibration() );
+		return ws;
+	}
+
 	/**
 	 * Extract voxel values from input and seed images
 	 * 
@@ -1004,12 +1125,13 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 	            
         final PriorityQueue<VoxelRecord> voxelList = new PriorityQueue<VoxelRecord>();
         
-        // Auxiliary cursor to visit neighbors
-	    final Cursor3D cursor = new Cursor3D(0, 0, 0);
-      	
-      	// Check connectivity
-       	final Neighborhood3D neigh = connectivity == 26 ? 
-       			new Neighborhood3DC26() : new Neighborhood3DC6();
+      	// Check connectivity, and precompute neighbor offsets
+       	final NeighborhoodOffsets neigh = new NeighborhoodOffsets(
+       			connectivity == 26 ? 26 : 6, size1, size2, size3 );
+       	final int[] dx = neigh.getShiftsX();
+       	final int[] dy = neigh.getShiftsY();
+       	final int[] dz = neigh.getShiftsZ();
+       	final double[] distances = neigh.getDistances();
 
        	// Set compactness constraint value
        	final double c = this.compactness;
@@ -1038,26 +1160,20 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 							int label = (int) ipSeed.getf( x, y );
 							if( label > 0 )
 							{								
-								cursor.set( x, y, z );
-								neigh.setCursor( cursor );
-
 								// add unlabeled neighbors to priority queue
-								for( Cursor3D cur : neigh.getNeighbors() )
+								for( int n : neigh.getNeighbors( x, y, z ) )
 								{
-									int u = cur.getX();
-									int v = cur.getY();
-									int w = cur.getZ();
-									if ( u >= 0 && u < size1 && 
-											v >= 0 && v < size2 && 
-											w >= 0 && w < size3 &&
-											(int) seedStack.getVoxel( u, v, w ) == 0 &&
+									int u = x + dx[ n ];
+									int v = y + dy[ n ];
+									int w = z + dz[ n ];
+									if ( (int) seedStack.getVoxel( u, v, w ) == 0 &&
 											tabLabels[ u ][ v ][ w ] != INQUEUE )															 
 									{
 										if( c == 0 )
-											voxelList.add( new VoxelRecord( cur, inputStack.getVoxel( u, v, w ) ) );
+											voxelList.add( new VoxelRecord( u, v, w, inputStack.getVoxel( u, v, w ) ) );
 										else
-											voxelList.add( new VoxelRecord( cur,
-													inputStack.getVoxel( u, v, w ) + c * cursor.euclideanDistance(cur)) );
+											voxelList.add( new VoxelRecord( u, v, w,
+													inputStack.getVoxel( u, v, w ) + c * distances[ n ]) );
 										tabLabels[ u ][ v ][ w ] = INQUEUE;
 									}
 
@@ -1087,26 +1203,20 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 						int label = (int) ipSeed.getf( x, y );
 						if( label > 0 )
 						{
-							cursor.set( x, y, z );
-							neigh.setCursor( cursor );
-
 							// add unlabeled neighbors to priority queue
-							for( Cursor3D cur : neigh.getNeighbors() )
+							for( int n : neigh.getNeighbors( x, y, z ) )
 							{
-								int u = cur.getX();
-								int v = cur.getY();
-								int w = cur.getZ();
-								if ( u >= 0 && u < size1 && 
-										v >= 0 && v < size2 && 
-										w >= 0 && w < size3 &&
-										(int) seedStack.getVoxel( u, v, w ) == 0 &&
+								int u = x + dx[ n ];
+								int v = y + dy[ n ];
+								int w = z + dz[ n ];
+								if ( (int) seedStack.getVoxel( u, v, w ) == 0 &&
 										tabLabels[ u ][ v ][ w ] != INQUEUE )															 
 								{
 									if( c == 0 )
-										voxelList.add( new VoxelRecord( cur, inputStack.getVoxel( u, v, w ) ) );
+										voxelList.add( new VoxelRecord( u, v, w, inputStack.getVoxel( u, v, w ) ) );
 									else
-										voxelList.add( new VoxelRecord( cur,
-												inputStack.getVoxel( u, v, w ) + c * cursor.euclideanDistance(cur)) );
+										voxelList.add( new VoxelRecord( u, v, w,
+												inputStack.getVoxel( u, v, w ) + c * distances[ n ]) );
 									tabLabels[ u ][ v ][ w ] = INQUEUE;
 								}
 
@@ -1125,134 +1235,56 @@ public class MarkerControlledWatershedTransform3D extends WatershedTransform3D
 	}
 
 	/**
-	 * Extract voxel values from input and labeled marker images. The
-	 * input grayscale values will be return in a list of VoxelRecrod 
-	 * and the markers will be stored in <code>tabLabels</code>.
+	 * Fill <code>tabLabels</code> with the labeled markers, and compute the
+	 * linear indices of the voxels of the input stack (restricted to the mask
+	 * if it exists), sorted by ascending value.
 	 * 
+	 * @see #sortVoxelIndices(ImageStack, double, double)
 	 * @param inputStack input grayscale stack (usually a gradient image)
 	 * @param markerStack labeled marker stack
 	 * @param tabLabels output label array
-	 * @return list of input voxel values
+	 * @return the indices of the voxels, sorted by voxel value
 	 */
-	public LinkedList<VoxelRecord> extractVoxelValues(
+	private int[] extractSortedVoxelIndices(
 			final ImageStack inputStack,
 			final ImageStack markerStack,
-			final int[][][] tabLabels) 
+			final int[][][] tabLabels ) 
 	{
-		
 		final int size1 = inputStack.getWidth();
-	    final int size2 = inputStack.getHeight();
-	    final int size3 = inputStack.getSize();
-			    
-	    final AtomicInteger ai = new AtomicInteger(0);
-        final int n_cpus = Prefs.getThreads();
-        
-        final int dec = (int) Math.ceil( (double) size3 / (double) n_cpus );
-        
-        Thread[] threads = ThreadUtil.createThreadArray( n_cpus );
-        
-        @SuppressWarnings("unchecked")
-		final LinkedList<VoxelRecord>[] lists = new LinkedList[ n_cpus ];
-	    
-		if( null != maskImage )
+		final int size2 = inputStack.getHeight();
+		final int size3 = inputStack.getSize();
+		final ImageStack mask = null != maskImage ? maskImage.getImageStack() : null;
+
+		for( int z = 0; z < size3; ++z )
 		{
-			final ImageStack mask = maskImage.getImageStack();
-			
-			for (int ithread = 0; ithread < threads.length; ithread++) 
-			{
-				lists[ ithread ] = new LinkedList<VoxelRecord>();
-				
-				threads[ithread] = new Thread() {
-					public void run() {
-						for (int k = ai.getAndIncrement(); k < n_cpus; k = ai.getAndIncrement()) 
-						{
-							int zmin = dec * k;
-							int zmax = dec * ( k + 1 );
-							if (zmin<0)
-								zmin = 0;
-							if (zmax > size3)
-								zmax = size3;
-
-							for (int z = zmin; z < zmax; ++z)	
-							{
-								if ( Thread.currentThread().isInterrupted() )
-									return;	
-								
-								if (zmin==0) 
-									IJ.showProgress(z+1, zmax);
-
-								final ImageProcessor ipMask = mask.getProcessor( z+1 );
-								final ImageProcessor ipInput = inputStack.getProcessor( z+1 );
-								final ImageProcessor ipMarker = markerStack.getProcessor( z+1 );
-
-								for( int x = 0; x < size1; ++x )
-									for( int y = 0; y < size2; ++y )
-										if( ipMask.getf( x, y ) > 0 )
-										{
-											lists[k].addLast( new VoxelRecord( x, y, z, ipInput.getf( x, y )));
-											tabLabels[x][y][z] = (int) ipMarker.getf( x, y );
-										}														
-							}
-						}
-					}
-				};
-			}
-			ThreadUtil.startAndJoin(threads);			
+			final ImageProcessor ipMask = null != mask ? mask.getProcessor( z+1 ) : null;
+			final ImageProcessor ipMarker = markerStack.getProcessor( z+1 );
+			for( int x = 0; x < size1; ++x )
+				for( int y = 0; y < size2; ++y )
+					if( null == ipMask || ipMask.getf( x, y ) > 0 )
+						tabLabels[ x ][ y ][ z ] = (int) ipMarker.getf( x, y );
 		}
-		else
-		{										       					
-
-			for (int ithread = 0; ithread < threads.length; ithread++) 
-			{
-				lists[ ithread ] = new LinkedList<VoxelRecord>();
-				
-				threads[ithread] = new Thread() {
-					public void run() {
-						for (int k = ai.getAndIncrement(); k < n_cpus; k = ai.getAndIncrement()) 
-						{
-							int zmin = dec * k;
-							int zmax = dec * ( k + 1 );
-							if (zmin<0)
-								zmin = 0;
-							if (zmax > size3)
-								zmax = size3;							
-							
-							for (int z = zmin; z < zmax; ++z)	
-							{
-								if ( Thread.currentThread().isInterrupted() )
-									return;								
-								
-								if (zmin==0) 
-									IJ.showProgress(z+1, zmax);
 
-								final ImageProcessor ipInput = inputStack.getProcessor( z+1 );
-								final ImageProcessor ipMarker = markerStack.getProcessor( z+1 );
-
-								for( int x = 0; x < size1; ++x )
-									for( int y = 0; y < size2; ++y )
-									{
-										lists[k].addLast( new VoxelRecord( x, y, z, ipInput.getf( x, y )));
-										tabLabels[x][y][z] = (int) ipMarker.getf( x, y );
-									}
-							}
-
-						}
-					}
-				};
-			}
-			ThreadUtil.startAndJoin(threads);									
-			
-		}// end else
-		
-		final LinkedList<VoxelRecord> voxelList = lists[ 0 ];
-		for (int ithread = 1; ithread < threads.length; ithread++)
-			voxelList.addAll(lists[ ithread ]);
-		
-		IJ.showProgress(1.0);
-		
-		return voxelList;
+		return sortVoxelIndices( inputStack, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY );
 	}
 
-	
+	/**
+	 * Checks if a label is contained within the first elements of an array.
+	 * 
+	 * @param labels
+	 *            the array of labels
+	 * @param nLabels
+	 *            the number of valid labels within the array
+	 * @param label
+	 *            the label to look for
+	 * @return true if the label is found
+	 */
+	private static final boolean contains( int[] labels, int nLabels, int label )
+	{
+		for( int i = 0; i < nLabels; i++ )
+			if( labels[ i ] == label )
+				return true;
+		return false;
+	}
 
 }
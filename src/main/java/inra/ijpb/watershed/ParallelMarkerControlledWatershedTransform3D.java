@@ -0,0 +1,1246 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.watershed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ImageProcessor;
+import ij.util.ThreadUtil;
+
+/**
+ * Parallel version of the marker-controlled watershed transform for 3D
+ * images.
+ *
+ * The stack is split into slabs along the z-axis, that are flooded
+ * concurrently. Within each slab, the flooding follows the sequential
+ * algorithm of {@link MarkerControlledWatershedTransform3D} (same processing
+ * order of the markers, same priority queue ordering by value then by
+ * insertion order, same choice of the label among the labeled neighbors).
+ *
+ * <p>
+ * The order of processing between the voxels of different slabs is given by
+ * the flooding key of each voxel: the sequence of the voxels with a priority
+ * greater than all the following ones along the flooding path, read from the
+ * marker to the voxel. The first element of the key gives the flooding level
+ * of the voxel. The sequential algorithm processes the voxels by increasing
+ * key in lexicographic order, where priorities are compared by value, then by
+ * insertion order in the queue, which is itself the processing order of the
+ * voxels that inserted them. The key of the next voxel of a slab can be
+ * computed from the key of the last processed voxel. The labeled voxels of
+ * the boundary planes of each slab are sent to the neighbor slabs as
+ * "boundary events" together with their key, and each slab processes its
+ * boundary events at the position given by their key.
+ * </p>
+ *
+ * <p>
+ * The flooding is performed by epochs, delimited by thresholds on the
+ * flooding level. Within an epoch, the slabs are flooded concurrently up to
+ * the threshold, then the boundary events are exchanged. A slab that receives
+ * an event with a key lower than the last key it processed is restored to
+ * the state it had before this key, by undoing the processing steps logged
+ * during the epoch, and flooded again. Events whose flooding path contains
+ * voxels that the receiving slab has processed differently since are
+ * ignored, and sent again by the neighbor slab once updated. The epoch ends
+ * when no slab receives new events. As each flooding only reads the events
+ * sent at the end of the previous flooding, the result does not depend on
+ * thread scheduling, and is identical to the result of the sequential
+ * transform. If an epoch does not converge within the maximum number of
+ * iterations, the sequential transform is used instead.
+ * </p>
+ *
+ * <p>
+ * As voxels may be flooded again, the total amount of work is larger than
+ * for the sequential transform (about twice for random images), and the
+ * speedup depends on the number of available processors and on the
+ * thickness of the slabs. Compactness constraint is not supported.
+ * </p>
+ *
+ * @see MarkerControlledWatershedTransform3D
+ */
+public class ParallelMarkerControlledWatershedTransform3D extends WatershedTransform3D
+{
+	/** image containing the labeled markers to start the watershed */
+	ImagePlus markerImage = null;
+
+	/** the number of threads to use */
+	int nThreads = Prefs.getThreads();
+
+	/** the number of flooding epochs */
+	int nEpochs = 64;
+
+	// image data, stored by slice
+	int sizeX;
+	int sizeY;
+	int sizeZ;
+	int sizeXY;
+	float[][] values;
+	/** the mask of each slice, or null if there is no mask */
+	boolean[][] inMask;
+	ImageProcessor[] seeds;
+
+	/** label of each voxel */
+	int[][] labels;
+
+	// neighborhood offsets, in the order of the 3D neighborhoods
+	int[] dx;
+	int[] dy;
+	int[] dz;
+
+	/**
+	 * Initialize a parallel marker-controlled watershed transform.
+	 *
+	 * @param input
+	 *            grayscale image (usually a gradient image)
+	 * @param marker
+	 *            image containing the labeled markers to start the watershed
+	 * @param mask
+	 *            binary mask to restrict the region of interest (null to use
+	 *            whole input image)
+	 * @param connectivity
+	 *            voxel connectivity (6 or 26)
+	 * @param nThreads
+	 *            the number of threads (and of slabs) to use
+	 */
+	public ParallelMarkerControlledWatershedTransform3D(
+			ImagePlus input,
+			ImagePlus marker,
+			ImagePlus mask,
+			int connectivity,
+			int nThreads )
+	{
+		super( input, mask, connectivity );
+		this.markerImage = marker;
+		this.nThreads = Math.max( 1, nThreads );
+	}
+
+	/**
+	 * Apply watershed transform on inputImage, using the labeled markers from
+	 * markerImage and restricted to the white areas of maskImage.
+	 *
+	 * @return watershed domains image (no dams)
+	 */
+	public ImagePlus applyWithPriorityQueue()
+	{
+		return apply( false );
+	}
+
+	/**
+	 * Apply watershed transform on inputImage, using the labeled markers from
+	 * markerImage and restricted to the white areas of maskImage, and computes
+	 * the dams between basins.
+	 *
+	 * @return watershed domains image (with dams)
+	 */
+	public ImagePlus applyWithPriorityQueueAndDams()
+	{
+		return apply( true );
+	}
+
+	private ImagePlus apply( final boolean getDams )
+	{
+		final ImageStack inputStack = inputImage.getStack();
+		sizeX = inputStack.getWidth();
+		sizeY = inputStack.getHeight();
+		sizeZ = inputStack.getSize();
+		sizeXY = sizeX * sizeY;
+
+		if ( sizeX != markerImage.getWidth() || sizeY != markerImage.getHeight()
+				|| sizeZ != markerImage.getStackSize() )
+		{
+			throw new IllegalArgumentException( "Marker and input images must have the same size" );
+		}
+		if ( connectivity != 6 && connectivity != 26 )
+		{
+			throw new RuntimeException(
+					"Connectivity for stacks must be either 6 or 26, not "
+							+ connectivity );
+		}
+
+		if ( verbose ) IJ.log( "  Extracting voxel values..." );
+		final long t0 = System.currentTimeMillis();
+		initialize( inputStack, markerImage.getStack() );
+		final long t1 = System.currentTimeMillis();
+		if ( verbose ) IJ.log( "  Extraction took " + (t1-t0) + " ms." );
+
+		// split stack into slabs
+		final int nSlabs = Math.min( nThreads, sizeZ );
+		final Slab[] slabs = new Slab[ nSlabs ];
+		for ( int s = 0; s < nSlabs; s++ )
+			slabs[ s ] = new Slab( s, (int) (((long) s * sizeZ) / nSlabs),
+					(int) (((long) (s+1) * sizeZ) / nSlabs) );
+
+		if ( verbose ) IJ.log( "  Flooding " + nSlabs + " slabs in parallel..." );
+		IJ.showStatus( "Flooding " + nSlabs + " slabs..." );
+
+		final boolean[] toFlood = new boolean[ nSlabs ];
+		Arrays.fill( toFlood, true );
+		runOnSlabs( slabs, toFlood, getDams, true );
+
+		// each iteration makes at least one boundary event final
+		final long maxIterations = 2L * sizeXY * (nSlabs - 1) + 2;
+
+		final float[] thresholds = computeThresholds();
+		long nIterations = 0;
+		for ( int e = 0; e < thresholds.length; e++ )
+		{
+			for ( int s = 0; s < nSlabs; s++ )
+				slabs[ s ].startEpoch( thresholds[ e ] );
+			Arrays.fill( toFlood, true );
+
+			long iter = 0;
+			while ( true )
+			{
+				runOnSlabs( slabs, toFlood, getDams, false );
+				if ( Thread.currentThread().isInterrupted() )
+					return null;
+				iter++;
+
+				// collect all events before updating the slabs, as updating
+				// a slab may clear its own events
+				ArrayList<ArrayList<Event>> events = new ArrayList<ArrayList<Event>>( nSlabs );
+				for ( int s = 0; s < nSlabs; s++ )
+					events.add( collectEvents( s > 0 ? slabs[ s-1 ] : null,
+							s < nSlabs - 1 ? slabs[ s+1 ] : null ) );
+
+				boolean anyChange = false;
+				for ( int s = 0; s < nSlabs; s++ )
+				{
+					toFlood[ s ] = slabs[ s ].setEvents( events.get( s ) );
+					anyChange |= toFlood[ s ];
+				}
+				if ( !anyChange )
+					break;
+
+				if ( iter >= maxIterations )
+				{
+					IJ.log( "Parallel watershed did not converge after "
+							+ iter + " iterations, using sequential algorithm" );
+					return applySequential( getDams );
+				}
+			}
+			nIterations += iter;
+
+			for ( int s = 0; s < nSlabs; s++ )
+				slabs[ s ].endEpoch();
+			IJ.showProgress( e + 1, thresholds.length );
+		}
+
+		final long t2 = System.currentTimeMillis();
+		if ( verbose ) IJ.log( "  Flooding took: " + (t2-t1) + " ms ("
+				+ thresholds.length + " epochs, " + nIterations + " iterations)" );
+
+		// Create result label image, setting unlabeled voxels to WSHED
+		ImageStack labelStack = markerImage.duplicate().getStack();
+		for ( int z = 0; z < sizeZ; z++ )
+		{
+			ImageProcessor labelProcessor = labelStack.getProcessor( z+1 );
+			int[] sliceLabels = labels[ z ];
+			for ( int i = 0; i < sizeXY; i++ )
+				labelProcessor.setf( i, Math.max( sliceLabels[ i ], 0 ) );
+		}
+		IJ.showProgress( 1.0 );
+
+		String title = inputImage.getTitle();
+		String ext = "";
+		int index = title.lastIndexOf( "." );
+		if( index != -1 )
+		{
+			ext = title.substring( index );
+			title = title.substring( 0, index );
+		}
+
+		final ImagePlus ws = new ImagePlus( title + "-watershed" + ext, labelStack );
+		ws.setCalibration( inputImage.getCalibration() );
+		return ws;
+	}
+
+	private ImagePlus applySequential( boolean getDams )
+	{
+		values = null;
+		labels = null;
+		MarkerControlledWatershedTransform3D wt = new MarkerControlledWatershedTransform3D(
+				inputImage, markerImage, maskImage, connectivity );
+		wt.setVerbose( verbose );
+		return getDams ? wt.applyWithPriorityQueueAndDams() : wt.applyWithPriorityQueue();
+	}
+
+	private void initialize( ImageStack inputStack, ImageStack markerStack )
+	{
+		values = new float[ sizeZ ][];
+		seeds = new ImageProcessor[ sizeZ ];
+		labels = new int[ sizeZ ][];
+		inMask = null;
+
+		ImageStack maskStack = maskImage != null ? maskImage.getStack() : null;
+		if ( maskStack != null )
+			inMask = new boolean[ sizeZ ][];
+		for ( int z = 0; z < sizeZ; z++ )
+		{
+			// float slices are used directly, as values are only read
+			ImageProcessor input = inputStack.getProcessor( z+1 );
+			if ( input.getPixels() instanceof float[] )
+			{
+				values[ z ] = (float[]) input.getPixels();
+			}
+			else
+			{
+				values[ z ] = new float[ sizeXY ];
+				for ( int i = 0; i < sizeXY; i++ )
+					values[ z ][ i ] = input.getf( i );
+			}
+
+			if ( maskStack != null )
+			{
+				ImageProcessor mask = maskStack.getProcessor( z+1 );
+				inMask[ z ] = new boolean[ sizeXY ];
+				for ( int i = 0; i < sizeXY; i++ )
+					inMask[ z ][ i ] = mask.getf( i ) > 0;
+			}
+
+			seeds[ z ] = markerStack.getProcessor( z+1 );
+			labels[ z ] = new int[ sizeXY ];
+			Arrays.fill( labels[ z ], INIT );
+		}
+
+		// use the same neighbor order as Neighborhood3DC6 and Neighborhood3DC26
+		if ( connectivity == 6 )
+		{
+			dx = new int[] { 0, -1, 0, 0, 1, 0 };
+			dy = new int[] { 0, 0, -1, 1, 0, 0 };
+			dz = new int[] { -1, 0, 0, 0, 0, 1 };
+		}
+		else
+		{
+			dx = new int[ 26 ];
+			dy = new int[ 26 ];
+			dz = new int[ 26 ];
+			int k = 0;
+			for ( int z = -1; z <= 1; z++ )
+				for ( int x = -1; x <= 1; x++ )
+					for ( int y = -1; y <= 1; y++ )
+					{
+						if ( x == 0 && y == 0 && z == 0 )
+							continue;
+						dx[ k ] = x;
+						dy[ k ] = y;
+						dz[ k ] = z;
+						k++;
+					}
+		}
+	}
+
+	/**
+	 * Computes the flooding levels that delimit the epochs, as quantiles of
+	 * a sample of the input values. The last level is infinite.
+	 */
+	private float[] computeThresholds()
+	{
+		long nVoxels = (long) sizeXY * sizeZ;
+		int nSamples = (int) Math.min( nVoxels, 1 << 20 );
+		long step = Math.max( 1, nVoxels / nSamples );
+		float[] sample = new float[ nSamples ];
+		int n = 0;
+		for ( long k = 0; k < nVoxels && n < nSamples; k += step )
+			sample[ n++ ] = values[ (int) (k / sizeXY) ][ (int) (k % sizeXY) ];
+		Arrays.sort( sample, 0, n );
+
+		float[] thresholds = new float[ nEpochs ];
+		int nThresholds = 0;
+		for ( int e = 1; e < nEpochs; e++ )
+		{
+			float t = sample[ (int) (((long) e * n) / nEpochs) ];
+			if ( nThresholds == 0 || t > thresholds[ nThresholds - 1 ] )
+				thresholds[ nThresholds++ ] = t;
+		}
+		if ( nThresholds == 0 || thresholds[ nThresholds - 1 ] < Float.POSITIVE_INFINITY )
+			thresholds[ nThresholds++ ] = Float.POSITIVE_INFINITY;
+		return Arrays.copyOf( thresholds, nThresholds );
+	}
+
+	/**
+	 * Initializes or floods the selected slabs, using one thread per slab.
+	 */
+	private void runOnSlabs( final Slab[] slabs, final boolean[] toFlood,
+			final boolean getDams, final boolean init )
+	{
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread caller = Thread.currentThread();
+		Thread[] threads = ThreadUtil.createThreadArray( Math.min( nThreads, slabs.length ) );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			threads[ ithread ] = new Thread()
+			{
+				public void run()
+				{
+					for ( int s = ai.getAndIncrement(); s < slabs.length; s = ai.getAndIncrement() )
+					{
+						if ( caller.isInterrupted() )
+							return;
+						if ( !toFlood[ s ] )
+							continue;
+						if ( init )
+							slabs[ s ].initialize();
+						else
+							slabs[ s ].flood( getDams );
+					}
+				}
+			};
+		}
+		ThreadUtil.startAndJoin( threads );
+	}
+
+	/**
+	 * Returns the sorted list of the events sent by the two neighbors of a
+	 * slab during the current epoch, by merging the lists of events of each
+	 * neighbor, that are sorted by processing order.
+	 */
+	private static ArrayList<Event> collectEvents( Slab below, Slab above )
+	{
+		ArrayList<Event> events1 = below != null ? below.eventsAbove : new ArrayList<Event>();
+		ArrayList<Event> events2 = above != null ? above.eventsBelow : new ArrayList<Event>();
+		ArrayList<Event> events = new ArrayList<Event>( events1.size() + events2.size() );
+		int i1 = 0;
+		int i2 = 0;
+		while ( i1 < events1.size() && i2 < events2.size() )
+		{
+			if ( EVENT_ORDER.compare( events1.get( i1 ), events2.get( i2 ) ) < 0 )
+				events.add( events1.get( i1++ ) );
+			else
+				events.add( events2.get( i2++ ) );
+		}
+		events.addAll( events1.subList( i1, events1.size() ) );
+		events.addAll( events2.subList( i2, events2.size() ) );
+		return events;
+	}
+
+	/**
+	 * A processed voxel, with the information required to compare its
+	 * processing order with other voxels. The key of the voxel is obtained
+	 * by following the links to the previous elements. Nodes are not modified
+	 * once created (except for the list of alternatives, only used by the
+	 * slab that created them), and may be shared between slabs.
+	 */
+	private static final class Node
+	{
+		/** the slab, the slice and the index of the voxel within the slice */
+		final int slab;
+		final int z;
+		final int index;
+		/** the value of the voxel */
+		final float value;
+		/** the voxel that inserted this voxel in the queue, or null for a marker */
+		final Node pusher;
+		/**
+		 * the rank of insertion: neighbor index for a voxel inserted by
+		 * another voxel, position in the marker scan for a marker neighbor
+		 */
+		final long rank;
+		/** the previous element of the key, with a greater priority */
+		final Node previous;
+		/** the number of elements of the key */
+		final int depth;
+		/** the value of the first element of the key (flooding level) */
+		final float level;
+		/**
+		 * the closest node along the flooding path that belongs to another
+		 * slab, or null
+		 */
+		final Node crossing;
+		/** another node of the same voxel created during the same epoch */
+		Node alternative = null;
+
+		Node( int slab, int z, int index, float value, Node pusher, long rank, Node previous )
+		{
+			this.slab = slab;
+			this.z = z;
+			this.index = index;
+			this.value = value;
+			this.pusher = pusher;
+			this.rank = rank;
+			this.previous = previous;
+			this.depth = previous == null ? 1 : previous.depth + 1;
+			this.level = previous == null ? value : previous.level;
+			this.crossing = pusher == null ? null : (pusher.slab != slab ? pusher : pusher.crossing);
+		}
+	}
+
+	/**
+	 * Compares the priority of a node with the priority of a queue entry:
+	 * by value, then by insertion order.
+	 */
+	private static final int comparePriority( Node node, float value, Node pusher, long rank )
+	{
+		int c = Float.compare( node.value, value );
+		if ( c != 0 )
+			return c;
+		if ( node.pusher == pusher )
+			return node.rank < rank ? -1 : (node.rank > rank ? 1 : 0);
+		if ( node.pusher == null )
+			return -1;
+		if ( pusher == null )
+			return 1;
+		return compareOrder( node.pusher, pusher );
+	}
+
+	/**
+	 * Compares the processing order of two nodes, by comparing their keys in
+	 * lexicographic order.
+	 */
+	private static final int compareOrder( Node node1, Node node2 )
+	{
+		while ( node1 != node2 )
+		{
+			// find the first elements that differ, using the common prefix
+			Node n1 = node1;
+			Node n2 = node2;
+			while ( n1.depth > n2.depth )
+				n1 = n1.previous;
+			while ( n2.depth > n1.depth )
+				n2 = n2.previous;
+			if ( n1 == n2 )
+				return node1.depth < node2.depth ? -1 : 1;
+			while ( n1.previous != n2.previous )
+			{
+				n1 = n1.previous;
+				n2 = n2.previous;
+			}
+
+			// compare priorities of the two elements
+			int c = Float.compare( n1.value, n2.value );
+			if ( c != 0 )
+				return c;
+			if ( n1.pusher == n2.pusher )
+				return n1.rank < n2.rank ? -1 : 1;
+			if ( n1.pusher == null )
+				return -1;
+			if ( n2.pusher == null )
+				return 1;
+			node1 = n1.pusher;
+			node2 = n2.pusher;
+		}
+		return 0;
+	}
+
+	/**
+	 * A labeled voxel of a boundary plane, sent to the neighbor slab.
+	 */
+	private static final class Event
+	{
+		/** 0 for the plane below the receiving slab, 1 for the plane above */
+		final int side;
+		/** the index of the voxel within the plane */
+		final int index;
+		final int label;
+		final Node node;
+
+		Event( int side, int index, int label, Node node )
+		{
+			this.side = side;
+			this.index = index;
+			this.label = label;
+			this.node = node;
+		}
+
+		boolean sameAs( Event event )
+		{
+			return event.side == side && event.index == index
+					&& event.label == label && event.node == node;
+		}
+	}
+
+	private static final Comparator<Event> EVENT_ORDER = new Comparator<Event>()
+	{
+		public int compare( Event e1, Event e2 )
+		{
+			return compareOrder( e1.node, e2.node );
+		}
+	};
+
+	/**
+	 * A slab of consecutive planes, with its own priority queue, implemented
+	 * as a binary heap on primitive arrays. The heap is ordered by value (as
+	 * sortable float bits) and then by insertion order.
+	 */
+	private class Slab
+	{
+		final int slabIndex;
+		final int zStart;
+		final int zEnd;
+
+		// labels of the planes just below and just above the slab, and
+		// whether their voxels have already been processed
+		int[][] planeLabels = new int[ 2 ][];
+		boolean[][] active = new boolean[ 2 ][];
+
+		// priority queue, with the voxel that inserted each entry
+		int[] heapValues = new int[ 1024 ];
+		long[] heapCounts = new long[ 1024 ];
+		int[] heapZ = new int[ 1024 ];
+		int[] heapIndices = new int[ 1024 ];
+		Node[] heapPushers = new Node[ 1024 ];
+		long[] heapRanks = new long[ 1024 ];
+		int size = 0;
+		long counter = 0;
+
+		/** the last processed node, or null */
+		Node last = null;
+
+		/**
+		 * the nodes created during the current epoch, indexed by slice and
+		 * voxel, reused when the slab is flooded again with the same result.
+		 * The first node of each voxel is the last one returned.
+		 */
+		Node[][] nodes;
+		long[] nodeVoxels = new long[ 1024 ];
+		int nNodes = 0;
+
+		/** the flooding level that ends the current epoch */
+		float threshold;
+		/** the events received during the current epoch, sorted by key */
+		ArrayList<Event> events = new ArrayList<Event>();
+		int nProcessedEvents = 0;
+		/** the events sent to the neighbor slabs during the current epoch */
+		ArrayList<Event> eventsBelow = new ArrayList<Event>();
+		ArrayList<Event> eventsAbove = new ArrayList<Event>();
+
+		// processing steps of the current epoch (voxels and valid events),
+		// with the state of the slab before each step
+		Node lastBeforeEpoch;
+		Node[] stepNodes = new Node[ 1024 ];
+		/** the count of the queue entry of the voxel, or -1 for an event */
+		long[] stepCounts = new long[ 1024 ];
+		int[] stepOperations = new int[ 1024 ];
+		int[] stepChanges = new int[ 1024 ];
+		int[] stepEvents = new int[ 1024 ];
+		int[] stepEventsBelow = new int[ 1024 ];
+		int[] stepEventsAbove = new int[ 1024 ];
+		int nSteps = 0;
+
+		/**
+		 * the operations on the queue during the current epoch: -1 for an
+		 * insertion, or the final position of the moved entry for a removal
+		 */
+		int[] operations = new int[ 1024 ];
+		int nOperations = 0;
+
+		// labels modified since the beginning of the epoch, in order
+		long[] changedVoxels = new long[ 1024 ];
+		int[] changedLabels = new int[ 1024 ];
+		int nChanges = 0;
+
+		Slab( int slabIndex, int zStart, int zEnd )
+		{
+			this.slabIndex = slabIndex;
+			this.zStart = zStart;
+			this.zEnd = zEnd;
+			this.nodes = new Node[ zEnd - zStart ][];
+		}
+
+		/**
+		 * Labels the markers and queues their neighbors, in the same order as
+		 * the sequential algorithm, including the markers of the neighbor
+		 * planes.
+		 */
+		void initialize()
+		{
+			for ( int b = 0; b < 2; b++ )
+			{
+				int z = b == 0 ? zStart - 1 : zEnd;
+				if ( z >= 0 && z < sizeZ )
+				{
+					planeLabels[ b ] = new int[ sizeXY ];
+					active[ b ] = new boolean[ sizeXY ];
+				}
+			}
+
+			for ( int z = Math.max( zStart - 1, 0 ); z < Math.min( zEnd + 1, sizeZ ); z++ )
+			{
+				int b = z < zStart ? 0 : (z >= zEnd ? 1 : -1);
+				ImageProcessor marker = seeds[ z ];
+				for ( int x = 0; x < sizeX; x++ )
+				{
+					for ( int y = 0; y < sizeY; y++ )
+					{
+						int i = y * sizeX + x;
+						int seed = (int) marker.getf( i );
+						if ( seed <= 0 || (inMask != null && !inMask[ z ][ i ]) )
+							continue;
+
+						// position of the marker in the scan order
+						long scanRank = ((long) z * sizeX + x) * sizeY + y;
+						for ( int k = 0; k < dx.length; k++ )
+						{
+							int u = x + dx[k], v = y + dy[k], w = z + dz[k];
+							if ( u < 0 || u >= sizeX || v < 0 || v >= sizeY || w < zStart || w >= zEnd )
+								continue;
+							int i2 = v * sizeX + u;
+							if ( seeds[ w ].getf( i2 ) == 0 && labels[ w ][ i2 ] != INQUEUE )
+							{
+								push( w, i2, null, scanRank * dx.length + k );
+								labels[ w ][ i2 ] = INQUEUE;
+							}
+						}
+
+						if ( b < 0 )
+						{
+							labels[ z ][ i ] = seed;
+						}
+						else
+						{
+							active[ b ][ i ] = true;
+							planeLabels[ b ][ i ] = seed;
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Starts a new epoch, that ends at the given flooding level.
+		 */
+		void startEpoch( float threshold )
+		{
+			this.threshold = threshold;
+			lastBeforeEpoch = last;
+			nOperations = 0;
+		}
+
+		/**
+		 * Records the state of the slab before processing a voxel or an
+		 * event.
+		 */
+		private void addStep( Node node, long count )
+		{
+			if ( nSteps == stepNodes.length )
+			{
+				int n = nSteps * 2;
+				stepNodes = Arrays.copyOf( stepNodes, n );
+				stepCounts = Arrays.copyOf( stepCounts, n );
+				stepOperations = Arrays.copyOf( stepOperations, n );
+				stepChanges = Arrays.copyOf( stepChanges, n );
+				stepEvents = Arrays.copyOf( stepEvents, n );
+				stepEventsBelow = Arrays.copyOf( stepEventsBelow, n );
+				stepEventsAbove = Arrays.copyOf( stepEventsAbove, n );
+			}
+			stepNodes[ nSteps ] = node;
+			stepCounts[ nSteps ] = count;
+			stepOperations[ nSteps ] = nOperations;
+			stepChanges[ nSteps ] = nChanges;
+			stepEvents[ nSteps ] = nProcessedEvents;
+			stepEventsBelow[ nSteps ] = eventsBelow.size();
+			stepEventsAbove[ nSteps ] = eventsAbove.size();
+			nSteps++;
+		}
+
+		/**
+		 * Restores the state of the slab before the given step. The labels
+		 * modified and the events processed since are reverted, the events
+		 * sent since are removed, and the operations on the queue are undone.
+		 */
+		private void restore( int step )
+		{
+			for ( int c = nChanges - 1; c >= stepChanges[ step ]; c-- )
+			{
+				long voxel = changedVoxels[ c ];
+				labels[ (int) (voxel >>> 32) ][ (int) voxel ] = changedLabels[ c ];
+			}
+			nChanges = stepChanges[ step ];
+			for ( int e = stepEvents[ step ]; e < nProcessedEvents; e++ )
+			{
+				Event event = events.get( e );
+				active[ event.side ][ event.index ] = false;
+			}
+			nProcessedEvents = stepEvents[ step ];
+			eventsBelow.subList( stepEventsBelow[ step ], eventsBelow.size() ).clear();
+			eventsAbove.subList( stepEventsAbove[ step ], eventsAbove.size() ).clear();
+
+			// undo the operations on the queue, in reverse order
+			int t = nSteps;
+			while ( nOperations > stepOperations[ step ] )
+			{
+				int position = operations[ --nOperations ];
+				if ( position < 0 )
+				{
+					undoPush();
+					continue;
+				}
+				do
+					t--;
+				while ( stepCounts[ t ] < 0 );
+				undoPop( position, stepNodes[ t ], stepCounts[ t ] );
+			}
+
+			last = step > 0 ? stepNodes[ step - 1 ] : lastBeforeEpoch;
+			Arrays.fill( stepNodes, step, nSteps, null );
+			nSteps = step;
+		}
+
+		/**
+		 * Updates the events received from the neighbor slabs. If an event
+		 * differs before the last processed key, the slab is restored to its
+		 * state before the first difference.
+		 *
+		 * @return true if the slab needs to be flooded again
+		 */
+		boolean setEvents( ArrayList<Event> newEvents )
+		{
+			int n = Math.min( events.size(), newEvents.size() );
+			int d = 0;
+			while ( d < n && events.get( d ).sameAs( newEvents.get( d ) ) )
+				d++;
+			if ( d == events.size() && d == newEvents.size() )
+				return false;
+
+			// find the lowest key that differs between the two lists
+			Node diff;
+			if ( d == events.size() )
+				diff = newEvents.get( d ).node;
+			else if ( d == newEvents.size() )
+				diff = events.get( d ).node;
+			else
+				diff = EVENT_ORDER.compare( events.get( d ), newEvents.get( d ) ) < 0 ?
+						events.get( d ).node : newEvents.get( d ).node;
+
+			if ( d < nProcessedEvents || (last != null && compareOrder( diff, last ) <= 0) )
+			{
+				// steps are sorted by key, find the first one to revert
+				int lo = 0;
+				int hi = nSteps;
+				while ( lo < hi )
+				{
+					int mid = (lo + hi) >>> 1;
+					if ( stepEvents[ mid ] >= d || compareOrder( diff, stepNodes[ mid ] ) <= 0 )
+						hi = mid;
+					else
+						lo = mid + 1;
+				}
+				if ( lo < nSteps )
+					restore( lo );
+
+				// the events ignored since the last step have no effect
+				nProcessedEvents = Math.min( nProcessedEvents, d );
+			}
+			events = newEvents;
+			return true;
+		}
+
+		void endEpoch()
+		{
+			nChanges = 0;
+			events = new ArrayList<Event>();
+			nProcessedEvents = 0;
+			eventsBelow = new ArrayList<Event>();
+			eventsAbove = new ArrayList<Event>();
+			Arrays.fill( stepNodes, 0, nSteps, null );
+			nSteps = 0;
+			nOperations = 0;
+
+			// the nodes of the processed voxels will not be created again
+			for ( int k = 0; k < nNodes; k++ )
+			{
+				long voxel = nodeVoxels[ k ];
+				nodes[ (int) (voxel >>> 32) - zStart ][ (int) voxel ] = null;
+			}
+			nNodes = 0;
+		}
+
+		/**
+		 * Floods the slab, up to the flooding level of the current epoch.
+		 */
+		void flood( boolean getDams )
+		{
+			final int[] queuedZ = new int[ dx.length ];
+			final int[] queuedIndices = new int[ dx.length ];
+			final int[] queuedRanks = new int[ dx.length ];
+			while ( true )
+			{
+				// process the next event if its key is lower than the key
+				// of the next voxel of the slab
+				if ( nProcessedEvents < events.size() )
+				{
+					Event event = events.get( nProcessedEvents );
+					if ( size == 0 || compareOrder( event.node, nextNode() ) < 0 )
+					{
+						if ( isValid( event ) )
+						{
+							addStep( event.node, -1 );
+							nProcessedEvents++;
+							processEvent( event );
+						}
+						else
+						{
+							nProcessedEvents++;
+						}
+						continue;
+					}
+				}
+				if ( size == 0 )
+					break;
+
+				int z = heapZ[ 0 ];
+				int index = heapIndices[ 0 ];
+				float value = values[ z ][ index ];
+				float level = last != null && last.level > value ? last.level : value;
+				if ( level > threshold )
+					break;
+				last = nextNode();
+				addStep( last, heapCounts[ 0 ] );
+				pop();
+
+				int x = index % sizeX;
+				int y = index / sizeX;
+				int label = 0;
+				boolean multipleLabels = false;
+				int nQueued = 0;
+				for ( int k = 0; k < dx.length; k++ )
+				{
+					int u = x + dx[k], v = y + dy[k], w = z + dz[k];
+					if ( u < 0 || u >= sizeX || v < 0 || v >= sizeY || w < 0 || w >= sizeZ )
+						continue;
+					int i2 = v * sizeX + u;
+					int label2;
+					if ( w < zStart || w >= zEnd )
+					{
+						int b = w < zStart ? 0 : 1;
+						if ( !active[ b ][ i2 ] )
+							continue;
+						label2 = planeLabels[ b ][ i2 ];
+					}
+					else
+					{
+						label2 = labels[ w ][ i2 ];
+						if ( label2 == INIT && (inMask == null || inMask[ w ][ i2 ]) )
+						{
+							queuedZ[ nQueued ] = w;
+							queuedIndices[ nQueued ] = i2;
+							queuedRanks[ nQueued++ ] = k;
+							continue;
+						}
+					}
+
+					if ( label2 > 0 )
+					{
+						if ( label == 0 )
+						{
+							label = label2;
+						}
+						else if ( label2 != label )
+						{
+							multipleLabels = true;
+						}
+					}
+				}
+
+				if ( label == 0 )
+					continue;
+				if ( getDams && multipleLabels )
+				{
+					setLabel( z, index, WSHED );
+					continue;
+				}
+
+				setLabel( z, index, label );
+				if ( z == zStart && zStart > 0 )
+					eventsBelow.add( new Event( 1, index, label, last ) );
+				if ( z == zEnd - 1 && zEnd < sizeZ )
+					eventsAbove.add( new Event( 0, index, label, last ) );
+				for ( int q = 0; q < nQueued; q++ )
+				{
+					setLabel( queuedZ[ q ], queuedIndices[ q ], INQUEUE );
+					push( queuedZ[ q ], queuedIndices[ q ], last, queuedRanks[ q ] );
+				}
+			}
+		}
+
+		/**
+		 * Checks that the flooding path of the voxel of the event only
+		 * contains voxels of this slab that were processed in the same way
+		 * by this slab. The path is checked up to the closest voxel of this
+		 * slab, as the path of this voxel is known to be valid. Invalid
+		 * events come from a previous flooding of this slab, and are sent
+		 * again by the neighbor slab once updated.
+		 */
+		private boolean isValid( Event event )
+		{
+			Node node = event.node.crossing;
+			while ( node != null && node.slab != slabIndex )
+				node = node.crossing;
+			if ( node == null )
+				return true;
+			int label = labels[ node.z ][ node.index ];
+			if ( label == INIT || label == INQUEUE )
+				return false;
+
+			// nodes of the previous epochs are not stored, and are valid
+			Node[] sliceNodes = nodes[ node.z - zStart ];
+			Node current = sliceNodes != null ? sliceNodes[ node.index ] : null;
+			return current == null || current == node;
+		}
+
+		/**
+		 * Marks the voxel of the event as labeled, and queues its neighbors
+		 * within the slab.
+		 */
+		private void processEvent( Event event )
+		{
+			active[ event.side ][ event.index ] = true;
+			planeLabels[ event.side ][ event.index ] = event.label;
+			last = event.node;
+
+			int x = event.index % sizeX;
+			int y = event.index / sizeX;
+			int z = event.side == 0 ? zStart - 1 : zEnd;
+			for ( int k = 0; k < dx.length; k++ )
+			{
+				int u = x + dx[k], v = y + dy[k], w = z + dz[k];
+				if ( u < 0 || u >= sizeX || v < 0 || v >= sizeY || w < zStart || w >= zEnd )
+					continue;
+				int i2 = v * sizeX + u;
+				if ( labels[ w ][ i2 ] == INIT && (inMask == null || inMask[ w ][ i2 ]) )
+				{
+					setLabel( w, i2, INQUEUE );
+					push( w, i2, last, k );
+				}
+			}
+		}
+
+		/**
+		 * Returns the node of the first voxel of the queue. Its key is
+		 * obtained by removing the elements of the key of the last processed
+		 * voxel with a lower priority, and appending the voxel.
+		 */
+		private Node nextNode()
+		{
+			int z = heapZ[ 0 ];
+			int index = heapIndices[ 0 ];
+			float value = values[ z ][ index ];
+			Node pusher = heapPushers[ 0 ];
+			long rank = heapRanks[ 0 ];
+
+			Node previous = last;
+			while ( previous != null && comparePriority( previous, value, pusher, rank ) < 0 )
+				previous = previous.previous;
+
+			// reuse the node created by a previous flooding, if identical, so
+			// that identical keys are always represented by the same nodes
+			Node[] sliceNodes = nodes[ z - zStart ];
+			if ( sliceNodes == null )
+				sliceNodes = nodes[ z - zStart ] = new Node[ sizeXY ];
+			Node first = sliceNodes[ index ];
+			Node before = null;
+			for ( Node node = first; node != null; node = node.alternative )
+			{
+				if ( node.pusher == pusher && node.rank == rank && node.previous == previous )
+				{
+					// move the node to the front of the list
+					if ( before != null )
+					{
+						before.alternative = node.alternative;
+						node.alternative = first;
+						sliceNodes[ index ] = node;
+					}
+					return node;
+				}
+				before = node;
+			}
+
+			Node node = new Node( slabIndex, z, index, value, pusher, rank, previous );
+			if ( first == null )
+			{
+				if ( nNodes == nodeVoxels.length )
+					nodeVoxels = Arrays.copyOf( nodeVoxels, nNodes * 2 );
+				nodeVoxels[ nNodes++ ] = (((long) z) << 32) | (index & 0xFFFFFFFFL);
+			}
+			node.alternative = first;
+			sliceNodes[ index ] = node;
+			return node;
+		}
+
+		private void setLabel( int z, int index, int label )
+		{
+			if ( nChanges == changedVoxels.length )
+			{
+				changedVoxels = Arrays.copyOf( changedVoxels, nChanges * 2 );
+				changedLabels = Arrays.copyOf( changedLabels, nChanges * 2 );
+			}
+			changedVoxels[ nChanges ] = (((long) z) << 32) | (index & 0xFFFFFFFFL);
+			changedLabels[ nChanges++ ] = labels[ z ][ index ];
+			labels[ z ][ index ] = label;
+		}
+
+		private void ensureCapacity( int capacity )
+		{
+			if ( capacity <= heapValues.length )
+				return;
+			int newCapacity = Math.max( capacity, heapValues.length * 2 );
+			heapValues = Arrays.copyOf( heapValues, newCapacity );
+			heapCounts = Arrays.copyOf( heapCounts, newCapacity );
+			heapZ = Arrays.copyOf( heapZ, newCapacity );
+			heapIndices = Arrays.copyOf( heapIndices, newCapacity );
+			heapPushers = Arrays.copyOf( heapPushers, newCapacity );
+			heapRanks = Arrays.copyOf( heapRanks, newCapacity );
+		}
+
+		private boolean lower( int i, int value, long count )
+		{
+			return heapValues[ i ] < value || (heapValues[ i ] == value && heapCounts[ i ] < count);
+		}
+
+		private void moveEntry( int from, int to )
+		{
+			heapValues[ to ] = heapValues[ from ];
+			heapCounts[ to ] = heapCounts[ from ];
+			heapZ[ to ] = heapZ[ from ];
+			heapIndices[ to ] = heapIndices[ from ];
+			heapPushers[ to ] = heapPushers[ from ];
+			heapRanks[ to ] = heapRanks[ from ];
+		}
+
+		private void setEntry( int i, int value, long count, int z, int index, Node pusher, long rank )
+		{
+			heapValues[ i ] = value;
+			heapCounts[ i ] = count;
+			heapZ[ i ] = z;
+			heapIndices[ i ] = index;
+			heapPushers[ i ] = pusher;
+			heapRanks[ i ] = rank;
+		}
+
+		private void push( int z, int index, Node pusher, long rank )
+		{
+			ensureCapacity( size + 1 );
+			int value = bitsToSortable( Float.floatToIntBits( values[ z ][ index ] ) );
+			long count = counter++;
+			int i = size++;
+			while ( i > 0 )
+			{
+				int parent = (i - 1) >> 1;
+				if ( lower( parent, value, count ) )
+					break;
+				moveEntry( parent, i );
+				i = parent;
+			}
+			setEntry( i, value, count, z, index, pusher, rank );
+			addOperation( -1 );
+		}
+
+		/**
+		 * Removes the first entry of the heap.
+		 */
+		private void pop()
+		{
+			size--;
+			int value = heapValues[ size ];
+			long count = heapCounts[ size ];
+			int z = heapZ[ size ];
+			int index = heapIndices[ size ];
+			Node pusher = heapPushers[ size ];
+			long rank = heapRanks[ size ];
+			heapPushers[ size ] = null;
+			addOperation( size > 0 ? siftDown( 0, value, count, z, index, pusher, rank ) : 0 );
+		}
+
+		private void addOperation( int operation )
+		{
+			if ( nOperations == operations.length )
+				operations = Arrays.copyOf( operations, nOperations * 2 );
+			operations[ nOperations++ ] = operation;
+		}
+
+		/**
+		 * Reverts the last insertion, by moving back the entries along the
+		 * path from the inserted position to the last position.
+		 */
+		private void undoPush()
+		{
+			counter--;
+			int end = size - 1;
+			int i = end;
+			while ( heapCounts[ i ] != counter )
+				i = (i - 1) >> 1;
+			while ( i != end )
+			{
+				// find the child of i on the path to the last position
+				int child = end;
+				while ( ((child - 1) >> 1) != i )
+					child = (child - 1) >> 1;
+				moveEntry( child, i );
+				i = child;
+			}
+			heapPushers[ end ] = null;
+			size--;
+		}
+
+		/**
+		 * Reverts the last removal: the entry moved from the last position to
+		 * the given position is moved back, and the entries along the path
+		 * from the first position are moved down.
+		 */
+		private void undoPop( int position, Node node, long count )
+		{
+			ensureCapacity( size + 1 );
+			if ( size > 0 )
+			{
+				moveEntry( position, size );
+				for ( int i = position; i > 0; i = (i - 1) >> 1 )
+					moveEntry( (i - 1) >> 1, i );
+			}
+			setEntry( 0, bitsToSortable( Float.floatToIntBits( node.value ) ),
+					count, node.z, node.index, node.pusher, node.rank );
+			size++;
+		}
+
+		/**
+		 * Inserts an entry at the given position, moving up the entries with
+		 * a lower priority, and returns the final position of the entry.
+		 */
+		private int siftDown( int i, int value, long count, int z, int index, Node pusher, long rank )
+		{
+			while ( true )
+			{
+				int child = 2 * i + 1;
+				if ( child >= size )
+					break;
+				if ( child + 1 < size && lower( child + 1, heapValues[ child ], heapCounts[ child ] ) )
+					child++;
+				if ( !lower( child, value, count ) )
+					break;
+				moveEntry( child, i );
+				i = child;
+			}
+			setEntry( i, value, count, z, index, pusher, rank );
+			return i;
+		}
+	}
+
+	private static final int bitsToSortable( int bits )
+	{
+		return bits >= 0 ? bits : bits ^ 0x7FFFFFFF;
+	}
+}
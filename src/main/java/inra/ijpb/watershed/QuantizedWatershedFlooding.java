@@ -0,0 +1,276 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.watershed;
+
+import java.util.Arrays;
+
+import ij.IJ;
+
+/**
+ * Marker-controlled flooding of an image whose values have been quantized
+ * into a bounded number of integer levels, using a bucket queue: elements
+ * are stored in one FIFO list per level, implemented as linked lists within
+ * integer arrays, so that insertion and extraction are performed in
+ * constant time.
+ *
+ * The processing order is the same as the priority-queue flooding of
+ * {@link MarkerControlledWatershedTransform2D} and
+ * {@link MarkerControlledWatershedTransform3D} applied to the quantized
+ * image: elements are processed by increasing level, then by insertion
+ * order. Images are given as arrays in linear index order, and the
+ * neighborhood as arrays of offsets, that must follow the order of the
+ * neighborhood classes used by the transforms.
+ */
+class QuantizedWatershedFlooding
+{
+	/** value of elements belonging to watersheds */
+	static final int WSHED = 0;
+	/** initial value of output elements */
+	static final int INIT = -1;
+	/** value assigned to elements put into the queue */
+	static final int INQUEUE = -3;
+
+	int sizeX;
+	int sizeY;
+	int sizeZ;
+
+	// neighborhood offsets
+	int[] dx;
+	int[] dy;
+	int[] dz;
+
+	// bucket queue: first and last element of each level, and next element
+	// of each element within its level
+	int[] heads;
+	int[] tails;
+	int[] next;
+	int currentLevel;
+
+	/**
+	 * Creates a new flooding algorithm for images with the specified size and
+	 * neighborhood.
+	 * 
+	 * @param sizeX
+	 *            the size of images in the x direction
+	 * @param sizeY
+	 *            the size of images in the y direction
+	 * @param sizeZ
+	 *            the size of images in the z direction (1 for planar images)
+	 * @param dx
+	 *            the x-offsets of the neighbors
+	 * @param dy
+	 *            the y-offsets of the neighbors
+	 * @param dz
+	 *            the z-offsets of the neighbors
+	 */
+	QuantizedWatershedFlooding(int sizeX, int sizeY, int sizeZ, int[] dx, int[] dy, int[] dz)
+	{
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+		this.dx = dx;
+		this.dy = dy;
+		this.dz = dz;
+	}
+
+	/**
+	 * Converts the values into integer levels between 0 and nLevels-1, by a
+	 * linear mapping of the [min, max] range.
+	 * 
+	 * @param values
+	 *            the values to quantize
+	 * @param min
+	 *            the value associated to the first level
+	 * @param max
+	 *            the value associated to the last level
+	 * @param nLevels
+	 *            the number of levels
+	 * @param levels
+	 *            the array used to store the levels
+	 * @return the maximum absolute difference between a value and the value
+	 *         associated to its level
+	 */
+	static double quantize(float[] values, double min, double max, int nLevels, int[] levels)
+	{
+		double step = max > min ? (max - min) / (nLevels - 1) : 1;
+		double maxDiff = 0;
+		for (int i = 0; i < values.length; i++)
+		{
+			double value = values[i];
+			if (Double.isNaN(value))
+			{
+				levels[i] = nLevels - 1;
+				continue;
+			}
+			int level = (int) Math.round((value - min) / step);
+			level = Math.min(Math.max(level, 0), nLevels - 1);
+			levels[i] = level;
+			maxDiff = Math.max(maxDiff, Math.abs(value - (min + level * step)));
+		}
+		return maxDiff;
+	}
+
+	/**
+	 * Floods the image from the markers.
+	 * 
+	 * @param levels
+	 *            the quantized values of the input image
+	 * @param nLevels
+	 *            the number of levels
+	 * @param seeds
+	 *            the labels of the markers (0 for background)
+	 * @param inMask
+	 *            the elements within the mask (null to process all elements)
+	 * @param getDams
+	 *            select/deselect the calculation of dams
+	 * @return the labels of the elements, or null if the thread was
+	 *         interrupted. Elements that were not reached by the flooding
+	 *         have value INIT.
+	 */
+	int[] flood(int[] levels, int nLevels, int[] seeds, boolean[] inMask, boolean getDams)
+	{
+		final int n = levels.length;
+		final int[] labels = new int[n];
+		Arrays.fill(labels, INIT);
+
+		heads = new int[nLevels];
+		tails = new int[nLevels];
+		next = new int[n];
+		Arrays.fill(heads, -1);
+		currentLevel = nLevels;
+
+		// add the neighbors of the markers to the queue, visiting the markers
+		// in the same order as the priority-queue flooding
+		for (int z = 0; z < sizeZ; z++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				for (int y = 0; y < sizeY; y++)
+				{
+					int index = (z * sizeY + y) * sizeX + x;
+					if (seeds[index] <= 0 || (inMask != null && !inMask[index]))
+						continue;
+
+					for (int k = 0; k < dx.length; k++)
+					{
+						int x2 = x + dx[k], y2 = y + dy[k], z2 = z + dz[k];
+						if (x2 < 0 || x2 >= sizeX || y2 < 0 || y2 >= sizeY || z2 < 0 || z2 >= sizeZ)
+							continue;
+						int index2 = (z2 * sizeY + y2) * sizeX + x2;
+						if (seeds[index2] == 0 && labels[index2] != INQUEUE)
+						{
+							push(index2, levels[index2]);
+							labels[index2] = INQUEUE;
+						}
+					}
+					labels[index] = seeds[index];
+				}
+			}
+		}
+
+		final int[] queued = new int[dx.length];
+		int iter = 0;
+		while (true)
+		{
+			int index = pop();
+			if (index < 0)
+				break;
+
+			if ((++iter & 0xFFFF) == 0)
+			{
+				if (Thread.currentThread().isInterrupted())
+					return null;
+				IJ.showProgress(currentLevel, nLevels);
+			}
+
+			int x = index % sizeX;
+			int y = (index / sizeX) % sizeY;
+			int z = index / (sizeX * sizeY);
+
+			int label = 0;
+			boolean multipleLabels = false;
+			int nQueued = 0;
+			for (int k = 0; k < dx.length; k++)
+			{
+				int x2 = x + dx[k], y2 = y + dy[k], z2 = z + dz[k];
+				if (x2 < 0 || x2 >= sizeX || y2 < 0 || y2 >= sizeY || z2 < 0 || z2 >= sizeZ)
+					continue;
+				int index2 = (z2 * sizeY + y2) * sizeX + x2;
+				int label2 = labels[index2];
+				if (label2 == INIT && (inMask == null || inMask[index2]))
+				{
+					queued[nQueued++] = index2;
+				}
+				else if (label2 > 0)
+				{
+					if (label == 0)
+						label = label2;
+					else if (label2 != label)
+						multipleLabels = true;
+				}
+			}
+
+			if (label == 0)
+				continue;
+			if (getDams && multipleLabels)
+			{
+				labels[index] = WSHED;
+				continue;
+			}
+
+			labels[index] = label;
+			for (int q = 0; q < nQueued; q++)
+			{
+				labels[queued[q]] = INQUEUE;
+				push(queued[q], levels[queued[q]]);
+			}
+		}
+		IJ.showProgress(1.0);
+
+		return labels;
+	}
+
+	private void push(int index, int level)
+	{
+		next[index] = -1;
+		if (heads[level] == -1)
+			heads[level] = index;
+		else
+			next[tails[level]] = index;
+		tails[level] = index;
+
+		if (level < currentLevel)
+			currentLevel = level;
+	}
+
+	private int pop()
+	{
+		while (currentLevel < heads.length && heads[currentLevel] == -1)
+			currentLevel++;
+		if (currentLevel == heads.length)
+			return -1;
+
+		int index = heads[currentLevel];
+		heads[currentLevel] = next[index];
+		return index;
+	}
+}
@@ -440,6 +440,57 @@ public class Watershed
 		else 
 			return null;
 	}
+	/**
+	 * Compute watershed with markers with an optional binary mask to
+	 * restrict the regions of application, using several threads. The stack
+	 * is split into slabs along the z-axis that are flooded concurrently,
+	 * and the result is identical to the result of the sequential algorithm
+	 * (see {@link ParallelMarkerControlledWatershedTransform3D}).
+	 *
+	 * @param input original grayscale image (usually a gradient image)
+	 * @param marker image with labeled markers
+	 * @param binaryMask binary mask to restrict the regions of interest
+	 * @param connectivity voxel connectivity to define neighborhoods (6 or 26)
+	 * @param getDams select/deselect the calculation of dams
+	 * @param verbose flag to display messages in the log window
+	 * @param nThreads number of threads to use (the sequential algorithm is
+	 *            used if lower than 2)
+	 * @return image of labeled catchment basins (labels are 1, 2, ...)
+	 */
+	public static ImageStack computeWatershed(
+			ImageStack input,
+			ImageStack marker,
+			ImageStack binaryMask,
+			int connectivity,
+			boolean getDams,
+			boolean verbose,
+			int nThreads )
+	{
+		if( nThreads < 2 )
+			return computeWatershed( input, marker, binaryMask, connectivity,
+					getDams, verbose );
+
+		final ImagePlus inputIP = new ImagePlus( "input", input );
+		final ImagePlus markerIP = new ImagePlus( "marker", marker );
+		final ImagePlus binaryMaskIP = ( null != binaryMask ) ?
+				new ImagePlus( "binary mask", binaryMask ) : null;
+
+		ParallelMarkerControlledWatershedTransform3D wt =
+				new ParallelMarkerControlledWatershedTransform3D( inputIP,
+						markerIP, binaryMaskIP, connectivity, nThreads );
+		wt.setVerbose( verbose );
+
+		ImagePlus ws;
+		if( getDams )
+			ws = wt.applyWithPriorityQueueAndDams();
+		else
+			ws = wt.applyWithPriorityQueue();
+
+		if ( null != ws )
+			return ws.getImageStack();
+		else
+			return null;
+	}
 	/**
 	 * Compute watershed with markers with an optional binary mask
 	 * to restrict the regions of application.
@@ -0,0 +1,311 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.watershed;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.morphology.extrema.RegionalMinimaDynamics;
+
+/**
+ * <p>
+ * Hierarchy of watershed basins based on the dynamics of the regional minima.
+ * </p>
+ *
+ * <p>
+ * The watershed is computed only once, using all the regional minima of the
+ * input image as markers. The dynamic of each minimum and the merge tree of
+ * the minima are computed with a {@link RegionalMinimaDynamics} instance.
+ * The segmentation for a given dynamic <code>h</code> is then obtained by
+ * merging the basins of the minima whose dynamic is lower than or equal to
+ * <code>h</code> into the basin they flood into, which only requires a
+ * relabeling of the finest segmentation. The saliency map, that associates
+ * to each boundary pixel the largest dynamic for which it remains a
+ * boundary, summarizes the whole hierarchy.
+ * </p>
+ *
+ * <p>
+ * The result for a given dynamic has the same number of basins as the
+ * extended minima watershed, but the boundaries may differ locally, as the
+ * extended minima watershed floods the image after imposition of the
+ * extended minima.
+ * </p>
+ *
+ * Example of use:
+ * <pre><code>
+ * ImageStack gradient = ...;
+ * WatershedHierarchy hierarchy = new WatershedHierarchy(gradient, 6, true);
+ * hierarchy.compute();
+ * for (int h = 5; h &lt; 50; h += 5)
+ * {
+ *     ImageStack basins = hierarchy.getBasins(h);
+ *     ...
+ * }
+ * </code></pre>
+ *
+ * @see ExtendedMinimaWatershed
+ * @see RegionalMinimaDynamics
+ */
+public class WatershedHierarchy extends AlgoStub
+{
+	/** The input image, usually a gradient image */
+	ImageStack image;
+
+	/** The connectivity, 4 or 8 for planar images, 6 or 26 for 3D images */
+	int connectivity;
+
+	/** Flag for computing watershed lines */
+	boolean calculateDams;
+
+	/** The dynamics of the regional minima */
+	RegionalMinimaDynamics dynamics = null;
+
+	/** The finest segmentation, with all regional minima as markers */
+	ImageStack finestBasins = null;
+
+	/** The cached saliency map */
+	ImageStack saliencyMap = null;
+
+	// neighborhood offsets
+	int[] dx;
+	int[] dy;
+	int[] dz;
+
+	/**
+	 * Creates a new watershed hierarchy for the specified image.
+	 *
+	 * @param image
+	 *            the input image (usually a gradient image)
+	 * @param connectivity
+	 *            the connectivity, either 4 or 8 for single-slice images, or
+	 *            6 or 26 for 3D images
+	 * @param calculateDams
+	 *            select/deselect the calculation of dams
+	 */
+	public WatershedHierarchy(ImageStack image, int connectivity, boolean calculateDams)
+	{
+		this.image = image;
+		this.connectivity = connectivity;
+		this.calculateDams = calculateDams;
+	}
+
+	/**
+	 * Computes the dynamics of the regional minima and the finest watershed.
+	 * Has to be called once before requesting basins or saliency.
+	 */
+	public void compute()
+	{
+		this.fireStatusChanged(this, "Compute minima dynamics");
+		this.dynamics = new RegionalMinimaDynamics(connectivity);
+		this.dynamics.process(image);
+
+		this.fireStatusChanged(this, "Compute watershed");
+		ImageStack markers = this.dynamics.getMinimaLabels();
+		if (image.getSize() == 1 && (connectivity == 4 || connectivity == 8))
+		{
+			ImageProcessor basins = Watershed.computeWatershed(
+					image.getProcessor(1), markers.getProcessor(1),
+					connectivity, calculateDams, false);
+			this.finestBasins = new ImageStack(image.getWidth(), image.getHeight());
+			this.finestBasins.addSlice(basins);
+		}
+		else
+		{
+			this.finestBasins = Watershed.computeWatershed(image, markers,
+					connectivity, calculateDams, false);
+		}
+		this.saliencyMap = null;
+		this.fireStatusChanged(this, "");
+	}
+
+	/**
+	 * @return the dynamics of the regional minima of the input image
+	 */
+	public RegionalMinimaDynamics getDynamics()
+	{
+		return dynamics;
+	}
+
+	/**
+	 * @return the finest segmentation, obtained with all regional minima as
+	 *         markers
+	 */
+	public ImageStack getFinestBasins()
+	{
+		return finestBasins;
+	}
+
+	/**
+	 * Returns the segmentation obtained when keeping only the minima with a
+	 * dynamic greater than <code>h</code>. When dams are computed, the dams
+	 * between merged basins are removed.
+	 *
+	 * @param h
+	 *            the threshold on dynamic
+	 * @return the label image of the merged basins, as a 32-bit stack
+	 */
+	public ImageStack getBasins(double h)
+	{
+		int[] lut = dynamics.mergeMinima(h);
+
+		int sizeX = finestBasins.getWidth();
+		int sizeY = finestBasins.getHeight();
+		int sizeZ = finestBasins.getSize();
+		ImageStack result = ImageStack.create(sizeX, sizeY, sizeZ, 32);
+		createOffsets();
+
+		for (int z = 0; z < sizeZ; z++)
+		{
+			ImageProcessor slice = finestBasins.getProcessor(z + 1);
+			ImageProcessor resSlice = result.getProcessor(z + 1);
+			for (int y = 0; y < sizeY; y++)
+			{
+				for (int x = 0; x < sizeX; x++)
+				{
+					int label = (int) slice.getf(x, y);
+					if (label > 0)
+					{
+						resSlice.setf(x, y, lut[label]);
+						continue;
+					}
+
+					// dam pixel: keep it only if it separates distinct basins
+					int newLabel = -1;
+					for (int k = 0; k < dx.length; k++)
+					{
+						int x2 = x + dx[k], y2 = y + dy[k], z2 = z + dz[k];
+						if (x2 < 0 || x2 >= sizeX || y2 < 0 || y2 >= sizeY || z2 < 0 || z2 >= sizeZ)
+							continue;
+						int label2 = (int) finestBasins.getVoxel(x2, y2, z2);
+						if (label2 == 0)
+							continue;
+						label2 = lut[label2];
+						if (newLabel == -1)
+						{
+							newLabel = label2;
+						}
+						else if (newLabel != label2)
+						{
+							newLabel = 0;
+							break;
+						}
+					}
+					resSlice.setf(x, y, Math.max(newLabel, 0));
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the saliency map of the hierarchy: each pixel adjacent to a
+	 * different basin (or each dam pixel) is associated with the largest
+	 * dynamic for which it still belongs to a boundary between basins.
+	 * Pixels within basins have value 0. The map is computed on first call,
+	 * and cached.
+	 *
+	 * @return the saliency map, as a 32-bit stack
+	 */
+	public ImageStack getSaliencyMap()
+	{
+		if (this.saliencyMap != null)
+			return this.saliencyMap;
+
+		int sizeX = finestBasins.getWidth();
+		int sizeY = finestBasins.getHeight();
+		int sizeZ = finestBasins.getSize();
+		ImageStack result = ImageStack.create(sizeX, sizeY, sizeZ, 32);
+		createOffsets();
+
+		for (int z = 0; z < sizeZ; z++)
+		{
+			fireProgressChanged(this, z, sizeZ);
+			ImageProcessor resSlice = result.getProcessor(z + 1);
+			for (int y = 0; y < sizeY; y++)
+			{
+				for (int x = 0; x < sizeX; x++)
+				{
+					int label = (int) finestBasins.getVoxel(x, y, z);
+					double saliency = 0;
+					for (int k = 0; k < dx.length; k++)
+					{
+						int x2 = x + dx[k], y2 = y + dy[k], z2 = z + dz[k];
+						if (x2 < 0 || x2 >= sizeX || y2 < 0 || y2 >= sizeY || z2 < 0 || z2 >= sizeZ)
+							continue;
+						int label2 = (int) finestBasins.getVoxel(x2, y2, z2);
+						if (label2 == 0 || label2 == label)
+							continue;
+						if (label == 0)
+						{
+							// dam pixel: compare all neighbor basins to the first one
+							label = label2;
+							continue;
+						}
+						saliency = Math.max(saliency, dynamics.mergeLevel(label, label2));
+					}
+					resSlice.setf(x, y, (float) saliency);
+				}
+			}
+		}
+		fireProgressChanged(this, 1, 1);
+
+		this.saliencyMap = result;
+		return result;
+	}
+
+	private void createOffsets()
+	{
+		if (dx != null)
+			return;
+
+		if (connectivity == 4 || connectivity == 6)
+		{
+			dx = new int[] { 0, 0, -1, 1, 0, 0 };
+			dy = new int[] { 0, -1, 0, 0, 1, 0 };
+			dz = new int[] { -1, 0, 0, 0, 0, 1 };
+			return;
+		}
+
+		// for 8 connectivity, single-slice images ensure the neighbors are
+		// restricted to the plane
+		dx = new int[26];
+		dy = new int[26];
+		dz = new int[26];
+		int k = 0;
+		for (int z = -1; z <= 1; z++)
+		{
+			for (int y = -1; y <= 1; y++)
+			{
+				for (int x = -1; x <= 1; x++)
+				{
+					if (x == 0 && y == 0 && z == 0)
+						continue;
+					dx[k] = x;
+					dy[k] = y;
+					dz[k] = z;
+					k++;
+				}
+			}
+		}
+	}
+}
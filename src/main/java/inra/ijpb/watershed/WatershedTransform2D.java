@@ -29,8 +29,10 @@ import java.util.LinkedList;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 import inra.ijpb.data.Cursor2D;
 import inra.ijpb.data.Neighborhood2D;
 import inra.ijpb.data.Neighborhood2DC4;
@@ -258,16 +260,11 @@ public class WatershedTransform2D
 	    if( verbose ) IJ.log("  Extracting pixel values (h_min = " + hMin + ", h_max = " + hMax + ")..." );
 	    final long t0 = System.currentTimeMillis();
 
-	    // list of original pixels values and corresponding coordinates
-	    ArrayList<PixelRecord> pixelList = extractPixelValues( inputImage, hMin, hMax );
+	    // linear indices of original pixels, sorted by value
+	    final int[] sortedIndices = sortPixelIndices( inputImage, hMin, hMax );
 
 	    final long t1 = System.currentTimeMillis();		
-	    if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-	    if( verbose ) IJ.log("  Sorting pixels by value..." );
-	    IJ.showStatus("Sorting pixels by value...");
-	    Collections.sort( pixelList );
-	    final long t2 = System.currentTimeMillis();
-	    if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+	    if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 	    
 	    IJ.log( "  Flooding..." );
 	    IJ.showStatus( "Flooding..." );
@@ -286,22 +283,22 @@ public class WatershedTransform2D
         int heightIndex2 = currentIndex;
         
 	    // for h <- h_min to h_max; geodesic SKIZ of level h-1 inside level h
-	    while( currentIndex < pixelList.size() )
+	    while( currentIndex < sortedIndices.length )
 	    {	    	
-	    	double h = pixelList.get( currentIndex ).getValue();	    	
+	    	double h = inputImage.getf( sortedIndices[ currentIndex ] );	    	
 	    		    		    		    	
-	    	for(int pixelIndex = heightIndex1; pixelIndex < pixelList.size(); pixelIndex ++)
+	    	for(int pixelIndex = heightIndex1; pixelIndex < sortedIndices.length; pixelIndex ++)
 	    	{
-	    		final PixelRecord pixelRecord = pixelList.get( pixelIndex );
+	    		final int index = sortedIndices[ pixelIndex ];
 	    			    		
-	    		if( pixelRecord.getValue() != h )
+	    		if( inputImage.getf( index ) != h )
 	    		{
 	    			// this pixel is at level h+1
 	    			heightIndex1 = pixelIndex;
 	    			break;
 	    		}
 	    			    		
-	    		final Cursor2D p = pixelRecord.getCursor();
+	    		final Cursor2D p = new Cursor2D( index % size1, index / size1 );
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    			    		
@@ -377,18 +374,18 @@ public class WatershedTransform2D
 
 	    	// check for new minima at level h
 	    		    	
-	    	for(int pixelIndex = heightIndex2; pixelIndex < pixelList.size(); pixelIndex ++, currentIndex++)
+	    	for(int pixelIndex = heightIndex2; pixelIndex < sortedIndices.length; pixelIndex ++, currentIndex++)
 	    	{
-	    		final PixelRecord pixelRecord = pixelList.get( pixelIndex );	    			    		
+	    		final int index = sortedIndices[ pixelIndex ];	    			    		
 	    		
-	    		if( pixelRecord.getValue() != h )
+	    		if( inputImage.getf( index ) != h )
 	    		{
 	    			// this pixel is at level h+1
 	    			heightIndex2 = pixelIndex;
 	    			break;
 	    		}
 	    			    		
-	    		final Cursor2D p = pixelRecord.getCursor();
+	    		final Cursor2D p = new Cursor2D( index % size1, index / size1 );
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    		
@@ -481,16 +478,11 @@ public class WatershedTransform2D
 	    if( verbose ) IJ.log("  Extracting pixel values (h_min = " + hMin + ", h_max = " + hMax + ")..." );
 	    final long t0 = System.currentTimeMillis();
 
-	    // list of original pixels values and corresponding coordinates
-	    ArrayList<PixelRecord> pixelList = extractPixelValues( inputImage, hMin, hMax );
+	    // linear indices of original pixels, sorted by value
+	    final int[] sortedIndices = sortPixelIndices( inputImage, hMin, hMax );
 
 	    final long t1 = System.currentTimeMillis();		
-	    if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-	    if( verbose ) IJ.log("  Sorting pixels by value..." );
-	    IJ.showStatus("Sorting pixels by value...");
-	    Collections.sort( pixelList );
-	    final long t2 = System.currentTimeMillis();
-	    if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+	    if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 	    
 	    IJ.log( "  Flooding..." );
 	    IJ.showStatus( "Flooding..." );
@@ -509,22 +501,22 @@ public class WatershedTransform2D
         int heightIndex2 = currentIndex;
         
 	    // for h <- h_min to h_max; geodesic SKIZ of level h-1 inside level h
-	    while( currentIndex < pixelList.size() )
+	    while( currentIndex < sortedIndices.length )
 	    {	    	
-	    	double h = pixelList.get( currentIndex ).getValue();	    	
+	    	double h = inputImage.getf( sortedIndices[ currentIndex ] );	    	
 	    		    		    		    	
-	    	for(int pixelIndex = heightIndex1; pixelIndex < pixelList.size(); pixelIndex ++)
+	    	for(int pixelIndex = heightIndex1; pixelIndex < sortedIndices.length; pixelIndex ++)
 	    	{
-	    		final PixelRecord pixelRecord = pixelList.get( pixelIndex );
+	    		final int index = sortedIndices[ pixelIndex ];
 	    			    		
-	    		if( pixelRecord.getValue() != h )
+	    		if( inputImage.getf( index ) != h )
 	    		{
 	    			// this pixel is at level h+1
 	    			heightIndex1 = pixelIndex;
 	    			break;
 	    		}
 	    			    		
-	    		final Cursor2D p = pixelRecord.getCursor();
+	    		final Cursor2D p = new Cursor2D( index % size1, index / size1 );
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    			    		
@@ -599,18 +591,18 @@ public class WatershedTransform2D
 
 	    	// check for new minima at level h
 	    		    	
-	    	for(int pixelIndex = heightIndex2; pixelIndex < pixelList.size(); pixelIndex ++, currentIndex++)
+	    	for(int pixelIndex = heightIndex2; pixelIndex < sortedIndices.length; pixelIndex ++, currentIndex++)
 	    	{
-	    		final PixelRecord pixelRecord = pixelList.get( pixelIndex );	    			    		
+	    		final int index = sortedIndices[ pixelIndex ];	    			    		
 	    		
-	    		if( pixelRecord.getValue() != h )
+	    		if( inputImage.getf( index ) != h )
 	    		{
 	    			// this pixel is at level h+1
 	    			heightIndex2 = pixelIndex;
 	    			break;
 	    		}
 	    			    		
-	    		final Cursor2D p = pixelRecord.getCursor();
+	    		final Cursor2D p = new Cursor2D( index % size1, index / size1 );
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    		
@@ -719,6 +711,71 @@ public class WatershedTransform2D
 		return list;
 	}
 
+	/**
+	 * Compute the linear indices (y * width + x) of the pixels of the input
+	 * image such that they have value h, hMin &lt;= h &lt;= hMax, sorted in
+	 * ascending order of value. Pixels with the same value keep the order of
+	 * {@link #extractPixelValues(ImageProcessor, double, double)}. A binary
+	 * mask is used if it exists.
+	 * 
+	 * For 8-bit and 16-bit images, the indices are sorted by counting sort,
+	 * in two passes over the image and using a single integer per pixel. For
+	 * other images, the pixel records are extracted and sorted.
+	 * 
+	 * @param inputImage input image
+	 * @param hMin minimum grayscale height value
+	 * @param hMax maximum grayscale height value
+	 * @return array of pixel indices sorted by pixel value
+	 */
+	public int[] sortPixelIndices(
+			final ImageProcessor inputImage,
+			final double hMin,
+			final double hMax )
+	{
+		final int size1 = inputImage.getWidth();
+		final int size2 = inputImage.getHeight();
+
+		if( !( inputImage instanceof ByteProcessor || inputImage instanceof ShortProcessor ) )
+		{
+			final ArrayList<PixelRecord> list = extractPixelValues( inputImage, hMin, hMax );
+			Collections.sort( list );
+			final int[] indices = new int[ list.size() ];
+			for( int i = 0; i < indices.length; i++ )
+			{
+				final Cursor2D c = list.get( i ).getCursor();
+				indices[ i ] = c.getY() * size1 + c.getX();
+			}
+			return indices;
+		}
+
+		// first pass: count the pixels of each value
+		final int nBins = inputImage instanceof ByteProcessor ? 256 : 65536;
+		final int[] offsets = new int[ nBins + 1 ];
+		for( int x = 0; x < size1; ++x )
+			for( int y = 0; y < size2; ++y )
+			{
+				final int h = inputImage.get( x, y );
+				if( h >= hMin && h <= hMax && ( null == maskImage || maskImage.getf( x, y ) > 0 ) )
+					offsets[ h + 1 ]++;
+			}
+
+		// cumulative counts give the position of the first pixel of each value
+		for( int h = 0; h < nBins; h++ )
+			offsets[ h + 1 ] += offsets[ h ];
+
+		// second pass: store each index at the current position of its value
+		final int[] indices = new int[ offsets[ nBins ] ];
+		for( int x = 0; x < size1; ++x )
+			for( int y = 0; y < size2; ++y )
+			{
+				final int h = inputImage.get( x, y );
+				if( h >= hMin && h <= hMax && ( null == maskImage || maskImage.getf( x, y ) > 0 ) )
+					indices[ offsets[ h ]++ ] = y * size1 + x;
+			}
+
+		return indices;
+	}
+
 	/**
 	 * Apply fast watersheds using flooding simulations, as described
 	 * by Soille, Pierre, and Luc M. Vincent. "Determining watersheds 
@@ -759,16 +816,11 @@ public class WatershedTransform2D
 	    if( verbose ) IJ.log("  Extracting pixel values (h_min = " + hMin + ", h_max = " + hMax + ")..." );
 	    final long t0 = System.currentTimeMillis();
 
-	    // list of original pixels values and corresponding coordinates
-	    ArrayList<PixelRecord> pixelList = extractPixelValues( inputImage, hMin, hMax );
+	    // linear indices of original pixels, sorted by value
+	    final int[] sortedIndices = sortPixelIndices( inputImage, hMin, hMax );
 
 	    final long t1 = System.currentTimeMillis();		
-	    if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-	    if( verbose ) IJ.log("  Sorting pixels by value..." );
-	    IJ.showStatus("Sorting pixels by value...");
-	    Collections.sort( pixelList );
-	    final long t2 = System.currentTimeMillis();
-	    if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+	    if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 	    
 	    IJ.log( "  Flooding..." );
 	    IJ.showStatus( "Flooding..." );
@@ -787,7 +839,7 @@ public class WatershedTransform2D
         int currentIndex = 0;
         while( h < hMin )
         {
-        	h = pixelList.get( currentIndex ).getValue();
+        	h = inputImage.getf( sortedIndices[ currentIndex ] );
         	currentIndex++;
         }
         
@@ -795,22 +847,22 @@ public class WatershedTransform2D
         int heightIndex2 = currentIndex;
                 
 	    // for h <- h_min to h_max; geodesic SKIZ of level h-1 inside level h
-	    while( currentIndex < pixelList.size() && h <= hMax )
+	    while( currentIndex < sortedIndices.length && h <= hMax )
 	    {	    	
-	    	h = pixelList.get( currentIndex ).getValue();	    	
+	    	h = inputImage.getf( sortedIndices[ currentIndex ] );	    	
 	    		    		    		    	
-	    	for(int pixelIndex = heightIndex1; pixelIndex < pixelList.size(); pixelIndex ++)
+	    	for(int pixelIndex = heightIndex1; pixelIndex < sortedIndices.length; pixelIndex ++)
 	    	{
-	    		final PixelRecord pixelRecord = pixelList.get( pixelIndex );
+	    		final int index = sortedIndices[ pixelIndex ];
 	    			    		
-	    		if( pixelRecord.getValue() != h )
+	    		if( inputImage.getf( index ) != h )
 	    		{
 	    			// this pixel is at level h+1
 	    			heightIndex1 = pixelIndex;
 	    			break;
 	    		}
 	    			    		
-	    		final Cursor2D p = pixelRecord.getCursor();
+	    		final Cursor2D p = new Cursor2D( index % size1, index / size1 );
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    			    		
@@ -886,18 +938,18 @@ public class WatershedTransform2D
 
 	    	// check for new minima at level h
 	    		    	
-	    	for(int pixelIndex = heightIndex2; pixelIndex < pixelList.size(); pixelIndex ++, currentIndex++)
+	    	for(int pixelIndex = heightIndex2; pixelIndex < sortedIndices.length; pixelIndex ++, currentIndex++)
 	    	{
-	    		final PixelRecord PixelRecord = pixelList.get( pixelIndex );	    			    		
+	    		final int index = sortedIndices[ pixelIndex ];	    			    		
 	    		
-	    		if( PixelRecord.getValue() != h )
+	    		if( inputImage.getf( index ) != h )
 	    		{
 	    			// this pixel is at level h+1
 	    			heightIndex2 = pixelIndex;
 	    			break;
 	    		}
 	    			    		
-	    		final Cursor2D p = PixelRecord.getCursor();
+	    		final Cursor2D p = new Cursor2D( index % size1, index / size1 );
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    		
@@ -244,16 +244,12 @@ public class WatershedTransform3D
 	    if( verbose ) IJ.log("  Extracting voxel values (h_min = " + hMin + ", h_max = " + hMax + ")..." );
 	    final long t0 = System.currentTimeMillis();
 
-	    // list of original voxels values and corresponding coordinates
-	    ArrayList<VoxelRecord> voxelList = extractVoxelValues( inputStack, hMin, hMax );
+	    // linear indices of original voxels, sorted by value
+	    final int[] sortedIndices = sortVoxelIndices( inputStack, hMin, hMax );
+	    final int sizeXY = size1 * size2;
 
 	    final long t1 = System.currentTimeMillis();		
-	    if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-	    if( verbose ) IJ.log("  Sorting voxels by value..." );
-	    IJ.showStatus("Sorting voxels by value...");
-	    Collections.sort( voxelList );
-	    final long t2 = System.currentTimeMillis();
-	    if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+	    if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 	    
 	    IJ.log( "  Flooding..." );
 	    IJ.showStatus( "Flooding..." );
@@ -272,22 +268,23 @@ public class WatershedTransform3D
         int heightIndex2 = currentIndex;    
         
 	    // for h <- h_min to h_max; geodesic SKIZ of level h-1 inside level h
-	    while( currentIndex < voxelList.size() )
+	    while( currentIndex < sortedIndices.length )
 	    {	    	
-	    	double h = voxelList.get( currentIndex ).getValue();	    	
+	    	final int hIndex = sortedIndices[ currentIndex ];
+	    	double h = inputStack.getVoxel( hIndex % size1, (hIndex % sizeXY) / size1, hIndex / sizeXY );	    	
 	    		    		    		    	
-	    	for(int voxelIndex = heightIndex1; voxelIndex < voxelList.size(); voxelIndex ++)
+	    	for(int voxelIndex = heightIndex1; voxelIndex < sortedIndices.length; voxelIndex ++)
 	    	{
-	    		final VoxelRecord voxelRecord = voxelList.get( voxelIndex );
+	    		final int index = sortedIndices[ voxelIndex ];
+	    		final Cursor3D p = new Cursor3D( index % size1, (index % sizeXY) / size1, index / sizeXY );
 	    			    		
-	    		if( voxelRecord.getValue() != h )
+	    		if( inputStack.getVoxel( p.getX(), p.getY(), p.getZ() ) != h )
 	    		{
 	    			// this voxel is at level h+1
 	    			heightIndex1 = voxelIndex;
 	    			break;
 	    		}
 	    			    		
-	    		final Cursor3D p = voxelRecord.getCursor();
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    		final int k = p.getZ();
@@ -369,18 +366,18 @@ public class WatershedTransform3D
 
 	    	// check for new minima at level h
 	    		    	
-	    	for(int voxelIndex = heightIndex2; voxelIndex < voxelList.size(); voxelIndex ++, currentIndex++)
+	    	for(int voxelIndex = heightIndex2; voxelIndex < sortedIndices.length; voxelIndex ++, currentIndex++)
 	    	{
-	    		final VoxelRecord voxelRecord = voxelList.get( voxelIndex );	    			    		
+	    		final int index = sortedIndices[ voxelIndex ];
+	    		final Cursor3D p = new Cursor3D( index % size1, (index % sizeXY) / size1, index / sizeXY );	    			    		
 	    		
-	    		if( voxelRecord.getValue() != h )
+	    		if( inputStack.getVoxel( p.getX(), p.getY(), p.getZ() ) != h )
 	    		{
 	    			// this voxel is at level h+1
 	    			heightIndex2 = voxelIndex;
 	    			break;
 	    		}
 	    			    		
-	    		final Cursor3D p = voxelRecord.getCursor();
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    		final int k = p.getZ();
@@ -499,16 +496,12 @@ public class WatershedTransform3D
 	    if( verbose ) IJ.log("  Extracting voxel values (h_min = " + hMin + ", h_max = " + hMax + ")..." );
 	    final long t0 = System.currentTimeMillis();
 
-	    // list of original voxels values and corresponding coordinates
-	    ArrayList<VoxelRecord> voxelList = extractVoxelValues( inputStack, hMin, hMax );
+	    // linear indices of original voxels, sorted by value
+	    final int[] sortedIndices = sortVoxelIndices( inputStack, hMin, hMax );
+	    final int sizeXY = size1 * size2;
 
 	    final long t1 = System.currentTimeMillis();		
-	    if( verbose ) IJ.log("  Extraction took " + (t1-t0) + " ms.");
-	    if( verbose ) IJ.log("  Sorting voxels by value..." );
-	    IJ.showStatus("Sorting voxels by value...");
-	    Collections.sort( voxelList );
-	    final long t2 = System.currentTimeMillis();
-	    if( verbose ) IJ.log("  Sorting took " + (t2-t1) + " ms.");
+	    if( verbose ) IJ.log("  Extraction and sorting took " + (t1-t0) + " ms.");
 	    
 	    IJ.log( "  Flooding..." );
 	    IJ.showStatus( "Flooding..." );
@@ -527,22 +520,23 @@ public class WatershedTransform3D
         int heightIndex2 = currentIndex;        
         
 	    // for h <- h_min to h_max; geodesic SKIZ of level h-1 inside level h
-	    while( currentIndex < voxelList.size() )
+	    while( currentIndex < sortedIndices.length )
 	    {	    	
-	    	double h = voxelList.get( currentIndex ).getValue();	    	
+	    	final int hIndex = sortedIndices[ currentIndex ];
+	    	double h = inputStack.getVoxel( hIndex % size1, (hIndex % sizeXY) / size1, hIndex / sizeXY );	    	
 	    		    		    		    	
-	    	for(int voxelIndex = heightIndex1; voxelIndex < voxelList.size(); voxelIndex ++)
+	    	for(int voxelIndex = heightIndex1; voxelIndex < sortedIndices.length; voxelIndex ++)
 	    	{
-	    		final VoxelRecord voxelRecord = voxelList.get( voxelIndex );
+	    		final int index = sortedIndices[ voxelIndex ];
+	    		final Cursor3D p = new Cursor3D( index % size1, (index % sizeXY) / size1, index / sizeXY );
 	    			    		
-	    		if( voxelRecord.getValue() != h )
+	    		if( inputStack.getVoxel( p.getX(), p.getY(), p.getZ() ) != h )
 	    		{
 	    			// this voxel is at level h+1
 	    			heightIndex1 = voxelIndex;
 	    			break;
 	    		}
 	    			    		
-	    		final Cursor3D p = voxelRecord.getCursor();
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    		final int k = p.getZ();
@@ -620,18 +614,18 @@ public class WatershedTransform3D
 	    	}
 
 	    	// check for new minima at level h	    		    	
-	    	for(int voxelIndex = heightIndex2; voxelIndex < voxelList.size(); voxelIndex ++, currentIndex++)
+	    	for(int voxelIndex = heightIndex2; voxelIndex < sortedIndices.length; voxelIndex ++, currentIndex++)
 	    	{
-	    		final VoxelRecord voxelRecord = voxelList.get( voxelIndex );	    			    		
+	    		final int index = sortedIndices[ voxelIndex ];
+	    		final Cursor3D p = new Cursor3D( index % size1, (index % sizeXY) / size1, index / sizeXY );	    			    		
 	    		
-	    		if( voxelRecord.getValue() != h )
+	    		if( inputStack.getVoxel( p.getX(), p.getY(), p.getZ() ) != h )
 	    		{
 	    			// this voxel is at level h+1
 	    			heightIndex2 = voxelIndex;
 	    			break;
 	    		}
 	    			    		
-	    		final Cursor3D p = voxelRecord.getCursor();
 	    		final int i = p.getX();
 	    		final int j = p.getY();
 	    		final int k = p.getZ();
@@ -822,5 +816,88 @@ public class WatershedTransform3D
 		return voxelList;
 	}
 	
+
+	/**
+	 * Compute the linear indices (z * width * height + y * width + x) of the
+	 * voxels of the input stack such that they have value h, hMin &lt;= h
+	 * &lt;= hMax, sorted in ascending order of value. Voxels with the same
+	 * value are ordered by slice, then by x, then by y. A binary mask is used
+	 * if it exists.
+	 * 
+	 * For 8-bit and 16-bit stacks, the indices are sorted by counting sort,
+	 * in two passes over the stack and using a single integer per voxel. For
+	 * other stacks, the voxel records are extracted and sorted.
+	 * 
+	 * @param inputStack input stack
+	 * @param hMin minimum grayscale height value
+	 * @param hMax maximum grayscale height value
+	 * @return array of voxel indices sorted by voxel value
+	 */
+	public int[] sortVoxelIndices(
+			final ImageStack inputStack,
+			final double hMin,
+			final double hMax )
+	{
+		final int size1 = inputStack.getWidth();
+		final int size2 = inputStack.getHeight();
+		final int size3 = inputStack.getSize();
+		final int sizeXY = size1 * size2;
+		final int bitDepth = inputStack.getBitDepth();
+
+		if( bitDepth != 8 && bitDepth != 16 )
+		{
+			final ArrayList<VoxelRecord> list = extractVoxelValues( inputStack, hMin, hMax );
+			Collections.sort( list );
+			final int[] indices = new int[ list.size() ];
+			for( int i = 0; i < indices.length; i++ )
+			{
+				final Cursor3D c = list.get( i ).getCursor();
+				indices[ i ] = c.getZ() * sizeXY + c.getY() * size1 + c.getX();
+			}
+			return indices;
+		}
+
+		final ImageStack mask = null != maskImage ? maskImage.getImageStack() : null;
+
+		// first pass: count the voxels of each value
+		final int nBins = bitDepth == 8 ? 256 : 65536;
+		final int[] offsets = new int[ nBins + 1 ];
+		for( int z = 0; z < size3; ++z )
+		{
+			final ImageProcessor ipInput = inputStack.getProcessor( z+1 );
+			final ImageProcessor ipMask = null != mask ? mask.getProcessor( z+1 ) : null;
+			for( int x = 0; x < size1; ++x )
+				for( int y = 0; y < size2; ++y )
+				{
+					final int h = ipInput.get( x, y );
+					if( h >= hMin && h <= hMax && ( null == ipMask || ipMask.getf( x, y ) > 0 ) )
+						offsets[ h + 1 ]++;
+				}
+		}
+
+		// cumulative counts give the position of the first voxel of each value
+		for( int h = 0; h < nBins; h++ )
+			offsets[ h + 1 ] += offsets[ h ];
+
+		// second pass: store each index at the current position of its value
+		final int[] indices = new int[ offsets[ nBins ] ];
+		for( int z = 0; z < size3; ++z )
+		{
+			IJ.showProgress( z+1, size3 );
+			final ImageProcessor ipInput = inputStack.getProcessor( z+1 );
+			final ImageProcessor ipMask = null != mask ? mask.getProcessor( z+1 ) : null;
+			for( int x = 0; x < size1; ++x )
+				for( int y = 0; y < size2; ++y )
+				{
+					final int h = ipInput.get( x, y );
+					if( h >= hMin && h <= hMax && ( null == ipMask || ipMask.getf( x, y ) > 0 ) )
+						indices[ offsets[ h ]++ ] = z * sizeXY + y * size1 + x;
+				}
+		}
+		IJ.showProgress( 1.0 );
+
+		return indices;
+	}
+
 } // end class WatershedTransform3D
 
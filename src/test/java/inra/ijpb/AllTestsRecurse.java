@@ -37,6 +37,7 @@ import org.junit.runners.Suite;
     inra.ijpb.measure.AllTestsRecurse.class,
 	inra.ijpb.morphology.AllTestsRecurse.class,
     inra.ijpb.plugins.AllTests.class,
+    inra.ijpb.watershed.AllTests.class,
 	})
 public class AllTestsRecurse {
   //nothing
@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.algo;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import ij.measure.ResultsTable;
+
+/**
+ * @author dlegland
+ *
+ */
+public class AlgoStubTest
+{
+	/**
+	 * A simple algorithm processing a number of steps, used for tests.
+	 */
+	class StepAlgo extends AlgoStub
+	{
+		int processedSteps = 0;
+
+		boolean run(int nSteps)
+		{
+			AlgoMetrics.Stage stage = startStage("Steps");
+			for (int i = 0; i < nSteps; i++)
+			{
+				if (isCancelled())
+					return false;
+				fireProgressChanged(this, i, nSteps);
+				processedSteps++;
+			}
+			fireProgressChanged(this, 1, 1);
+			stage.stop(nSteps);
+			return true;
+		}
+	}
+
+	/**
+	 * A listener that stores the progress events.
+	 */
+	class EventCollector implements AlgoListener
+	{
+		ArrayList<AlgoEvent> events = new ArrayList<AlgoEvent>();
+
+		@Override
+		public void algoProgressChanged(AlgoEvent evt)
+		{
+			events.add(evt);
+		}
+
+		@Override
+		public void algoStatusChanged(AlgoEvent evt)
+		{
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.algo.AlgoStub#fireProgressChanged(java.lang.Object, double, double)}.
+	 */
+	@Test
+	public final void testFireProgressChanged_Throttled()
+	{
+		StepAlgo algo = new StepAlgo();
+		EventCollector listener = new EventCollector();
+		algo.addAlgoListener(listener);
+		algo.setProgressInterval(60000);
+
+		algo.run(1000);
+
+		// only the first event and the final one are delivered
+		assertEquals(2, listener.events.size());
+		AlgoEvent last = listener.events.get(1);
+		assertEquals(1.0, last.getProgressRatio(), 1e-10);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.algo.AlgoStub#fireProgressChanged(java.lang.Object, double, double)}.
+	 */
+	@Test
+	public final void testFireProgressChanged_NoInterval()
+	{
+		StepAlgo algo = new StepAlgo();
+		EventCollector listener = new EventCollector();
+		algo.addAlgoListener(listener);
+		algo.setProgressInterval(0);
+
+		algo.run(100);
+
+		assertEquals(101, listener.events.size());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.algo.AlgoStub#cancel()}.
+	 */
+	@Test
+	public final void testCancel_SharedToken()
+	{
+		CancellationToken token = new CancellationToken();
+		StepAlgo algo1 = new StepAlgo();
+		algo1.setCancellationToken(token);
+		StepAlgo algo2 = new StepAlgo();
+		algo2.setCancellationToken(token);
+
+		assertTrue(algo1.run(10));
+
+		// cancelling the first algorithm also cancels the second one
+		algo1.cancel();
+		assertTrue(token.isCancelled());
+		assertFalse(algo2.run(10));
+		assertEquals(0, algo2.processedSteps);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.algo.AlgoStub#getMetrics()}.
+	 */
+	@Test
+	public final void testGetMetrics()
+	{
+		StepAlgo algo = new StepAlgo();
+		algo.run(100);
+		algo.run(50);
+
+		AlgoMetrics metrics = algo.getMetrics();
+		assertEquals(2, metrics.getStages().size());
+		assertEquals(50, metrics.getStages().get(1).getElementCount());
+		assertFalse(metrics.getStages().get(1).isRunning());
+
+		ResultsTable table = metrics.createTable();
+		assertEquals(2, table.size());
+		assertEquals("Steps", table.getLabel(0));
+		assertEquals(100, table.getValue("Elements", 0), 0.0);
+
+		String json = metrics.toJson();
+		assertTrue(json.startsWith("["));
+		assertTrue(json.contains("\"name\": \"Steps\""));
+		assertTrue(json.contains("\"elements\": 50"));
+	}
+}
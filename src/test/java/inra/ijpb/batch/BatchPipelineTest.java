@@ -0,0 +1,291 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.batch;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.ResultsTable;
+import inra.ijpb.algo.AlgoEvent;
+import inra.ijpb.algo.AlgoListener;
+import inra.ijpb.measure.region3d.Centroid3D;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.strel.CubeStrel;
+
+/**
+ * @author dlegland
+ *
+ */
+public class BatchPipelineTest
+{
+	/**
+	 * Creates a binary image containing the specified number of cubes with
+	 * side 3, separated by background.
+	 */
+	private static final ImagePlus createCubesImage(String name, int nCubes)
+	{
+		ImageStack image = ImageStack.create(4 * nCubes + 2, 7, 7, 8);
+		for (int i = 0; i < nCubes; i++)
+		{
+			for (int z = 2; z < 5; z++)
+			{
+				for (int y = 2; y < 5; y++)
+				{
+					for (int x = 0; x < 3; x++)
+					{
+						image.setVoxel(4 * i + 2 + x, y, z, 255);
+					}
+				}
+			}
+		}
+		return new ImagePlus(name, image);
+	}
+
+	private static final BatchPipeline createPipeline()
+	{
+		BatchPipeline pipeline = new BatchPipeline();
+		pipeline.addStep("binary", BatchSteps.binarize());
+		pipeline.addStep("labels", BatchSteps.componentsLabeling(6, 16), "binary");
+		pipeline.addStep("centroids", BatchSteps.analyzeRegions(new Centroid3D()), "labels");
+		pipeline.addTableOutput("centroids");
+		return pipeline;
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.batch.BatchPipeline#process(ij.ImagePlus)}.
+	 */
+	@Test
+	public final void testProcess()
+	{
+		BatchPipeline pipeline = createPipeline();
+		ImagePlus image = createCubesImage("cubes", 3);
+
+		Map<String, Object> results = pipeline.process(image);
+
+		assertSame(image, results.get(BatchPipeline.INPUT));
+		ImagePlus labels = (ImagePlus) results.get("labels");
+		assertEquals(3, labels.getStack().getVoxel(11, 3, 3), 0.0);
+		ResultsTable table = (ResultsTable) results.get("centroids");
+		assertEquals(3, table.size());
+		assertEquals(3, pipeline.getMetrics().getStages().size());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.batch.BatchPipeline#processAll(java.util.List, inra.ijpb.batch.TableListener)}.
+	 */
+	@Test
+	public final void testProcessAll_Concurrent()
+	{
+		BatchPipeline pipeline = createPipeline();
+		pipeline.setThreadNumber(4);
+
+		List<ImageSource> sources = new ArrayList<ImageSource>();
+		int nRegions = 0;
+		for (int i = 1; i <= 10; i++)
+		{
+			sources.add(ImageSource.fromImage(createCubesImage("image" + i, i)));
+			nRegions += i;
+		}
+
+		TableCollector collector = new TableCollector();
+		BatchPipeline.Result res = pipeline.processAll(sources, collector);
+
+		assertEquals(10, res.processedImages.size());
+		assertTrue(res.failures.isEmpty());
+		assertFalse(res.cancelled);
+		ResultsTable table = collector.getTable("centroids");
+		assertEquals(nRegions, table.size());
+		assertTrue(table.columnExists(TableCollector.IMAGE_COLUMN));
+		assertTrue(table.columnExists("Centroid.X"));
+	}
+
+	/**
+	 * Checks that a memory limit smaller than the images still processes
+	 * all images, one at a time.
+	 */
+	@Test
+	public final void testProcessAll_MemoryLimit()
+	{
+		BatchPipeline pipeline = createPipeline();
+		pipeline.addStep("dilation", BatchSteps.morphology(Morphology.Operation.DILATION, CubeStrel.fromRadius(1)), "binary");
+		pipeline.setThreadNumber(4);
+		pipeline.setMemoryLimit(10);
+
+		List<ImageSource> sources = new ArrayList<ImageSource>();
+		for (int i = 1; i <= 5; i++)
+		{
+			sources.add(ImageSource.fromImage(createCubesImage("image" + i, i)));
+		}
+
+		TableCollector collector = new TableCollector();
+		BatchPipeline.Result res = pipeline.processAll(sources, collector);
+
+		assertEquals(5, res.processedImages.size());
+		assertEquals(15, collector.getTable("centroids").size());
+	}
+
+	/**
+	 * Errors on an image are reported, and do not prevent the processing of
+	 * other images.
+	 */
+	@Test
+	public final void testProcessAll_Failure()
+	{
+		BatchPipeline pipeline = new BatchPipeline();
+		pipeline.addStep("check", new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				ImagePlus image = (ImagePlus) inputs[0];
+				if (image.getTitle().equals("bad"))
+				{
+					throw new IllegalArgumentException("bad image");
+				}
+				return image;
+			}
+		});
+
+		List<ImageSource> sources = new ArrayList<ImageSource>();
+		sources.add(ImageSource.fromImage(createCubesImage("good", 1)));
+		sources.add(ImageSource.fromImage(createCubesImage("bad", 1)));
+
+		BatchPipeline.Result res = pipeline.processAll(sources, new TableCollector());
+
+		assertEquals(1, res.processedImages.size());
+		assertEquals(1, res.failures.size());
+		assertTrue(res.failures.get("bad") instanceof IllegalArgumentException);
+	}
+
+	/**
+	 * Images can be processed without table listener.
+	 */
+	@Test
+	public final void testProcessAll_NoListener()
+	{
+		BatchPipeline pipeline = createPipeline();
+		List<ImageSource> sources = new ArrayList<ImageSource>();
+		sources.add(ImageSource.fromImage(createCubesImage("image1", 1)));
+		sources.add(ImageSource.fromImage(createCubesImage("image2", 2)));
+
+		BatchPipeline.Result res = pipeline.processAll(sources, null);
+
+		assertEquals(2, res.processedImages.size());
+		assertTrue(res.failures.isEmpty());
+	}
+
+	/**
+	 * Errors thrown by a step stop the processing, and are propagated
+	 * unchanged.
+	 */
+	@Test(expected = AssertionError.class)
+	public final void testProcessAll_Error()
+	{
+		BatchPipeline pipeline = new BatchPipeline();
+		pipeline.addStep("check", new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				throw new AssertionError("unexpected state");
+			}
+		});
+
+		List<ImageSource> sources = new ArrayList<ImageSource>();
+		sources.add(ImageSource.fromImage(createCubesImage("image", 1)));
+
+		pipeline.processAll(sources, new TableCollector());
+	}
+
+	/**
+	 * Cancelling the pipeline releases the threads waiting for memory, even
+	 * if the image being processed still holds its memory.
+	 */
+	@Test
+	public final void testProcessAll_CancelWhileWaitingMemory()
+	{
+		final BatchPipeline pipeline = new BatchPipeline();
+		final AtomicInteger doneCount = new AtomicInteger(0);
+		final AtomicBoolean releasedWhileRunning = new AtomicBoolean(false);
+		pipeline.addAlgoListener(new AlgoListener()
+		{
+			@Override
+			public void algoProgressChanged(AlgoEvent evt)
+			{
+				if (evt.getCurrentProgress() < evt.getTotalProgress())
+					doneCount.incrementAndGet();
+			}
+
+			@Override
+			public void algoStatusChanged(AlgoEvent evt)
+			{
+			}
+		});
+		pipeline.addStep("block", new PipelineOperation()
+		{
+			@Override
+			public Object apply(Object... inputs)
+			{
+				// cancel, then wait for the other thread to give up
+				pipeline.cancel();
+				long t0 = System.currentTimeMillis();
+				while (doneCount.get() == 0 && System.currentTimeMillis() - t0 < 5000)
+				{
+					Thread.yield();
+				}
+				releasedWhileRunning.set(doneCount.get() > 0);
+				return inputs[0];
+			}
+		});
+		pipeline.setThreadNumber(2);
+		pipeline.setMemoryLimit(1);
+
+		List<ImageSource> sources = new ArrayList<ImageSource>();
+		sources.add(ImageSource.fromImage(createCubesImage("image1", 1)));
+		sources.add(ImageSource.fromImage(createCubesImage("image2", 1)));
+
+		BatchPipeline.Result res = pipeline.processAll(sources, new TableCollector());
+
+		assertTrue(res.cancelled);
+		assertTrue(releasedWhileRunning.get());
+		assertTrue(res.processedImages.size() <= 1);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.batch.BatchPipeline#addStep(String, PipelineOperation, String...)}.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testAddStep_UnknownInput()
+	{
+		BatchPipeline pipeline = new BatchPipeline();
+		pipeline.addStep("labels", BatchSteps.componentsLabeling(6, 16), "binary");
+	}
+}
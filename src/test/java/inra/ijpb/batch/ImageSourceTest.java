@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.batch;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+
+/**
+ * @author dlegland
+ *
+ */
+public class ImageSourceTest
+{
+	/**
+	 * Folder for the files created by the tests.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Test method for {@link inra.ijpb.batch.ImageSource#estimateMemorySize(java.io.File)}.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test
+	public final void testEstimateMemorySize_TiffStack() throws IOException
+	{
+		ImageStack stack = ImageStack.create(30, 20, 10, 16);
+		File file = new File(folder.getRoot(), "stack.tif");
+		assertTrue(new FileSaver(new ImagePlus("stack", stack)).saveAsTiffStack(file.getPath()));
+
+		assertEquals(30 * 20 * 10 * 2, ImageSource.estimateMemorySize(file));
+		assertEquals(30 * 20 * 10 * 2, ImageSource.fromFile(file).getMemorySize());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.batch.ImageSource#estimateMemorySize(java.io.File)}.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test
+	public final void testEstimateMemorySize_Tiff2D() throws IOException
+	{
+		ImageStack stack = ImageStack.create(30, 20, 1, 32);
+		File file = new File(folder.getRoot(), "image.tif");
+		assertTrue(new FileSaver(new ImagePlus("image", stack)).saveAsTiff(file.getPath()));
+
+		assertEquals(30 * 20 * 4, ImageSource.estimateMemorySize(file));
+	}
+}
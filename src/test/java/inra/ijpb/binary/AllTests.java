@@ -29,6 +29,7 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
 	// generic classes
 	BinaryImagesTest.class, 
+	PackedBinaryImageTest.class,
 	})
 public class AllTests {
   //nothing
@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.math.ImageCalculator;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * @author dlegland
+ *
+ */
+public class PackedBinaryImageTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.binary.PackedBinaryImage#fromProcessor(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public final void testFromProcessor_ToByteProcessor()
+	{
+		ImageProcessor image = createRandomImage(130, 20, 1);
+		
+		PackedBinaryImage packed = PackedBinaryImage.fromProcessor(image);
+		ImageProcessor res = packed.toByteProcessor();
+		
+		assertEquals(BinaryImages.countForegroundPixels(image), packed.countForeground());
+		for (int i = 0; i < 130 * 20; i++)
+		{
+			assertEquals(image.get(i), res.get(i));
+		}
+		assertTrue(packed.get(129, 19, 0) == (image.get(129, 19) > 0));
+	}
+	
+	/**
+	 * Test method for {@link inra.ijpb.binary.PackedBinaryImage#not()}.
+	 */
+	@Test
+	public final void testLogicalOperations()
+	{
+		PackedBinaryImage image1 = PackedBinaryImage.fromProcessor(createRandomImage(70, 10, 2));
+		PackedBinaryImage image2 = PackedBinaryImage.fromProcessor(createRandomImage(70, 10, 3));
+		
+		PackedBinaryImage inter = image1.combine(image2, ImageCalculator.Operation.AND);
+		PackedBinaryImage union = image1.or(image2);
+		PackedBinaryImage diff = image1.xor(image2);
+		
+		assertEquals(union.countForeground(), inter.countForeground() + diff.countForeground());
+		assertEquals(700 - image1.countForeground(), image1.not().countForeground());
+		assertEquals(0, image1.andNot(image1).countForeground());
+		
+		assertFalse(image1.not().toByteProcessor().get(69, 9) == image1.toByteProcessor().get(69, 9));
+	}
+	
+	/**
+	 * Test method for {@link inra.ijpb.binary.PackedBinaryImage#dilation(inra.ijpb.morphology.Strel3D)}.
+	 */
+	@Test
+	public final void testDilationErosion_CompareWithMorphology()
+	{
+		ImageProcessor image = createRandomImage(100, 40, 4);
+		PackedBinaryImage packed = PackedBinaryImage.fromProcessor(image);
+		
+		for (Strel.Shape shape : Strel.Shape.values())
+		{
+			Strel strel = shape.fromRadius(2);
+			assertSameImages(Morphology.dilation(image, strel), packed.dilation(strel).toByteProcessor());
+			assertSameImages(Morphology.erosion(image, strel), packed.erosion(strel).toByteProcessor());
+		}
+	}
+	
+	/**
+	 * Test method for {@link inra.ijpb.binary.PackedBinaryImage#dilation(int, int, int)}.
+	 */
+	@Test
+	public final void testDilation_Box3D()
+	{
+		ImageStack image = ImageStack.create(80, 15, 10, 8);
+		image.setVoxel(64, 7, 5, 255);
+		
+		PackedBinaryImage packed = PackedBinaryImage.fromStack(image);
+		PackedBinaryImage dil = packed.dilation(2, 1, 3);
+		
+		assertEquals(5 * 3 * 7, dil.countForeground());
+		assertTrue(dil.get(62, 6, 2));
+		assertTrue(dil.get(66, 8, 8));
+		assertFalse(dil.get(61, 7, 5));
+		
+		Strel3D strel = Strel3D.Shape.CUBE.fromRadius(1);
+		ImageStack res = dil.erosion(strel).toStack();
+		assertEquals(BinaryImages.countForegroundVoxels(Morphology.erosion(dil.toStack(), strel)),
+				BinaryImages.countForegroundVoxels(res));
+	}
+	
+	/**
+	 * Test method for {@link inra.ijpb.binary.PackedBinaryImage#boundary(int)}.
+	 */
+	@Test
+	public final void testBoundary()
+	{
+		ImageProcessor image = new ByteProcessor(10, 10);
+		for (int y = 2; y < 7; y++)
+		{
+			for (int x = 2; x < 8; x++)
+			{
+				image.set(x, y, 255);
+			}
+		}
+		
+		PackedBinaryImage packed = PackedBinaryImage.fromProcessor(image);
+		assertEquals(30 - 12, packed.boundary(4).countForeground());
+		assertEquals(30 - 12, packed.boundary(8).countForeground());
+		assertTrue(packed.boundary(4).get(2, 2, 0));
+		assertFalse(packed.boundary(4).get(4, 4, 0));
+	}
+	
+	private static final ImageProcessor createRandomImage(int sizeX, int sizeY, long seed)
+	{
+		Random random = new Random(seed);
+		ImageProcessor image = new ByteProcessor(sizeX, sizeY);
+		for (int i = 0; i < sizeX * sizeY; i++)
+		{
+			image.set(i, random.nextInt(4) == 0 ? 255 : 0);
+		}
+		return image;
+	}
+	
+	private static final void assertSameImages(ImageProcessor exp, ImageProcessor res)
+	{
+		for (int i = 0; i < exp.getPixelCount(); i++)
+		{
+			assertEquals(exp.get(i), res.get(i));
+		}
+	}
+}
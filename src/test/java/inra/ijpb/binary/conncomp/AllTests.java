@@ -30,6 +30,7 @@ import org.junit.runners.Suite;
 	// generic classes
 	FloodFillComponentsLabelingTest.class, 
 	FloodFillComponentsLabeling3DTest.class, 
+	StreamingComponentsLabeling3DTest.class, 
 	})
 public class AllTests {
   //nothing
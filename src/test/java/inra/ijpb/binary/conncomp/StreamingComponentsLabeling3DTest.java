@@ -0,0 +1,184 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.binary.conncomp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+
+public class StreamingComponentsLabeling3DTest
+{
+    /**
+     * Using 6 connectivity should result in nine connected components.
+     */
+    @Test
+    public void testComputeLabels_C6()
+    {
+        ImageStack image = createNineCubesImage();
+        
+        StreamingComponentsLabeling3D algo = new StreamingComponentsLabeling3D(10, 10, 6, 8);
+        ImageStack result = algo.computeLabels(image);
+        
+        assertEquals(8, result.getBitDepth());
+        assertEquals(9, algo.getComponentNumber());
+        assertEquals(9, result.getVoxel(7, 7, 7), .1);
+    }
+    
+    /**
+     * Using 26 connectivity should result in one connected component.
+     */
+    @Test
+    public void testComputeLabels_C26()
+    {
+        ImageStack image = createNineCubesImage();
+        
+        StreamingComponentsLabeling3D algo = new StreamingComponentsLabeling3D(10, 10, 26);
+        ImageStack result = algo.computeLabels(image);
+        
+        assertEquals(16, result.getBitDepth());
+        assertEquals(1, algo.getComponentNumber());
+        assertEquals(1, result.getVoxel(7, 7, 7), .1);
+    }
+    
+    /**
+     * Compares with flood-fill labeling on a random image, for both
+     * connectivities.
+     */
+    @Test
+    public void testComputeLabels_SameAsFloodFill()
+    {
+        ImageStack image = createRandomImage();
+        
+        for (int conn : new int[] {6, 26})
+        {
+            ImageStack expected = new FloodFillComponentsLabeling3D(conn, 32).computeLabels(image);
+            StreamingComponentsLabeling3D algo = new StreamingComponentsLabeling3D(
+                    image.getWidth(), image.getHeight(), conn, 32);
+            ImageStack result = algo.computeLabels(image);
+            
+            for (int z = 0; z < image.getSize(); z++)
+            {
+                for (int y = 0; y < image.getHeight(); y++)
+                {
+                    for (int x = 0; x < image.getWidth(); x++)
+                    {
+                        assertEquals(expected.getVoxel(x, y, z), result.getVoxel(x, y, z), .1);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Checks the statistics of the components.
+     */
+    @Test
+    public void testGetComponents()
+    {
+        ImageStack image = createRandomImage();
+        StreamingComponentsLabeling3D algo = new StreamingComponentsLabeling3D(
+                image.getWidth(), image.getHeight(), 26, 32);
+        ImageStack labels = algo.computeLabels(image);
+        StreamingComponentsLabeling3D.Component[] comps = algo.getComponents();
+        
+        // compute expected statistics from the label image
+        int n = comps.length;
+        long[] counts = new long[n];
+        double[] sumZ = new double[n];
+        int[] xmax = new int[n];
+        for (int z = 0; z < image.getSize(); z++)
+        {
+            for (int y = 0; y < image.getHeight(); y++)
+            {
+                for (int x = 0; x < image.getWidth(); x++)
+                {
+                    int label = (int) labels.getVoxel(x, y, z);
+                    if (label == 0)
+                        continue;
+                    counts[label - 1]++;
+                    sumZ[label - 1] += z;
+                    xmax[label - 1] = Math.max(xmax[label - 1], x);
+                }
+            }
+        }
+        
+        for (int i = 0; i < n; i++)
+        {
+            assertEquals(i + 1, comps[i].label);
+            assertEquals(counts[i], comps[i].voxelCount);
+            assertEquals(sumZ[i] / counts[i], comps[i].centroid.getZ(), 1e-10);
+            assertEquals(xmax[i], comps[i].bounds.getXMax());
+        }
+    }
+    
+    /**
+     * Create a 10-by-10-by-10 byte stack containing nine cubes that touch by
+     * their corners. The value within each cube is 255.
+     * 
+     * @return an image containing nine cubes touching by corners
+     */
+    private final static ImageStack createNineCubesImage()
+    {
+        ImageStack image = ImageStack.create(10, 10, 10, 8);
+        for (int z = 0; z < 2; z++)
+        {
+            for (int y = 0; y < 2; y++)
+            {
+                for (int x = 0; x < 2; x++)
+                {
+                    image.setVoxel(x + 2, y + 2, z + 2, 255);
+                    image.setVoxel(x + 2, y + 6, z + 2, 255);
+                    image.setVoxel(x + 6, y + 2, z + 2, 255);
+                    image.setVoxel(x + 6, y + 6, z + 2, 255);
+                    image.setVoxel(x + 4, y + 4, z + 4, 255);
+                    image.setVoxel(x + 2, y + 2, z + 6, 255);
+                    image.setVoxel(x + 2, y + 6, z + 6, 255);
+                    image.setVoxel(x + 6, y + 2, z + 6, 255);
+                    image.setVoxel(x + 6, y + 6, z + 6, 255);
+                }
+            }
+        }
+        return image;
+    }
+    
+    private static final ImageStack createRandomImage()
+    {
+        Random random = new Random(42);
+        ImageStack image = ImageStack.create(23, 17, 11, 8);
+        for (int z = 0; z < 11; z++)
+        {
+            for (int y = 0; y < 17; y++)
+            {
+                for (int x = 0; x < 23; x++)
+                {
+                    if (random.nextDouble() < 0.3)
+                        image.setVoxel(x, y, z, 255);
+                }
+            }
+        }
+        return image;
+    }
+}
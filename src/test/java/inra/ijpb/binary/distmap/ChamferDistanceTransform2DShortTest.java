@@ -26,6 +26,8 @@ package inra.ijpb.binary.distmap;
 
 import static org.junit.Assert.*;
 
+import java.util.Random;
+
 import org.junit.Test;
 
 import ij.process.ByteProcessor;
@@ -172,4 +174,33 @@ public class ChamferDistanceTransform2DShortTest
 		assertEquals(22, result.get(6, 0), .01);
 		assertEquals(22, result.get(0, 6), .01);
 	}
+
+	/**
+	 * Checks that the parallel computation gives the same result as the
+	 * sequential one, for all the predefined chamfer masks.
+	 */
+	@Test
+	public final void testDistanceMap_ParallelSameAsSequential()
+	{
+		Random random = new Random(20);
+		ImageProcessor image = new ByteProcessor(150, 130);
+		for (int i = 0; i < 150 * 130; i++)
+		{
+			image.set(i, random.nextDouble() < 0.995 ? 255 : 0);
+		}
+
+		for (ChamferMasks2D mask : ChamferMasks2D.values())
+		{
+			ChamferDistanceTransform2DShort algo = new ChamferDistanceTransform2DShort(mask.getMask(), true);
+			algo.setThreadNumber(1);
+			ImageProcessor expected = algo.distanceMap(image);
+			algo.setThreadNumber(4);
+			ImageProcessor result = algo.distanceMap(image);
+
+			for (int i = 0; i < 150 * 130; i++)
+			{
+				assertEquals(mask.toString(), expected.getf(i), result.getf(i), 0.0);
+			}
+		}
+	}
 }
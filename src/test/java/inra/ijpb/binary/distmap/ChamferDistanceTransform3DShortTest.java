@@ -26,6 +26,8 @@ package inra.ijpb.binary.distmap;
 
 import static org.junit.Assert.*;
 
+import java.util.Random;
+
 import org.junit.Test;
 
 import ij.ImageStack;
@@ -111,4 +113,44 @@ public class ChamferDistanceTransform3DShortTest
 		assertEquals(exp, result.getVoxel(10, 10, 10), .01);
 	}
 
+	/**
+	 * Checks that the parallel computation gives the same result as the
+	 * sequential one, for all the predefined chamfer masks.
+	 */
+	@Test
+	public final void testDistanceMap_ParallelSameAsSequential()
+	{
+		Random random = new Random(20);
+		ImageStack image = ImageStack.create(30, 25, 20, 8);
+		for (int z = 0; z < 20; z++)
+		{
+			for (int y = 0; y < 25; y++)
+			{
+				for (int x = 0; x < 30; x++)
+				{
+					image.setVoxel(x, y, z, random.nextDouble() < 0.998 ? 255 : 0);
+				}
+			}
+		}
+
+		for (ChamferMasks3D mask : ChamferMasks3D.values())
+		{
+			ChamferDistanceTransform3DShort algo = new ChamferDistanceTransform3DShort(mask.getMask(), true);
+			algo.setThreadNumber(1);
+			ImageStack expected = algo.distanceMap(image);
+			algo.setThreadNumber(4);
+			ImageStack result = algo.distanceMap(image);
+
+			for (int z = 0; z < 20; z++)
+			{
+				for (int y = 0; y < 25; y++)
+				{
+					for (int x = 0; x < 30; x++)
+					{
+						assertEquals(mask.toString(), expected.getVoxel(x, y, z), result.getVoxel(x, y, z), 0.0);
+					}
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.data;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * @author dlegland
+ *
+ */
+public class NeighborhoodOffsetsTest
+{
+	/**
+	 * Checks that the neighbors are returned in the same order as the
+	 * Neighborhood3DC26 class, and that neighbors outside image are discarded.
+	 */
+	@Test
+	public final void testGetNeighbors_C26_SameAsNeighborhood3D()
+	{
+		int sizeX = 5, sizeY = 4, sizeZ = 3;
+		NeighborhoodOffsets neigh = new NeighborhoodOffsets(26, sizeX, sizeY, sizeZ);
+		int[] dx = neigh.getShiftsX();
+		int[] dy = neigh.getShiftsY();
+		int[] dz = neigh.getShiftsZ();
+		Neighborhood3DC26 neigh3d = new Neighborhood3DC26();
+		
+		for (int z = 0; z < sizeZ; z++)
+		{
+			for (int y = 0; y < sizeY; y++)
+			{
+				for (int x = 0; x < sizeX; x++)
+				{
+					// compute expected neighbors
+					neigh3d.setCursor(new Cursor3D(x, y, z));
+					ArrayList<Cursor3D> expected = new ArrayList<Cursor3D>();
+					for (Cursor3D c : neigh3d.getNeighbors())
+					{
+						if (c.getX() >= 0 && c.getX() < sizeX && c.getY() >= 0
+								&& c.getY() < sizeY && c.getZ() >= 0 && c.getZ() < sizeZ)
+							expected.add(c);
+					}
+					
+					int[] neighbors = neigh.getNeighbors(x, y, z);
+					assertEquals(expected.size(), neighbors.length);
+					for (int i = 0; i < neighbors.length; i++)
+					{
+						int n = neighbors[i];
+						assertEquals(expected.get(i).getX(), x + dx[n]);
+						assertEquals(expected.get(i).getY(), y + dy[n]);
+						assertEquals(expected.get(i).getZ(), z + dz[n]);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks the number of neighbors at the corners, edges and within image.
+	 */
+	@Test
+	public final void testGetNeighbors_C6_Counts()
+	{
+		NeighborhoodOffsets neigh = new NeighborhoodOffsets(6, 5, 4, 3);
+		
+		assertEquals(6, neigh.size());
+		assertEquals(3, neigh.getNeighbors(0, 0, 0).length);
+		assertEquals(3, neigh.getNeighbors(4, 3, 2).length);
+		assertEquals(4, neigh.getNeighbors(2, 0, 0).length);
+		assertEquals(6, neigh.getNeighbors(2, 2, 1).length);
+		assertTrue(neigh.isInterior(2, 2, 1));
+		assertFalse(neigh.isInterior(2, 2, 0));
+	}
+	
+	/**
+	 * Checks that planar neighborhoods ignore the z-coordinate.
+	 */
+	@Test
+	public final void testGetNeighbors_C8_Planar()
+	{
+		NeighborhoodOffsets neigh = new NeighborhoodOffsets(8, 5, 4, 1);
+		
+		assertEquals(8, neigh.getNeighbors(2, 2, 0).length);
+		assertEquals(3, neigh.getNeighbors(0, 0, 0).length);
+		assertTrue(neigh.isInterior(2, 2, 0));
+	}
+	
+	/**
+	 * Checks the linear offsets and the distances to neighbors.
+	 */
+	@Test
+	public final void testGetOffsets()
+	{
+		int sizeX = 5, sizeY = 4, sizeZ = 3;
+		NeighborhoodOffsets neigh = new NeighborhoodOffsets(26, sizeX, sizeY, sizeZ);
+		int[] dx = neigh.getShiftsX();
+		int[] dy = neigh.getShiftsY();
+		int[] dz = neigh.getShiftsZ();
+		int[] offsets = neigh.getOffsets();
+		double[] dists = neigh.getDistances();
+		
+		for (int n = 0; n < neigh.size(); n++)
+		{
+			assertEquals(dx[n] + sizeX * (dy[n] + sizeY * dz[n]), offsets[n]);
+			assertEquals(dx[n] + sizeX * dy[n], neigh.getPlaneOffsets()[n]);
+			double expDist = new Cursor3D(0, 0, 0).euclideanDistance(new Cursor3D(dx[n], dy[n], dz[n]));
+			assertEquals(expDist, dists[n], 1e-12);
+		}
+	}
+}
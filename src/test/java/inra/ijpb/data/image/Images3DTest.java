@@ -29,6 +29,7 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 
 import ij.ImageStack;
+import inra.ijpb.data.border.BorderManager3D;
 
 /**
  * @author dlegland
@@ -70,4 +71,115 @@ public class Images3DTest
 		assertEquals(  0, (int) image.getVoxel(6, 6, 6));
 	}
 
+	/**
+	 * Test method for {@link inra.ijpb.data.image.Images3D#cropView(ij.ImageStack, int, int, int, int, int, int)}.
+	 */
+	@Test
+	public final void testCropView()
+	{
+		ImageStack image = createRampImage();
+		Image3D view = Images3D.cropView(image, 2, 3, 1, 4, 3, 2);
+
+		assertEquals(4, view.getSize(0));
+		assertEquals(3, view.getSize(1));
+		assertEquals(2, view.getSize(2));
+		assertEquals(image.getVoxel(2, 3, 1), view.getValue(0, 0, 0), 0.0);
+		assertEquals(image.getVoxel(5, 5, 2), view.getValue(3, 2, 1), 0.0);
+
+		// modifications are written into the original image
+		view.setValue(1, 1, 1, 200);
+		assertEquals(200, image.getVoxel(3, 4, 2), 0.0);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.data.image.Images3D#paddedView(ij.ImageStack, int, int, int, int, int, int, inra.ijpb.data.border.BorderManager3D.Type)}.
+	 */
+	@Test
+	public final void testPaddedView()
+	{
+		ImageStack image = createRampImage();
+		int sizeX = image.getWidth();
+		int sizeY = image.getHeight();
+		int sizeZ = image.getSize();
+
+		BorderManager3D.Type[] types = new BorderManager3D.Type[] { BorderManager3D.Type.REPLICATED,
+				BorderManager3D.Type.PERIODIC, BorderManager3D.Type.BLACK, BorderManager3D.Type.WHITE,
+				BorderManager3D.Type.GRAY };
+		for (BorderManager3D.Type type : types)
+		{
+			Image3D view = Images3D.paddedView(image, 2, 3, 1, 2, 3, 1, type);
+			assertEquals(sizeX + 5, view.getSize(0));
+			assertEquals(sizeY + 3, view.getSize(1));
+			assertEquals(sizeZ + 4, view.getSize(2));
+
+			BorderManager3D bm = type.createBorderManager(image);
+			for (int z = 0; z < view.getSize(2); z++)
+			{
+				for (int y = 0; y < view.getSize(1); y++)
+				{
+					for (int x = 0; x < view.getSize(0); x++)
+					{
+						double exp = Math.min(bm.get(x - 2, y - 1, z - 3), 255);
+						assertEquals(type.toString(), exp, view.getValue(x, y, z), 0.0);
+					}
+				}
+			}
+		}
+
+		// mirrored borders
+		Image3D view = Images3D.paddedView(image, 2, 2, 2, 2, 2, 2, BorderManager3D.Type.MIRRORED);
+		assertEquals(image.getVoxel(1, 0, 0), view.getValue(0, 1, 2), 0.0);
+		assertEquals(image.getVoxel(sizeX - 2, sizeY - 1, sizeZ - 1), view.getValue(sizeX + 3, sizeY + 2, sizeZ + 2), 0.0);
+		assertEquals(image.getVoxel(0, 1, sizeZ - 2), view.getValue(2, 3, sizeZ + 3), 0.0);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.data.image.Images3D#subsampledView(ij.ImageStack, int, int, int)}.
+	 */
+	@Test
+	public final void testSubsampledView()
+	{
+		ImageStack image = createRampImage();
+		Image3D view = Images3D.subsampledView(image, 2, 3, 2);
+
+		assertEquals(4, view.getSize(0));
+		assertEquals(2, view.getSize(1));
+		assertEquals(2, view.getSize(2));
+		assertEquals(image.getVoxel(6, 3, 2), view.getValue(3, 1, 1), 0.0);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.data.image.Images3D#toStack(Image3D, int)}.
+	 */
+	@Test
+	public final void testToStack_CombinedViews()
+	{
+		ImageStack image = createRampImage();
+		Image3D view = new SubsampledImage3D(Images3D.cropView(image, 1, 1, 1, 6, 6, 4), 2, 2, 2);
+
+		ImageStack res = Images3D.toStack(view, 8);
+		assertEquals(3, res.getWidth());
+		assertEquals(3, res.getHeight());
+		assertEquals(2, res.getSize());
+		assertEquals(image.getVoxel(5, 3, 3), res.getVoxel(2, 1, 1), 0.0);
+	}
+
+	/**
+	 * Creates a 8-by-7-by-5 image with distinct values for each voxel.
+	 */
+	private static final ImageStack createRampImage()
+	{
+		ImageStack image = ImageStack.create(8, 7, 5, 8);
+		for (int z = 0; z < 5; z++)
+		{
+			for (int y = 0; y < 7; y++)
+			{
+				for (int x = 0; x < 8; x++)
+				{
+					image.setVoxel(x, y, z, z * 50 + y * 7 + x);
+				}
+			}
+		}
+		return image;
+	}
 }
@@ -0,0 +1,360 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.data.image;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+import inra.ijpb.binary.BinaryImages;
+
+/**
+ * @author dlegland
+ *
+ */
+public class MappedImage3DTest
+{
+	/**
+	 * Folder for the files created by the tests.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Test method for {@link inra.ijpb.data.image.MappedImage3D#openRaw(java.io.File, int, int, int, int, long, boolean, java.nio.channels.FileChannel.MapMode)}.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test
+	public final void testOpenRaw_Gray16LittleEndian() throws IOException
+	{
+		int sizeX = 5, sizeY = 4, sizeZ = 3;
+		ByteBuffer buffer = ByteBuffer.allocate(10 + sizeX * sizeY * sizeZ * 2);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(10);
+		for (int i = 0; i < sizeX * sizeY * sizeZ; i++)
+		{
+			buffer.putShort((short) (i * 1000));
+		}
+		File file = writeFile(buffer.array());
+
+		MappedImage3D image = MappedImage3D.openRaw(file, sizeX, sizeY, sizeZ, 16, 10, true, MapMode.READ_ONLY);
+
+		assertEquals(sizeX, image.getSize(0));
+		assertEquals(sizeY, image.getSize(1));
+		assertEquals(sizeZ, image.getSize(2));
+		assertEquals(0, image.get(0, 0, 0));
+		assertEquals(1000, image.get(1, 0, 0));
+		assertEquals(5000, image.get(0, 1, 0));
+		assertEquals((59 * 1000) & 0xFFFF, image.get(4, 3, 2));
+		assertEquals(20000, image.getValue(0, 0, 1), .01);
+	}
+
+	/**
+	 * Modifying an image mapped in read only mode throws an exception.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test(expected = ReadOnlyBufferException.class)
+	public final void testSet_ReadOnly() throws IOException
+	{
+		File file = writeFile(new byte[4 * 4 * 4]);
+		MappedImage3D image = MappedImage3D.openRaw(file, 4, 4, 4, 8, 0, false, MapMode.READ_ONLY);
+		image.set(1, 1, 1, 255);
+	}
+
+	/**
+	 * Modifying an image mapped in private mode does not modify the file.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test
+	public final void testSet_Private() throws IOException
+	{
+		File file = writeFile(new byte[4 * 4 * 4]);
+		MappedImage3D image = MappedImage3D.openRaw(file, 4, 4, 4, 8, 0, false, MapMode.PRIVATE);
+		image.set(1, 2, 3, 300);
+		assertEquals(255, image.get(1, 2, 3));
+
+		MappedImage3D image2 = MappedImage3D.openRaw(file, 4, 4, 4, 8, 0, false, MapMode.READ_ONLY);
+		assertEquals(0, image2.get(1, 2, 3));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.data.image.MappedImage3D#createRaw(java.io.File, int, int, int, int)}.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test
+	public final void testCreateRaw() throws IOException
+	{
+		File file = new File(folder.getRoot(), "output.raw");
+		MappedImage3D image = MappedImage3D.createRaw(file, 6, 5, 4, 32);
+		image.setValue(2, 3, 1, 2.5);
+		image.force();
+
+		assertEquals(6 * 5 * 4 * 4, file.length());
+		MappedImage3D image2 = MappedImage3D.openRaw(file, 6, 5, 4, 32, 0, false, MapMode.READ_ONLY);
+		assertEquals(2.5, image2.getValue(2, 3, 1), .01);
+		assertEquals(0, image2.getValue(3, 2, 1), .01);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.data.image.MappedImage3D#openTiff(java.io.File, java.nio.channels.FileChannel.MapMode)}.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test
+	public final void testOpenTiff() throws IOException
+	{
+		for (int bitDepth : new int[] {8, 16, 32})
+		{
+			ImageStack stack = createTestStack(bitDepth);
+			File file = new File(folder.getRoot(), "stack" + bitDepth + ".tif");
+			assertTrue(new FileSaver(new ImagePlus("stack", stack)).saveAsTiffStack(file.getPath()));
+
+			MappedImage3D image = MappedImage3D.openTiff(file, MapMode.READ_ONLY);
+			assertEquals(bitDepth, image.getBitDepth());
+			assertEquals(stack.getWidth(), image.getSize(0));
+			assertEquals(stack.getHeight(), image.getSize(1));
+			assertEquals(stack.getSize(), image.getSize(2));
+			for (int z = 0; z < stack.getSize(); z++)
+			{
+				for (int y = 0; y < stack.getHeight(); y++)
+				{
+					for (int x = 0; x < stack.getWidth(); x++)
+					{
+						assertEquals(stack.getVoxel(x, y, z), image.getValue(x, y, z), .01);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps an ImageJ TIFF file whose first IFD is the only one, as for the
+	 * large stacks saved by ImageJ. The slices are found from the number of
+	 * images in the description.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test
+	public final void testOpenTiff_SingleIFD() throws IOException
+	{
+		ImageStack stack = createTestStack(16);
+		File file = new File(folder.getRoot(), "stack.tif");
+		assertTrue(new FileSaver(new ImagePlus("stack", stack)).saveAsTiffStack(file.getPath()));
+		unlinkFirstIFD(file);
+
+		MappedImage3D image = MappedImage3D.openTiff(file, MapMode.READ_ONLY);
+		assertEquals(stack.getSize(), image.getSize(2));
+		for (int z = 0; z < stack.getSize(); z++)
+		{
+			for (int y = 0; y < stack.getHeight(); y++)
+			{
+				for (int x = 0; x < stack.getWidth(); x++)
+				{
+					assertEquals(stack.getVoxel(x, y, z), image.getValue(x, y, z), .01);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Mapping an ImageJ TIFF file with a single IFD fails if the file is too
+	 * small to contain the images declared in the description.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test(expected = IOException.class)
+	public final void testOpenTiff_SingleIFD_Truncated() throws IOException
+	{
+		ImageStack stack = createTestStack(8);
+		File file = new File(folder.getRoot(), "stack.tif");
+		assertTrue(new FileSaver(new ImagePlus("stack", stack)).saveAsTiffStack(file.getPath()));
+		long imageEnd = unlinkFirstIFD(file) + 7 * 6 * 4;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(imageEnd);
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		MappedImage3D.openTiff(file, MapMode.READ_ONLY);
+	}
+
+	/**
+	 * Mapping a read-only file in private mode is possible, and the
+	 * modifications are kept in memory.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test
+	public final void testSet_PrivateReadOnlyFile() throws IOException
+	{
+		File file = writeFile(new byte[4 * 4 * 4]);
+		assertTrue(file.setWritable(false));
+		MappedImage3D image = MappedImage3D.openRaw(file, 4, 4, 4, 8, 0, false, MapMode.PRIVATE);
+		image.setValue(2, 1, 0, 12);
+		image.setSlicePixels(3, new byte[4 * 4]);
+		assertEquals(12, image.get(2, 1, 0));
+		assertEquals(0, image.get(2, 1, 1));
+		assertEquals(0, image.get(0, 0, 3));
+	}
+
+	/**
+	 * Compute connected components on a stack backed by a mapped file.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	@Test
+	public final void testComponentsLabeling_MappedImageStack() throws IOException
+	{
+		ImageStack stack = ImageStack.create(10, 10, 10, 8);
+		for (int z = 0; z < 10; z++)
+		{
+			for (int y = 0; y < 10; y++)
+			{
+				for (int x = 0; x < 10; x++)
+				{
+					if (((x * 7 + y * 13 + z * 5) % 11) < 4)
+						stack.setVoxel(x, y, z, 255);
+				}
+			}
+		}
+		File file = new File(folder.getRoot(), "binary.tif");
+		new FileSaver(new ImagePlus("binary", stack)).saveAsTiffStack(file.getPath());
+
+		MappedImageStack mapped = new MappedImageStack(MappedImage3D.openTiff(file, MapMode.READ_ONLY));
+		assertTrue(Images3D.createWrapper(mapped) == mapped.getImage());
+
+		ImageStack labels = BinaryImages.componentsLabeling(mapped, 6, 16);
+		ImageStack expected = BinaryImages.componentsLabeling(stack, 6, 16);
+		for (int z = 0; z < 10; z++)
+		{
+			for (int y = 0; y < 10; y++)
+			{
+				for (int x = 0; x < 10; x++)
+				{
+					assertEquals(expected.getVoxel(x, y, z), labels.getVoxel(x, y, z), .01);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the offset of the second IFD of a TIFF file to zero, and returns
+	 * the offset of the first slice.
+	 */
+	private static final long unlinkFirstIFD(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			byte[] bytes = new byte[(int) raf.length()];
+			raf.readFully(bytes);
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			buffer.order(bytes[0] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+			int ifdOffset = buffer.getInt(4);
+			int nEntries = buffer.getShort(ifdOffset) & 0xFFFF;
+			long stripOffset = 0;
+			for (int i = 0; i < nEntries; i++)
+			{
+				int pos = ifdOffset + 2 + i * 12;
+				if ((buffer.getShort(pos) & 0xFFFF) == 273)
+					stripOffset = buffer.getInt(pos + 8) & 0xFFFFFFFFL;
+			}
+			buffer.putInt(ifdOffset + 2 + nEntries * 12, 0);
+
+			raf.seek(0);
+			raf.write(bytes);
+			return stripOffset;
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private File writeFile(byte[] data) throws IOException
+	{
+		File file = folder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(data);
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	private static final ImageStack createTestStack(int bitDepth)
+	{
+		ImageStack stack = ImageStack.create(7, 6, 5, bitDepth);
+		for (int z = 0; z < 5; z++)
+		{
+			for (int y = 0; y < 6; y++)
+			{
+				for (int x = 0; x < 7; x++)
+				{
+					double value = (x + 7 * y + 42 * z) % 200;
+					if (bitDepth == 16)
+						value *= 300;
+					else if (bitDepth == 32)
+						value = value / 4.0 - 10;
+					stack.setVoxel(x, y, z, value);
+				}
+			}
+		}
+		return stack;
+	}
+}
@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.data.image;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import inra.ijpb.label.LabelImages;
+
+/**
+ * @author dlegland
+ *
+ */
+public class OffHeapLabelImage3DTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.data.image.OffHeapLabelImage3D#setLabel(int, int, int, long)}.
+	 */
+	@Test
+	public final void testSetLabel_64Bits()
+	{
+		OffHeapLabelImage3D image = new OffHeapLabelImage3D(5, 4, 3, 64);
+		long label = (1L << 40) + 3;
+		image.setLabel(4, 3, 2, label);
+		image.setLabel(1, 2, 0, (1L << 24) + 1);
+		
+		assertEquals(label, image.getLabel(4, 3, 2));
+		assertEquals((1L << 24) + 1, image.getLabel(1, 2, 0));
+		assertEquals((1 << 24) + 1, image.getValue(1, 2, 0), 0.0);
+		assertEquals(0, image.getLabel(0, 0, 0));
+	}
+
+	/**
+	 * A 32-bits label image can not store labels larger than
+	 * Integer.MAX_VALUE.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testSetLabel_32BitsOverflow()
+	{
+		OffHeapLabelImage3D image = new OffHeapLabelImage3D(5, 4, 3, 32);
+		image.setLabel(1, 1, 1, 1L << 32);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.data.image.OffHeapLabelImage3D#fromStack(ij.ImageStack, int)}.
+	 */
+	@Test
+	public final void testFromStack()
+	{
+		ImageStack stack = ImageStack.create(6, 5, 4, 16);
+		stack.setVoxel(2, 3, 1, 1000);
+		stack.setVoxel(5, 4, 3, 65535);
+
+		OffHeapLabelImage3D image = OffHeapLabelImage3D.fromStack(stack, 32);
+		
+		assertEquals(6, image.getSize(0));
+		assertEquals(5, image.getSize(1));
+		assertEquals(4, image.getSize(2));
+		assertEquals(1000, image.get(2, 3, 1));
+		assertEquals(65535, image.getLabel(5, 4, 3));
+		assertEquals(0, image.getLabel(0, 0, 0));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.LabelImages#findAllLabels(OffHeapLabelImage3D)}.
+	 */
+	@Test
+	public final void testFindAllLabels()
+	{
+		OffHeapLabelImage3D image = createImage();
+		
+		long[] labels = LabelImages.findAllLabels(image);
+		
+		assertEquals(3, labels.length);
+		assertEquals(3L << 33, labels[0]);
+		assertEquals((3L << 33) + 1, labels[1]);
+		assertEquals(5L << 40, labels[2]);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.LabelImages#remapLabels(OffHeapLabelImage3D)}.
+	 */
+	@Test
+	public final void testRemapLabels()
+	{
+		OffHeapLabelImage3D image = createImage();
+		
+		LabelImages.remapLabels(image);
+		
+		assertEquals(3, image.getLabel(1, 1, 1));
+		assertEquals(1, image.getLabel(5, 5, 5));
+		assertEquals(2, image.getLabel(6, 5, 5));
+		assertEquals(0, image.getLabel(0, 0, 0));
+	}
+
+	private static final OffHeapLabelImage3D createImage()
+	{
+		OffHeapLabelImage3D image = new OffHeapLabelImage3D(8, 8, 8, 64);
+		for (int z = 1; z < 4; z++)
+		{
+			for (int y = 1; y < 4; y++)
+			{
+				for (int x = 1; x < 4; x++)
+				{
+					image.setLabel(x, y, z, 5L << 40);
+				}
+			}
+		}
+		image.setLabel(5, 5, 5, 3L << 33);
+		image.setLabel(6, 5, 5, (3L << 33) + 1);
+		return image;
+	}
+}
@@ -0,0 +1,96 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.geometry;
+
+import static org.junit.Assert.*;
+
+import java.awt.geom.Point2D;
+
+import org.junit.Test;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class PolygonRasterizerTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.geometry.PolygonRasterizer#countPixels(int, int)}.
+	 */
+	@Test
+	public final void testCountPixels_Rectangle()
+	{
+		Polygon2D poly = new Polygon2D(4);
+		poly.addVertex(new Point2D.Double(2, 3));
+		poly.addVertex(new Point2D.Double(7, 3));
+		poly.addVertex(new Point2D.Double(7, 6));
+		poly.addVertex(new Point2D.Double(2, 6));
+		
+		PolygonRasterizer rasterizer = new PolygonRasterizer(poly);
+		assertEquals(15, rasterizer.countPixels(10, 10));
+		
+		// clipping by image bounds
+		assertEquals(8, rasterizer.countPixels(6, 5));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.geometry.PolygonRasterizer#fill(ij.process.ImageProcessor, double)}.
+	 */
+	@Test
+	public final void testFill_CompareWithContains()
+	{
+		Polygon2D poly = new Polygon2D();
+		poly.addVertex(new Point2D.Double(40, 70));
+		poly.addVertex(new Point2D.Double(40, 50));
+		poly.addVertex(new Point2D.Double(20, 50));
+		poly.addVertex(new Point2D.Double(60, 10.5));
+		poly.addVertex(new Point2D.Double(60, 30));
+		poly.addVertex(new Point2D.Double(80.3, 30));
+		
+		PolygonRasterizer rasterizer = new PolygonRasterizer();
+		ImageProcessor image = new ByteProcessor(100, 80);
+		
+		// check both orientations
+		for (Polygon2D polygon : new Polygon2D[] {poly, poly.invert()})
+		{
+			image.setValue(0);
+			image.fill();
+			rasterizer.setPolygon(polygon);
+			rasterizer.fill(image, 255);
+			
+			int count = 0;
+			for (int y = 0; y < 80; y++)
+			{
+				for (int x = 0; x < 100; x++)
+				{
+					boolean inside = polygon.contains(new Point2D.Double(x + 0.5, y + 0.5));
+					assertEquals(inside ? 255 : 0, image.get(x, y));
+					if (inside) count++;
+				}
+			}
+			assertEquals(count, rasterizer.countPixels(100, 80));
+		}
+	}
+}
@@ -28,8 +28,11 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
 	// generic classes
+	LabelBoundsIndexTest.class, 
 	LabelImagesTest.class, 
 	RegionAdjacencyGraphTest.class, 
+	RunLengthLabelImageTest.class, 
+	RunLengthLabelImage3DTest.class, 
 	})
 public class AllTests {
   //nothing
@@ -0,0 +1,185 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.label;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import inra.ijpb.data.IntBounds3D;
+
+/**
+ * @author dlegland
+ *
+ */
+public class LabelBoundsIndexTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.label.LabelBoundsIndex#create(ij.ImageStack, boolean)}.
+	 */
+	@Test
+	public final void testCreate_BoundsAndCounts()
+	{
+		ImageStack image = createRandomLabelImage();
+		LabelBoundsIndex index = LabelBoundsIndex.create(image);
+
+		int[] labels = LabelImages.findAllLabels(image);
+		assertArrayEquals(labels, index.getLabels());
+
+		int[] counts = LabelImages.voxelCount(image, labels);
+		for (int i = 0; i < labels.length; i++)
+		{
+			assertEquals(counts[i], index.getVoxelCount(labels[i]));
+
+			IntBounds3D exp = LabelImages.labelBounds(image, labels[i]);
+			IntBounds3D bounds = index.getBounds(labels[i]);
+			assertEquals(exp.getXMin(), bounds.getXMin());
+			assertEquals(exp.getXMax(), bounds.getXMax());
+			assertEquals(exp.getYMin(), bounds.getYMin());
+			assertEquals(exp.getYMax(), bounds.getYMax());
+			assertEquals(exp.getZMin(), bounds.getZMin());
+			assertEquals(exp.getZMax(), bounds.getZMax());
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.LabelBoundsIndex#cropAllLabels(int)}.
+	 */
+	@Test
+	public final void testCropAllLabels()
+	{
+		ImageStack image = createRandomLabelImage();
+
+		for (boolean computeRuns : new boolean[] { false, true })
+		{
+			LabelBoundsIndex index = LabelBoundsIndex.create(image, computeRuns);
+			assertEquals(computeRuns, index.hasRuns());
+
+			Map<Integer, ImageStack> crops = index.cropAllLabels(2);
+			assertEquals(index.labelCount(), crops.size());
+			for (int label : crops.keySet())
+			{
+				assertVoxelsEqual(LabelImages.cropLabel(image, label, 2), crops.get(label));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.LabelBoundsIndex#maskIterator(int)}.
+	 */
+	@Test
+	public final void testMaskIterator()
+	{
+		ImageStack image = createRandomLabelImage();
+		LabelBoundsIndex index = LabelBoundsIndex.create(image, true);
+
+		Iterator<LabelBoundsIndex.LabelMask> iter = index.maskIterator(1);
+		for (int label : index.getLabels())
+		{
+			LabelBoundsIndex.LabelMask mask = iter.next();
+			assertEquals(label, mask.getLabel());
+			assertEquals(index.getBounds(label).getXMin() - 1, mask.getBounds().getXMin());
+			assertVoxelsEqual(LabelImages.cropLabel(image, label, 1), mask.getMask());
+		}
+		assertFalse(iter.hasNext());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.LabelBoundsIndex#binarize(int)}.
+	 */
+	@Test
+	public final void testBinarize()
+	{
+		ImageStack image = createRandomLabelImage();
+		LabelBoundsIndex index = LabelBoundsIndex.create(image, true);
+
+		int label = index.getLabels()[0];
+		ImageStack mask = index.binarize(label);
+		for (int z = 0; z < image.getSize(); z++)
+		{
+			for (int y = 0; y < image.getHeight(); y++)
+			{
+				for (int x = 0; x < image.getWidth(); x++)
+				{
+					double exp = image.getVoxel(x, y, z) == label ? 255 : 0;
+					assertEquals(exp, mask.getVoxel(x, y, z), 0.0);
+				}
+			}
+		}
+	}
+
+	private static final void assertVoxelsEqual(ImageStack exp, ImageStack res)
+	{
+		assertEquals(exp.getWidth(), res.getWidth());
+		assertEquals(exp.getHeight(), res.getHeight());
+		assertEquals(exp.getSize(), res.getSize());
+		for (int z = 0; z < exp.getSize(); z++)
+		{
+			for (int y = 0; y < exp.getHeight(); y++)
+			{
+				for (int x = 0; x < exp.getWidth(); x++)
+				{
+					assertEquals(exp.getVoxel(x, y, z), res.getVoxel(x, y, z), 0.0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generates a 3D label image containing overlapping balls.
+	 */
+	private static final ImageStack createRandomLabelImage()
+	{
+		ImageStack image = ImageStack.create(30, 25, 20, 16);
+		Random random = new Random(48);
+		for (int i = 0; i < 20; i++)
+		{
+			int xc = random.nextInt(30);
+			int yc = random.nextInt(25);
+			int zc = random.nextInt(20);
+			int radius = 1 + random.nextInt(7);
+			int label = 1 + random.nextInt(300);
+			for (int z = Math.max(zc - radius, 0); z <= Math.min(zc + radius, 19); z++)
+			{
+				for (int y = Math.max(yc - radius, 0); y <= Math.min(yc + radius, 24); y++)
+				{
+					for (int x = Math.max(xc - radius, 0); x <= Math.min(xc + radius, 29); x++)
+					{
+						int dx = x - xc, dy = y - yc, dz = z - zc;
+						if (dx * dx + dy * dy + dz * dz <= radius * radius && random.nextDouble() < 0.9)
+						{
+							image.setVoxel(x, y, z, label);
+						}
+					}
+				}
+			}
+		}
+		return image;
+	}
+}
@@ -545,4 +545,22 @@ public class LabelImagesTest
 		assertEquals(16, labelMap.getVoxel( 6, 6, 6), 0.01);
 	}
 	
+	@Test
+	public final void testRemapLabels_3D()
+	{
+		ImageStack labelMap = ImageStack.create(10, 10, 10, 16);
+		labelMap.setVoxel( 4, 4, 4, 300);
+		labelMap.setVoxel( 6, 4, 4,  40);
+		labelMap.setVoxel( 4, 6, 4, 300);
+		labelMap.setVoxel( 6, 6, 6,   7);
+		
+		LabelImages.remapLabels(labelMap);
+		
+		assertEquals( 3, labelMap.getVoxel( 4, 4, 4), 0.01);
+		assertEquals( 2, labelMap.getVoxel( 6, 4, 4), 0.01);
+		assertEquals( 3, labelMap.getVoxel( 4, 6, 4), 0.01);
+		assertEquals( 1, labelMap.getVoxel( 6, 6, 6), 0.01);
+		assertEquals( 0, labelMap.getVoxel( 0, 0, 0), 0.01);
+	}
+	
 }
@@ -30,14 +30,18 @@ import static org.junit.Assert.assertFalse;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Test;
 
+import ij.gui.PolygonRoi;
 import ij.process.ByteProcessor;
+import ij.process.ShortProcessor;
 import inra.ijpb.data.image.ImageUtils;
 import inra.ijpb.geometry.Polygon2D;
 import inra.ijpb.label.LabelMapToPolygons.Direction;
 import inra.ijpb.label.LabelMapToPolygons.Position;
+import inra.ijpb.label.LabelMapToPolygons.VertexLocation;
 
 /**
  * @author dlegland
@@ -380,4 +384,89 @@ public class LabelMapToPolygonsTest
 		ArrayList<Polygon2D> polygons = boundaries.get(255);
 		assertEquals(1, polygons.size());
 	}
+
+	/**
+	 * Test method for
+	 * {@link inra.ijpb.label.LabelMapToPolygons#computePolygons(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public final void test_computePolygons_squareWithHole()
+	{
+		ByteProcessor array = new ByteProcessor(5, 5);
+		ImageUtils.fillRect(array, 1, 1, 3, 3, 255);
+		array.set(2, 2, 0);
+
+		LabelMapToPolygons tracker = new LabelMapToPolygons(4, VertexLocation.CORNER);
+		PolygonStore polygons = tracker.computePolygons(array);
+
+		assertEquals(2, polygons.size());
+		assertEquals(255, polygons.getLabel(0));
+		assertEquals(255, polygons.getLabel(1));
+		assertEquals(12, polygons.vertexNumber(0));
+		assertEquals(4, polygons.vertexNumber(1));
+		assertEquals(16, polygons.totalVertexCount());
+
+		// outer boundary starts at upper-left corner of region
+		assertEquals(1.0, polygons.getX(0, 0), 0.0);
+		assertEquals(1.0, polygons.getY(0, 0), 0.0);
+		// inner boundary starts at upper-right corner of the hole
+		assertEquals(3.0, polygons.getX(1, 0), 0.0);
+		assertEquals(2.0, polygons.getY(1, 0), 0.0);
+
+		PolygonRoi roi = polygons.createRoi(0);
+		assertEquals(12, roi.getNCoordinates());
+		assertEquals(8.0, polygons.getPolygon(0).area() - polygons.getPolygon(1).area(), 0.01);
+	}
+
+	/**
+	 * Checks that the boundaries tracked within several bands of rows are the
+	 * same as the boundaries obtained with sequential processing.
+	 */
+	@Test
+	public final void test_computePolygons_ParallelSameAsSequential()
+	{
+		// generate random label map containing disks spanning several bands
+		ShortProcessor array = new ShortProcessor(100, 200);
+		Random random = new Random(46);
+		for (int i = 0; i < 60; i++)
+		{
+			int xc = random.nextInt(100);
+			int yc = random.nextInt(200);
+			int radius = 2 + random.nextInt(20);
+			int label = 1 + random.nextInt(20);
+			for (int y = Math.max(yc - radius, 0); y <= Math.min(yc + radius, 199); y++)
+			{
+				for (int x = Math.max(xc - radius, 0); x <= Math.min(xc + radius, 99); x++)
+				{
+					int dx = x - xc, dy = y - yc;
+					if (dx * dx + dy * dy <= radius * radius && random.nextDouble() < 0.9)
+					{
+						array.set(x, y, label);
+					}
+				}
+			}
+		}
+
+		for (int conn : new int[] { 4, 8 })
+		{
+			LabelMapToPolygons tracker = new LabelMapToPolygons(conn, VertexLocation.EDGE_CENTER);
+			tracker.setThreadNumber(1);
+			PolygonStore expected = tracker.computePolygons(array);
+			tracker.setThreadNumber(4);
+			PolygonStore polygons = tracker.computePolygons(array);
+
+			assertEquals(expected.size(), polygons.size());
+			assertEquals(expected.totalVertexCount(), polygons.totalVertexCount());
+			for (int i = 0; i < expected.size(); i++)
+			{
+				assertEquals(expected.getLabel(i), polygons.getLabel(i));
+				assertEquals(expected.vertexNumber(i), polygons.vertexNumber(i));
+				for (int v = 0; v < expected.vertexNumber(i); v++)
+				{
+					assertEquals(expected.getX(i, v), polygons.getX(i, v), 0.0);
+					assertEquals(expected.getY(i, v), polygons.getY(i, v), 0.0);
+				}
+			}
+		}
+	}
 }
@@ -31,7 +31,9 @@ import org.junit.Test;
 
 import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
 import inra.ijpb.label.RegionAdjacencyGraph.LabelPair;
+import inra.ijpb.label.RegionAdjacencyGraph.LongLabelPair;
 
 public class RegionAdjacencyGraphTest {
 
@@ -65,4 +67,34 @@ public class RegionAdjacencyGraphTest {
 		assertTrue(adjacencies.contains(new LabelPair(4, 5)));
 	}
 
+	@Test
+	public void testRegionAdjacencyGraph_OffHeapLabelImage3D() 
+	{
+		// three blocks of labels separated by planes of zeros
+		long label1 = 10_000_000_000L, label2 = label1 + 1, label3 = 1L << 50;
+		OffHeapLabelImage3D image = new OffHeapLabelImage3D(7, 7, 5, 64);
+		for (int z = 0; z < 5; z++)
+		{
+			for (int y = 0; y < 7; y++)
+			{
+				for (int x = 0; x < 7; x++)
+				{
+					if (x < 3 && y < 3)
+						image.setLabel(x, y, z, label1);
+					else if (x > 3 && y < 3)
+						image.setLabel(x, y, z, label2);
+					else if (y > 3)
+						image.setLabel(x, y, z, label3);
+				}
+			}
+		}
+		
+		Set<LongLabelPair> adjacencies = RegionAdjacencyGraph.computeAdjacencies(image);
+		assertEquals(3, adjacencies.size());
+		
+		assertTrue(adjacencies.contains(new LongLabelPair(label1, label2)));
+		assertTrue(adjacencies.contains(new LongLabelPair(label3, label1)));
+		assertTrue(adjacencies.contains(new LongLabelPair(label2, label3)));
+	}
+
 }
@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.label;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import inra.ijpb.data.IntBounds3D;
+
+/**
+ * @author dlegland
+ *
+ */
+public class RunLengthLabelImage3DTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.label.RunLengthLabelImage3D#create(ij.ImageStack)}.
+	 */
+	@Test
+	public final void testCreate_toImageStack()
+	{
+		ImageStack image = createRandomLabelImage();
+		RunLengthLabelImage3D rle = RunLengthLabelImage3D.create(image);
+
+		ImageStack res = rle.toImageStack();
+		assertEquals(8, res.getBitDepth());
+		assertVoxelsEqual(image, res);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.RunLengthLabelImage3D#voxelCount(int[])}.
+	 */
+	@Test
+	public final void testFindAllLabels_voxelCount()
+	{
+		ImageStack image = createRandomLabelImage();
+		RunLengthLabelImage3D rle = RunLengthLabelImage3D.create(image);
+
+		int[] labels = LabelImages.findAllLabels(image);
+		assertArrayEquals(labels, rle.findAllLabels());
+		assertArrayEquals(LabelImages.voxelCount(image, labels), rle.voxelCount(labels));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.RunLengthLabelImage3D#cropLabel(int, int)}.
+	 */
+	@Test
+	public final void testLabelBounds_cropLabel()
+	{
+		ImageStack image = createRandomLabelImage();
+		RunLengthLabelImage3D rle = RunLengthLabelImage3D.create(image);
+
+		for (int label : new int[] { 2, 5, 9 })
+		{
+			IntBounds3D exp = LabelImages.labelBounds(image, label);
+			IntBounds3D bounds = rle.labelBounds(label);
+			assertEquals(exp.getXMin(), bounds.getXMin());
+			assertEquals(exp.getXMax(), bounds.getXMax());
+			assertEquals(exp.getYMin(), bounds.getYMin());
+			assertEquals(exp.getYMax(), bounds.getYMax());
+			assertEquals(exp.getZMin(), bounds.getZMin());
+			assertEquals(exp.getZMax(), bounds.getZMax());
+
+			assertVoxelsEqual(LabelImages.cropLabel(image, label, 1), rle.cropLabel(label, 1));
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.RunLengthLabelImage3D#volumeOpening(int)}.
+	 */
+	@Test
+	public final void testVolumeOpening()
+	{
+		ImageStack image = createRandomLabelImage();
+		RunLengthLabelImage3D rle = RunLengthLabelImage3D.create(image);
+
+		assertVoxelsEqual(LabelImages.volumeOpening(image, 500), rle.volumeOpening(500).toImageStack());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.RunLengthLabelImage3D#computeAdjacencies()}.
+	 */
+	@Test
+	public final void testComputeAdjacencies()
+	{
+		ImageStack image = createRandomLabelImage();
+		RunLengthLabelImage3D rle = RunLengthLabelImage3D.create(image);
+
+		assertEquals(RegionAdjacencyGraph.computeAdjacencies(image), rle.computeAdjacencies());
+	}
+
+	private static final void assertVoxelsEqual(ImageStack exp, ImageStack res)
+	{
+		assertEquals(exp.getWidth(), res.getWidth());
+		assertEquals(exp.getHeight(), res.getHeight());
+		assertEquals(exp.getSize(), res.getSize());
+		for (int z = 0; z < exp.getSize(); z++)
+		{
+			for (int y = 0; y < exp.getHeight(); y++)
+			{
+				for (int x = 0; x < exp.getWidth(); x++)
+				{
+					assertEquals(exp.getVoxel(x, y, z), res.getVoxel(x, y, z), 0.0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generates a 3D label image containing overlapping balls.
+	 */
+	private static final ImageStack createRandomLabelImage()
+	{
+		ImageStack image = ImageStack.create(30, 25, 20, 8);
+		Random random = new Random(47);
+		for (int i = 0; i < 20; i++)
+		{
+			int xc = random.nextInt(30);
+			int yc = random.nextInt(25);
+			int zc = random.nextInt(20);
+			int radius = 1 + random.nextInt(7);
+			int label = 1 + random.nextInt(10);
+			for (int z = Math.max(zc - radius, 0); z <= Math.min(zc + radius, 19); z++)
+			{
+				for (int y = Math.max(yc - radius, 0); y <= Math.min(yc + radius, 24); y++)
+				{
+					for (int x = Math.max(xc - radius, 0); x <= Math.min(xc + radius, 29); x++)
+					{
+						int dx = x - xc, dy = y - yc, dz = z - zc;
+						if (dx * dx + dy * dy + dz * dz <= radius * radius && random.nextDouble() < 0.9)
+						{
+							image.setVoxel(x, y, z, label);
+						}
+					}
+				}
+			}
+		}
+		return image;
+	}
+}
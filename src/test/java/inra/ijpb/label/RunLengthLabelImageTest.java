@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.label;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import inra.ijpb.data.IntBounds2D;
+
+/**
+ * @author dlegland
+ *
+ */
+public class RunLengthLabelImageTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.label.RunLengthLabelImage#create(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public final void testCreate_toImageProcessor()
+	{
+		ImageProcessor image = createRandomLabelImage();
+		RunLengthLabelImage rle = RunLengthLabelImage.create(image);
+
+		ImageProcessor res = rle.toImageProcessor();
+		assertEquals(16, res.getBitDepth());
+		for (int y = 0; y < image.getHeight(); y++)
+		{
+			for (int x = 0; x < image.getWidth(); x++)
+			{
+				assertEquals(image.get(x, y), res.get(x, y));
+				assertEquals(image.get(x, y), rle.get(x, y));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.RunLengthLabelImage#pixelCount(int[])}.
+	 */
+	@Test
+	public final void testFindAllLabels_pixelCount()
+	{
+		ImageProcessor image = createRandomLabelImage();
+		RunLengthLabelImage rle = RunLengthLabelImage.create(image);
+
+		int[] labels = LabelImages.findAllLabels(image);
+		assertArrayEquals(labels, rle.findAllLabels());
+		assertArrayEquals(LabelImages.pixelCount(image, labels), rle.pixelCount(labels));
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.RunLengthLabelImage#cropLabel(int, int)}.
+	 */
+	@Test
+	public final void testLabelBounds_cropLabel()
+	{
+		ImageProcessor image = createRandomLabelImage();
+		RunLengthLabelImage rle = RunLengthLabelImage.create(image);
+
+		for (int label : new int[] { 1, 7, 12 })
+		{
+			IntBounds2D exp = LabelImages.labelBounds(image, label);
+			IntBounds2D bounds = rle.labelBounds(label);
+			assertEquals(exp.getXMin(), bounds.getXMin());
+			assertEquals(exp.getXMax(), bounds.getXMax());
+			assertEquals(exp.getYMin(), bounds.getYMin());
+			assertEquals(exp.getYMax(), bounds.getYMax());
+
+			ImageProcessor expCrop = LabelImages.cropLabel(image, label, 2);
+			ImageProcessor crop = rle.cropLabel(label, 2);
+			assertEquals(expCrop.getWidth(), crop.getWidth());
+			assertEquals(expCrop.getHeight(), crop.getHeight());
+			for (int i = 0; i < crop.getPixelCount(); i++)
+			{
+				assertEquals(expCrop.get(i), crop.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.RunLengthLabelImage#areaOpening(int)}.
+	 */
+	@Test
+	public final void testAreaOpening()
+	{
+		ImageProcessor image = createRandomLabelImage();
+		RunLengthLabelImage rle = RunLengthLabelImage.create(image);
+
+		ImageProcessor exp = LabelImages.areaOpening(image, 200);
+		ImageProcessor res = rle.areaOpening(200).toImageProcessor();
+		for (int i = 0; i < image.getPixelCount(); i++)
+		{
+			assertEquals(exp.get(i), res.get(i));
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.RunLengthLabelImage#computeAdjacencies()}.
+	 */
+	@Test
+	public final void testComputeAdjacencies()
+	{
+		ImageProcessor image = createRandomLabelImage();
+		RunLengthLabelImage rle = RunLengthLabelImage.create(image);
+
+		assertEquals(RegionAdjacencyGraph.computeAdjacencies(image), rle.computeAdjacencies());
+	}
+
+	/**
+	 * Generates a label image containing overlapping disks.
+	 */
+	private static final ImageProcessor createRandomLabelImage()
+	{
+		ImageProcessor image = new ShortProcessor(80, 60);
+		Random random = new Random(47);
+		for (int i = 0; i < 30; i++)
+		{
+			int xc = random.nextInt(80);
+			int yc = random.nextInt(60);
+			int radius = 1 + random.nextInt(10);
+			int label = 1 + random.nextInt(15);
+			for (int y = Math.max(yc - radius, 0); y <= Math.min(yc + radius, 59); y++)
+			{
+				for (int x = Math.max(xc - radius, 0); x <= Math.min(xc + radius, 79); x++)
+				{
+					int dx = x - xc, dy = y - yc;
+					if (dx * dx + dy * dy <= radius * radius && random.nextDouble() < 0.9)
+					{
+						image.set(x, y, label);
+					}
+				}
+			}
+		}
+		return image;
+	}
+}
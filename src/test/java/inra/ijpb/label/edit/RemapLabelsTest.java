@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.label.edit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import inra.ijpb.data.IntBounds3D;
+
+/**
+ * @author dlegland
+ *
+ */
+public class RemapLabelsTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.label.edit.RemapLabels#process(ij.ImageStack)}.
+	 */
+	@Test
+	public final void testProcess_Gray16()
+	{
+		ImageStack image = createImage(16, new int[] {3, 200, 65535});
+
+		int[] labels = new RemapLabels().process(image);
+
+		assertArrayEquals(new int[] {3, 200, 65535}, labels);
+		assertEquals(1, image.getVoxel(1, 1, 1), .01);
+		assertEquals(2, image.getVoxel(6, 2, 3), .01);
+		assertEquals(3, image.getVoxel(2, 7, 8), .01);
+		assertEquals(0, image.getVoxel(0, 0, 0), .01);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.edit.RemapLabels#process(ij.ImageStack)},
+	 * using sparse labels that require a hash-based lookup.
+	 */
+	@Test
+	public final void testProcess_Float_SparseLabels()
+	{
+		ImageStack image = createImage(32, new int[] {10_000_000, 12, 5_000_000});
+
+		int[] labels = new RemapLabels().process(image);
+
+		assertArrayEquals(new int[] {12, 5_000_000, 10_000_000}, labels);
+		assertEquals(3, image.getVoxel(1, 1, 1), .01);
+		assertEquals(1, image.getVoxel(6, 2, 3), .01);
+		assertEquals(2, image.getVoxel(2, 7, 8), .01);
+		assertEquals(0, image.getVoxel(9, 9, 9), .01);
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.label.edit.RemapLabels#computeResult(ij.ImageStack)}.
+	 */
+	@Test
+	public final void testComputeResult()
+	{
+		ImageStack image = createImage(8, new int[] {50, 20, 100});
+
+		RemapLabels.Result res = new RemapLabels().computeResult(image);
+
+		assertArrayEquals(new int[] {20, 50, 100}, res.labels);
+		assertEquals(8, res.voxelCounts[0]);
+		assertEquals(8, res.voxelCounts[1]);
+		assertEquals(8, res.voxelCounts[2]);
+
+		// region with label 50, remapped to 2
+		IntBounds3D bounds = res.bounds[1];
+		assertEquals(1, bounds.getXMin());
+		assertEquals(2, bounds.getXMax());
+		assertEquals(1, bounds.getYMin());
+		assertEquals(2, bounds.getYMax());
+		assertEquals(1, bounds.getZMin());
+		assertEquals(2, bounds.getZMax());
+
+		// region with label 20, remapped to 1
+		bounds = res.bounds[0];
+		assertEquals(5, bounds.getXMin());
+		assertEquals(6, bounds.getXMax());
+		assertEquals(2, bounds.getYMin());
+		assertEquals(3, bounds.getYMax());
+		assertEquals(3, bounds.getZMin());
+		assertEquals(4, bounds.getZMax());
+	}
+
+	/**
+	 * Creates a 10x10x10 image containing three 2x2x2 cubes with the
+	 * specified labels.
+	 */
+	private static final ImageStack createImage(int bitDepth, int[] labels)
+	{
+		ImageStack image = ImageStack.create(10, 10, 10, bitDepth);
+		for (int z = 0; z < 2; z++)
+		{
+			for (int y = 0; y < 2; y++)
+			{
+				for (int x = 0; x < 2; x++)
+				{
+					image.setVoxel(x + 1, y + 1, z + 1, labels[0]);
+					image.setVoxel(x + 5, y + 2, z + 3, labels[1]);
+					image.setVoxel(x + 2, y + 6, z + 7, labels[2]);
+				}
+			}
+		}
+		return image;
+	}
+}
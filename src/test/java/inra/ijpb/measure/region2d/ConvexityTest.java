@@ -121,4 +121,39 @@ public class ConvexityTest
         }
     }
 
+	/**
+	 * Test method for {@link inra.ijpb.measure.region2d.Convexity#convexifyLabels(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public final void testConvexifyLabels_FourLabels()
+	{
+		// four regions, each one corresponding to the corners of a 3x3 square
+		ImageProcessor image = new ByteProcessor(8, 8);
+		for (int y = 0; y < 4; y+=2)
+		{
+			for (int x = 0; x < 4; x+=2)
+			{
+				image.set(x + 1, y + 1, 2);
+				image.set(x + 4, y + 1, 3);
+				image.set(x + 1, y + 4, 4);
+				image.set(x + 4, y + 4, 7);
+			}
+		}
+		
+		ImageProcessor convex = Convexity.convexifyLabels(image);
+		
+		assertEquals(2, convex.get(2, 2));
+		assertEquals(3, convex.get(5, 2));
+		assertEquals(4, convex.get(2, 5));
+		assertEquals(7, convex.get(5, 5));
+		assertEquals(0, convex.get(0, 0));
+		assertEquals(0, convex.get(4, 0));
+		
+		int count = 0;
+		for (int i = 0; i < 64; i++)
+		{
+			if (convex.get(i) == 7) count++;
+		}
+		assertEquals(9, count);
+	}
 }
@@ -30,9 +30,11 @@ import org.junit.runners.Suite;
     // generic classes
     GeometryUtilsTest.class, 
     EquivalentEllipsoidTest.class,
+    BinaryConfigurationsHistogram3DTest.class,
     GeodesicDiameter3DTest.class,
     InterfaceSurfaceAreaTest.class,
-    MaxFeretDiameter3DTest.class })
+    MaxFeretDiameter3DTest.class,
+    StreamingIntrinsicVolumes3DTest.class })
 public class AllTests
 {
 	// nothing
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+/**
+ * 
+ */
+package inra.ijpb.measure.region3d;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import inra.ijpb.geometry.Box3D;
+
+/**
+ * @author dlegland
+ *
+ */
+public class BinaryConfigurationsHistogram3DTest
+{
+    /**
+     * Test method for {@link inra.ijpb.measure.region3d.BinaryConfigurationsHistogram3D#process(ij.ImageStack)}.
+     */
+    @Test
+    public final void testProcess_SingleVoxel()
+    {
+        ImageStack image = ImageStack.create(3, 3, 3, 8);
+        image.setVoxel(1, 1, 1, 255);
+        
+        int[] histo = new BinaryConfigurationsHistogram3D().process(image);
+        
+        // each configuration touching the voxel is found once
+        for (int k = 0; k < 8; k++)
+        {
+            assertEquals(1, histo[1 << k]);
+        }
+        assertEquals(4 * 4 * 4 - 8, histo[0]);
+    }
+
+    /**
+     * Test method for {@link inra.ijpb.measure.region3d.BinaryConfigurationsHistogram3D#processInnerFrame(ij.ImageStack)}.
+     */
+    @Test
+    public final void testProcessInnerFrame_SingleVoxel()
+    {
+        ImageStack image = ImageStack.create(3, 3, 3, 8);
+        image.setVoxel(1, 1, 1, 255);
+        
+        int[] histo = new BinaryConfigurationsHistogram3D().processInnerFrame(image);
+        
+        for (int k = 0; k < 8; k++)
+        {
+            assertEquals(1, histo[1 << k]);
+        }
+        assertEquals(0, histo[0]);
+    }
+
+    /**
+     * Checks that histogram of each label is the same as the histogram of the
+     * binary image of the label.
+     */
+    @Test
+    public final void testProcess_Labels()
+    {
+        ImageStack image = createLabelImage();
+        int[] labels = new int[] {2, 3, 5};
+        
+        BinaryConfigurationsHistogram3D algo = new BinaryConfigurationsHistogram3D();
+        int[][] histos = algo.process(image, labels);
+        
+        assertEquals(3, histos.length);
+        for (int i = 0; i < labels.length; i++)
+        {
+            int[] expected = algo.process(binarize(image, labels[i]));
+            // configurations without the label are not counted
+            expected[0] = 0;
+            assertArrayEquals(expected, histos[i]);
+        }
+    }
+
+    /**
+     * Checks that restricting the computation to bounding boxes gives the
+     * same result as the processing of the whole image.
+     */
+    @Test
+    public final void testProcess_LabelsWithBoxes()
+    {
+        ImageStack image = createLabelImage();
+        int[] labels = new int[] {2, 3, 5, 7};
+        Box3D[] boxes = BoundingBox3D.boundingBoxes(image, labels, null);
+        
+        BinaryConfigurationsHistogram3D algo = new BinaryConfigurationsHistogram3D();
+        int[][] histos = algo.process(image, labels);
+        int[][] histos2 = algo.process(image, labels, boxes);
+        
+        for (int i = 0; i < labels.length; i++)
+        {
+            assertArrayEquals(histos[i], histos2[i]);
+        }
+    }
+
+    /**
+     * Creates a 16-bits image containing three regions, one of them touching
+     * the image borders.
+     */
+    private static final ImageStack createLabelImage()
+    {
+        ImageStack image = ImageStack.create(10, 9, 8, 16);
+        for (int z = 0; z < 8; z++)
+        {
+            for (int y = 0; y < 9; y++)
+            {
+                for (int x = 0; x < 10; x++)
+                {
+                    if (x < 4 && y < 5)
+                        image.setVoxel(x, y, z, 2);
+                    else if (x > 5 && y > 2 && z > 1 && z < 6)
+                        image.setVoxel(x, y, z, 3);
+                    else if ((x + y + z) % 7 == 0)
+                        image.setVoxel(x, y, z, 5);
+                }
+            }
+        }
+        return image;
+    }
+
+    private static final ImageStack binarize(ImageStack image, int label)
+    {
+        ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), 8);
+        for (int z = 0; z < image.getSize(); z++)
+        {
+            for (int y = 0; y < image.getHeight(); y++)
+            {
+                for (int x = 0; x < image.getWidth(); x++)
+                {
+                    if (image.getVoxel(x, y, z) == label)
+                        res.setVoxel(x, y, z, 255);
+                }
+            }
+        }
+        return res;
+    }
+}
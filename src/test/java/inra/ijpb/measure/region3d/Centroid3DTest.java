@@ -29,6 +29,7 @@ import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
 import ij.ImageStack;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
 import inra.ijpb.geometry.Point3D;
 
 /**
@@ -68,6 +69,48 @@ public class Centroid3DTest
 		assertEquals(7.5, centroids[8].getZ(), 0.01);
 	}
 
+	/**
+	 * Test method for {@link inra.ijpb.measure.region3d.Centroid3D#analyzeRegions(OffHeapLabelImage3D, long[], ij.measure.Calibration)}.
+	 */
+	@Test
+	public final void testAnalyzeRegions_OffHeapLabelImage()
+	{
+		ImageStack array = createImage_boxes();
+		int[] labels = new int[] {111, 144, 414, 441, 444, 177, 717, 771, 777};
+		Point3D[] expected = new Centroid3D().analyzeRegions(array, labels, null);
+		
+		// use labels that can not be represented as float values
+		long shift = 1L << 40;
+		OffHeapLabelImage3D image = OffHeapLabelImage3D.fromStack(array, 64);
+		for (int z = 0; z < 10; z++)
+		{
+			for (int y = 0; y < 10; y++)
+			{
+				for (int x = 0; x < 10; x++)
+				{
+					long label = image.getLabel(x, y, z);
+					if (label > 0)
+						image.setLabel(x, y, z, label + shift);
+				}
+			}
+		}
+		long[] labels2 = new long[labels.length];
+		for (int i = 0; i < labels.length; i++)
+		{
+			labels2[i] = labels[i] + shift;
+		}
+		
+		Point3D[] centroids = new Centroid3D().analyzeRegions(image, labels2, null);
+		
+		assertEquals(labels.length, centroids.length);
+		for (int i = 0; i < labels.length; i++)
+		{
+			assertEquals(expected[i].getX(), centroids[i].getX(), 0.01);
+			assertEquals(expected[i].getY(), centroids[i].getY(), 0.01);
+			assertEquals(expected[i].getZ(), centroids[i].getZ(), 0.01);
+		}
+	}
+
 	private static final ImageStack createImage_boxes()
 	{
 		ImageStack array = ImageStack.create(10, 10, 10, 16);
@@ -28,12 +28,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Map;
+
 import org.junit.Test;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.measure.Calibration;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
 import inra.ijpb.geometry.Ellipsoid;
 
 /**
@@ -62,6 +65,45 @@ public class EquivalentEllipsoidTest
         assertEquals(10, elli.radius3(), .1);
     }
 
+    /**
+     * Test method for {@link inra.ijpb.measure.region3d.RegionAnalyzer3D#analyzeRegions(OffHeapLabelImage3D, ij.measure.Calibration)},
+     * that relies on the default implementation for off-heap label images.
+     */
+    @Test
+    public final void testAnalyzeRegions_OffHeapLabelImage()
+    {
+        String fileName = getClass().getResource("/files/ellipsoid_A30_B20_C10_T00_P00.tif").getFile();
+        ImagePlus imagePlus = IJ.openImage(fileName);
+        assertNotNull(imagePlus);
+        
+        // replace label 255 by a label that can not be represented as float
+        long label = (1L << 40) + 1;
+        OffHeapLabelImage3D image = OffHeapLabelImage3D.fromStack(imagePlus.getStack(), 64);
+        for (int z = 0; z < image.getSize(2); z++)
+        {
+            for (int y = 0; y < image.getSize(1); y++)
+            {
+                for (int x = 0; x < image.getSize(0); x++)
+                {
+                    if (image.getLabel(x, y, z) > 0)
+                        image.setLabel(x, y, z, label);
+                }
+            }
+        }
+
+        Map<Long, Ellipsoid> map = new EquivalentEllipsoid().analyzeRegions(image, imagePlus.getCalibration());
+        
+        assertEquals(1, map.size());
+        Ellipsoid elli = map.get(label);
+        Ellipsoid expected = EquivalentEllipsoid.equivalentEllipsoids(imagePlus.getStack(), new int[] {255}, imagePlus.getCalibration())[0];
+        assertEquals(expected.center().getX(), elli.center().getX(), 1e-6);
+        assertEquals(expected.center().getY(), elli.center().getY(), 1e-6);
+        assertEquals(expected.center().getZ(), elli.center().getZ(), 1e-6);
+        assertEquals(30, elli.radius1(), .1);
+        assertEquals(20, elli.radius2(), .1);
+        assertEquals(10, elli.radius3(), .1);
+    }
+
     /**
      * Test method for {@link inra.ijpb.measure.region3d.EquivalentEllipsoid#equivalentEllipsoids(ij.ImageStack, int[], ij.measure.Calibration)}.
      */
@@ -30,6 +30,7 @@ import ij.ImageStack;
 import ij.measure.Calibration;
 import ij.measure.ResultsTable;
 import inra.ijpb.binary.distmap.ChamferMask3D;
+import inra.ijpb.data.image.OffHeapLabelImage3D;
 import inra.ijpb.measure.region3d.GeodesicDiameter3D.Result;
 
 
@@ -100,4 +101,53 @@ public class GeodesicDiameter3DTest
 		assertEquals(15.06, table.getValue("GeodesicDiameter", 0), 0.1);
 		assertEquals(5.0, table.getValue("Radius", 0), 0.1);
 	}
+
+	/**
+	 * Test method for {@link inra.ijpb.measure.region3d.RegionAnalyzer3D#analyzeRegions(OffHeapLabelImage3D, long[], Calibration)},
+	 * that processes crops of the image and must translate the positions
+	 * within the results.
+	 */
+	@Test
+	public void testAnalyzeRegions_OffHeapLabelImage()
+	{
+		// regions far from image borders, so that crops are translated
+		ImageStack image = ImageStack.create(40, 35, 30, 8);
+		fillBox(image, 7, 15, 8, 13, 6, 11, 1);
+		fillBox(image, 20, 33, 17, 25, 9, 14, 2);
+		fillBox(image, 10, 14, 20, 29, 15, 24, 3);
+		fillBox(image, 25, 30, 6, 10, 17, 21, 4);
+		int[] labels = new int[] {1, 2, 3, 4};
+
+		GeodesicDiameter3D algo = new GeodesicDiameter3D(ChamferMask3D.BORGEFORS);
+		Calibration calib = new Calibration();
+		Result[] expected = algo.analyzeRegions(image, labels, calib);
+
+		OffHeapLabelImage3D image2 = OffHeapLabelImage3D.fromStack(image, 64);
+		Result[] res = algo.analyzeRegions(image2, new long[] {1, 2, 3, 4}, calib);
+
+		assertEquals(expected.length, res.length);
+		for (int i = 0; i < res.length; i++)
+		{
+			assertEquals(expected[i].diameter, res[i].diameter, 1e-10);
+			assertEquals(expected[i].innerRadius, res[i].innerRadius, 1e-10);
+			assertEquals(expected[i].initialPoint, res[i].initialPoint);
+			assertEquals(expected[i].firstExtremity, res[i].firstExtremity);
+			assertEquals(expected[i].secondExtremity, res[i].secondExtremity);
+		}
+	}
+
+	private static final void fillBox(ImageStack image, int x0, int x1, int y0,
+			int y1, int z0, int z1, int label)
+	{
+		for (int z = z0; z <= z1; z++)
+		{
+			for (int y = y0; y <= y1; y++)
+			{
+				for (int x = x0; x <= x1; x++)
+				{
+					image.setVoxel(x, y, z, label);
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+/**
+ * 
+ */
+package inra.ijpb.measure.region3d;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import inra.ijpb.label.LabelImages;
+
+/**
+ * @author dlegland
+ *
+ */
+public class StreamingIntrinsicVolumes3DTest
+{
+    /**
+     * Compares the results of streaming analysis with the results obtained
+     * on the whole stack.
+     */
+    @Test
+    public final void testComputeResults_SameAsIntrinsicVolumes3D()
+    {
+        ImageStack image = createLabelImage();
+        Calibration calib = new Calibration();
+        calib.pixelWidth = 0.5;
+        calib.pixelHeight = 0.5;
+        calib.pixelDepth = 2.0;
+        
+        IntrinsicVolumes3D algo = new IntrinsicVolumes3D();
+        algo.setConnectivity(26);
+        int[] labels = LabelImages.findAllLabels(image);
+        IntrinsicVolumes3D.Result[] expected = algo.analyzeRegions(image, labels, calib);
+        
+        StreamingIntrinsicVolumes3D streaming = new StreamingIntrinsicVolumes3D(image.getWidth(), image.getHeight());
+        streaming.setConnectivity(26);
+        for (int z = 1; z <= image.getSize(); z++)
+        {
+            streaming.addSlice(image.getProcessor(z));
+        }
+        Map<Integer, IntrinsicVolumes3D.Result> results = streaming.computeResults(calib);
+        
+        assertEquals(image.getSize(), streaming.getSliceCount());
+        assertArrayEquals(labels, streaming.getLabels());
+        for (int i = 0; i < labels.length; i++)
+        {
+            IntrinsicVolumes3D.Result res = results.get(labels[i]);
+            assertEquals(expected[i].volume, res.volume, 1e-10);
+            assertEquals(expected[i].surfaceArea, res.surfaceArea, 1e-10);
+            assertEquals(expected[i].meanBreadth, res.meanBreadth, 1e-10);
+            assertEquals(expected[i].eulerNumber, res.eulerNumber, 1e-10);
+        }
+    }
+
+    /**
+     * Checks that the histograms are the same as for the whole stack.
+     */
+    @Test
+    public final void testGetHistograms()
+    {
+        ImageStack image = createLabelImage();
+        int[] labels = LabelImages.findAllLabels(image);
+        int[][] expected = new BinaryConfigurationsHistogram3D().process(image, labels);
+        
+        StreamingIntrinsicVolumes3D streaming = new StreamingIntrinsicVolumes3D(image.getWidth(), image.getHeight());
+        streaming.addSlices(image);
+        int[][] histos = streaming.getHistograms();
+        
+        assertEquals(labels.length, histos.length);
+        for (int i = 0; i < labels.length; i++)
+        {
+            assertArrayEquals(expected[i], histos[i]);
+        }
+    }
+
+    /**
+     * Checks that slices can not be added after computation of results.
+     */
+    @Test(expected = IllegalStateException.class)
+    public final void testAddSlice_AfterFinish()
+    {
+        StreamingIntrinsicVolumes3D streaming = new StreamingIntrinsicVolumes3D(10, 10);
+        streaming.addSlice(new ByteProcessor(10, 10));
+        streaming.finish();
+        streaming.addSlice(new ByteProcessor(10, 10));
+    }
+
+    /**
+     * Creates an image containing a ball, a cube touching the borders, and a
+     * set of small regions.
+     */
+    private static final ImageStack createLabelImage()
+    {
+        ImageStack image = ImageStack.create(20, 18, 12, 16);
+        for (int z = 0; z < 12; z++)
+        {
+            for (int y = 0; y < 18; y++)
+            {
+                for (int x = 0; x < 20; x++)
+                {
+                    double dx = x - 6.2, dy = y - 7.1, dz = z - 5.3;
+                    if (dx * dx + dy * dy + dz * dz < 25)
+                        image.setVoxel(x, y, z, 3);
+                    else if (x > 13 && y > 9)
+                        image.setVoxel(x, y, z, 1200);
+                    else if ((x + 2 * y + 3 * z) % 11 == 0)
+                        image.setVoxel(x, y, z, 7);
+                }
+            }
+        }
+        return image;
+    }
+}
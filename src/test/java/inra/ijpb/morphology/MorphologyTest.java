@@ -27,7 +27,9 @@ import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
+import inra.ijpb.morphology.strel.CubeStrel;
 import inra.ijpb.morphology.strel.SquareStrel;
 
 import org.junit.Test;
@@ -320,4 +322,112 @@ public class MorphologyTest {
         assertNotNull(Morphology.blackTopHat(imagePlus, strel));
         assertNotNull(Morphology.whiteTopHat(imagePlus, strel));
     }
+    
+    /**
+     * Checks that the gradients computed with a square strel are the
+     * differences of the dilation and of the erosion, including near image
+     * borders.
+     */
+    @Test
+    public void testGradients_ByteProcessor_SquareDiam4() {
+        ImageProcessor image = new ByteProcessor(15, 12);
+        for (int i = 0; i < image.getPixelCount(); i++)
+        {
+            image.set(i, (i * 37) % 251);
+        }
+        Strel strel = new SquareStrel(4, 1);
+        
+        ImageProcessor dilated = Morphology.dilation(image, strel);
+        ImageProcessor eroded = Morphology.erosion(image, strel);
+        ImageProcessor gradient = Morphology.gradient(image, strel);
+        ImageProcessor internal = Morphology.internalGradient(image, strel);
+        ImageProcessor external = Morphology.externalGradient(image, strel);
+        ImageProcessor laplacian = Morphology.laplacian(image, strel);
+        
+        for (int i = 0; i < image.getPixelCount(); i++)
+        {
+            int v = image.get(i);
+            assertEquals(dilated.get(i) - eroded.get(i), gradient.get(i));
+            assertEquals(v - eroded.get(i), internal.get(i));
+            assertEquals(dilated.get(i) - v, external.get(i));
+            int lap = (dilated.get(i) - v) - (v - eroded.get(i)) + 128;
+            assertEquals(Math.min(Math.max(lap, 0), 255), laplacian.get(i));
+        }
+    }
+    
+    /**
+     * Checks that the gradients computed with a cube strel are the
+     * differences of the dilation and of the erosion, including near image
+     * borders.
+     */
+    @Test
+    public void testGradients_ImageStack_CubeDiam3() {
+        ImageStack image = ImageStack.create(9, 8, 7, 16);
+        for (int z = 0; z < 7; z++)
+        {
+            for (int y = 0; y < 8; y++)
+            {
+                for (int x = 0; x < 9; x++)
+                {
+                    image.setVoxel(x, y, z, ((x + 10 * y + 100 * z) * 487) % 65521);
+                }
+            }
+        }
+        Strel3D strel = new CubeStrel(3);
+        
+        ImageStack dilated = Morphology.dilation(image, strel);
+        ImageStack eroded = Morphology.erosion(image, strel);
+        ImageStack gradient = Morphology.gradient(image, strel);
+        ImageStack internal = Morphology.internalGradient(image, strel);
+        ImageStack external = Morphology.externalGradient(image, strel);
+        
+        for (int z = 0; z < 7; z++)
+        {
+            for (int y = 0; y < 8; y++)
+            {
+                for (int x = 0; x < 9; x++)
+                {
+                    double v = image.getVoxel(x, y, z);
+                    double vd = dilated.getVoxel(x, y, z);
+                    double ve = eroded.getVoxel(x, y, z);
+                    assertEquals(vd - ve, gradient.getVoxel(x, y, z), 0.01);
+                    assertEquals(v - ve, internal.getVoxel(x, y, z), 0.01);
+                    assertEquals(vd - v, external.getVoxel(x, y, z), 0.01);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Checks that the gradients computed with square strels with various
+     * sizes and offsets are the differences of the dilation and of the
+     * erosion.
+     */
+    @Test
+    public void testGradients_FloatProcessor_SquareVariousSizes() {
+        ImageProcessor image = new FloatProcessor(23, 17);
+        for (int i = 0; i < image.getPixelCount(); i++)
+        {
+            image.setf(i, ((i * 37) % 101) - 50.5f);
+        }
+        
+        int[][] params = new int[][] {{2, 0}, {5, 4}, {6, 2}, {11, 5}, {16, 3}};
+        for (int[] param : params)
+        {
+            Strel strel = new SquareStrel(param[0], param[1]);
+            ImageProcessor dilated = Morphology.dilation(image, strel);
+            ImageProcessor eroded = Morphology.erosion(image, strel);
+            ImageProcessor gradient = Morphology.gradient(image, strel);
+            ImageProcessor internal = Morphology.internalGradient(image, strel);
+            ImageProcessor external = Morphology.externalGradient(image, strel);
+            
+            for (int i = 0; i < image.getPixelCount(); i++)
+            {
+                float v = image.getf(i);
+                assertEquals(dilated.getf(i) - eroded.getf(i), gradient.getf(i), 0.0);
+                assertEquals(v - eroded.getf(i), internal.getf(i), 0.0);
+                assertEquals(dilated.getf(i) - v, external.getf(i), 0.0);
+            }
+        }
+    }
 }
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.morphology.directional;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import inra.ijpb.data.border.BorderManager;
+import inra.ijpb.data.border.MirroringBorder;
+import inra.ijpb.morphology.directional.DirectionalFilter.Operation;
+import inra.ijpb.morphology.directional.DirectionalFilter.Type;
+
+/**
+ * @author dlegland
+ *
+ */
+public class DirectionalFilterTest
+{
+	/**
+	 * An opening with oriented lines, combined with max, keeps thin bright
+	 * lines and removes isolated bright pixels.
+	 */
+	@Test
+	public final void testProcess_OpeningMax_ThinLine()
+	{
+		ImageProcessor image = new ByteProcessor(30, 30);
+		for (int i = 2; i < 28; i++)
+		{
+			image.set(i, i, 200);
+		}
+		image.set(5, 20, 255);
+
+		DirectionalFilter filter = new DirectionalFilter(Type.MAX, Operation.OPENING, 9, 8);
+		ImageProcessor result = filter.process(image);
+
+		assertEquals(200, result.get(15, 15));
+		assertEquals(0, result.get(5, 20));
+		assertEquals(0, result.get(15, 5));
+	}
+
+	/**
+	 * Parallel processing of orientations gives the same result as
+	 * sequential processing.
+	 */
+	@Test
+	public final void testProcess_ParallelSameAsSequential()
+	{
+		Random random = new Random(42);
+		ImageProcessor byteImage = new ByteProcessor(40, 30);
+		ImageProcessor floatImage = new FloatProcessor(40, 30);
+		for (int i = 0; i < 40 * 30; i++)
+		{
+			byteImage.set(i, random.nextInt(256));
+			floatImage.setf(i, (float) random.nextGaussian());
+		}
+
+		for (ImageProcessor image : new ImageProcessor[] {byteImage, floatImage})
+		{
+			for (Type type : Type.values())
+			{
+				for (Operation op : Operation.values())
+				{
+					DirectionalFilter filter = new DirectionalFilter(type, op, 7, 6);
+					filter.setThreadNumber(1);
+					ImageProcessor expected = filter.process(image);
+					filter.setThreadNumber(4);
+					ImageProcessor result = filter.process(image);
+
+					for (int i = 0; i < 40 * 30; i++)
+					{
+						assertEquals(type + " " + op, expected.getf(i), result.getf(i), 0.0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Mean and median along oriented lines give the same results as a direct
+	 * computation over the neighborhood of each pixel.
+	 */
+	@Test
+	public final void testMeanMedian_SameAsDirectComputation()
+	{
+		Random random = new Random(12);
+		ImageProcessor byteImage = new ByteProcessor(37, 29);
+		ImageProcessor shortImage = new ShortProcessor(37, 29);
+		ImageProcessor wideImage = new ShortProcessor(37, 29);
+		ImageProcessor rampImage = new ShortProcessor(37, 29);
+		for (int i = 0; i < 37 * 29; i++)
+		{
+			byteImage.set(i, random.nextInt(256));
+			shortImage.set(i, random.nextInt(5000));
+			wideImage.set(i, random.nextInt(65536));
+			rampImage.set(i, (i % 37) * 1700 + random.nextInt(300));
+		}
+
+		for (ImageProcessor image : new ImageProcessor[] {byteImage, shortImage, wideImage, rampImage})
+		{
+			BorderManager bm = new MirroringBorder(image);
+			for (int i = 0; i < 12; i++)
+			{
+				OrientedLineStrel strel = new OrientedLineStrel(21, i * 15.0);
+				int[][] shifts = strel.getShifts();
+				double[] buffer = new double[shifts.length];
+
+				ImageProcessor mean = DirectionalFilter.mean(image, strel);
+				ImageProcessor median = DirectionalFilter.median(image, strel);
+
+				for (int y = 0; y < image.getHeight(); y++)
+				{
+					for (int x = 0; x < image.getWidth(); x++)
+					{
+						double sum = 0;
+						for (int k = 0; k < shifts.length; k++)
+						{
+							buffer[k] = bm.getf(x + shifts[k][0], y + shifts[k][1]);
+							sum += buffer[k];
+						}
+						Arrays.sort(buffer);
+
+						float expMean = (int) ((float) (sum / shifts.length) + 0.5f);
+						assertEquals(expMean, mean.getf(x, y), 0.0);
+						assertEquals(buffer[shifts.length / 2], median.getf(x, y), 0.0);
+					}
+				}
+			}
+		}
+	}
+}
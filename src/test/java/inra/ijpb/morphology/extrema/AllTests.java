@@ -29,7 +29,8 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
 	// generic classes
 	RegionalExtrema3DByFloodingTest.class,
-	RegionalExtremaByFloodingTest.class
+	RegionalExtremaByFloodingTest.class,
+	RegionalMinimaDynamicsTest.class
 	})
 public class AllTests {
   //nothing
@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.morphology.extrema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.binary.BinaryImages;
+import inra.ijpb.label.LabelImages;
+import inra.ijpb.morphology.MinimaAndMaxima;
+import inra.ijpb.morphology.MinimaAndMaxima3D;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+public class RegionalMinimaDynamicsTest
+{
+	/**
+	 * Checks the dynamics on a simple 1D profile with two minima.
+	 */
+	@Test
+	public void testProcess_TwoMinima()
+	{
+		// profile: minima at 10 and 30, separated by a pass at 50
+		int[] profile = new int[] {80, 10, 10, 40, 50, 45, 30, 60, 90};
+		ImageProcessor image = new ByteProcessor(profile.length, 1);
+		for (int i = 0; i < profile.length; i++)
+			image.set(i, 0, profile[i]);
+
+		RegionalMinimaDynamics algo = new RegionalMinimaDynamics(4);
+		algo.process(image);
+
+		assertEquals(2, algo.getMinimaNumber());
+		double[] dynamics = algo.getDynamics();
+		assertEquals(Double.POSITIVE_INFINITY, dynamics[1], 0);
+		assertEquals(20, dynamics[2], 0);
+		assertEquals(1, algo.getMergeParents()[2]);
+		assertEquals(20, algo.mergeLevel(1, 2), 0);
+
+		assertEquals(2, algo.selectMinima(19)[2]);
+		assertEquals(0, algo.selectMinima(20)[2]);
+	}
+
+	/**
+	 * Checks that merging with an infinite dynamic keeps only the root
+	 * minimum.
+	 */
+	@Test
+	public void testMergeMinima_InfiniteDynamic()
+	{
+		int[] profile = new int[] {80, 10, 10, 40, 50, 45, 30, 60, 90};
+		ImageProcessor image = new ByteProcessor(profile.length, 1);
+		for (int i = 0; i < profile.length; i++)
+			image.set(i, 0, profile[i]);
+
+		RegionalMinimaDynamics algo = new RegionalMinimaDynamics(4);
+		algo.process(image);
+
+		int[] lut = algo.mergeMinima(Double.POSITIVE_INFINITY);
+		assertEquals(1, lut[1]);
+		assertEquals(1, lut[2]);
+
+		lut = algo.mergeMinima(10);
+		assertEquals(1, lut[1]);
+		assertEquals(2, lut[2]);
+	}
+
+	/**
+	 * Checks that NaN thresholds are rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testMergeMinima_NaN()
+	{
+		ImageProcessor image = new ByteProcessor(5, 1);
+		RegionalMinimaDynamics algo = new RegionalMinimaDynamics(4);
+		algo.process(image);
+		algo.mergeMinima(Double.NaN);
+	}
+
+	/**
+	 * Checks the number of selected minima corresponds to the number of
+	 * extended minima, for various dynamics.
+	 */
+	@Test
+	public void testSelectMinima_Grains()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/files/grains.tif").getFile());
+		ImageProcessor image = Morphology.gradient(imagePlus.getProcessor(), Strel.Shape.SQUARE.fromRadius(1));
+
+		for (int conn : new int[] {4, 8})
+		{
+			RegionalMinimaDynamics algo = new RegionalMinimaDynamics(conn);
+			algo.process(image);
+
+			ImageProcessor minima = MinimaAndMaxima.regionalMinima(image, conn);
+			assertEquals(countComponents(minima, conn), algo.getMinimaNumber());
+
+			for (int h : new int[] {5, 10, 20, 40})
+			{
+				ImageProcessor extMin = MinimaAndMaxima.extendedMinima(image, h, conn);
+				int[] lut = algo.selectMinima(h);
+				int nSelected = 0;
+				for (int label : lut)
+					nSelected = Math.max(nSelected, label);
+				assertEquals(countComponents(extMin, conn), nSelected);
+
+				// each selected marker must lie within an extended minimum
+				ImageStack markers = algo.createMarkers(h, 32);
+				ImageProcessor markerSlice = markers.getProcessor(1);
+				for (int i = 0; i < image.getPixelCount(); i++)
+				{
+					if (markerSlice.getf(i) > 0)
+						assertTrue(extMin.get(i) > 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks the number of selected minima corresponds to the number of
+	 * extended minima on a 3D image.
+	 */
+	@Test
+	public void testSelectMinima_3D()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/files/grains.tif").getFile());
+		ImageProcessor image = imagePlus.getProcessor().resize(64, 64);
+		ImageStack stack = new ImageStack(64, 64);
+		stack.addSlice(image);
+		stack.addSlice(image.duplicate());
+		stack.addSlice(image.duplicate());
+
+		RegionalMinimaDynamics algo = new RegionalMinimaDynamics(26);
+		algo.process(stack);
+
+		for (int h : new int[] {5, 20})
+		{
+			ImageStack extMin = MinimaAndMaxima3D.extendedMinima(stack, h, 26);
+			ImageStack labels = BinaryImages.componentsLabeling(extMin, 26, 32);
+			int[] lut = algo.selectMinima(h);
+			int nSelected = 0;
+			for (int label : lut)
+				nSelected = Math.max(nSelected, label);
+			assertEquals(LabelImages.findAllLabels(labels).length, nSelected);
+		}
+	}
+
+	private static final int countComponents(ImageProcessor binary, int conn)
+	{
+		ImageProcessor labels = BinaryImages.componentsLabeling(binary, conn, 32);
+		return LabelImages.findAllLabels(labels).length;
+	}
+}
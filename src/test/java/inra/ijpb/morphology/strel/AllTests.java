@@ -43,6 +43,8 @@ import org.junit.runners.Suite;
 	DiamondStrelTest.class,
 	// Also Disk strel, based on rank filters
 	DiskStrelTest.class,
+	// generic strels decomposed into chords
+	ChordDecompositionTest.class,
 })
 public class AllTests {
   //nothing
@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.morphology.strel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class ChordDecompositionTest
+{
+	/**
+	 * Test method for {@link inra.ijpb.morphology.strel.ChordDecomposition#chordNumber()}.
+	 */
+	@Test
+	public final void testChordNumber()
+	{
+		int[][] mask = new int[][] {
+			{ 0, 255, 0, 255, 255 },
+			{ 255, 255, 255, 255, 255 },
+			{ 0, 0, 0, 0, 0 },
+		};
+		ChordDecomposition chords = new ChordDecomposition(mask, new int[] {2, 1});
+		assertEquals(3, chords.chordNumber());
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.morphology.strel.ChordDecomposition#dilation(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public final void testDilationErosion_RandomMask()
+	{
+		Random random = new Random(1);
+		int[][] mask = new int[5][9];
+		for (int y = 0; y < 5; y++)
+		{
+			for (int x = 0; x < 9; x++)
+			{
+				mask[y][x] = random.nextInt(3) > 0 ? 255 : 0;
+			}
+		}
+		int[] offset = new int[] {6, 1};
+		
+		ImageProcessor image = new ByteProcessor(30, 20);
+		for (int i = 0; i < 600; i++)
+		{
+			image.set(i, random.nextInt(256));
+		}
+		
+		ChordDecomposition chords = new ChordDecomposition(mask, offset);
+		ImageProcessor dil = chords.dilation(image);
+		ImageProcessor ero = chords.erosion(image);
+		
+		for (int y = 0; y < 20; y++)
+		{
+			for (int x = 0; x < 30; x++)
+			{
+				int vMax = image.get(x, y);
+				int vMin = vMax;
+				for (int dy = 0; dy < 5; dy++)
+				{
+					for (int dx = 0; dx < 9; dx++)
+					{
+						int x2 = x + dx - offset[0];
+						int y2 = y + dy - offset[1];
+						if (mask[dy][dx] == 0 || x2 < 0 || x2 >= 30 || y2 < 0 || y2 >= 20)
+							continue;
+						vMax = Math.max(vMax, image.get(x2, y2));
+						vMin = Math.min(vMin, image.get(x2, y2));
+					}
+				}
+				assertEquals(vMax, dil.get(x, y));
+				assertEquals(vMin, ero.get(x, y));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link inra.ijpb.morphology.strel.ChordDecomposition#dilation(ij.ImageStack)}.
+	 */
+	@Test
+	public final void testDilation_3D()
+	{
+		// a cross with a long arm
+		int[][][] mask = new int[3][3][7];
+		mask[0][1][3] = 255;
+		mask[2][1][3] = 255;
+		for (int x = 0; x < 7; x++)
+		{
+			mask[1][1][x] = 255;
+		}
+		mask[1][0][3] = 255;
+		mask[1][2][3] = 255;
+		
+		ImageStack image = ImageStack.create(15, 12, 10, 8);
+		image.setVoxel(7, 6, 5, 200);
+		
+		ImageStack res = new ChordDecomposition(mask, new int[] {3, 1, 1}).dilation(image);
+		
+		assertEquals(200, res.getVoxel(7, 6, 5), .01);
+		assertEquals(200, res.getVoxel(4, 6, 5), .01);
+		assertEquals(200, res.getVoxel(10, 6, 5), .01);
+		assertEquals(200, res.getVoxel(7, 5, 5), .01);
+		assertEquals(200, res.getVoxel(7, 6, 4), .01);
+		assertEquals(0, res.getVoxel(3, 6, 5), .01);
+		assertEquals(0, res.getVoxel(8, 5, 5), .01);
+		assertEquals(0, res.getVoxel(8, 6, 4), .01);
+	}
+}
@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.watershed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+public class ExtendedMinimaWatershedPipelineTest
+{
+	/**
+	 * Checks the pipeline gives the same result as the static method on a 2D
+	 * image, for several dynamics.
+	 */
+	@Test
+	public void testRun_Grains2D()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/files/grains.tif").getFile());
+		assertNotNull(imagePlus);
+		ImageProcessor gradient = Morphology.gradient(imagePlus.getProcessor(), Strel.Shape.SQUARE.fromRadius(1));
+
+		ImageStack stack = new ImageStack(imagePlus.getWidth(), imagePlus.getHeight());
+		stack.addSlice(imagePlus.getProcessor());
+		ExtendedMinimaWatershedPipeline pipeline = new ExtendedMinimaWatershedPipeline(stack, 4);
+		pipeline.setGradient(Morphology.Operation.GRADIENT, 1);
+
+		for (int dynamic : new int[] {10, 20, 5})
+		{
+			pipeline.setDynamic(dynamic);
+			ImageStack basins = pipeline.run();
+			ImageProcessor expected = ExtendedMinimaWatershed.extendedMinimaWatershed(gradient, dynamic, 4);
+			assertEquals(0, countDifferences(expected, basins.getProcessor(1)));
+		}
+	}
+
+	/**
+	 * Checks only the watershed stage is recomputed when dams option changes.
+	 */
+	@Test
+	public void testRun_CachedStages()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/files/grains.tif").getFile());
+		ImageStack stack = imagePlus.getStack();
+		ExtendedMinimaWatershedPipeline pipeline = new ExtendedMinimaWatershedPipeline(stack, 8);
+		pipeline.setGradient(Morphology.Operation.GRADIENT, 1);
+		pipeline.setDynamic(10);
+		pipeline.run();
+
+		ImageStack gradient = pipeline.getGradient();
+		ImageStack imposed = pipeline.getImposedMinima();
+		ImageStack labels = pipeline.getLabeledMinima();
+
+		pipeline.setCalculateDams(false);
+		ImageStack basins = pipeline.run();
+		assertSame(gradient, pipeline.getGradient());
+		assertSame(imposed, pipeline.getImposedMinima());
+		assertSame(labels, pipeline.getLabeledMinima());
+
+		ImageProcessor expected = Watershed.computeWatershed(imposed.getProcessor(1),
+				labels.getProcessor(1), 8, false, false);
+		assertEquals(0, countDifferences(expected, basins.getProcessor(1)));
+
+		pipeline.setDynamic(20);
+		pipeline.run();
+		assertSame(gradient, pipeline.getGradient());
+	}
+
+	/**
+	 * Checks the 3D processing gives the same result as the static method.
+	 */
+	@Test
+	public void testRun_3D()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/files/grains.tif").getFile());
+		ImageStack stack = new ImageStack(imagePlus.getWidth(), imagePlus.getHeight());
+		stack.addSlice(imagePlus.getProcessor());
+		stack.addSlice(imagePlus.getProcessor().duplicate());
+
+		ExtendedMinimaWatershedPipeline pipeline = new ExtendedMinimaWatershedPipeline(stack, 6);
+		pipeline.setDynamic(15);
+		ImageStack basins = pipeline.run();
+
+		ImageStack expected = ExtendedMinimaWatershed.extendedMinimaWatershed(stack, 15, 6);
+		for (int z = 1; z <= 2; z++)
+		{
+			assertEquals(0, countDifferences(expected.getProcessor(z), basins.getProcessor(z)));
+		}
+	}
+
+	private static final int countDifferences(ImageProcessor image1, ImageProcessor image2)
+	{
+		int count = 0;
+		for (int y = 0; y < image1.getHeight(); y++)
+		{
+			for (int x = 0; x < image1.getWidth(); x++)
+			{
+				if (image1.getf(x, y) != image2.getf(x, y))
+					count++;
+			}
+		}
+		return count;
+	}
+}
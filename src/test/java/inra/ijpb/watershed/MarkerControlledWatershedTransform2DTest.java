@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.watershed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import inra.ijpb.binary.BinaryImages;
+import inra.ijpb.morphology.MinimaAndMaxima;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+public class MarkerControlledWatershedTransform2DTest
+{
+	/**
+	 * Checks quantization of an image with integer values into enough levels
+	 * gives the same result as the exact flooding.
+	 */
+	@Test
+	public void testApplyWithPriorityQueue_Quantized()
+	{
+		ImageProcessor image = createGradientImage().convertToFloat();
+		ImageProcessor markers = createMarkers(image);
+
+		MarkerControlledWatershedTransform2D algo = new MarkerControlledWatershedTransform2D(image, markers, null, 8);
+		algo.setVerbose(false);
+		ImageProcessor expected = algo.applyWithPriorityQueue();
+		
+		algo.setQuantizationLevels(65536);
+		ImageProcessor result = algo.applyWithPriorityQueue();
+
+		assertEquals(0, countDifferences(expected, result));
+		assertTrue(algo.getMaxRoundingError() < 0.01);
+	}
+
+	/**
+	 * Checks quantization of a float image into few levels changes only a few
+	 * pixels, and reports the rounding error of values.
+	 */
+	@Test
+	public void testApplyWithPriorityQueueAndDams_QuantizedFloat()
+	{
+		ImageProcessor image = createGradientImage().convertToFloat();
+		image.blurGaussian(1.5);
+		ImageProcessor markers = createMarkers(image);
+
+		MarkerControlledWatershedTransform2D algo = new MarkerControlledWatershedTransform2D(image, markers, null, 4);
+		algo.setVerbose(false);
+		ImageProcessor expected = algo.applyWithPriorityQueueAndDams();
+
+		algo.setQuantizationLevels(256);
+		ImageProcessor result = algo.applyWithPriorityQueueAndDams();
+
+		double step = (image.getMax() - image.getMin()) / 255;
+		assertTrue(algo.getMaxRoundingError() > 0);
+		assertTrue(algo.getMaxRoundingError() <= step / 2 + 1e-6);
+		assertTrue(countDifferences(expected, result) < image.getPixelCount() / 100);
+	}
+
+	/**
+	 * Checks the sorted-list floodings give the same result when pixels are
+	 * ordered by counting sort (8-bit image) and by sorting pixel records
+	 * (same image converted to float).
+	 */
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testApplyWithSortedList_CountingSort()
+	{
+		ImageProcessor image = createGradientImage();
+		ImageProcessor markers = createMarkers(image);
+		ImageProcessor mask = image.duplicate();
+		mask.threshold(4);
+
+		for (ImageProcessor maskImage : new ImageProcessor[] {null, mask})
+		{
+			MarkerControlledWatershedTransform2D algo = new MarkerControlledWatershedTransform2D(image, markers, maskImage, 4);
+			algo.setVerbose(false);
+			MarkerControlledWatershedTransform2D algoFloat = new MarkerControlledWatershedTransform2D(image.convertToFloat(), markers, maskImage, 4);
+			algoFloat.setVerbose(false);
+
+			assertEquals(0, countDifferences(algoFloat.applyWithSortedList(), algo.applyWithSortedList()));
+			assertEquals(0, countDifferences(algoFloat.applyWithSortedListAndDams(), algo.applyWithSortedListAndDams()));
+		}
+	}
+
+	private ImageProcessor createGradientImage()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/files/grains.tif").getFile());
+		return Morphology.gradient(imagePlus.getProcessor(), Strel.Shape.SQUARE.fromRadius(1));
+	}
+
+	private static final ImageProcessor createMarkers(ImageProcessor image)
+	{
+		ImageProcessor minima = MinimaAndMaxima.extendedMinima(image.convertToByte(false), 20, 4);
+		return BinaryImages.componentsLabeling(minima, 4, 32);
+	}
+
+	private static final int countDifferences(ImageProcessor image1, ImageProcessor image2)
+	{
+		int count = 0;
+		for (int i = 0; i < image1.getPixelCount(); i++)
+			if (image1.getf(i) != image2.getf(i))
+				count++;
+		return count;
+	}
+}
@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.watershed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.binary.BinaryImages;
+import inra.ijpb.data.image.Images3D;
+import inra.ijpb.morphology.MinimaAndMaxima3D;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel3D;
+
+public class MarkerControlledWatershedTransform3DTest
+{
+	/**
+	 * Checks quantization of a stack with integer values into enough levels
+	 * gives the same result as the exact flooding.
+	 */
+	@Test
+	public void testApplyWithPriorityQueue_Quantized()
+	{
+		ImageStack image = createGradientImage();
+		ImagePlus imagePlus = new ImagePlus("image", image.convertToFloat());
+		ImagePlus markerPlus = new ImagePlus("markers", createMarkers(image));
+
+		for (int connectivity : new int[] {6, 26})
+		{
+			MarkerControlledWatershedTransform3D algo = new MarkerControlledWatershedTransform3D(imagePlus, markerPlus, null, connectivity);
+			algo.setVerbose(false);
+			ImageStack expected = algo.applyWithPriorityQueue().getStack();
+
+			algo.setQuantizationLevels(65536);
+			ImageStack result = algo.applyWithPriorityQueue().getStack();
+
+			assertEquals(0, countDifferences(expected, result));
+			assertTrue(algo.getMaxRoundingError() < 0.01);
+		}
+	}
+
+	/**
+	 * Checks quantization of a float stack into few levels changes only a few
+	 * voxels, and reports the rounding error of values.
+	 */
+	@Test
+	public void testApplyWithPriorityQueueAndDams_QuantizedFloat()
+	{
+		ImageStack gradient = createGradientImage();
+		ImageStack image = gradient.convertToFloat();
+		for (int z = 1; z <= image.getSize(); z++)
+			image.getProcessor(z).blurGaussian(1.5);
+		ImagePlus imagePlus = new ImagePlus("image", image);
+		ImagePlus markerPlus = new ImagePlus("markers", createMarkers(gradient));
+
+		MarkerControlledWatershedTransform3D algo = new MarkerControlledWatershedTransform3D(imagePlus, markerPlus, null, 6);
+		algo.setVerbose(false);
+		ImageStack expected = algo.applyWithPriorityQueueAndDams().getStack();
+
+		algo.setQuantizationLevels(1024);
+		ImageStack result = algo.applyWithPriorityQueueAndDams().getStack();
+
+		double[] extent = Images3D.findMinAndMax(image);
+		double step = (extent[1] - extent[0]) / 1023;
+		int voxelCount = image.getWidth() * image.getHeight() * image.getSize();
+		assertTrue(algo.getMaxRoundingError() > 0);
+		assertTrue(algo.getMaxRoundingError() <= step / 2 + 1e-6);
+		assertTrue(countDifferences(expected, result) < voxelCount / 100);
+	}
+
+	/**
+	 * Checks the sorted-list floodings give the same result when voxels are
+	 * ordered by counting sort (8-bit stack) and by sorting voxel records
+	 * (same stack converted to float).
+	 */
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testApplyWithSortedList_CountingSort()
+	{
+		ImageStack image = createGradientImage();
+		ImageStack markers = createMarkers(image);
+		ImageStack mask = image.duplicate();
+		for (int z = 1; z <= mask.getSize(); z++)
+			mask.getProcessor(z).threshold(4);
+
+		ImagePlus imagePlus = new ImagePlus("image", image);
+		ImagePlus floatPlus = new ImagePlus("image", image.convertToFloat());
+		ImagePlus markerPlus = new ImagePlus("markers", markers);
+		for (ImagePlus maskPlus : new ImagePlus[] {null, new ImagePlus("mask", mask)})
+		{
+			for (int connectivity : new int[] {6, 26})
+			{
+				MarkerControlledWatershedTransform3D algo = new MarkerControlledWatershedTransform3D(imagePlus, markerPlus, maskPlus, connectivity);
+				algo.setVerbose(false);
+				MarkerControlledWatershedTransform3D algoFloat = new MarkerControlledWatershedTransform3D(floatPlus, markerPlus, maskPlus, connectivity);
+				algoFloat.setVerbose(false);
+
+				assertEquals(0, countDifferences(algoFloat.applyWithSortedList().getStack(), algo.applyWithSortedList().getStack()));
+				assertEquals(0, countDifferences(algoFloat.applyWithSortedListAndDams().getStack(), algo.applyWithSortedListAndDams().getStack()));
+			}
+		}
+	}
+
+	/**
+	 * Checks the counting sort of 8-bit stacks gives the same order as the
+	 * sort of the voxel records of the same stack converted to float.
+	 */
+	@Test
+	public void testSortVoxelIndices_Byte()
+	{
+		ImageStack image = createGradientImage();
+		ImageStack floatImage = image.convertToFloat();
+
+		int[] expected = new WatershedTransform3D(new ImagePlus("image", floatImage), null)
+				.sortVoxelIndices(floatImage, 0, 255);
+		int[] indices = new WatershedTransform3D(new ImagePlus("image", image), null)
+				.sortVoxelIndices(image, 0, 255);
+
+		assertEquals(image.getWidth() * image.getHeight() * image.getSize(), indices.length);
+		for (int i = 0; i < indices.length; i++)
+			assertEquals(expected[i], indices[i]);
+	}
+
+	/**
+	 * Creates a small 8-bit stack from shifted crops of the gradient of the
+	 * grains image.
+	 */
+	private static final ImageStack createGradientImage()
+	{
+		ImagePlus imagePlus = IJ.openImage(MarkerControlledWatershedTransform3DTest.class
+				.getResource("/files/grains.tif").getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		ImageStack stack = new ImageStack(64, 64);
+		for (int z = 0; z < 8; z++)
+		{
+			image.setRoi(40 + 3 * z, 40 + 2 * z, 64, 64);
+			stack.addSlice(image.crop());
+		}
+		return Morphology.gradient(stack, Strel3D.Shape.CUBE.fromRadius(1));
+	}
+
+	private static final ImageStack createMarkers(ImageStack image)
+	{
+		ImageStack minima = MinimaAndMaxima3D.extendedMinima(image, 20, 6);
+		return BinaryImages.componentsLabeling(minima, 6, 32);
+	}
+
+	private static final int countDifferences(ImageStack image1, ImageStack image2)
+	{
+		int count = 0;
+		for (int z = 0; z < image1.getSize(); z++)
+			for (int y = 0; y < image1.getHeight(); y++)
+				for (int x = 0; x < image1.getWidth(); x++)
+					if (image1.getVoxel(x, y, z) != image2.getVoxel(x, y, z))
+						count++;
+		return count;
+	}
+}
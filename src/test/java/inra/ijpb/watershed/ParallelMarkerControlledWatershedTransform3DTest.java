@@ -0,0 +1,236 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.watershed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import inra.ijpb.binary.BinaryImages;
+import inra.ijpb.morphology.MinimaAndMaxima3D;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel3D;
+
+public class ParallelMarkerControlledWatershedTransform3DTest
+{
+	/**
+	 * Checks the result with a single slab is the same as the sequential
+	 * algorithm.
+	 */
+	@Test
+	public void testApplyWithPriorityQueue_SingleSlab()
+	{
+		ImageStack image = createGradientImage();
+		ImageStack markers = createMarkers(image);
+
+		ImageStack expected = Watershed.computeWatershed(image, markers, null, 26, false, false);
+		ParallelMarkerControlledWatershedTransform3D algo = new ParallelMarkerControlledWatershedTransform3D(
+				new ImagePlus("image", image), new ImagePlus("markers", markers), null, 26, 1);
+		ImageStack result = algo.applyWithPriorityQueue().getStack();
+
+		assertEquals(0, countDifferences(expected, result));
+	}
+
+	/**
+	 * Compares the result of the parallel watershed with the sequential one
+	 * on random float images, for several numbers of threads.
+	 */
+	@Test
+	public void testApplyWithPriorityQueue_RandomFloat()
+	{
+		for (long seed = 1; seed <= 2; seed++)
+		{
+			ImageStack image = createRandomImage(seed, 32);
+			ImageStack markers = createRandomMarkers(image, seed);
+			for (int connectivity : new int[] {6, 26})
+				assertSameAsSequential(image, markers, null, connectivity, false);
+		}
+	}
+
+	/**
+	 * Compares the result of the parallel watershed with the sequential one
+	 * on random byte images, with many equal values.
+	 */
+	@Test
+	public void testApplyWithPriorityQueue_RandomByte()
+	{
+		for (long seed = 1; seed <= 2; seed++)
+		{
+			ImageStack image = createRandomImage(seed, 8);
+			ImageStack markers = createRandomMarkers(image, seed);
+			for (int connectivity : new int[] {6, 26})
+				assertSameAsSequential(image, markers, null, connectivity, false);
+		}
+	}
+
+	/**
+	 * Compares the result of the parallel watershed with dams with the
+	 * sequential one on random images.
+	 */
+	@Test
+	public void testApplyWithPriorityQueueAndDams_Random()
+	{
+		for (int bitDepth : new int[] {8, 32})
+		{
+			ImageStack image = createRandomImage(3, bitDepth);
+			ImageStack markers = createRandomMarkers(image, 3);
+			for (int connectivity : new int[] {6, 26})
+				assertSameAsSequential(image, markers, null, connectivity, true);
+		}
+	}
+
+	/**
+	 * Compares the result of the parallel watershed with the sequential one
+	 * on a random image with a mask.
+	 */
+	@Test
+	public void testApplyWithPriorityQueue_RandomWithMask()
+	{
+		ImageStack image = createRandomImage(4, 8);
+		ImageStack markers = createRandomMarkers(image, 4);
+		ImageStack mask = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), 8);
+		for (int z = 0; z < image.getSize(); z++)
+			for (int y = 0; y < image.getHeight(); y++)
+				for (int x = 0; x < image.getWidth(); x++)
+					if ((x - 20) * (x - 20) + (y - 15) * (y - 15) < 200)
+						mask.setVoxel(x, y, z, 255);
+		assertSameAsSequential(image, markers, mask, 6, false);
+		assertSameAsSequential(image, markers, mask, 26, true);
+	}
+
+	/**
+	 * Checks that the parallel result is identical to the sequential one,
+	 * using 2, 4 and 8 threads. No difference is tolerated.
+	 */
+	private static final void assertSameAsSequential(ImageStack image,
+			ImageStack markers, ImageStack mask, int connectivity, boolean dams)
+	{
+		final int tolerance = 0;
+		ImageStack expected = Watershed.computeWatershed(image, markers, mask, connectivity, dams, false);
+		for (int nThreads : new int[] {2, 4, 8})
+		{
+			ImageStack result = Watershed.computeWatershed(image, markers, mask, connectivity, dams, false, nThreads);
+			int nDiffs = countDifferences(expected, result);
+			assertTrue(nDiffs + " differences with " + nThreads + " threads, connectivity "
+					+ connectivity + (dams ? " with dams" : ""), nDiffs <= tolerance);
+		}
+	}
+
+	/**
+	 * Checks the parallel result is the same for two runs, and that all voxels
+	 * are labeled.
+	 */
+	@Test
+	public void testApplyWithPriorityQueue_Deterministic()
+	{
+		ImageStack image = createGradientImage();
+		ImageStack markers = createMarkers(image);
+
+		ImageStack res1 = Watershed.computeWatershed(image, markers, null, 26, false, false, 3);
+		ImageStack res2 = Watershed.computeWatershed(image, markers, null, 26, false, false, 3);
+		assertEquals(0, countDifferences(res1, res2));
+
+		for (int z = 0; z < res1.getSize(); z++)
+			for (int y = 0; y < res1.getHeight(); y++)
+				for (int x = 0; x < res1.getWidth(); x++)
+					assertTrue(res1.getVoxel(x, y, z) > 0);
+	}
+
+	/**
+	 * Checks dams separate the basins.
+	 */
+	@Test
+	public void testApplyWithPriorityQueueAndDams()
+	{
+		ImageStack image = createGradientImage();
+		ImageStack markers = createMarkers(image);
+
+		ImageStack result = Watershed.computeWatershed(image, markers, null, 6, true, false, 4);
+		int sizeX = result.getWidth();
+		int sizeY = result.getHeight();
+		int sizeZ = result.getSize();
+		for (int z = 0; z < sizeZ; z++)
+			for (int y = 0; y < sizeY; y++)
+				for (int x = 0; x < sizeX - 1; x++)
+				{
+					double v1 = result.getVoxel(x, y, z);
+					double v2 = result.getVoxel(x + 1, y, z);
+					assertTrue(v1 == 0 || v2 == 0 || v1 == v2);
+				}
+	}
+
+	private static final ImageStack createGradientImage()
+	{
+		ImagePlus imagePlus = IJ.openImage(ParallelMarkerControlledWatershedTransform3DTest.class
+				.getResource("/files/grains.tif").getFile());
+		ImageStack stack = new ImageStack(imagePlus.getWidth(), imagePlus.getHeight());
+		for (int z = 0; z < 12; z++)
+		{
+			stack.addSlice(imagePlus.getProcessor().duplicate());
+		}
+		return Morphology.gradient(stack, Strel3D.Shape.CUBE.fromRadius(1));
+	}
+
+	private static final ImageStack createRandomImage(long seed, int bitDepth)
+	{
+		Random random = new Random(seed);
+		ImageStack image = ImageStack.create(40, 30, 24, bitDepth);
+		for (int z = 0; z < 24; z++)
+			for (int y = 0; y < 30; y++)
+				for (int x = 0; x < 40; x++)
+					image.setVoxel(x, y, z, bitDepth == 8 ? random.nextInt(256) : random.nextFloat() * 100);
+		return image;
+	}
+
+	private static final ImageStack createRandomMarkers(ImageStack image, long seed)
+	{
+		Random random = new Random(seed + 100);
+		ImageStack markers = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), 32);
+		for (int label = 1; label <= 15; label++)
+			markers.setVoxel(random.nextInt(image.getWidth()), random.nextInt(image.getHeight()),
+					random.nextInt(image.getSize()), label);
+		return markers;
+	}
+
+	private static final ImageStack createMarkers(ImageStack image)
+	{
+		ImageStack minima = MinimaAndMaxima3D.extendedMinima(image, 20, 6);
+		return BinaryImages.componentsLabeling(minima, 6, 32);
+	}
+
+	private static final int countDifferences(ImageStack image1, ImageStack image2)
+	{
+		int count = 0;
+		for (int z = 0; z < image1.getSize(); z++)
+			for (int y = 0; y < image1.getHeight(); y++)
+				for (int x = 0; x < image1.getWidth(); x++)
+					if (image1.getVoxel(x, y, z) != image2.getVoxel(x, y, z))
+						count++;
+		return count;
+	}
+}
@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.watershed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.label.LabelImages;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+public class WatershedHierarchyTest
+{
+	/**
+	 * Checks the number of basins is the same as for extended minima
+	 * watershed, for several dynamics.
+	 */
+	@Test
+	public void testGetBasins_Grains()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/files/grains.tif").getFile());
+		ImageProcessor gradient = Morphology.gradient(imagePlus.getProcessor(), Strel.Shape.SQUARE.fromRadius(1));
+		ImageStack stack = new ImageStack(gradient.getWidth(), gradient.getHeight());
+		stack.addSlice(gradient);
+
+		WatershedHierarchy hierarchy = new WatershedHierarchy(stack, 4, true);
+		hierarchy.compute();
+
+		for (int h : new int[] {10, 20, 40})
+		{
+			ImageStack basins = hierarchy.getBasins(h);
+			ImageProcessor expected = ExtendedMinimaWatershed.extendedMinimaWatershed(gradient, h, 4);
+			assertEquals(LabelImages.findAllLabels(expected).length,
+					LabelImages.findAllLabels(basins.getProcessor(1)).length);
+		}
+	}
+
+	/**
+	 * Checks the saliency map thresholded at a given dynamic corresponds to
+	 * the boundaries of the basins at this dynamic.
+	 */
+	@Test
+	public void testGetSaliencyMap_Grains()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/files/grains.tif").getFile());
+		ImageProcessor gradient = Morphology.gradient(imagePlus.getProcessor(), Strel.Shape.SQUARE.fromRadius(1));
+		ImageStack stack = new ImageStack(gradient.getWidth(), gradient.getHeight());
+		stack.addSlice(gradient);
+
+		WatershedHierarchy hierarchy = new WatershedHierarchy(stack, 8, false);
+		hierarchy.compute();
+		ImageProcessor saliency = hierarchy.getSaliencyMap().getProcessor(1);
+
+		double h = 20;
+		ImageProcessor basins = hierarchy.getBasins(h).getProcessor(1);
+		int sizeX = basins.getWidth();
+		int sizeY = basins.getHeight();
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				boolean boundary = false;
+				for (int dy = -1; dy <= 1; dy++)
+				{
+					for (int dx = -1; dx <= 1; dx++)
+					{
+						int x2 = x + dx, y2 = y + dy;
+						if (x2 < 0 || x2 >= sizeX || y2 < 0 || y2 >= sizeY)
+							continue;
+						if (basins.getf(x2, y2) != basins.getf(x, y))
+							boundary = true;
+					}
+				}
+				assertTrue(boundary == (saliency.getf(x, y) > h));
+			}
+		}
+	}
+}
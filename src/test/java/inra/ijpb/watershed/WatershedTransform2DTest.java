@@ -0,0 +1,87 @@
+/*-
+ * #%L
+ * Mathematical morphology library and plugins for ImageJ/Fiji.
+ * %%
+ * Copyright (C) 2014 - 2026 INRA.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+package inra.ijpb.watershed;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+
+public class WatershedTransform2DTest
+{
+	/**
+	 * Checks the counting sort of 8-bit images gives the same order as the
+	 * sort of the pixel records of the same image converted to float.
+	 */
+	@Test
+	public void testSortPixelIndices_Byte()
+	{
+		ImageProcessor image = loadImage();
+		assertEquals(8, image.getBitDepth());
+
+		int[] expected = new WatershedTransform2D(image.convertToFloat(), null, 4)
+				.sortPixelIndices(image.convertToFloat(), 0, 255);
+		int[] indices = new WatershedTransform2D(image, null, 4)
+				.sortPixelIndices(image, 0, 255);
+
+		assertEquals(image.getPixelCount(), indices.length);
+		assertArrayEquals(expected, indices);
+	}
+
+	/**
+	 * Checks the counting sort of 16-bit images with a value range and a
+	 * mask.
+	 */
+	@Test
+	public void testSortPixelIndices_ShortWithRangeAndMask()
+	{
+		ImageProcessor image = loadImage().convertToShort(false);
+		ImageProcessor mask = image.duplicate().convertToByte(false);
+		mask.threshold(100);
+
+		int[] expected = new WatershedTransform2D(image.convertToFloat(), mask, 4)
+				.sortPixelIndices(image.convertToFloat(), 20, 200);
+		int[] indices = new WatershedTransform2D(image, mask, 4)
+				.sortPixelIndices(image, 20, 200);
+		assertArrayEquals(expected, indices);
+
+		for (int i = 0; i < indices.length; i++)
+		{
+			int value = image.get(indices[i]);
+			assertTrue(value >= 20 && value <= 200);
+			assertTrue(mask.get(indices[i]) > 0);
+			if (i > 0)
+				assertTrue(image.get(indices[i - 1]) <= value);
+		}
+	}
+
+	private ImageProcessor loadImage()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/files/grains.tif").getFile());
+		return imagePlus.getProcessor();
+	}
+}